@@ -8,7 +8,6 @@ import edu.mit.csail.sdg.ast.Sig;
 import edu.mit.csail.sdg.translator.*;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.*;
 
 /**
@@ -19,8 +18,8 @@ public final class QuantitativeInstanceReader extends StaticInstanceReader{
     private Map<AlloyRelation, Map<AlloyTuple, String>> qtrel = null;
     private Map<AlloyAtom, Map<String, String>> qtsig = null;
 
-    private QuantitativeInstanceReader(XMLNode root) throws Err {
-        super(root);
+    private QuantitativeInstanceReader(XMLNode root, A4Solution sol) throws Err {
+        super(root, sol);
     }
 
     /**
@@ -119,12 +118,12 @@ public final class QuantitativeInstanceReader extends StaticInstanceReader{
         rels.put(rel, ts);
     }
 
-    /** Parse the file into an quantitative AlloyInstance if possible. */
+    /**
+     * Parse the file into an quantitative AlloyInstance if possible.
+     * The tuples of its relations are streamed from the file, rather than read into memory beforehand.
+     */
     public static AlloyInstance parseInstance(File file) throws Err {
-        try {
-            return (new QuantitativeInstanceReader(new XMLNode(file))).ans;
-        } catch (IOException ex) {
-            throw new ErrorFatal("Error reading the XML file: " + ex, ex);
-        }
+        XMLNode root = A4QtSolutionReader.skeleton(file);
+        return (new QuantitativeInstanceReader(root, A4QtSolutionReader.read(new ArrayList<Sig>(), root, file))).ans;
     }
 }
@@ -306,6 +306,14 @@ public class StaticInstanceReader {
 
     /** Parse the file into an AlloyInstance if possible. */
     protected StaticInstanceReader(XMLNode root) throws Err {
+        this(root, null);
+    }
+
+    /**
+     * Parse the file into an AlloyInstance if possible, given the solution it
+     * holds, if already read, or null otherwise.
+     */
+    protected StaticInstanceReader(XMLNode root, A4Solution sol) throws Err {
         XMLNode inst = null;
         for (XMLNode sub : root)
             if (sub.is("instance")) {
@@ -315,7 +323,8 @@ public class StaticInstanceReader {
         if (inst == null)
             throw new ErrorSyntax("The XML file must contain an <instance> element.");
         boolean isMeta = "yes".equals(inst.getAttribute("metamodel"));
-        A4Solution sol = readSolution(root);
+        if (sol == null)
+            sol = readSolution(root);
         for (Sig s : sol.getAllReachableSigs())
             if (s instanceof PrimSig && ((PrimSig) s).parent == Sig.UNIV)
                 toplevels.add((PrimSig) s);
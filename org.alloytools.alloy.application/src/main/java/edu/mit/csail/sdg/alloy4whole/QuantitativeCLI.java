@@ -0,0 +1,424 @@
+package edu.mit.csail.sdg.alloy4whole;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.mit.csail.sdg.alloy4.A4QtReporter;
+import edu.mit.csail.sdg.alloy4.ErrorWarning;
+import edu.mit.csail.sdg.ast.Command;
+import edu.mit.csail.sdg.ast.Module;
+import edu.mit.csail.sdg.parser.CompUtil;
+import edu.mit.csail.sdg.translator.A4Options;
+import edu.mit.csail.sdg.translator.A4Solution;
+import edu.mit.csail.sdg.translator.TranslateQTAlloyToKodkod;
+import kodkod.engine.config.QuantitativeOptions;
+
+/**
+ * Headless runner of the quantitative analysis, e.g., to run a regression corpus.
+ * Every command of the given .als files (or of the .als files found under the given directories)
+ * is executed, and its outcome is written as one JSON object per line, as soon as it finishes.
+ * <p>
+ * Usage: {@code QuantitativeCLI [-solver CVC4|Z3|MathSAT|Yices] [-bin path] [-j threads] [-timeout ms]
+ * [-enum n] [-out file] (file.als | directory)...}
+ * <ul>
+ * <li>{@code -solver}: quantitative solver (CVC4 by default);</li>
+ * <li>{@code -bin}: path to the solver binary (by default, the one given by the solver's environment variable);</li>
+ * <li>{@code -j}: number of commands executed concurrently (the number of processors by default);</li>
+ * <li>{@code -timeout}: maximum time, in milliseconds, of each check of the solver (none by default);</li>
+ * <li>{@code -enum}: maximum number of instances enumerated per satisfiable command (1 by default);</li>
+ * <li>{@code -out}: file the results are written to (the standard output by default).</li>
+ * </ul>
+ * Each line holds: file, command, label, outcome (SAT, UNSAT, UNKNOWN, TIMEOUT or ERROR),
+ * expected (whether the outcome agrees with the command's expect clause, if any), instances,
+ * translation and solving times, primary variables, function symbols, assertions, peak heap and,
+ * if the outcome is ERROR, the error message.
+ * The peak heap is measured over the whole virtual machine, and thus only per command if {@code -j 1}.
+ * <p>
+ * Exits with status 1 if some command failed, or contradicted its expect clause, and 0 otherwise.
+ */
+public final class QuantitativeCLI {
+
+    private QuantitativeCLI() {}
+
+    /**
+     * Reporter that records the solving metrics of a single command.
+     */
+    private static final class MetricsReporter extends A4QtReporter {
+
+        private int  primaryVariables, functionSymbols, assertions;
+        private long translationTime, solvingTime;
+
+        @Override
+        public void smt2(int primaryVar, int fs, int assertions, long translationTime) {
+            this.primaryVariables = primaryVar;
+            this.functionSymbols = fs;
+            this.assertions = assertions;
+            this.translationTime = translationTime;
+        }
+
+        @Override
+        public void resultSAT(Object command, long solvingTime, Object solution) {
+            this.solvingTime = solvingTime;
+        }
+
+        @Override
+        public void resultUNKNOWN(Object command, long solvingTime, Object solution) {
+            this.solvingTime = solvingTime;
+        }
+
+        @Override
+        public void resultUNSAT(Object command, long solvingTime, Object solution) {
+            this.solvingTime = solvingTime;
+        }
+
+        @Override
+        public void warning(ErrorWarning msg) {
+            newWarning();
+        }
+    }
+
+    /**
+     * Options of a run, as given on the command line.
+     */
+    private static final class Settings {
+
+        String       solver    = "CVC4";
+        String       binary    = null;
+        int          threads   = Runtime.getRuntime().availableProcessors();
+        long         timeout   = 0;
+        int          enumerate = 1;
+        String       out       = null;
+        List<String> paths     = new ArrayList<String>();
+    }
+
+    /**
+     * Outcome of a command, or of a file that could not be parsed, as reported on one JSON line.
+     */
+    private static final class Result {
+
+        final File    file;
+        final int     index;
+        final Command cmd;
+        String        outcome;
+        Boolean       expected;
+        int           instances;
+        long          translationTime, solvingTime, enumerationTime, peakHeap;
+        int           primaryVariables, functionSymbols, assertions;
+        String        error;
+
+        Result(File file, int index, Command cmd) {
+            this.file = file;
+            this.index = index;
+            this.cmd = cmd;
+        }
+
+        /**
+         * @return true iff the command failed, or contradicted its expect clause
+         */
+        boolean failed() {
+            return error != null || Boolean.FALSE.equals(expected);
+        }
+
+        /**
+         * @return the JSON line that reports this outcome
+         */
+        String toJson() {
+            final StringBuilder sb = new StringBuilder("{\"file\":");
+            json(sb, file.getPath());
+            sb.append(",\"command\":").append(index);
+            sb.append(",\"label\":");
+            if (cmd != null)
+                json(sb, cmd.label);
+            else
+                sb.append("null");
+            sb.append(",\"outcome\":\"").append(outcome).append('"');
+            if (error != null) {
+                sb.append(",\"error\":");
+                json(sb, error);
+                return sb.append('}').toString();
+            }
+            sb.append(",\"expected\":").append(expected);
+            sb.append(",\"instances\":").append(instances);
+            sb.append(",\"translationMs\":").append(translationTime);
+            sb.append(",\"solveMs\":").append(solvingTime);
+            sb.append(",\"enumerationMs\":").append(enumerationTime);
+            sb.append(",\"primaryVariables\":").append(primaryVariables);
+            sb.append(",\"functionSymbols\":").append(functionSymbols);
+            sb.append(",\"assertions\":").append(assertions);
+            sb.append(",\"peakHeapBytes\":").append(peakHeap);
+            return sb.append('}').toString();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Settings settings;
+        try {
+            settings = parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: QuantitativeCLI [-solver CVC4|Z3|MathSAT|Yices] [-bin path] [-j threads] [-timeout ms] [-enum n] [-out file] (file.als | directory)...");
+            System.exit(2);
+            return;
+        }
+
+        final List<File> files = new ArrayList<File>();
+        for (String path : settings.paths)
+            collect(new File(path), files);
+
+        final PrintWriter out = settings.out == null ? new PrintWriter(new OutputStreamWriter(System.out, "UTF-8")) : new PrintWriter(new OutputStreamWriter(new FileOutputStream(settings.out), "UTF-8"));
+        final ExecutorService pool = Executors.newFixedThreadPool(settings.threads, r -> {
+            final Thread t = new Thread(r, "QuantitativeCLI");
+            t.setDaemon(true);
+            return t;
+        });
+        boolean failed = false;
+        try {
+            final CompletionService<Result> done = new ExecutorCompletionService<Result>(pool);
+            int submitted = 0;
+            for (File file : files) {
+                final Module world;
+                try {
+                    world = CompUtil.parseEverything_fromFile_cached(new MetricsReporter(), null, file.getPath());
+                } catch (Throwable ex) {
+                    out.println(error(file, -1, null, ex).toJson());
+                    out.flush();
+                    failed = true;
+                    continue;
+                }
+                // The facts are translated once per scope, and shared by the commands of that scope
+                final int commands = world.getAllCommands().size();
+                final TranslateQTAlloyToKodkod.Session session = new TranslateQTAlloyToKodkod.Session(world.getAllReachableSigs(), world.getAllReachableFacts(), options(settings, file), settings.binary);
+                final AtomicInteger remaining = new AtomicInteger(commands);
+                for (int i = 0; i < commands; i++) {
+                    final int index = i;
+                    done.submit(() -> {
+                        try {
+                            return execute(settings, file, world, index, session);
+                        } finally {
+                            if (remaining.decrementAndGet() == 0)
+                                session.free();
+                        }
+                    });
+                    submitted++;
+                }
+            }
+            for (int n = 0; n < submitted; n++) {
+                final Result result = done.take().get();
+                failed |= result.failed();
+                out.println(result.toJson());
+                out.flush();
+            }
+        } finally {
+            pool.shutdownNow();
+            out.flush();
+            if (settings.out != null)
+                out.close();
+        }
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * @throws IllegalArgumentException the arguments are malformed
+     */
+    private static Settings parse(String[] args) {
+        final Settings settings = new Settings();
+        for (int i = 0; i < args.length; i++) {
+            final String arg = args[i];
+            if (!arg.startsWith("-")) {
+                settings.paths.add(arg);
+                continue;
+            }
+            if (i + 1 == args.length)
+                throw new IllegalArgumentException("Missing value of " + arg);
+            final String value = args[++i];
+            try {
+                switch (arg) {
+                    case "-solver" :
+                        if (!QuantitativeOptions.contains(value))
+                            throw new IllegalArgumentException("There is no such solver " + value);
+                        settings.solver = value;
+                        break;
+                    case "-bin" :
+                        settings.binary = value;
+                        break;
+                    case "-j" :
+                        settings.threads = Integer.parseInt(value);
+                        if (settings.threads < 1)
+                            throw new IllegalArgumentException("Expected a positive number of threads, given " + value);
+                        break;
+                    case "-timeout" :
+                        settings.timeout = Long.parseLong(value);
+                        if (settings.timeout < 0)
+                            throw new IllegalArgumentException("Expected a non-negative timeout, given " + value);
+                        break;
+                    case "-enum" :
+                        settings.enumerate = Integer.parseInt(value);
+                        if (settings.enumerate < 1)
+                            throw new IllegalArgumentException("Expected a positive enumeration limit, given " + value);
+                        break;
+                    case "-out" :
+                        settings.out = value;
+                        break;
+                    default :
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Expected a number after " + arg + ", given " + value);
+            }
+        }
+        if (settings.paths.isEmpty())
+            throw new IllegalArgumentException("No .als file or directory given");
+        return settings;
+    }
+
+    /**
+     * Adds the given .als file, or the .als files under the given directory, in name order, to the list.
+     */
+    private static void collect(File path, List<File> files) {
+        if (path.isDirectory()) {
+            final File[] children = path.listFiles();
+            if (children == null)
+                return;
+            Arrays.sort(children);
+            for (File child : children)
+                if (child.isDirectory() || child.getName().endsWith(".als"))
+                    collect(child, files);
+        } else
+            files.add(path);
+    }
+
+    /**
+     * @return the options of the analysis of the given file
+     */
+    private static A4Options options(Settings settings, File file) {
+        final A4Options options = new A4Options();
+        options.originalFilename = file.getPath();
+        options.analysisType = "Integer";
+        options.quantitativeSolver = settings.solver;
+        options.quantitativeTimeout = settings.timeout;
+        return options;
+    }
+
+    /**
+     * Executes the command with the given index of the given module, over the given session.
+     * The solver that enumerates its instances, if any, is released before returning.
+     * @return the outcome of the command
+     */
+    private static Result execute(Settings settings, File file, Module world, int index, TranslateQTAlloyToKodkod.Session session) {
+        final Command cmd = world.getAllCommands().get(index);
+        A4Solution sol = null;
+        try {
+            if (settings.threads == 1)
+                for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+                    pool.resetPeakUsage();
+
+            final MetricsReporter rep = new MetricsReporter();
+            sol = session.execute(rep, cmd);
+
+            final Result result = new Result(file, index, cmd);
+            if (sol.satisfiable()) {
+                result.outcome = "SAT";
+                result.instances = 1;
+                final long start = System.currentTimeMillis();
+                while (result.instances < settings.enumerate && sol.isIncremental()) {
+                    sol = sol.next();
+                    if (!sol.satisfiable())
+                        break;
+                    result.instances++;
+                }
+                result.enumerationTime = System.currentTimeMillis() - start;
+            } else if (sol.unknown())
+                result.outcome = settings.timeout > 0 && rep.solvingTime >= settings.timeout ? "TIMEOUT" : "UNKNOWN";
+            else
+                result.outcome = "UNSAT";
+
+            // expect 1 means an instance is expected, expect 0 means none is, for runs and checks alike
+            if (cmd.expects >= 0 && (result.outcome.equals("SAT") || result.outcome.equals("UNSAT")))
+                result.expected = (cmd.expects == 1) == result.outcome.equals("SAT");
+            result.translationTime = rep.translationTime;
+            result.solvingTime = rep.solvingTime;
+            result.primaryVariables = rep.primaryVariables;
+            result.functionSymbols = rep.functionSymbols;
+            result.assertions = rep.assertions;
+            result.peakHeap = peakHeap();
+            return result;
+        } catch (Throwable ex) {
+            return error(file, index, cmd, ex);
+        } finally {
+            // Every solution of the enumeration shares its solver, so freeing the last one releases it
+            if (sol != null)
+                try {
+                    sol.free();
+                } catch (Throwable ex) {
+                    // The outcome is already known
+                }
+        }
+    }
+
+    /**
+     * @return the outcome that reports the given failure
+     */
+    private static Result error(File file, int index, Command cmd, Throwable ex) {
+        final Result result = new Result(file, index, cmd);
+        result.outcome = "ERROR";
+        result.error = ex.getMessage() != null ? ex.getMessage().trim() : ex.toString();
+        return result;
+    }
+
+    /**
+     * Appends the given string as a JSON string literal.
+     */
+    private static void json(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            switch (c) {
+                case '"' :
+                    sb.append("\\\"");
+                    break;
+                case '\\' :
+                    sb.append("\\\\");
+                    break;
+                case '\n' :
+                    sb.append("\\n");
+                    break;
+                case '\r' :
+                    sb.append("\\r");
+                    break;
+                case '\t' :
+                    sb.append("\\t");
+                    break;
+                default :
+                    if (c < 0x20)
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else
+                        sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * @return the sum of the peak usages of the heap memory pools, in bytes
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null)
+                peak += pool.getPeakUsage().getUsed();
+        return peak;
+    }
+}
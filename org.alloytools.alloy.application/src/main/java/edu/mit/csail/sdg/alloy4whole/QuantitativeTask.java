@@ -10,6 +10,8 @@ import edu.mit.csail.sdg.translator.TranslateQTAlloyToKodkod;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
 
 /**
  * Task that handles one or more quantitative solutions.
@@ -33,13 +35,20 @@ public class QuantitativeTask implements WorkerEngine.WorkerTask {
     private static String                  latestKodkodXML    = null;
     //private static final Set<String>       latestKodkods      = new LinkedHashSet<String>();
 
-    /* Set Commands that obtained the UNKOWN response. */
-    private Set<String> unknownCmds;
-    /* For each command, saves the time it took for the solver to terminate. */
-    private Map<Command, Long> solvingTimes;
+    // Session over the facts of the latest prepared world, kept for the next execution of the command it was prepared for
+    private static TranslateQTAlloyToKodkod.Session preparedSession = null;
+    private static Module                           preparedWorld   = null;
+    private static String                           preparedOptions = null;
+    private static int                              preparedCommand = -1;
 
     public String filename;
 
+    /**
+     * True if this task only prepares the command at bundleIndex, by translating the facts of its scope
+     * into a live solver ahead of its execution; nothing is reported back, and failures are left to the execution.
+     */
+    public boolean prepare;
+
     public QuantitativeTask(A4Options options, int bundleIndex, int resolutionMode, Map<String, String> map, String tmp, String solverLocation, boolean bundleWarningNonFatal){
         this.options = options;
         this.bundleIndex = bundleIndex;
@@ -48,8 +57,6 @@ public class QuantitativeTask implements WorkerEngine.WorkerTask {
         this.tempdir = tmp;
         this.filename = null;
         this.solverBinary = solverLocation;
-        this.unknownCmds = new TreeSet<>();
-        this.solvingTimes = new HashMap<>();
         this.bundleWarningNonFatal = bundleWarningNonFatal;
     }
 
@@ -66,29 +73,213 @@ public class QuantitativeTask implements WorkerEngine.WorkerTask {
     /**
      * Logs the result of a single command.
      */
-    private void result(Command r, String result, Long time){
+    private void result(CommandRun r, Long time){
+        final Command cmd = r.cmd;
         cb("  ");
-        if (result.endsWith(".xml")) { // SAT
-            cbLink(r.check ? "Counterexample found. " : "Instance found. ", "XML: " + result);
-            cb(r.label + (r.check ? " is invalid." : " is consistent."));
+        if (r.xml.endsWith(".xml")) { // SAT
+            cbLink(cmd.check ? "Counterexample found. " : "Instance found. ", "XML: " + r.xml);
+            cb(cmd.label + (cmd.check ? " is invalid." : " is consistent."));
         }
-        else if(unknownCmds.contains(r.toString())) { // UNKNOWN
-            cb("The solver was unable to determine the satisfiability of " + r.label + ",\n  delivering the");
+        else if(r.unknown) { // UNKNOWN
+            cb("The solver was unable to determine the satisfiability of " + cmd.label + ",\n  delivering the");
             cbBold(" unknown");
             cb(" response.");
         }
         else{ // UNSAT
 
             //CHECK
-            if (r.check)
-                cb("No counterexample found. " + r.label + " may be valid.");
+            if (cmd.check)
+                cb("No counterexample found. " + cmd.label + " may be valid.");
             else
-                cb("No instance found. " + r.label + " may be inconsistent.");
+                cb("No instance found. " + cmd.label + " may be inconsistent.");
         }
-        cb(" " + solvingTimes.getOrDefault(r, 0L) + "ms.\n");
+        cb(" " + r.solvingTime + "ms.\n");
         if(time != null) cbKeyValue("  Elapsed time: ", + time + "ms.\n");
     }
 
+    /**
+     * Reporter to log the interesting solving details and metrics along with the flow of this task.
+     * The messages are handed to the given sink, and the outcome of each command is recorded in the given run, if any.
+     */
+    private final class QtReporter extends A4QtReporter {
+
+        private final String INITIAL_SPACE = "  ";
+        private final Consumer<Object[]> sink;
+        private final CommandRun run;
+
+        QtReporter(Consumer<Object[]> sink, CommandRun run) {
+            this.sink = sink;
+            this.run = run;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void translate(String solver, Integer maxWeight) {
+            sink.accept(new Object[]{"", INITIAL_SPACE + "Solver=" +  solver + " " + options.analysisType + "\n"});
+            //cb(INITIAL_SPACE + "Maximum weight=" + (maxWeight != null ? maxWeight : "unlimited") + "\n");
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void smt2(int primaryVar, int fs, int assertions, long translationTime) {
+            sink.accept(new Object[]{"", INITIAL_SPACE +
+                    primaryVar + " primary variables, " +
+                    fs + " function symbols, " +
+                    assertions + " assertions. " +
+                    translationTime + "ms.\n"});
+        }
+
+        /**
+         * Helper method to handle a given command and its solving time for some result.
+         * @return command is a valid Command object
+         */
+        private boolean result(Object command, long solvingTime) {
+            boolean validCommand;
+            if((validCommand = command instanceof Command) && run != null)
+                run.solvingTime = solvingTime;
+            return validCommand;
+        }
+
+        /**
+         * Called to report the SAT outcome obtained when solving the quantitative problem at hand.
+         *
+         * @param command Original command
+         * @param solvingTime The time it took the solver to terminate, in milliseconds.
+         * @param solution The resulting A4Solution object for this problem.
+         */
+        @Override
+        public void resultSAT(Object command, long solvingTime, Object solution) {
+            result(command, solvingTime);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void resultUNKNOWN(Object command, long solvingTime, Object solution) {
+            if(result(command, solvingTime) && run != null)
+                run.unknown = true;
+        }
+
+        /**
+         * Called to report the UNSAT outcome obtained when solving the quantitative problem at hand.
+         *
+         * @param command Original command
+         * @param solvingTime The time it took the solver to terminate, in milliseconds.
+         * @param solution The resulting A4Solution object for this problem.
+         */
+        @Override
+        public void resultUNSAT(Object command, long solvingTime, Object solution) {
+            result(command, solvingTime);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void warning(ErrorWarning msg) {
+            this.newWarning();
+            sink.accept(new Object[]{"warning", msg});
+        }
+    }
+
+    /**
+     * Translation and solving of a single command, together with its outcome.
+     * Every field is confined to the thread that runs the command until it finishes,
+     * and only read by the thread of the task afterwards.
+     */
+    private final class CommandRun implements Callable<CommandRun> {
+
+        private final Module world;
+        private final int index;
+        private final Command cmd;
+        // Session shared with the other commands of the world, if any
+        private final TranslateQTAlloyToKodkod.Session session;
+        // Messages logged while running, replayed on the task's callback once the command finishes
+        private final List<Object[]> messages;
+        private final QtReporter rep;
+        // XML file of the solution, if SAT; empty otherwise
+        private String xml = "";
+        private A4Solution sol;
+        private boolean unknown;
+        private long solvingTime, elapsedTime;
+
+        /**
+         * @param buffered whether the messages are buffered until the command finishes, rather than logged straight away
+         */
+        CommandRun(Module world, int index, boolean buffered, TranslateQTAlloyToKodkod.Session session) {
+            this.world = world;
+            this.index = index;
+            this.cmd = world.getAllCommands().get(index);
+            this.session = session;
+            this.messages = buffered ? new ArrayList<>() : null;
+            this.rep = new QtReporter(buffered ? messages::add : wcb::callback, this);
+        }
+
+        @Override
+        public CommandRun call() throws Err {
+            final String tempXML = tempdir + File.separatorChar + index + ".smt2.xml";
+            /* Solve */
+            long time = System.currentTimeMillis();
+            sol = session != null ? session.execute(rep, cmd) : TranslateQTAlloyToKodkod.execute_command(rep, world.getAllReachableSigs(), cmd, options, solverBinary);
+            elapsedTime = System.currentTimeMillis() - time;
+
+            // SAT
+            if (sol.satisfiable()) {
+                sol.writeXML(tempXML, null, latestKodkodSRC);
+                xml = tempXML;
+            }
+            else if(sol.unknown()) // UNKNOWN
+                unknown = true;
+            return this;
+        }
+
+        /**
+         * Replays the messages logged by this command, and publishes its solution, if any;
+         * otherwise, its solution is freed, since it is never enumerated.
+         * Called by the thread of the task, once the command finishes.
+         */
+        void report() throws Err {
+            if (messages != null)
+                for (Object[] msg : messages)
+                    wcb.callback(msg);
+            if (!xml.isEmpty()) {
+                cbDeclare(xml);
+                synchronized (SimpleReporter.class) {
+                    replaceCurrent(sol);
+                    latestKodkodXML = xml;
+                    /*latestKodkods.clear();
+                    latestKodkods.add(sol.toString());*/
+                }
+            } else if (sol != null)
+                sol.free();
+        }
+    }
+
+    /**
+     * Makes the given solution the current one, and frees the one it replaces, if any, so that the
+     * process of its SMT solver does not outlive it; if the given solution is the next one of the
+     * replaced solution, the enumeration goes on with it.
+     * @requires Thread.holdsLock(SimpleReporter.class)
+     */
+    private static void replaceCurrent(A4Solution sol) throws Err {
+        if (currentSol != null && currentSol != sol)
+            currentSol.free();
+        currentSol = sol;
+    }
+
+    /**
+     * Returns the number of threads that execute the given number of commands concurrently,
+     * bounded by the number of available processors, since each one drives its own SMT solver process.
+     */
+    private static int threads(int commands) {
+        return Math.max(1, Math.min(commands, Runtime.getRuntime().availableProcessors()));
+    }
+
     @Override
     public void run(WorkerEngine.WorkerCallback out) throws Exception {
         this.wcb = out;
@@ -97,162 +288,146 @@ public class QuantitativeTask implements WorkerEngine.WorkerTask {
             new QTEnumerationTask().run(out);
             return;
         }
-        //else deal with a single command
-
-        this.unknownCmds = new TreeSet<>();
-        this.solvingTimes = new HashMap<>();
-        // Reporter to log the interesting solving details and metrics along with the flow of this task.
-        A4QtReporter rep = new A4QtReporter(){
-            private final String INITIAL_SPACE = "  ";
-
-            /**
-             * {@inheritDoc}
-             */
-            @Override
-            public void translate(String solver, Integer maxWeight) {
-                cb(INITIAL_SPACE + "Solver=" +  solver + " " + options.analysisType + "\n");
-                //cb(INITIAL_SPACE + "Maximum weight=" + (maxWeight != null ? maxWeight : "unlimited") + "\n");
-            }
-
-            /**
-             * {@inheritDoc}
-             */
-            @Override
-            public void smt2(int primaryVar, int fs, int assertions, long translationTime) {
-                cb(INITIAL_SPACE +
-                        primaryVar + " primary variables, " +
-                        fs + " function symbols, " +
-                        assertions + " assertions. " +
-                        translationTime + "ms.\n");
-            }
-
-            /**
-             * Helper method to handle a given command and its solving time for some result.
-             * @return command is a valid Command object
-             */
-            private boolean result(Object command, long solvingTime) {
-                boolean validCommand;
-                if((validCommand = command instanceof Command))
-                    solvingTimes.put((Command)command, solvingTime);
-                return validCommand;
-            }
+        //else deal with a single command, or with every command concurrently
 
-            /**
-             * Called to report the SAT outcome obtained when solving the quantitative problem at hand.
-             *
-             * @param command Original command
-             * @param solvingTime The time it took the solver to terminate, in milliseconds.
-             * @param solution The resulting A4Solution object for this problem.
-             */
-            @Override
-            public void resultSAT(Object command, long solvingTime, Object solution) {
-                result(command, solvingTime);
-            }
-
-            /**
-             * {@inheritDoc}
-             */
-            @Override
-            public void resultUNKNOWN(Object command, long solvingTime, Object solution) {
-                if(result(command, solvingTime))
-                    unknownCmds.add(((Command)command).toString());
-            }
-
-            /**
-             * Called to report the UNSAT outcome obtained when solving the quantitative problem at hand.
-             *
-             * @param command Original command
-             * @param solvingTime The time it took the solver to terminate, in milliseconds.
-             * @param solution The resulting A4Solution object for this problem.
-             */
-            @Override
-            public void resultUNSAT(Object command, long solvingTime, Object solution) {
-                result(command, solvingTime);
-            }
+        if (prepare) {
+            prepare();
+            return;
+        }
 
-            /**
-             * {@inheritDoc}
-             */
-            @Override
-            public void warning(ErrorWarning msg) {
-                this.newWarning();
-                cbWarning(msg);
-            }
-        };
+        final QtReporter rep = new QtReporter(wcb::callback, null);
 
-        final Module world = CompUtil.parseEverything_fromFile(rep, map, options.originalFilename, resolutionMode);
+        final Module world = CompUtil.parseEverything_fromFile_cached(rep, map, options.originalFilename, resolutionMode);
         final ConstList<Command> cmds = world.getAllCommands();
 
         cbWarnings();
         if(rep.getNumberOfWarnings() > 0 && !bundleWarningNonFatal)
             return;
 
-        List<String> result = new ArrayList<String>(cmds.size());
-        Map<Integer, Long> elapsedTimes = new HashMap<>();
-        for (int i = 0; i < cmds.size(); i++)
-            if (bundleIndex < 0 || i == bundleIndex) {
-                synchronized (SimpleReporter.class) {
-                    currentModule = world;
-                    latestKodkodSRC = ConstMap.make(map);
-                }
+        synchronized (SimpleReporter.class) {
+            currentModule = world;
+            latestKodkodSRC = ConstMap.make(map);
+        }
 
-                final Command cmd = cmds.get(i);
-                cbBold("Executing \"" + cmd + "\"\n");
-
-                final String tempXML = tempdir + File.separatorChar + i + ".smt2.xml";
-                /* Solve */
-                long time = System.currentTimeMillis();
-                A4Solution sol = TranslateQTAlloyToKodkod.execute_command(rep, world.getAllReachableSigs(), cmd, options, solverBinary);
-                time = System.currentTimeMillis() - time;
-                elapsedTimes.put(i, time);
-
-                // SAT
-                if (sol.satisfiable()) {
-                    sol.writeXML(tempXML, null, latestKodkodSRC);
-                    cbDeclare(tempXML);
-                    synchronized (SimpleReporter.class) {
-                        currentSol = sol;
-                        latestKodkodXML = tempXML;
-                        /*latestKodkods.clear();
-                        latestKodkods.add(sol.toString());*/
-                    }
-                    result.add(tempXML);
+        final List<CommandRun> runs = new ArrayList<>(cmds.size());
+        int warnings = rep.getNumberOfWarnings();
+        final long start = System.currentTimeMillis();
+        if (bundleIndex >= 0 || cmds.size() == 1) {
+            for (int i = 0; i < cmds.size(); i++)
+                if (bundleIndex < 0 || i == bundleIndex) {
+                    final CommandRun run = new CommandRun(world, i, false, preparedSession(world, i, false));
+                    cbBold("Executing \"" + run.cmd + "\"\n");
+                    run.call();
+                    run.report();
+                    runs.add(run);
+                    warnings += run.rep.getNumberOfWarnings();
+                }
+        } else if (!cmds.isEmpty()) {
+            // Execute all: each command is translated and solved on a pool thread, and its log is streamed back
+            // as soon as it finishes. The facts are translated once per scope, and shared by the commands of that scope
+            cbBold("Executing " + cmds.size() + " commands concurrently\n");
+            final TranslateQTAlloyToKodkod.Session session = new TranslateQTAlloyToKodkod.Session(world.getAllReachableSigs(), world.getAllReachableFacts(), options, solverBinary);
+            final ExecutorService pool = Executors.newFixedThreadPool(threads(cmds.size()), r -> {
+                final Thread t = new Thread(r, "QuantitativeTask");
+                t.setDaemon(true);
+                return t;
+            });
+            try {
+                final CompletionService<CommandRun> done = new ExecutorCompletionService<>(pool);
+                for (int i = 0; i < cmds.size(); i++) {
+                    final CommandRun run = new CommandRun(world, i, true, session);
+                    runs.add(run);
+                    done.submit(run);
                 }
-                else{ // UNKNOWN or UNSAT
-                    if(sol.unknown()) // UNKNOWN
-                        unknownCmds.add(cmd.toString());
-                    result.add("");
+                for (int n = 0; n < cmds.size(); n++) {
+                    final CommandRun run;
+                    try {
+                        run = done.take().get();
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof Exception)
+                            throw (Exception) e.getCause();
+                        throw e;
+                    }
+                    cbBold("Executed \"" + run.cmd + "\"\n");
+                    run.report();
+                    result(run, run.elapsedTime);
+                    warnings += run.rep.getNumberOfWarnings();
                 }
+            } finally {
+                pool.shutdownNow();
+                session.free();
             }
+        }
 
         (new File(tempdir)).delete(); // In case it was UNSAT, or
         // canceled...
 
         //A single command was executed
-        if(result.size() == 1){
-            result(world.getAllCommands().get(bundleIndex), result.get(0), elapsedTimes.get(bundleIndex));
+        if(runs.size() == 1){
+            result(runs.get(0), runs.get(0).elapsedTime);
         }
-        else if (result.size() > 1) {
-            cbBold(result.size() + " commands were executed. The results are:\n");
-
-            for (int i = 0; i < result.size(); i++) {
-                Command r = world.getAllCommands().get(i);
-                if (result.get(i) == null) {
-                    cb("   #" + (i + 1) + ": Unknown command.\n");
-                    continue;
-                }
+        else if (runs.size() > 1) {
+            cbBold(runs.size() + " commands were executed. The results are:\n");
+
+            for (int i = 0; i < runs.size(); i++) {
                 cb("   #" + (i + 1) + ": ");
-                result(r, result.get(i), null);
+                result(runs.get(i), null);
             }
-           cbKeyValue("Elapsed time: ", elapsedTimes.values().stream().mapToLong(Long::longValue).sum() + "ms.\n");
+            // The commands overlap, so the elapsed time is the wall-clock time of the whole execution
+            cbKeyValue("Elapsed time: ", (System.currentTimeMillis() - start) + "ms.\n");
         }
 
-        if (rep.getNumberOfWarnings() > 1)
-            cbBold("Note: There were " + rep.getNumberOfWarnings() + " compilation warnings. Please scroll up to see them.\n");
-        if (rep.getNumberOfWarnings() == 1)
+        if (warnings > 1)
+            cbBold("Note: There were " + warnings + " compilation warnings. Please scroll up to see them.\n");
+        if (warnings == 1)
             cbBold("Note: There was 1 compilation warning. Please scroll up to see it.\n");
     }
 
+    /**
+     * Returns a key that identifies the options that the translation of a command depends on.
+     */
+    private String optionsKey() {
+        return options.analysisType + " " + options.quantitativeSolver + " " + options.quantitativeTimeout + " " + options.inferPartialInstance + " " + options.skolemDepth + " " + options.unrolls + " " + options.noOverflow + " " + options.symmetry + " " + solverBinary;
+    }
+
+    /**
+     * If create is true, returns the session kept for the given world, if it was created with the same
+     * options, or else a new session that is kept from now on; either way, the session is then prepared
+     * for the command at the given index. Otherwise, returns the session kept for the given world, if it
+     * was created with the same options and prepared for the command at the given index, or else null.
+     * A session kept for another world, or with other options, is released.
+     */
+    private TranslateQTAlloyToKodkod.Session preparedSession(Module world, int index, boolean create) {
+        final String key = optionsKey();
+        synchronized (SimpleReporter.class) {
+            if (preparedWorld != world || !key.equals(preparedOptions)) {
+                if (preparedSession != null)
+                    preparedSession.free();
+                preparedSession = create ? new TranslateQTAlloyToKodkod.Session(world.getAllReachableSigs(), world.getAllReachableFacts(), options, solverBinary) : null;
+                preparedWorld = create ? world : null;
+                preparedOptions = create ? key : null;
+                preparedCommand = -1;
+            }
+            if (create)
+                preparedCommand = index;
+            return preparedCommand == index ? preparedSession : null;
+        }
+    }
+
+    /**
+     * Parses the world, and translates the facts for the scope of the command at bundleIndex into
+     * the session kept for that world; the parse is cached, so the execution of that command then
+     * finds the same world, and only translates and checks its goal.
+     */
+    private void prepare() throws Err {
+        final QtReporter rep = new QtReporter(msg -> {}, null);
+        final Module world = CompUtil.parseEverything_fromFile_cached(rep, map, options.originalFilename, resolutionMode);
+        final ConstList<Command> cmds = world.getAllCommands();
+        if (bundleIndex < 0 || bundleIndex >= cmds.size() || (rep.getNumberOfWarnings() > 0 && !bundleWarningNonFatal))
+            return;
+        preparedSession(world, bundleIndex, true).prepare(rep, cmds.get(bundleIndex));
+    }
+
     /**
      * Task responsible for quantitative enumeration
      */
@@ -283,6 +458,8 @@ public class QuantitativeTask implements WorkerEngine.WorkerTask {
             //while (true) {
                 sol = sol.next();
                 if (!sol.satisfiable()) {
+                    // The enumeration is over, so its solver is released
+                    sol.free();
                     if(sol.unknown()) //UNKNOWN
                         cbPop("The SMT solver was unable to find the satisfiability of other instances\n" +
                                 "and terminated with UNKNOWN judgement.\n\n" +
@@ -306,7 +483,7 @@ public class QuantitativeTask implements WorkerEngine.WorkerTask {
                     // going
 
                     sol.writeXML(filename, null, latestKodkodSRC);
-                    currentSol = sol;
+                    replaceCurrent(sol);
                 }
                 cbDeclare(filename);
                 return;
@@ -199,7 +199,7 @@ public final class SimpleCLI {
                 rep.sb.append("\n\nMain file = " + filename + "\n");
                 if (db)
                     db("Parsing+Typechecking...");
-                Module world = CompUtil.parseEverything_fromFile(rep, null, filename);
+                Module world = CompUtil.parseEverything_fromFile_cached(rep, null, filename);
                 if (db)
                     db(" ok\n");
                 List<Command> cmds = world.getAllCommands();
@@ -38,6 +38,7 @@ import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
 import java.io.*;
 import java.lang.reflect.Method;
+import java.math.BigDecimal;
 import java.net.URISyntaxException;
 import java.util.*;
 
@@ -260,6 +261,38 @@ public final class SimpleGUI implements ComponentListener, Listener {
     /** The latest executed command. */
     private int                   latestCommand          = 0;
 
+    /**
+     * How long (in milliseconds) the text buffer must stay untouched before the
+     * command under the cursor is prepared in the background.
+     */
+    private static final int      PREPARATION_DELAY      = 1000;
+
+    /**
+     * Fires once the text buffer has stayed untouched for PREPARATION_DELAY (null
+     * until first needed).
+     */
+    private Timer                 preparationTimer       = null;
+
+    /**
+     * The text buffers and the command of the latest preparation sent to
+     * this.subprocess (null if none, or if this.subprocess was stopped since).
+     */
+    private Map<String,String>    preparedMap            = null;
+
+    /** The command of the latest preparation sent to this.subprocess. */
+    private int                   preparedCommand        = -1;
+
+    /**
+     * True while this.subprocess is preparing a command rather than running one.
+     */
+    private boolean               preparing              = false;
+
+    /**
+     * The XML file of the solution whose next solution is to be enumerated once
+     * the preparation in progress is over (null if none).
+     */
+    private String                pendingEnumeration     = null;
+
     /**
      * The most recent Alloy version (as queried from alloy.mit.edu); -1 if
      * alloy.mit.edu has not replied yet.
@@ -349,6 +382,19 @@ public final class SimpleGUI implements ComponentListener, Listener {
         int y = t.getLineOfOffset(c) + 1;
         int x = c - t.getLineStartOffset(y - 1) + 1;
         status.setText("<html>&nbsp; Line " + y + ", Column " + x + (t.modified() ? " <b style=\"color:#B43333;\">[modified]</b></html>" : "</html>"));
+        if (PreTranslate.get() && inQTcontext()) {
+            if (preparationTimer == null) {
+                preparationTimer = new Timer(PREPARATION_DELAY, new ActionListener() {
+
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        doPrepare();
+                    }
+                });
+                preparationTimer.setRepeats(false);
+            }
+            preparationTimer.restart();
+        }
         return null;
     }
 
@@ -798,7 +844,7 @@ public final class SimpleGUI implements ComponentListener, Listener {
         if (!wrap)
             if (text.closeAll()) {
                 try {
-                    WorkerEngine.stop();
+                    WorkerEngine.shutdown();
                 } finally {
                     System.exit(0);
                 }
@@ -1103,7 +1149,7 @@ public final class SimpleGUI implements ComponentListener, Listener {
     /**
      * @return The operating system where SimpleGUI is running.
      */
-    private String getOS(){
+    private static String getOS(){
         String os = "linux";
         if(Util.onMac())
             os = "mac";
@@ -1120,6 +1166,8 @@ public final class SimpleGUI implements ComponentListener, Listener {
         if (wrap)
             return wrapMe(commandIndex);
         final int index = commandIndex;
+        if (preparing)
+            forgetPreparation();
         if (WorkerEngine.isBusy())
             return null;
         if (index == (-2))
@@ -1148,48 +1196,11 @@ public final class SimpleGUI implements ComponentListener, Listener {
             i = commands.size() - 1;
         SimpleCallback1 cb = new SimpleCallback1(this, null, log, VerbosityPref.get().ordinal(), latestAlloyVersionName, latestAlloyVersion);
         //SimpleTask1 task = new SimpleTask1();
-        A4Options opt = new A4Options();
-        opt.tempDirectory = alloyHome() + fs + "tmp";
-        opt.solverDirectory = alloyHome() + fs + "binary";
-        opt.recordKodkod = RecordKodkod.get();
-        opt.noOverflow = NoOverflow.get();
-        opt.unrolls = Version.experimental ? Unrolls.get() : (-1);
-        opt.skolemDepth = SkolemDepth.get();
-        opt.coreMinimization = CoreMinimization.get();
-        opt.inferPartialInstance = InferPartialInstance.get();
-        opt.coreGranularity = CoreGranularity.get();
-        opt.originalFilename = Util.canon(text.get().getFilename());
-        opt.solver = Solver.get();
-        opt.analysisType = AnalysisType.get();
-        opt.quantitativeSolver = SMTSolver.get();
+        A4Options opt = runOptions();
 
         WorkerEngine.WorkerTask task;
         if(inQTcontext() && i != -2){
-            //Check if the selected solver is an SMT Solver
-            String solver;
-            switch(opt.quantitativeSolver){
-                case "CVC4":
-                    solver = "cvc4_" + getOS();
-                    break;
-                case "Z3":
-                    solver = "z3_" + getOS();
-                    break;
-                case "MathSAT":
-                    solver = "mathsat_" + getOS();
-                    break;
-                default: // Yices
-                    solver = "yices_" + getOS();
-                    break;
-            }
-
-            task = new QuantitativeTask(
-                    opt.dup(),
-                    i,
-                    (Version.experimental && ImplicitThis.get()) ? 2 : 1,
-                    text.takeSnapshot(),
-                    maketemp(),
-                    opt.solverDirectory + fs + solver,
-                    WarningNonfatal.get());
+            task = quantitativeTask(opt, i);
             qtTask = (QuantitativeTask)task;
         } else{
             SimpleTask1 st1 = new SimpleTask1();
@@ -1210,8 +1221,11 @@ public final class SimpleGUI implements ComponentListener, Listener {
             showbutton.setEnabled(false);
             stopbutton.setVisible(true);
             int newmem = SubMemory.get(), newstack = SubStack.get();
-            if (newmem != subMemoryNow || newstack != subStackNow)
+            if (newmem != subMemoryNow || newstack != subStackNow) {
+                WorkerEngine.standby(newmem, newstack, alloyHome() + fs + "binary", "", SimpleReporter.Warmup.class.getName());
                 WorkerEngine.stop();
+                preparedMap = null;
+            }
             if (AlloyCore.isDebug() && VerbosityPref.get() == Verbosity.FULLDEBUG)
                 WorkerEngine.runLocally(task, cb);
             else
@@ -1228,6 +1242,166 @@ public final class SimpleGUI implements ComponentListener, Listener {
         return null;
     }
 
+    /** Returns the options of a run or check, as set in the preferences. */
+    private A4Options runOptions() {
+        A4Options opt = new A4Options();
+        opt.tempDirectory = alloyHome() + fs + "tmp";
+        opt.solverDirectory = alloyHome() + fs + "binary";
+        opt.recordKodkod = RecordKodkod.get();
+        opt.noOverflow = NoOverflow.get();
+        opt.unrolls = Version.experimental ? Unrolls.get() : (-1);
+        opt.skolemDepth = SkolemDepth.get();
+        opt.coreMinimization = CoreMinimization.get();
+        opt.inferPartialInstance = InferPartialInstance.get();
+        opt.coreGranularity = CoreGranularity.get();
+        opt.originalFilename = Util.canon(text.get().getFilename());
+        opt.solver = Solver.get();
+        opt.analysisType = AnalysisType.get();
+        opt.quantitativeSolver = SMTSolver.get();
+        return opt;
+    }
+
+    /**
+     * Returns the quantitative task that runs the command at the given index with
+     * the given options, over the SMT solver chosen in the preferences.
+     */
+    private QuantitativeTask quantitativeTask(A4Options opt, int index) {
+        return new QuantitativeTask(
+                opt.dup(),
+                index,
+                (Version.experimental && ImplicitThis.get()) ? 2 : 1,
+                text.takeSnapshot(),
+                maketemp(),
+                solverBinary(opt.solverDirectory, opt.quantitativeSolver),
+                WarningNonfatal.get());
+    }
+
+    /**
+     * Returns the binary of the given SMT solver, for this OS, in the given directory.
+     */
+    static String solverBinary(String directory, String quantitativeSolver) {
+        //Check if the selected solver is an SMT Solver
+        String solver;
+        switch(quantitativeSolver){
+            case "CVC4":
+                solver = "cvc4_" + getOS();
+                break;
+            case "Z3":
+                solver = "z3_" + getOS();
+                break;
+            case "MathSAT":
+                solver = "mathsat_" + getOS();
+                break;
+            default: // Yices
+                solver = "yices_" + getOS();
+                break;
+        }
+        return directory + fs + solver;
+    }
+
+    /**
+     * Prepares the command under the cursor (or else the latest executed command)
+     * in the background, so that its execution only has to translate and check its
+     * goal. A preparation of an older text is stopped first; a run in progress, or
+     * a quantitative solution shown by the visualizer, is left alone, since
+     * this.subprocess holds that solution to enumerate the next ones.
+     */
+    private void doPrepare() {
+        if (!PreTranslate.get() || !inQTcontext() || text == null)
+            return;
+        if (showsQuantitativeSolution())
+            return;
+        if (AlloyCore.isDebug() && VerbosityPref.get() == Verbosity.FULLDEBUG)
+            return;
+        if (SubMemory.get() != subMemoryNow || SubStack.get() != subStackNow)
+            return; // the next run restarts this.subprocess anyway
+        OurSyntaxWidget t = text.get();
+        List<Command> cmds;
+        try {
+            cmds = CompUtil.parseOneModule_fromString(t.getText());
+        } catch (Throwable ex) {
+            return; // the error is reported when the model is executed
+        }
+        if (cmds.isEmpty())
+            return;
+        int line = t.getLineOfOffset(t.getCaret()) + 1, index = latestCommand < cmds.size() ? latestCommand : cmds.size() - 1;
+        for (int i = 0; i < cmds.size(); i++)
+            if (cmds.get(i).pos.y <= line && line <= cmds.get(i).pos.y2) {
+                index = i;
+                break;
+            }
+        Map<String,String> map = text.takeSnapshot();
+        if (index == preparedCommand && map.equals(preparedMap))
+            return;
+        if (preparing)
+            forgetPreparation();
+        else if (WorkerEngine.isBusy())
+            return;
+        QuantitativeTask task = quantitativeTask(runOptions(), index);
+        task.prepare = true;
+        WorkerEngine.WorkerCallback cb = new WorkerEngine.WorkerCallback() {
+
+            @Override
+            public void callback(Object msg) {}
+
+            @Override
+            public void done() {
+                finished();
+            }
+
+            @Override
+            public void fail() {
+                finished();
+            }
+
+            private void finished() {
+                SwingUtilities.invokeLater(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        preparing = false;
+                        if (pendingEnumeration != null) {
+                            String arg = pendingEnumeration;
+                            pendingEnumeration = null;
+                            enumerateWhenIdle(arg);
+                        }
+                    }
+                });
+            }
+        };
+        try {
+            WorkerEngine.run(task, subMemoryNow, subStackNow, alloyHome() + fs + "binary", "", cb);
+            preparing = true;
+            preparedMap = map;
+            preparedCommand = index;
+        } catch (Throwable ex) {
+            WorkerEngine.stop();
+            preparedMap = null;
+        }
+    }
+
+    /**
+     * Stops the preparation in progress, if any; this.subprocess is then replaced
+     * by a fresh one, which has nothing prepared, and no solution to enumerate.
+     * Hence it is only called when no such solution is shown, or when a run is
+     * about to replace it.
+     */
+    private void forgetPreparation() {
+        if (preparing && WorkerEngine.isBusy())
+            WorkerEngine.stop();
+        preparing = false;
+        preparedMap = null;
+        pendingEnumeration = null;
+    }
+
+    /**
+     * Returns true if the visualizer shows a solution of the latest quantitative
+     * run, whose next solutions are enumerated by this.subprocess.
+     */
+    private boolean showsQuantitativeSolution() {
+        return qtTask != null && viz != null && viz.getFrame() != null && viz.getFrame().isVisible() && viz.getXMLfilename().length() > 0;
+    }
+
     /**
      * This method stops the current run or check (how==0 means DONE, how==1 means
      * FAIL, how==2 means STOP).
@@ -1243,6 +1417,9 @@ public final class SimpleGUI implements ComponentListener, Listener {
                 log.logDivider();
             }
             WorkerEngine.stop();
+            preparing = false;
+            preparedMap = null;
+            pendingEnumeration = null;
         }
         runmenu.setEnabled(true);
         runbutton.setVisible(true);
@@ -1459,6 +1636,7 @@ public final class SimpleGUI implements ComponentListener, Listener {
             optmenu.addSeparator();
             //addToMenu(optmenu, A4Preferences.AnalysisType); // TODO
             addToMenu(optmenu, SMTSolver);
+            addToMenu(optmenu, PreTranslate);
 
         } finally {
             wrap = false;
@@ -1786,44 +1964,75 @@ public final class SimpleGUI implements ComponentListener, Listener {
         public String compute(Object input) {
             final String arg = (String) input;
             OurUtil.show(frame);
+            if (preparing) {
+                // this.subprocess also holds the solution, so it is not
+                // stopped: the enumeration starts once the preparation is over
+                pendingEnumeration = arg;
+                return arg;
+            }
             if (WorkerEngine.isBusy())
                 throw new RuntimeException("Alloy4 is currently executing a SAT solver command. Please wait until that command has finished.");
-            SimpleCallback1 cb = new SimpleCallback1(SimpleGUI.this, viz, log, VerbosityPref.get().ordinal(), latestAlloyVersionName, latestAlloyVersion);
-            /*SimpleTask2 task = new SimpleTask2();
-            task.filename = arg;*/
-
-            WorkerEngine.WorkerTask task;
-            if(inQTcontext()){
-                qtTask.filename = arg;
-                task = qtTask;
-            }
-            else{
-                task = new SimpleTask2();
-                ((SimpleTask2)task).filename = arg;
-            }
+            return enumerate(arg);
+        }
+    };
 
-            try {
-                if (AlloyCore.isDebug())
-                    WorkerEngine.runLocally(task, cb);
+    /**
+     * Enumerates the next solution after the one in the given XML file, as soon
+     * as this.subprocess is done with its current task.
+     */
+    private void enumerateWhenIdle(final String arg) {
+        SwingUtilities.invokeLater(new Runnable() {
+
+            @Override
+            public void run() {
+                if (WorkerEngine.isBusy())
+                    enumerateWhenIdle(arg);
                 else
-                    WorkerEngine.run(task, SubMemory.get(), SubStack.get(), alloyHome() + fs + "binary", "", cb);
-                // task.run(cb);
-            } catch (Throwable ex) {
-                WorkerEngine.stop();
-                log.logBold("Fatal Error: Solver failed due to unknown reason.\n" + "One possible cause is that, in the Options menu, your specified\n" + "memory size is larger than the amount allowed by your OS.\n" + "Also, please make sure \"java\" is in your program path.\n");
-                log.logDivider();
-                log.flush();
-                doStop(2);
-                return arg;
+                    enumerate(arg);
             }
-            subrunningTask = 2;
-            runmenu.setEnabled(false);
-            runbutton.setVisible(false);
-            showbutton.setEnabled(false);
-            stopbutton.setVisible(true);
+        });
+    }
+
+    /**
+     * Asks this.subprocess for the next solution after the one in the given XML
+     * file, which is then loaded into the visualizer.
+     */
+    private String enumerate(String arg) {
+        SimpleCallback1 cb = new SimpleCallback1(SimpleGUI.this, viz, log, VerbosityPref.get().ordinal(), latestAlloyVersionName, latestAlloyVersion);
+        /*SimpleTask2 task = new SimpleTask2();
+        task.filename = arg;*/
+
+        WorkerEngine.WorkerTask task;
+        if(inQTcontext()){
+            qtTask.filename = arg;
+            task = qtTask;
+        }
+        else{
+            task = new SimpleTask2();
+            ((SimpleTask2)task).filename = arg;
+        }
+
+        try {
+            if (AlloyCore.isDebug())
+                WorkerEngine.runLocally(task, cb);
+            else
+                WorkerEngine.run(task, SubMemory.get(), SubStack.get(), alloyHome() + fs + "binary", "", cb);
+            // task.run(cb);
+        } catch (Throwable ex) {
+            WorkerEngine.stop();
+            log.logBold("Fatal Error: Solver failed due to unknown reason.\n" + "One possible cause is that, in the Options menu, your specified\n" + "memory size is larger than the amount allowed by your OS.\n" + "Also, please make sure \"java\" is in your program path.\n");
+            log.logDivider();
+            log.flush();
+            doStop(2);
             return arg;
         }
-    };
+        subrunningTask = 2;
+        runmenu.setEnabled(false);
+        runbutton.setVisible(false);
+        showbutton.setEnabled(false);
+        stopbutton.setVisible(true);
+        return arg;
+    }
 
     /** Converts an A4TupleSet into a SimTupleset object. */
     private static SimTupleset convert(Object object) throws Err {
@@ -1833,19 +2042,29 @@ public final class SimpleGUI implements ComponentListener, Listener {
         if (s.size() == 0)
             return SimTupleset.EMPTY;
         List<SimTuple> list = new ArrayList<SimTuple>(s.size());
+        long[] weights = null;
         int arity = s.arity();
         for (A4Tuple t : s) {
             String[] array = new String[arity];
             for (int i = 0; i < t.arity(); i++)
                 array[i] = t.atom(i);
+            if (t instanceof A4QtTuple) {
+                if (weights == null)
+                    weights = new long[s.size()];
+                try {
+                    weights[list.size()] = new BigDecimal(((A4QtTuple) t).getQuantity()).longValueExact();
+                } catch (ArithmeticException | NumberFormatException ex) {
+                    throw new ErrorType("The weight of " + t + " is not an integer.");
+                }
+            }
             list.add(SimTuple.make(array));
         }
-        return SimTupleset.make(list);
+        return weights == null ? SimTupleset.make(list) : SimTupleset.make(list, weights);
     }
 
     /** Converts an A4Solution into a SimInstance object. */
     private static SimInstance convert(Module root, A4Solution ans) throws Err {
-        SimInstance ct = new SimInstance(root, ans.getBitwidth(), ans.getMaxSeq());
+        SimInstance ct = new SimInstance(root, ans.getBitwidth(), ans.getMaxSeq(), inQTcontext());
         for (Sig s : ans.getAllReachableSigs()) {
             if (!s.builtin)
                 ct.init(s, convert(ans.eval(s)));
@@ -1880,7 +2099,9 @@ public final class SimpleGUI implements ComponentListener, Listener {
             A4Solution ans = null;
             try {
                 Map<String,String> fc = new LinkedHashMap<String,String>();
-                XMLNode x = new XMLNode(new File(filename));
+                File file = new File(filename);
+                // A quantitative instance is streamed, so only its skeleton is read here
+                XMLNode x = !inQTcontext() ? new XMLNode(file) : A4QtSolutionReader.skeleton(file);
                 if (!x.is("alloy"))
                     throw new Exception();
                 String mainname = null;
@@ -1900,7 +2121,7 @@ public final class SimpleGUI implements ComponentListener, Listener {
                 root = CompUtil.parseEverything_fromFile(A4Reporter.NOP, fc, mainname, (Version.experimental && ImplicitThis.get()) ? 2 : 1);
                 ans = !inQTcontext() ?
                         A4SolutionReader.read(root.getAllReachableSigs(), x) :
-                        A4QtSolutionReader.read(root.getAllReachableSigs(), x);
+                        A4QtSolutionReader.read(root.getAllReachableSigs(), x, file);
                 for (ExprVar a : ans.getAllAtoms()) {
                     root.addGlobal(a.label, a);
                 }
@@ -2170,6 +2391,10 @@ public final class SimpleGUI implements ComponentListener, Listener {
         copyFromJAR();
         final String binary = alloyHome() + fs + "binary";
 
+        // Launch the sub JVM ahead of time, so that the first command does not wait for it
+        if (!(AlloyCore.isDebug() && VerbosityPref.get() == Verbosity.FULLDEBUG))
+            WorkerEngine.standby(SubMemory.get(), SubStack.get(), binary, "", SimpleReporter.Warmup.class.getName());
+
         // Create the menu bar
         JMenuBar bar = new JMenuBar();
         try {
@@ -15,6 +15,8 @@
 
 package edu.mit.csail.sdg.alloy4whole;
 
+import static edu.mit.csail.sdg.alloy4.A4Preferences.SMTSolver;
+
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -22,6 +24,7 @@ import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -31,6 +34,7 @@ import java.util.Set;
 
 import org.alloytools.alloy.core.AlloyCore;
 
+import edu.mit.csail.sdg.alloy4.A4QtReporter;
 import edu.mit.csail.sdg.alloy4.A4Reporter;
 import edu.mit.csail.sdg.alloy4.ConstList;
 import edu.mit.csail.sdg.alloy4.ConstMap;
@@ -58,6 +62,7 @@ import edu.mit.csail.sdg.translator.A4Solution;
 import edu.mit.csail.sdg.translator.A4SolutionReader;
 import edu.mit.csail.sdg.translator.A4SolutionWriter;
 import edu.mit.csail.sdg.translator.TranslateAlloyToKodkod;
+import edu.mit.csail.sdg.translator.TranslateQTAlloyToKodkod;
 
 /** This helper method is used by SimpleGUI. */
 
@@ -737,4 +742,51 @@ final class SimpleReporter extends A4Reporter {
                 rep.cb("bold", "Note: There was 1 compilation warning. Please scroll up to see it.\n");
         }
     }
+
+    /**
+     * Warms up a standby sub JVM: solves a tiny model, with the SAT solver and
+     * with the SMT solver of the preferences, and writes its instances, so that
+     * the parser, the translators and the solvers are loaded and compiled before
+     * the first task arrives.
+     */
+    public static final class Warmup implements Runnable {
+
+        @Override
+        public void run() {
+            final Module world;
+            try {
+                world = CompUtil.parseEverything_fromString(A4Reporter.NOP, "sig A { r: set A } fact { some r } run { some a: A | a in a.^r } for 3");
+            } catch (Throwable ex) {
+                return; // a failed warm-up only makes the first task slower
+            }
+            try {
+                for (Command cmd : world.getAllCommands()) {
+                    A4Solution sol = TranslateAlloyToKodkod.execute_command(A4Reporter.NOP, world.getAllReachableSigs(), cmd, new A4Options());
+                    if (sol.satisfiable())
+                        sol.writeXML(new PrintWriter(new StringWriter()), world.getAllFunc(), null);
+                }
+            } catch (Throwable ex) {
+                // a failed warm-up only makes the first task slower
+            }
+            // The quantitative tasks go through their own translator, and the SMT solver of the
+            // preferences, whose binaries are in the library path of this sub JVM
+            try {
+                final A4Options opt = new A4Options();
+                opt.analysisType = "Integer";
+                opt.quantitativeSolver = SMTSolver.get();
+                final String binary = SimpleGUI.solverBinary(System.getProperty("java.library.path"), opt.quantitativeSolver);
+                for (Command cmd : world.getAllCommands()) {
+                    A4Solution sol = TranslateQTAlloyToKodkod.execute_command(new A4QtReporter(), world.getAllReachableSigs(), cmd, opt, binary);
+                    try {
+                        if (sol.satisfiable())
+                            sol.writeXML(new PrintWriter(new StringWriter()), world.getAllFunc(), null);
+                    } finally {
+                        sol.free();
+                    }
+                }
+            } catch (Throwable ex) {
+                // a failed warm-up only makes the first task slower
+            }
+        }
+    }
 }
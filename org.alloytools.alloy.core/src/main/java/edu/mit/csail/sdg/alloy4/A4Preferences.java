@@ -673,6 +673,13 @@ public class A4Preferences {
 
     public static final StringChoicePref             AnalysisType           = new StringChoicePref("AnalysisType", "Analysis context", Arrays.asList("Boolean", "Integer"), "Integer");
     public static final StringChoicePref             SMTSolver     = new StringChoicePref("SMTSolver", "SMT Solver", Arrays.asList("CVC4", "Z3", "MathSAT", "Yices"), "MathSAT");
+
+    /**
+     * True if Alloy Analyzer should translate the command under the cursor in the
+     * background once the edits settle, in the quantitative analysis context.
+     */
+    public static final BooleanPref                  PreTranslate           = new BooleanPref("PreTranslate", "Translate commands in the background");
+
     public enum Verbosity {
                            /** Level 0. */
                            DEFAULT("0", "low"),
@@ -15,6 +15,12 @@
 
 package edu.mit.csail.sdg.alloy4;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileInputStream;
@@ -27,6 +33,10 @@ import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.Serializable;
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.alloytools.alloy.core.AlloyCore;
 
@@ -47,6 +57,14 @@ import org.alloytools.alloy.core.AlloyCore;
  * subsequent task; however, if the subprocess crashed, the crash will be
  * reported to the parent process via callback, and if we try to execute another
  * task, then a new subprocess will be spawned automatically.
+ * <p>
+ * If standby(...) was called, then a spare subprocess is launched ahead of
+ * time whenever the current one is stopped, so that the next task does not
+ * have to wait for a new JVM to start up.
+ * <p>
+ * Messages from the subprocess are sent as length-prefixed frames; strings,
+ * numbers, booleans, and Object[] arrays of those are encoded directly, and
+ * only other objects (such as exceptions) go through Java serialization.
  */
 
 public final class WorkerEngine {
@@ -159,13 +177,52 @@ public final class WorkerEngine {
     }
 
     /** If nonnull, it is the latest sub JVM. */
-    private static Process latest_sub     = null;
+    private static Process  latest_sub      = null;
 
     /**
      * If nonnull, it is the latest worker thread talking to the sub JVM. (If
      * latest_sub==null, then we guarantee latest_manager is also null)
      */
-    private static Thread  latest_manager = null;
+    private static Thread   latest_manager  = null;
+
+    /**
+     * If nonnull, it is the command line of the latest sub JVM launched, used to
+     * launch the standby sub JVM.
+     */
+    private static String[] latest_command  = null;
+
+    /**
+     * If nonnull, it is a sub JVM launched with latest_command that has not been
+     * given any task yet.
+     */
+    private static Process  standby_sub     = null;
+
+    /**
+     * True if a standby sub JVM should be launched whenever the latest one is
+     * stopped.
+     */
+    private static boolean  standby_enabled = false;
+
+    /**
+     * If nonnull, it is the name of a Runnable class that each new sub JVM runs in
+     * the background while waiting for its first task.
+     */
+    private static String   warmup          = null;
+
+    /** The frame that ends the messages of a task. */
+    private static final int DONE       = 0;
+
+    /** The frame of a String message. */
+    private static final int STRING     = 1;
+
+    /** The frame of an Object[] message whose elements are plain values. */
+    private static final int ARRAY      = 2;
+
+    /** The frame of any other message, sent with Java serialization. */
+    private static final int SERIALIZED = 3;
+
+    /** The tags of the plain values within an ARRAY frame. */
+    private static final int NULL = 0, TEXT = 1, INT = 2, LONG = 3, BOOLEAN = 4;
 
     /**
      * Constructor is private since this class does not need to be instantiated.
@@ -186,6 +243,63 @@ public final class WorkerEngine {
                 latest_manager = null;
                 latest_sub = null;
             }
+            if (standby_enabled)
+                launchStandby();
+        }
+    }
+
+    /**
+     * This keeps a spare subprocess launched ahead of time with the given
+     * parameters (see run(...)), and launches it now unless a subprocess is
+     * already alive; from now on, a new spare is launched whenever the
+     * subprocess is stopped. The spare is used by the next task if that task
+     * asks for the same parameters, and discarded otherwise.
+     *
+     * @param warmupClass - if nonnull, the name of a Runnable class that each new
+     *            subprocess instantiates and runs in a low priority thread while
+     *            waiting for its first task, to load and compile the code that
+     *            the tasks are likely to need
+     */
+    public static void standby(int newmem, int newstack, String jniPath, String classPath, String warmupClass) {
+        synchronized (WorkerEngine.class) {
+            warmup = warmupClass;
+            String[] command = command(newmem, newstack, jniPath, classPath);
+            if (standby_sub != null && !Arrays.equals(command, latest_command)) {
+                standby_sub.destroy();
+                standby_sub = null;
+            }
+            latest_command = command;
+            standby_enabled = true;
+            if (latest_sub == null)
+                launchStandby();
+        }
+    }
+
+    /**
+     * This terminates the subprocess as stop() does, as well as the spare
+     * subprocess if any, and stops launching spares.
+     */
+    public static void shutdown() {
+        synchronized (WorkerEngine.class) {
+            standby_enabled = false;
+            stop();
+            if (standby_sub != null)
+                standby_sub.destroy();
+            standby_sub = null;
+        }
+    }
+
+    /**
+     * Launches a spare sub JVM with the latest command line, unless one is alive
+     * already; a failure to launch it is ignored, since run(...) will try again.
+     */
+    private static void launchStandby() {
+        if (latest_command == null || (standby_sub != null && standby_sub.isAlive()))
+            return;
+        try {
+            standby_sub = Runtime.getRuntime().exec(latest_command);
+        } catch (IOException ex) {
+            standby_sub = null;
         }
     }
 
@@ -242,25 +356,7 @@ public final class WorkerEngine {
      *             to it
      */
     public static void run(final WorkerTask task, int newmem, int newstack, String jniPath, String classPath, final WorkerCallback callback) throws IOException {
-        String java = "java";
-        String javahome = System.getProperty("java.home");
-        if (javahome == null)
-            throw new IllegalArgumentException("java.home not set");
-
-        File jhome = new File(javahome);
-
-        if (classPath == null || classPath.isEmpty())
-            classPath = System.getProperty("java.class.path");
-
-        if (classPath == null || classPath.isEmpty()) {
-            File dist = findInAncestors(jhome, "org.alloytools.alloy.dist.jar");
-            if (dist == null) {
-                throw new IllegalArgumentException("cannot establish classpath. Neither set for this java nor \"org.alloytools.alloy.dist.jar\" in an ancestor directory of $JAVA_HOME (" + jhome + ")");
-            }
-            System.out.println("Found jar in ancestors java_home " + dist);
-            classPath = dist.getAbsolutePath();
-        }
-
+        final String[] command = command(newmem, newstack, jniPath, classPath);
         synchronized (WorkerEngine.class) {
             final Process sub;
             if (latest_manager != null && latest_manager.isAlive())
@@ -273,24 +369,15 @@ public final class WorkerEngine {
             } catch (IllegalThreadStateException ex) {
             }
             if (latest_sub == null) {
-                File f = new File(javahome + File.separatorChar + "bin" + File.separatorChar + "java");
-
-                if (!f.isFile())
-                    f = new File(javahome + File.separatorChar + "java");
-
-                if (f.isFile())
-                    java = f.getAbsolutePath();
-
-                String debug = AlloyCore.isDebug() ? "yes" : "no";
-
-                if (jniPath != null && jniPath.length() > 0)
-                    sub = Runtime.getRuntime().exec(new String[] {
-                                                                  java, "-Xmx" + newmem + "m", "-Xss" + newstack + "k", "-Djava.library.path=" + jniPath, "-Ddebug=" + debug, "-cp", classPath, WorkerEngine.class.getName(), Version.buildDate(), "" + Version.buildNumber()
-                    });
-                else
-                    sub = Runtime.getRuntime().exec(new String[] {
-                                                                  java, "-Xmx" + newmem + "m", "-Xss" + newstack + "k", "-Ddebug=" + debug, "-cp", classPath, WorkerEngine.class.getName(), Version.buildDate(), "" + Version.buildNumber()
-                    });
+                if (standby_sub != null && standby_sub.isAlive() && Arrays.equals(command, latest_command)) {
+                    sub = standby_sub;
+                } else {
+                    if (standby_sub != null)
+                        standby_sub.destroy();
+                    sub = Runtime.getRuntime().exec(command);
+                }
+                standby_sub = null;
+                latest_command = command;
                 latest_sub = sub;
             } else {
                 sub = latest_sub;
@@ -299,13 +386,13 @@ public final class WorkerEngine {
 
                 @Override
                 public void run() {
-                    ObjectInputStream sub2main = null;
+                    DataInputStream sub2main = null;
                     ObjectOutputStream main2sub = null;
                     try {
                         main2sub = new ObjectOutputStream(wrap(sub.getOutputStream()));
                         main2sub.writeObject(task);
                         main2sub.close();
-                        sub2main = new ObjectInputStream(wrap(sub.getInputStream()));
+                        sub2main = new DataInputStream(new BufferedInputStream(wrap(sub.getInputStream())));
                     } catch (Throwable ex) {
                         sub.destroy();
                         Util.close(main2sub);
@@ -324,7 +411,7 @@ public final class WorkerEngine {
                         }
                         Object x;
                         try {
-                            x = sub2main.readObject();
+                            x = receive(sub2main);
                         } catch (Throwable ex) {
                             sub.destroy();
                             Util.close(sub2main);
@@ -351,6 +438,169 @@ public final class WorkerEngine {
         }
     }
 
+    /**
+     * This returns the command line that launches a sub JVM with the given
+     * parameters (see run(...)).
+     */
+    private static String[] command(int newmem, int newstack, String jniPath, String classPath) {
+        String java = "java";
+        String javahome = System.getProperty("java.home");
+        if (javahome == null)
+            throw new IllegalArgumentException("java.home not set");
+
+        File jhome = new File(javahome);
+
+        if (classPath == null || classPath.isEmpty())
+            classPath = System.getProperty("java.class.path");
+
+        if (classPath == null || classPath.isEmpty()) {
+            File dist = findInAncestors(jhome, "org.alloytools.alloy.dist.jar");
+            if (dist == null) {
+                throw new IllegalArgumentException("cannot establish classpath. Neither set for this java nor \"org.alloytools.alloy.dist.jar\" in an ancestor directory of $JAVA_HOME (" + jhome + ")");
+            }
+            System.out.println("Found jar in ancestors java_home " + dist);
+            classPath = dist.getAbsolutePath();
+        }
+
+        File f = new File(javahome + File.separatorChar + "bin" + File.separatorChar + "java");
+
+        if (!f.isFile())
+            f = new File(javahome + File.separatorChar + "java");
+
+        if (f.isFile())
+            java = f.getAbsolutePath();
+
+        String debug = AlloyCore.isDebug() ? "yes" : "no";
+
+        List<String> command = new ArrayList<String>();
+        command.addAll(Arrays.asList(java, "-Xmx" + newmem + "m", "-Xss" + newstack + "k"));
+        if (jniPath != null && jniPath.length() > 0)
+            command.add("-Djava.library.path=" + jniPath);
+        command.addAll(Arrays.asList("-Ddebug=" + debug, "-cp", classPath, WorkerEngine.class.getName(), Version.buildDate(), "" + Version.buildNumber()));
+        if (warmup != null)
+            command.add(warmup);
+        return command.toArray(new String[command.size()]);
+    }
+
+    /**
+     * This writes one message (or the end of the messages, if msg==null) as a
+     * frame, then flushes the stream.
+     */
+    private static void send(DataOutputStream out, Object msg) throws IOException {
+        synchronized (out) {
+            if (msg == null) {
+                out.writeByte(DONE);
+            } else if (msg instanceof String) {
+                out.writeByte(STRING);
+                writeText(out, (String) msg);
+            } else if (msg.getClass() == Object[].class && isPlain((Object[]) msg)) {
+                Object[] array = (Object[]) msg;
+                out.writeByte(ARRAY);
+                out.writeInt(array.length);
+                for (Object x : array) {
+                    if (x == null) {
+                        out.writeByte(NULL);
+                    } else if (x instanceof String) {
+                        out.writeByte(TEXT);
+                        writeText(out, (String) x);
+                    } else if (x instanceof Integer) {
+                        out.writeByte(INT);
+                        out.writeInt((Integer) x);
+                    } else if (x instanceof Long) {
+                        out.writeByte(LONG);
+                        out.writeLong((Long) x);
+                    } else {
+                        out.writeByte(BOOLEAN);
+                        out.writeBoolean((Boolean) x);
+                    }
+                }
+            } else {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ObjectOutputStream oos = new ObjectOutputStream(bytes);
+                oos.writeObject(msg);
+                oos.close();
+                out.writeByte(SERIALIZED);
+                out.writeInt(bytes.size());
+                bytes.writeTo(out);
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * This reads one frame written by send(...), and returns its message (or
+     * null if it ends the messages).
+     */
+    private static Object receive(DataInputStream in) throws IOException, ClassNotFoundException {
+        int frame = in.readUnsignedByte();
+        switch (frame) {
+            case DONE :
+                return null;
+            case STRING :
+                return readText(in);
+            case ARRAY :
+                Object[] array = new Object[in.readInt()];
+                for (int i = 0; i < array.length; i++) {
+                    int tag = in.readUnsignedByte();
+                    switch (tag) {
+                        case NULL :
+                            break;
+                        case TEXT :
+                            array[i] = readText(in);
+                            break;
+                        case INT :
+                            array[i] = in.readInt();
+                            break;
+                        case LONG :
+                            array[i] = in.readLong();
+                            break;
+                        case BOOLEAN :
+                            array[i] = in.readBoolean();
+                            break;
+                        default :
+                            throw new IOException("Unknown value tag " + tag);
+                    }
+                }
+                return array;
+            case SERIALIZED :
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+                try {
+                    return ois.readObject();
+                } finally {
+                    ois.close();
+                }
+            default :
+                throw new IOException("Unknown frame " + frame);
+        }
+    }
+
+    /**
+     * Returns true if every element of the array is null, or a String, Integer,
+     * Long, or Boolean.
+     */
+    private static boolean isPlain(Object[] array) {
+        for (Object x : array)
+            if (x != null && !(x instanceof String || x instanceof Integer || x instanceof Long || x instanceof Boolean))
+                return false;
+        return true;
+    }
+
+    /** Writes a string as its length in UTF-8 bytes, followed by those bytes. */
+    private static void writeText(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Reads a string written by writeText(...). */
+    private static String readText(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
     /**
      * This is the entry point for the sub JVM.
      * <p>
@@ -358,13 +608,17 @@ public final class WorkerEngine {
      * execute it, then read another... If any error occurred, or if it's
      * disconnected from the parent process's pipe, it then terminates itself (since
      * we assume the parent process will notice it and react accordingly)
+     * <p>
+     * If given a third argument, it names a Runnable class that is run in the
+     * background (see standby(...)) while waiting for the first task, which is
+     * only executed once the warm-up is over.
      */
-    public static void main(String[] args) {
+    public static void main(final String[] args) {
         // To prevent people from accidentally invoking this class, or invoking
         // it from an incompatible version,
         // we add a simple sanity check on the command line arguments
-        if (args.length != 2)
-            halt("#args should be 2 but instead is " + args.length, 1);
+        if (args.length != 2 && args.length != 3)
+            halt("#args should be 2 or 3 but instead is " + args.length, 1);
         if (!args[0].equals(Version.buildDate()))
             halt("BuildDate mismatch: " + args[0] + " != " + Version.buildDate(), 1);
         if (!args[1].equals("" + Version.buildNumber()))
@@ -381,7 +635,7 @@ public final class WorkerEngine {
         // Redirect System.in, System.out, System.err to no-op (so that if a
         // task tries to read/write to System.in/out/err,
         // those reads and writes won't mess up the
-        // ObjectInputStream/ObjectOutputStream)
+        // streams to and from the parent process)
         System.setIn(wrap((InputStream) null));
         System.setOut(new PrintStream(wrap((OutputStream) null)));
         System.setErr(new PrintStream(wrap((OutputStream) null)));
@@ -401,6 +655,24 @@ public final class WorkerEngine {
             System.loadLibrary("zchaff");
         } catch (Throwable ex) {
         }
+        // Warm up the code that the tasks are likely to need while we wait for
+        // the first one; any failure here only means a slower first task
+        Thread w = null;
+        if (args.length == 3) {
+            w = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        ((Runnable) Class.forName(args[2]).getDeclaredConstructor().newInstance()).run();
+                    } catch (Throwable ex) {
+                    }
+                }
+            });
+            w.setDaemon(true);
+            w.setPriority(Thread.MIN_PRIORITY);
+            w.start();
+        }
         // Now we repeat the following read-then-execute loop
         Thread t = null;
         while (true) {
@@ -415,6 +687,16 @@ public final class WorkerEngine {
                 halt("Can't read task: " + ex, 1);
                 return;
             }
+            // The warm-up shares static state with the tasks (e.g., caches and
+            // solver libraries), so the first task waits for it to finish
+            if (w != null) {
+                try {
+                    w.join();
+                } catch (Throwable ex) {
+                    halt("Warm-up: " + ex, 1);
+                }
+                w = null;
+            }
             // Our main thread has a loop that keeps "attempting" to read bytes
             // from System.in,
             // and delegate the actual task to a separate "worker thread".
@@ -441,17 +723,17 @@ public final class WorkerEngine {
 
                 @Override
                 public void run() {
-                    ObjectOutputStream x = null;
+                    DataOutputStream x = null;
                     Throwable e = null;
                     try {
-                        x = new ObjectOutputStream(wrap(out));
-                        final ObjectOutputStream xx = x;
+                        x = new DataOutputStream(new BufferedOutputStream(wrap(out)));
+                        final DataOutputStream xx = x;
                         WorkerCallback y = new WorkerCallback() {
 
                             @Override
                             public void callback(Object x) {
                                 try {
-                                    xx.writeObject(x);
+                                    send(xx, x);
                                 } catch (IOException ex) {
                                     halt("Callback: " + ex, 1);
                                 }
@@ -466,8 +748,7 @@ public final class WorkerEngine {
                             }
                         };
                         task.run(y);
-                        x.writeObject(null);
-                        x.flush();
+                        send(x, null);
                     } catch (Throwable ex) {
                         e = ex;
                     }
@@ -475,8 +756,7 @@ public final class WorkerEngine {
                         if (t instanceof OutOfMemoryError || t instanceof StackOverflowError) {
                             try {
                                 System.gc();
-                                x.writeObject(t);
-                                x.flush();
+                                send(x, t);
                             } catch (Throwable ex2) {
                             } finally {
                                 halt("Error: " + e, 2);
@@ -485,9 +765,8 @@ public final class WorkerEngine {
                     if (e instanceof Err) {
                         try {
                             System.gc();
-                            x.writeObject(e);
-                            x.writeObject(null);
-                            x.flush();
+                            send(x, e);
+                            send(x, null);
                         } catch (Throwable t) {
                             halt("Error: " + e, 1);
                         }
@@ -495,8 +774,7 @@ public final class WorkerEngine {
                     if (e != null) {
                         try {
                             System.gc();
-                            x.writeObject(e);
-                            x.flush();
+                            send(x, e);
                         } catch (Throwable t) {
                         } finally {
                             halt("Error: " + e, 1);
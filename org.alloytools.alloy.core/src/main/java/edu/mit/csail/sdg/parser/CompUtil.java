@@ -35,6 +35,7 @@ import edu.mit.csail.sdg.alloy4.ConstList;
 import edu.mit.csail.sdg.alloy4.Err;
 import edu.mit.csail.sdg.alloy4.ErrorFatal;
 import edu.mit.csail.sdg.alloy4.ErrorSyntax;
+import edu.mit.csail.sdg.alloy4.ErrorWarning;
 import edu.mit.csail.sdg.alloy4.Pos;
 import edu.mit.csail.sdg.alloy4.Util;
 import edu.mit.csail.sdg.ast.Command;
@@ -414,6 +415,130 @@ public final class CompUtil {
         }
     }
 
+    /**
+     * A resolved world, together with the content of every file it was parsed
+     * from, and the warnings reported while resolving it.
+     */
+    private static final class ParsedWorld {
+
+        private final Map<String,String> files;
+        private final List<ErrorWarning> warnings;
+        private final CompModule         world;
+
+        private ParsedWorld(Map<String,String> files, List<ErrorWarning> warnings, CompModule world) {
+            this.files = new LinkedHashMap<String,String>(files);
+            this.warnings = warnings;
+            this.world = world;
+        }
+
+        /**
+         * Returns true if every file this world was parsed from still has the same
+         * content, looking it up first in the given prefetched files, then on disk.
+         */
+        private boolean upToDate(Map<String,String> fc) {
+            for (Map.Entry<String,String> e : files.entrySet()) {
+                String content = fc.get(e.getKey());
+                if (content == null) {
+                    try {
+                        content = Util.readAll(e.getKey());
+                    } catch (IOException ex) {
+                        return false;
+                    }
+                }
+                if (!content.equals(e.getValue()))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    /** The maximum number of resolved worlds kept by the parse cache. */
+    private static final int PARSE_CACHE_SIZE = 16;
+
+    /**
+     * The parse cache: the most recently used resolved worlds, keyed by the
+     * resolution mode and the canonical name of their main module.
+     */
+    private static final Map<String,ParsedWorld> parseCache = new LinkedHashMap<String,ParsedWorld>(PARSE_CACHE_SIZE, 0.75f, true) {
+
+        private static final long serialVersionUID = 0;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,ParsedWorld> eldest) {
+            return size() > PARSE_CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Same as {@link #parseEverything_fromFile(A4Reporter, Map, String)}, except
+     * that the resolved world is reused if neither the main module nor any module
+     * it opens has changed since it was last parsed by this method.
+     * <p>
+     * The same world is thus returned by consecutive calls, so it must not be
+     * modified by the caller.
+     */
+    public static CompModule parseEverything_fromFile_cached(A4Reporter rep, Map<String,String> loaded, String filename) throws Err {
+        return parseCached(rep, loaded, filename, 0);
+    }
+
+    /**
+     * Same as {@link #parseEverything_fromFile(A4Reporter, Map, String, int)},
+     * except that the resolved world is reused if neither the main module nor any
+     * module it opens has changed since it was last parsed by this method.
+     * <p>
+     * The same world is thus returned by consecutive calls, so it must not be
+     * modified by the caller.
+     */
+    public static CompModule parseEverything_fromFile_cached(A4Reporter rep, Map<String,String> loaded, String filename, int initialResolutionMode) throws Err {
+        return parseCached(rep, loaded, filename, initialResolutionMode);
+    }
+
+    /**
+     * Discards every world kept by the parse cache.
+     */
+    public static void clearParseCache() {
+        synchronized (parseCache) {
+            parseCache.clear();
+        }
+    }
+
+    /**
+     * Helper method that looks the given file up in the parse cache, and parses it
+     * (with the 3-argument parseEverything_fromFile if initialResolutionMode==0)
+     * on a miss. The warnings of a cached world are reported again on every hit.
+     */
+    private static CompModule parseCached(final A4Reporter rep, Map<String,String> loaded, String filename, int initialResolutionMode) throws Err {
+        filename = Util.canon(filename);
+        if (loaded == null)
+            loaded = new LinkedHashMap<String,String>();
+        final String key = initialResolutionMode + ":" + filename;
+        ParsedWorld cached;
+        synchronized (parseCache) {
+            cached = parseCache.get(key);
+        }
+        if (cached != null && cached.upToDate(loaded)) {
+            for (ErrorWarning w : cached.warnings)
+                (rep == null ? A4Reporter.NOP : rep).warning(w);
+            loaded.clear();
+            loaded.putAll(cached.files);
+            return cached.world;
+        }
+        final List<ErrorWarning> warnings = new ArrayList<ErrorWarning>();
+        final A4Reporter recorder = new A4Reporter(rep == null ? A4Reporter.NOP : rep) {
+
+            @Override
+            public void warning(ErrorWarning msg) {
+                warnings.add(msg);
+                super.warning(msg);
+            }
+        };
+        final CompModule world = initialResolutionMode == 0 ? parseEverything_fromFile(recorder, loaded, filename) : parseEverything_fromFile(recorder, loaded, filename, initialResolutionMode);
+        synchronized (parseCache) {
+            parseCache.put(key, new ParsedWorld(loaded, warnings, world));
+        }
+        return world;
+    }
+
     /**
      * @param rep - may be null
      * @param content - alloy model
@@ -111,6 +111,12 @@ public final class SimInstance extends VisitReturn<Object> {
     /** The chosen maxseq length. */
     private final int                   maxseq;
 
+    /**
+     * True if this instance is evaluated quantitatively, where tuplesets carry
+     * weights and the arithmetic and comparison operators apply to them.
+     */
+    private final boolean               quantitative;
+
     /** The shiftmask based on the chosen bitwidth. */
     private final int                   shiftmask;
 
@@ -169,6 +175,8 @@ public final class SimInstance extends VisitReturn<Object> {
      */
     private void write(BufferedOutputStream out) throws IOException {
         write(out, "maxseq = " + maxseq + ("\n" + "bitwidth = ") + bitwidth + "\n");
+        if (quantitative)
+            write(out, "quantitative = 1\n");
         for (Map.Entry<Expr,SimTupleset> entry : sfs.entrySet()) {
             Expr e = entry.getKey();
             if (e instanceof Sig)
@@ -259,16 +267,20 @@ public final class SimInstance extends VisitReturn<Object> {
             if (!readkey(bis).equals("bitwidth"))
                 throw new IOException("Expecting bitwidth = ...");
             int bitwidth = readNonNegativeIntThenLinebreak(bis);
-            // construct the SimInstance object with no atoms and no relations
-            SimInstance ans = new SimInstance(root, bitwidth, maxseq);
-            // parse all the relations
+            // parse all the relations, and whether the instance is quantitative
+            boolean quantitative = false;
             Map<String,SimTupleset> sfs = new HashMap<String,SimTupleset>();
             while (true) {
                 String key = readkey(bis);
                 if (key.length() == 0)
                     break; // we don't expect any more data after this
-                sfs.put(key, SimTupleset.read(bis));
+                if (key.equals("quantitative"))
+                    quantitative = readNonNegativeIntThenLinebreak(bis) != 0;
+                else
+                    sfs.put(key, SimTupleset.read(bis));
             }
+            // construct the SimInstance object with no atoms and no relations
+            SimInstance ans = new SimInstance(root, bitwidth, maxseq, quantitative);
             // now for each user-supplied sig, if we saw its value earlier, then
             // assign its value in the new SimInstance's sfs map
             for (final Sig s : root.getAllReachableSigs())
@@ -312,11 +324,21 @@ public final class SimInstance extends VisitReturn<Object> {
      * maximum sequence length.
      */
     public SimInstance(Module root, int bitwidth, int maxseq) throws Err {
+        this(root, bitwidth, maxseq, false);
+    }
+
+    /**
+     * Construct a new simulation context with the given bitwidth and the given
+     * maximum sequence length, which is evaluated quantitatively if the flag is
+     * true.
+     */
+    public SimInstance(Module root, int bitwidth, int maxseq, boolean quantitative) throws Err {
         if (bitwidth < 0 || bitwidth > 32)
             throw new ErrorType("Bitwidth must be between 0 and 32.");
         this.root = root;
         this.bitwidth = bitwidth;
         this.maxseq = maxseq;
+        this.quantitative = quantitative;
         this.callbacks = new HashMap<Func,SimCallback>();
         if (bitwidth == 32) {
             max = Integer.MAX_VALUE;
@@ -340,6 +362,7 @@ public final class SimInstance extends VisitReturn<Object> {
         root = old.root;
         bitwidth = old.bitwidth;
         maxseq = old.maxseq;
+        quantitative = old.quantitative;
         min = old.min;
         max = old.max;
         shiftmask = old.shiftmask;
@@ -543,7 +566,13 @@ public final class SimInstance extends VisitReturn<Object> {
     public int cint(Expr x) throws Err {
         if (!x.errors.isEmpty())
             throw x.errors.pick();
-        Object y = visitThis(x);
+        return cint(x, visitThis(x));
+    }
+
+    /**
+     * Helper method that casts the value y of the expression x to be an int.
+     */
+    private int cint(Expr x, Object y) throws Err {
         if (y instanceof Integer)
             return (Integer) y;
         if (y instanceof SimTupleset)
@@ -560,7 +589,13 @@ public final class SimInstance extends VisitReturn<Object> {
     public SimTupleset cset(Expr x) throws Err {
         if (!x.errors.isEmpty())
             throw x.errors.pick();
-        Object y = visitThis(x);
+        return cset(x, visitThis(x));
+    }
+
+    /**
+     * Helper method that casts the value y of the expression x to be a tupleset.
+     */
+    private SimTupleset cset(Expr x, Object y) throws Err {
         if (y instanceof SimTupleset)
             return (SimTupleset) y;
         if (y instanceof Integer)
@@ -568,6 +603,59 @@ public final class SimInstance extends VisitReturn<Object> {
         throw new ErrorFatal(x.span(), "This should have been a set or a relation.\nInstead it is " + y);
     }
 
+    /**
+     * Helper method that evaluates a comparison between a and b: in a quantitative
+     * instance, tuplesets are compared by their weights, e.g. a&lt;b if each tuple
+     * weighs no more in a than in b, and less for at least one tuple; otherwise
+     * the comparison is between the integers they sum to.
+     */
+    private boolean compare(ExprBinary.Op op, Expr a, Expr b) throws Err {
+        if (!a.errors.isEmpty())
+            throw a.errors.pick();
+        if (!b.errors.isEmpty())
+            throw b.errors.pick();
+        Object left = visitThis(a), right = visitThis(b);
+        if (quantitative && (left instanceof SimTupleset || right instanceof SimTupleset)) {
+            SimTupleset l = cset(a, left), r = cset(b, right);
+            switch (op) {
+                case LT :
+                    return l.lt(r);
+                case LTE :
+                    return l.lte(r);
+                case GT :
+                    return r.lt(l);
+                default :
+                    return r.lte(l);
+            }
+        }
+        int l = cint(a, left), r = cint(b, right);
+        switch (op) {
+            case LT :
+                return l < r;
+            case LTE :
+                return l <= r;
+            case GT :
+                return l > r;
+            default :
+                return l >= r;
+        }
+    }
+
+    /**
+     * Helper method that returns the integer value of x if it is an integer
+     * expression, or else the weight of the first tuple of x; this is the scalar
+     * by which x**y scales y.
+     */
+    private long scalar(Expr x) throws Err {
+        if (!x.errors.isEmpty())
+            throw x.errors.pick();
+        Object y = visitThis(x);
+        if (y instanceof Integer)
+            return (Integer) y;
+        SimTupleset ts = cset(x, y);
+        return ts.empty() ? 0 : ts.weight(ts.getTuple());
+    }
+
     /** {@inheritDoc} */
     @Override
     public Object visit(ExprBinary x) throws Err {
@@ -593,13 +681,19 @@ public final class SimInstance extends VisitReturn<Object> {
                 return cset(x.left).product(cset(x.right));
             case JOIN :
             case MULTIJOIN:
+                if (x.op == ExprBinary.Op.MULTIJOIN && quantitative)
+                    return cset(x.left).multijoin(cset(x.right));
                 if (x.left.isSame(Sig.UNIV)) {
                     SimTupleset tp = cset(x.right);
-                    return tp.tail(tp.arity() - 1);
+                    if (!tp.weighted())
+                        return tp.tail(tp.arity() - 1);
+                    return cset(x.left).join(tp);
                 }
                 if (x.right.isSame(Sig.UNIV)) {
                     SimTupleset tp = cset(x.left);
-                    return tp.head(tp.arity() - 1);
+                    if (!tp.weighted())
+                        return tp.head(tp.arity() - 1);
+                    return tp.join(cset(x.right));
                 }
                 return cset(x.left).join(cset(x.right));
             case IMPLIES :
@@ -619,21 +713,21 @@ public final class SimInstance extends VisitReturn<Object> {
             case INTERSECT :
                 return cset(x.left).intersect(cset(x.right));
             case GT :
-                return cint(x.left) > cint(x.right);
+                return compare(ExprBinary.Op.GT, x.left, x.right);
             case GTE :
-                return cint(x.left) >= cint(x.right);
+                return compare(ExprBinary.Op.GTE, x.left, x.right);
             case LT :
-                return cint(x.left) < cint(x.right);
+                return compare(ExprBinary.Op.LT, x.left, x.right);
             case LTE :
-                return cint(x.left) <= cint(x.right);
+                return compare(ExprBinary.Op.LTE, x.left, x.right);
             case NOT_GT :
-                return !(cint(x.left) > cint(x.right));
+                return !compare(ExprBinary.Op.GT, x.left, x.right);
             case NOT_GTE :
-                return !(cint(x.left) >= cint(x.right));
+                return !compare(ExprBinary.Op.GTE, x.left, x.right);
             case NOT_LT :
-                return !(cint(x.left) < cint(x.right));
+                return !compare(ExprBinary.Op.LT, x.left, x.right);
             case NOT_LTE :
-                return !(cint(x.left) <= cint(x.right));
+                return !compare(ExprBinary.Op.LTE, x.left, x.right);
             case DOMAIN :
                 return cset(x.left).domain(cset(x.right));
             case RANGE :
@@ -661,6 +755,8 @@ public final class SimInstance extends VisitReturn<Object> {
                 // cset(x.left).difference(cset(x.right));
                 return cset(x.left).difference(cset(x.right));
             case IMINUS :
+                if (quantitative && !(a.type().is_int() && b.type().is_int()))
+                    return cset(x.left).minus(cset(x.right));
                 return trunc(cint(x.left) - cint(x.right));
             case PLUS :
                 return cset(x.left).union(cset(x.right));
@@ -669,12 +765,18 @@ public final class SimInstance extends VisitReturn<Object> {
             // trunc(cint(x.left)+cint(x.right)); else return
             // cset(x.left).union(cset(x.right));
             case IPLUS :
+                if (quantitative && !(a.type().is_int() && b.type().is_int()))
+                    return cset(x.left).addition(cset(x.right));
                 return trunc(cint(x.left) + cint(x.right));
             case PLUSPLUS :
                 return cset(x.left).override(cset(x.right));
             case MUL :
+                if (quantitative && !(a.type().is_int() && b.type().is_int()))
+                    return cset(x.left).hadamardProduct(cset(x.right));
                 return trunc(cint(x.left) * cint(x.right));
             case DIV : {
+                if (quantitative && !(a.type().is_int() && b.type().is_int()))
+                    return cset(x.left).hadamardDivision(cset(x.right));
                 int p = cint(x.left), q = cint(x.right), r = (p == 0 ? 0 : (q == 0 ? (p < 0 ? 1 : -1) : (p / q)));
                 return trunc(r);
             }
@@ -683,7 +785,7 @@ public final class SimInstance extends VisitReturn<Object> {
                 return trunc(p - r * q);
             }
             case SCALAR :
-                return x.right; // TODO
+                return cset(x.right).scale(scalar(x.left));
         }
         throw new ErrorFatal(x.pos, "Unsupported operator (" + x.op + ") encountered during ExprBinary.accept()");
     }
@@ -830,11 +932,18 @@ public final class SimInstance extends VisitReturn<Object> {
             case ONEOF :
             case SETOF :
             case SOMEOF :
-            case DROP:
                 return cset(x.sub);
+            case DROP :
+                return cset(x.sub).drop();
             case NOOP :
                 return visitThis(x.sub);
             case CARDINALITY :
+                if (quantitative) {
+                    long count = cset(x.sub).count();
+                    if (count != (int) count)
+                        throw new ErrorType(x.span(), "The cardinality " + count + " does not fit in a 32-bit integer.");
+                    return (int) count;
+                }
                 return trunc(cset(x.sub).size());
             case NO :
                 return cset(x.sub).empty();
@@ -19,12 +19,18 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 import edu.mit.csail.sdg.alloy4.ConstList;
 import edu.mit.csail.sdg.alloy4.ConstList.TempList;
@@ -32,7 +38,15 @@ import edu.mit.csail.sdg.alloy4.ErrorAPI;
 import edu.mit.csail.sdg.alloy4.ErrorType;
 import edu.mit.csail.sdg.alloy4.Util;
 
-/** Immutable; represents a tupleset. */
+/**
+ * Immutable; represents a tupleset.
+ * <p>
+ * In a quantitative context, a tupleset may also carry a nonzero integer weight
+ * for each tuple. A tupleset without weights is the same as one where every
+ * tuple weighs 1, and the weighted counterparts of the relational operators
+ * (e.g., union takes the larger weight, join is the max-min product) reduce to
+ * the usual operators over such tuplesets.
+ */
 
 public final class SimTupleset implements Iterable<SimTuple> {
 
@@ -50,6 +64,26 @@ public final class SimTupleset implements Iterable<SimTuple> {
     private final int                 min;
     private final int                 max;
     private final boolean             next;
+    /**
+     * The weight of each tuple in the list of tuples, in the same order; null if
+     * every tuple weighs 1. <br>
+     * <b>Invariant:</b> If nonnull, then min==max, and no weight is 0, and some
+     * weight is not 1.
+     */
+    private final long[]              weights;
+
+    /**
+     * If nonnull, it caches the set of tuples in the list of tuples, so that
+     * membership tests on large tuplesets take constant time; it is computed on
+     * demand by has().
+     */
+    private volatile Set<SimTuple>    index;
+
+    /**
+     * The number of tuples in the list of tuples above which has() computes the
+     * index rather than scanning the list.
+     */
+    private static final int          INDEX_THRESHOLD = 16;
 
     /**
      * Construct a tupleset with the given 4 values (Note: caller MUST make sure
@@ -61,6 +95,7 @@ public final class SimTupleset implements Iterable<SimTuple> {
         this.min = min;
         this.max = max;
         this.next = next;
+        this.weights = null;
     }
 
     /**
@@ -72,6 +107,19 @@ public final class SimTupleset implements Iterable<SimTuple> {
         this.min = 0;
         this.max = 0;
         this.next = false;
+        this.weights = null;
+    }
+
+    /**
+     * Construct a tupleset containing the given list of tuples with the given
+     * weights (Note: caller MUST make sure the invariants hold!)
+     */
+    private SimTupleset(ConstList<SimTuple> tuples, long[] weights) {
+        this.tuples = tuples;
+        this.min = 0;
+        this.max = 0;
+        this.next = false;
+        this.weights = weights;
     }
 
     /** The tupleset containing no tuples. */
@@ -114,6 +162,62 @@ public final class SimTupleset implements Iterable<SimTuple> {
         return tuples.size() == 0 ? EMPTY : new SimTupleset(tuples);
     }
 
+    /**
+     * Make a tupleset containing the given list of tuples, where the i-th tuple
+     * has the i-th weight; tuples of weight 0 are left out (Note: caller MUST make
+     * sure there are no duplicates, and all tuples are of same arity!)
+     */
+    public static SimTupleset make(List<SimTuple> tuples, long[] weights) throws ErrorAPI {
+        if (tuples.size() != weights.length)
+            throw new ErrorAPI("The number of weights must match the number of tuples.");
+        Builder ans = new Builder(tuples.size());
+        for (int i = 0; i < weights.length; i++)
+            ans.add(tuples.get(i), weights[i]);
+        return ans.make();
+    }
+
+    /**
+     * Accumulates the tuples of a weighted tupleset under construction, leaving
+     * out the tuples of weight 0 (Note: caller MUST make sure there are no
+     * duplicates, and all tuples are of same arity!)
+     */
+    private static final class Builder {
+
+        private final TempList<SimTuple> tuples;
+        private long[]                   weights;
+        private boolean                  ones = true;
+
+        Builder(int capacity) {
+            tuples = new TempList<SimTuple>(capacity);
+            weights = new long[Math.max(capacity, 4)];
+        }
+
+        void add(SimTuple tuple, long weight) {
+            if (weight == 0)
+                return;
+            int n = tuples.size();
+            if (n == weights.length)
+                weights = Arrays.copyOf(weights, n * 2);
+            tuples.add(tuple);
+            weights[n] = weight;
+            if (weight != 1)
+                ones = false;
+        }
+
+        SimTupleset make() {
+            int n = tuples.size();
+            if (n == 0)
+                return EMPTY;
+            return new SimTupleset(tuples.makeConst(), ones ? null : Arrays.copyOf(weights, n));
+        }
+    }
+
+    /** Combines the weights of a tuple in two tuplesets. */
+    private interface Combinator {
+
+        long apply(long w0, long w1) throws ErrorType;
+    }
+
     /**
      * If this tupleset is empty, then return 0, else return the arity of every
      * tuple in this tupleset.
@@ -148,6 +252,55 @@ public final class SimTupleset implements Iterable<SimTuple> {
         return min >= max && tuples.size() == 0;
     }
 
+    /** Returns true if some tuple of this tupleset weighs other than 1. */
+    public boolean weighted() {
+        return weights != null;
+    }
+
+    /** Returns the weight of the i-th tuple. */
+    private long weight(long i) {
+        if (weights == null)
+            return 1;
+        return weights[(int) i];
+    }
+
+    /**
+     * Returns the weight of the given tuple, or 0 if this tupleset does not
+     * contain it.
+     */
+    public long weight(SimTuple that) {
+        Long ans = find(that);
+        return ans == null ? 0 : ans;
+    }
+
+    /**
+     * Returns the weight of the given tuple, or null if this tupleset does not
+     * contain it.
+     */
+    private Long find(SimTuple that) {
+        if (weights == null)
+            return has(that) ? 1L : null;
+        if (tuples.size() > INDEX_THRESHOLD && !index().contains(that))
+            return null;
+        int i = tuples.indexOf(that);
+        return i < 0 ? null : weights[i];
+    }
+
+    /**
+     * Returns the sum of the weights of all tuples (which is the number of tuples
+     * if this tupleset is not weighted)
+     *
+     * @throws ErrorType if the sum does not fit in a 64-bit integer
+     */
+    public long count() throws ErrorType {
+        if (weights == null)
+            return longsize();
+        long ans = 0;
+        for (long w : weights)
+            ans = add(ans, w);
+        return ans;
+    }
+
     /**
      * Returns the number of tuples in this tupleset (this answer may be truncated
      * if it cannot fit in a 32-bit integer)
@@ -183,7 +336,17 @@ public final class SimTupleset implements Iterable<SimTuple> {
             if (a != null && b != null && a < b && a.intValue() == b.intValue() - 1 && min <= a && b <= max)
                 return true;
         }
-        return tuples.contains(that);
+        if (tuples.size() <= INDEX_THRESHOLD)
+            return tuples.contains(that);
+        return index().contains(that);
+    }
+
+    /** Returns the set of tuples in the list of tuples, computing it if needed. */
+    private Set<SimTuple> index() {
+        Set<SimTuple> ans = index;
+        if (ans == null)
+            index = ans = new HashSet<SimTuple>(tuples);
+        return ans;
     }
 
     /**
@@ -197,6 +360,8 @@ public final class SimTupleset implements Iterable<SimTuple> {
             if (a != null && min <= a && a <= max)
                 return true;
         }
+        if (tuples.size() > INDEX_THRESHOLD)
+            return index().contains(SimTuple.make(that));
         for (int i = tuples.size() - 1; i >= 0; i--)
             if (tuples.get(i).get(0) == that)
                 return true;
@@ -245,6 +410,8 @@ public final class SimTupleset implements Iterable<SimTuple> {
             return that;
         if (that.empty() || arity() != that.arity())
             return this;
+        if (weights != null || that.weights != null)
+            return merge(that, MAX, true, true, false);
         TempList<SimTuple> ans = null; // when null, it means we haven't found
                                       // any new tuple to add yet
         for (SimTuple x : that)
@@ -267,6 +434,8 @@ public final class SimTupleset implements Iterable<SimTuple> {
             return make(that);
         if (arity() != that.arity() || has(that))
             return this;
+        if (weights != null)
+            return merge(make(that), null, true, true, false);
         TempList<SimTuple> ans = new TempList<SimTuple>(tuples.size() + 1);
         ans.addAll(tuples).add(that);
         return new SimTupleset(ans.makeConst(), min, max, next);
@@ -374,6 +543,7 @@ public final class SimTupleset implements Iterable<SimTuple> {
      */
     void write(BufferedOutputStream out) throws IOException {
         boolean first = true;
+        long i = 0;
         out.write('{');
         for (SimTuple x : this) {
             if (first)
@@ -381,12 +551,15 @@ public final class SimTupleset implements Iterable<SimTuple> {
             else
                 out.write(' ');
             x.write(out);
+            if (weights != null)
+                out.write(("=" + weights[(int) i++]).getBytes("UTF-8"));
         }
         out.write('}');
     }
 
     /**
-     * Read a { (".." ".." "..") (".." ".." "..") (".." ".." "..") } tupleset.
+     * Read a { (".." ".." "..") (".." ".." "..") (".." ".." "..") } tupleset, where
+     * each tuple may be followed by "=weight".
      */
     static SimTupleset read(BufferedInputStream in) throws IOException {
         while (true) {
@@ -400,7 +573,8 @@ public final class SimTupleset implements Iterable<SimTuple> {
             else
                 throw new IOException("Expecting start of tupleset");
         }
-        LinkedHashSet<SimTuple> list = new LinkedHashSet<SimTuple>();
+        LinkedHashMap<SimTuple,Long> list = new LinkedHashMap<SimTuple,Long>();
+        boolean weighted = false;
         while (true) {
             int c = in.read();
             if (c < 0)
@@ -411,8 +585,21 @@ public final class SimTupleset implements Iterable<SimTuple> {
                 break;
             if (c != '(')
                 throw new IOException("Expecting start of tuple");
-            list.add(SimTuple.read(in));
+            SimTuple tuple = SimTuple.read(in);
+            long weight = 1;
             c = in.read();
+            if (c == '=') {
+                weighted = true;
+                StringBuilder sb = new StringBuilder();
+                while ((c = in.read()) == '-' || (c >= '0' && c <= '9'))
+                    sb.append((char) c);
+                try {
+                    weight = Long.parseLong(sb.toString());
+                } catch (NumberFormatException ex) {
+                    throw new IOException("Expecting an integer weight after \'=\'.");
+                }
+            }
+            list.put(tuple, weight);
             if (c < 0)
                 throw new IOException("Unexpected EOF");
             if (c == '}')
@@ -420,33 +607,26 @@ public final class SimTupleset implements Iterable<SimTuple> {
             if (!(c <= ' '))
                 throw new IOException("Expecting \')\' or white space after a tuple.");
         }
-        return make(list);
-    }
-
-    /**
-     * Returns the index position if the list of tuples contains the tuple (a,b) (or
-     * return -1 if not found).
-     */
-    private static int find(TempList<SimTuple> tuples, SimAtom a, SimAtom b) {
-        if (tuples.size() == 0 || tuples.get(0).arity() != 2)
-            return -1;
-        for (int i = tuples.size() - 1; i >= 0; i--) {
-            SimTuple x = tuples.get(i);
-            if (x.head() == a && x.tail() == b)
-                return i;
-        }
-        return -1;
+        if (!weighted)
+            return make(list.keySet());
+        Builder ans = new Builder(list.size());
+        for (Map.Entry<SimTuple,Long> e : list.entrySet())
+            ans.add(e.getKey(), e.getValue());
+        return ans.make();
     }
 
     /** {@inheritDoc} */
     @Override
     public String toString() {
         StringBuilder sb = null;
+        long i = 0;
         for (SimTuple x : this) {
             if (sb == null)
                 sb = new StringBuilder("{");
             else
                 sb.append(", ");
+            if (weights != null)
+                sb.append(weights[(int) i++]).append(" ** ");
             x.toString(sb);
         }
         return sb == null ? "{}" : (sb.append("}").toString());
@@ -458,8 +638,9 @@ public final class SimTupleset implements Iterable<SimTuple> {
     @Override
     public int hashCode() {
         int ans = 0;
+        long i = 0;
         for (SimTuple t : this)
-            ans = ans + t.hashCode();
+            ans = ans + t.hashCode() + (weights == null ? 0 : 31 * Long.hashCode(weights[(int) i++]));
         return ans;
     }
 
@@ -477,21 +658,81 @@ public final class SimTupleset implements Iterable<SimTuple> {
     public boolean equals(SimTupleset that) {
         // since SimTupleset must not contain duplicates, and
         // this.size()==that.size(), comparing one way is sufficient
-        return this == that || (that != null && longsize() == that.longsize() && in(that));
+        if (this == that)
+            return true;
+        if (that == null || longsize() != that.longsize())
+            return false;
+        if (weights == null && that.weights == null)
+            return in(that);
+        return (weights == null) == (that.weights == null) && compare(that) == 0;
     }
 
-    /** Returns true if this is a subset of that. */
+    /**
+     * Returns true if this is a subset of that (if either is weighted, then every
+     * tuple of this must also be in that, with a weight no smaller)
+     */
     public boolean in(SimTupleset that) {
         if (empty() || this == that)
             return true;
         if (longsize() > that.longsize() || arity() != that.arity())
             return false;
-        for (SimTuple t : this)
-            if (!that.has(t))
+        long i = 0;
+        for (SimTuple t : this) {
+            if (weights == null && that.weights == null) {
+                if (!that.has(t))
+                    return false;
+                continue;
+            }
+            Long w = that.find(t);
+            if (w == null || weight(i++) > w)
                 return false;
+        }
         return true;
     }
 
+    /**
+     * Returns true if the weight of each tuple of this or that is no greater in
+     * this than in that (where a tuple weighs 0 in a tupleset that does not
+     * contain it), and is smaller for at least one tuple.
+     */
+    public boolean lt(SimTupleset that) {
+        return compare(that) < 0;
+    }
+
+    /**
+     * Returns true if the weight of each tuple of this or that is no greater in
+     * this than in that (where a tuple weighs 0 in a tupleset that does not
+     * contain it).
+     */
+    public boolean lte(SimTupleset that) {
+        return compare(that) <= 0;
+    }
+
+    /**
+     * Returns -1 if this.lt(that), 0 if this and that have the same weights, -2 if
+     * this.lte(that) holds in neither way, and 1 otherwise.
+     */
+    private int compare(SimTupleset that) {
+        if (this == that)
+            return 0;
+        boolean less = false, greater = false;
+        long i = 0;
+        for (SimTuple t : this) {
+            long w0 = weight(i++), w1 = that.weight(t);
+            less |= w0 < w1;
+            greater |= w0 > w1;
+        }
+        i = 0;
+        for (SimTuple t : that) {
+            long w1 = that.weight(i++);
+            if (!has(t)) {
+                less |= 0 < w1;
+                greater |= 0 > w1;
+            }
+        }
+        return less ? (greater ? -2 : -1) : (greater ? 1 : 0);
+    }
+
     /**
      * Sum up all the integer atoms in this tupleset; (if this tupleset's arity is
      * not 1, then we return 0)
@@ -539,6 +780,8 @@ public final class SimTupleset implements Iterable<SimTuple> {
             return SimTupleset.make(that);
         if (arity() != that.arity())
             return this;
+        if (weights != null)
+            return overrideWeighted(make(that));
         boolean added = false, same = false;
         TempList<SimTuple> ans = new TempList<SimTuple>(size());
         SimAtom head = that.get(0);
@@ -568,12 +811,14 @@ public final class SimTupleset implements Iterable<SimTuple> {
      * Note: in general, the tuples may be ordered arbitrarily in the result.
      */
     public SimTupleset override(SimTupleset that) throws ErrorAPI {
-        if (arity() == 1)
+        if (arity() == 1 && weights == null && that.weights == null)
             return union(that);
         if (this.empty() || this == that)
             return that;
         if (that.empty() || this.arity() != that.arity())
             return this;
+        if (weights != null || that.weights != null)
+            return overrideWeighted(that);
         if (that.longsize() == 1)
             return override(that.getTuple()); // very common case, so let's
                                              // optimize it
@@ -585,9 +830,32 @@ public final class SimTupleset implements Iterable<SimTuple> {
         return new SimTupleset(ans.makeConst());
     }
 
+    /**
+     * Return the weighted relational override of this and that: the tuples of
+     * that, with their weights, replace every tuple of this which begins with the
+     * same atom.
+     */
+    private SimTupleset overrideWeighted(SimTupleset that) {
+        Builder ans = new Builder(size() + that.size());
+        long i = 0;
+        again: for (SimTuple x : this) {
+            long w = weight(i++);
+            for (SimTuple y : that)
+                if (y.get(0) == x.get(0))
+                    continue again;
+            ans.add(x, w);
+        }
+        i = 0;
+        for (SimTuple y : that)
+            ans.add(y, that.weight(i++));
+        return ans.make();
+    }
+
     /**
      * Return this minus that; (if this tupleset and that tupleset does not have
-     * compatible arity, then we return this tupleset as is). <br/>
+     * compatible arity, then we return this tupleset as is). If either is
+     * weighted, each tuple weighs its weight in this less its weight in that (if
+     * the latter is smaller). <br/>
      * Note: The resulting tuples will keep their original order.
      */
     public SimTupleset difference(SimTupleset that) {
@@ -595,6 +863,8 @@ public final class SimTupleset implements Iterable<SimTuple> {
             return EMPTY;
         if (that.empty() || arity() != that.arity())
             return this;
+        if (weights != null || that.weights != null)
+            return merge(that, DIFFERENCE, true, false, false);
         TempList<SimTuple> ans = new TempList<SimTuple>(size() - 1);
         for (SimTuple x : this)
             if (!that.has(x))
@@ -612,6 +882,8 @@ public final class SimTupleset implements Iterable<SimTuple> {
     public SimTupleset difference(SimTuple that) {
         if (empty() || arity() != that.arity())
             return this;
+        if (weights != null)
+            return has(that) ? merge(make(that), null, true, false, false) : this;
         TempList<SimTuple> ans = new TempList<SimTuple>(size() - 1);
         for (SimTuple x : this) {
             if (that == null || !x.equals(that))
@@ -630,13 +902,22 @@ public final class SimTupleset implements Iterable<SimTuple> {
         if (empty())
             return EMPTY;
         TempList<SimTuple> ans = new TempList<SimTuple>(size() - 1);
+        Builder weighted = weights == null ? null : new Builder(size());
+        long j = 0;
         again: for (SimTuple x : this) {
+            long w = weight(j++);
             for (int i = x.arity() - 1; i >= 0; i--)
                 if (x.get(i) == that)
                     continue again;
             ans.add(x);
+            if (weighted != null)
+                weighted.add(x, w);
         }
-        return ans.size() == longsize() ? this : (ans.size() == 0 ? EMPTY : new SimTupleset(ans.makeConst()));
+        if (ans.size() == longsize())
+            return this;
+        if (weighted != null)
+            return weighted.make();
+        return ans.size() == 0 ? EMPTY : new SimTupleset(ans.makeConst());
     }
 
     /**
@@ -646,6 +927,13 @@ public final class SimTupleset implements Iterable<SimTuple> {
     public SimTupleset transpose() {
         if (empty() || arity() != 2)
             return EMPTY;
+        if (weights != null) {
+            Builder ans = new Builder(size());
+            long i = 0;
+            for (SimTuple x : this)
+                ans.add(SimTuple.make(x.tail(), x.head()), weight(i++));
+            return ans.make();
+        }
         TempList<SimTuple> ans = new TempList<SimTuple>(size());
         for (SimTuple x : this)
             ans.add(SimTuple.make(x.tail(), x.head())); // since "this" has no
@@ -656,10 +944,25 @@ public final class SimTupleset implements Iterable<SimTuple> {
         return new SimTupleset(ans.makeConst());
     }
 
-    /** Return the cartesian product of this and that. */
-    public SimTupleset product(SimTupleset that) {
+    /**
+     * Return the cartesian product of this and that (where each tuple weighs the
+     * product of the weights of its two parts)
+     *
+     * @throws ErrorType if a weight does not fit in a 64-bit integer
+     */
+    public SimTupleset product(SimTupleset that) throws ErrorType {
         if (empty() || that.empty())
             return EMPTY;
+        if (weights != null || that.weights != null) {
+            Builder ans = new Builder(size() * that.size());
+            long i = 0;
+            for (SimTuple a : this) {
+                long w = weight(i++), j = 0;
+                for (SimTuple b : that)
+                    ans.add(a.product(b), multiply(w, that.weight(j++)));
+            }
+            return ans.make();
+        }
         TempList<SimTuple> ans = new TempList<SimTuple>(size() * that.size());
         for (SimTuple a : this)
             for (SimTuple b : that) {
@@ -673,30 +976,76 @@ public final class SimTupleset implements Iterable<SimTuple> {
 
     /**
      * Return the relational join between this and that (throws ErrorType if
-     * this.arity==1 and that.arity==1)
+     * this.arity==1 and that.arity==1); if either is weighted, each tuple weighs
+     * the largest, over every pair of tuples joined into it, of the smaller of
+     * their weights.
      */
     public SimTupleset join(SimTupleset that) throws ErrorType {
         if (empty() || that.empty())
             return EMPTY;
         if (arity() == 1 && that.arity() == 1)
             throw new ErrorType("Cannot join two unary relations.");
-        TempList<SimTuple> ans = new TempList<SimTuple>();
+        if (weights != null || that.weights != null)
+            return join(that, false);
+        if (arity() <= 2 && that.arity() <= 2)
+            return new Atoms().join(this, that);
+        LinkedHashSet<SimTuple> ans = new LinkedHashSet<SimTuple>();
         for (SimTuple a : this)
             for (SimTuple b : that)
-                if (a.tail() == b.head()) {
-                    SimTuple c = a.join(b);
-                    if (!ans.contains(c))
-                        ans.add(c);
-                }
-        return ans.size() == 0 ? EMPTY : new SimTupleset(ans.makeConst());
+                if (a.tail() == b.head())
+                    ans.add(a.join(b));
+        return make(ans);
+    }
+
+    /**
+     * Return the weighted join between this and that, where each tuple weighs the
+     * sum, over every pair of tuples joined into it, of the product of their
+     * weights (throws ErrorType if this.arity==1 and that.arity==1)
+     */
+    public SimTupleset multijoin(SimTupleset that) throws ErrorType {
+        if (empty() || that.empty())
+            return EMPTY;
+        if (arity() == 1 && that.arity() == 1)
+            throw new ErrorType("Cannot join two unary relations.");
+        return join(that, true);
+    }
+
+    /**
+     * Helper method that computes the sum-product (if sum is true) or max-min
+     * product of this and that.
+     */
+    private SimTupleset join(SimTupleset that, boolean sum) throws ErrorType {
+        LinkedHashMap<SimTuple,Long> ans = new LinkedHashMap<SimTuple,Long>();
+        long i = 0;
+        for (SimTuple a : this) {
+            long wa = weight(i++), j = 0;
+            for (SimTuple b : that) {
+                long wb = that.weight(j++);
+                if (a.tail() != b.head())
+                    continue;
+                SimTuple c = a.join(b);
+                long w = sum ? multiply(wa, wb) : Math.min(wa, wb);
+                Long old = ans.get(c);
+                ans.put(c, old == null ? w : (sum ? add(old, w) : Math.max(old, w)));
+            }
+        }
+        Builder b = new Builder(ans.size());
+        for (Map.Entry<SimTuple,Long> e : ans.entrySet())
+            b.add(e.getKey(), e.getValue());
+        return b.make();
     }
 
-    /** Return the intersection of this and that. */
+    /**
+     * Return the intersection of this and that (where each tuple weighs the
+     * smaller of its weights)
+     */
     public SimTupleset intersect(SimTupleset that) {
         if (this == that)
             return this;
         else if (empty() || that.empty())
             return EMPTY;
+        if (weights != null || that.weights != null)
+            return arity() != that.arity() ? EMPTY : merge(that, MIN, false, false, false);
         TempList<SimTuple> ans = new TempList<SimTuple>(size() < that.size() ? size() : that.size());
         for (SimTuple x : that)
             if (has(x))
@@ -731,6 +1080,16 @@ public final class SimTupleset implements Iterable<SimTuple> {
     public SimTupleset domain(SimTupleset that) {
         if (arity() != 1 || that.empty())
             return EMPTY;
+        if (that.weights != null) {
+            Builder ans = new Builder(that.size());
+            long i = 0;
+            for (SimTuple x : that) {
+                long w = that.weight(i++);
+                if (has(x.head()))
+                    ans.add(x, w);
+            }
+            return ans.make();
+        }
         TempList<SimTuple> ans = new TempList<SimTuple>(that.size());
         for (SimTuple x : that)
             if (has(x.head()))
@@ -744,9 +1103,19 @@ public final class SimTupleset implements Iterable<SimTuple> {
     public SimTupleset range(SimTupleset that) {
         if (that.arity() != 1 || this.empty())
             return EMPTY;
+        if (weights != null) {
+            Builder ans = new Builder(size());
+            long i = 0;
+            for (SimTuple x : this) {
+                long w = weight(i++);
+                if (that.has(x.tail()))
+                    ans.add(x, w);
+            }
+            return ans.make();
+        }
         TempList<SimTuple> ans = new TempList<SimTuple>(this.size());
         for (SimTuple x : this)
-            if (that.has(x.head()))
+            if (that.has(x.tail()))
                 ans.add(x);
         return ans.size() == this.longsize() ? this : (ans.size() == 0 ? EMPTY : new SimTupleset(ans.makeConst()));
     }
@@ -758,42 +1127,392 @@ public final class SimTupleset implements Iterable<SimTuple> {
     public SimTupleset closure() {
         if (arity() != 2)
             return EMPTY;
-        TempList<SimTuple> ar = new TempList<SimTuple>(size());
-        ar.addAll(this);
+        if (weights != null)
+            return closureWeighted();
+        TempList<SimTuple> ans = new Atoms().closure(this);
+        return ans.size() == longsize() ? this : new SimTupleset(ans.makeConst());
+    }
+
+    /**
+     * Numbers the atoms of unary and binary tuplesets, so that a unary tupleset is
+     * a bitset over these numbers, and a binary tupleset is the adjacency list of
+     * each atom in compressed sparse row form; the join is then a sparse matrix
+     * product, and the closure a breadth-first search from each atom.
+     */
+    private static final class Atoms {
+
+        /** Maps each atom seen so far to its number. */
+        private final IdentityHashMap<SimAtom,Integer> numbers = new IdentityHashMap<SimAtom,Integer>();
+
+        /** The atoms seen so far, in the order of their numbers. */
+        private final List<SimAtom>                    atoms   = new ArrayList<SimAtom>();
+
+        /** Returns the number of the given atom, numbering it if needed. */
+        private int number(SimAtom atom) {
+            Integer ans = numbers.get(atom);
+            if (ans == null) {
+                ans = atoms.size();
+                numbers.put(atom, ans);
+                atoms.add(atom);
+            }
+            return ans;
+        }
+
+        /** Returns the bitset of the atoms of the given unary tupleset. */
+        private BitSet set(SimTupleset unary) {
+            BitSet ans = new BitSet();
+            for (SimTuple x : unary)
+                ans.set(number(x.head()));
+            return ans;
+        }
+
+        /**
+         * Returns the given binary tupleset in compressed sparse row form: the
+         * successors of the atom numbered i are in ans[1][ans[0][i] .. ans[0][i+1]-1]
+         * (or nowhere, if i is not below ans[0].length-1)
+         */
+        private int[][] rows(SimTupleset binary) {
+            int n = binary.size(), k = 0;
+            int[] heads = new int[n], tails = new int[n];
+            for (SimTuple x : binary) {
+                heads[k] = number(x.head());
+                tails[k++] = number(x.tail());
+            }
+            int[] start = new int[atoms.size() + 1], cols = new int[n];
+            for (int i = 0; i < n; i++)
+                start[heads[i] + 1]++;
+            for (int i = 1; i < start.length; i++)
+                start[i] += start[i - 1];
+            int[] next = Arrays.copyOf(start, start.length - 1);
+            for (int i = 0; i < n; i++)
+                cols[next[heads[i]]++] = tails[i];
+            return new int[][] {
+                                start, cols
+            };
+        }
+
+        /** Returns the number of rows of the given compressed sparse rows. */
+        private static int height(int[][] rows) {
+            return rows[0].length - 1;
+        }
+
+        /** Adds the successors of the atom numbered i to the given bitset. */
+        private static void successors(int[][] rows, int i, BitSet ans) {
+            if (i < height(rows))
+                for (int j = rows[0][i], end = rows[0][i + 1]; j < end; j++)
+                    ans.set(rows[1][j]);
+        }
+
+        /** Returns the unary tupleset of the atoms in the given bitset. */
+        private SimTupleset unary(BitSet set) {
+            TempList<SimTuple> ans = new TempList<SimTuple>(set.cardinality());
+            for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1))
+                ans.add(SimTuple.make(atoms.get(i)));
+            return ans.size() == 0 ? EMPTY : new SimTupleset(ans.makeConst());
+        }
+
+        /**
+         * Returns the join of a and b, which are nonempty, unweighted, of arity 1 or
+         * 2, and not both unary.
+         */
+        SimTupleset join(SimTupleset a, SimTupleset b) {
+            if (a.arity() == 1) {
+                int[][] rows = rows(b);
+                BitSet left = set(a), ans = new BitSet();
+                for (int i = left.nextSetBit(0); i >= 0 && i < height(rows); i = left.nextSetBit(i + 1))
+                    successors(rows, i, ans);
+                return unary(ans);
+            }
+            int[][] rows = rows(a);
+            if (b.arity() == 1) {
+                BitSet right = set(b), ans = new BitSet();
+                for (int i = 0; i < height(rows); i++)
+                    for (int j = rows[0][i], end = rows[0][i + 1]; j < end; j++)
+                        if (right.get(rows[1][j])) {
+                            ans.set(i);
+                            break;
+                        }
+                return unary(ans);
+            }
+            int[][] rows2 = rows(b);
+            TempList<SimTuple> ans = new TempList<SimTuple>();
+            BitSet row = new BitSet();
+            for (int i = 0; i < height(rows); i++) {
+                row.clear();
+                for (int j = rows[0][i], end = rows[0][i + 1]; j < end; j++)
+                    successors(rows2, rows[1][j], row);
+                for (int k = row.nextSetBit(0); k >= 0; k = row.nextSetBit(k + 1))
+                    ans.add(SimTuple.make(atoms.get(i), atoms.get(k)));
+            }
+            return ans.size() == 0 ? EMPTY : new SimTupleset(ans.makeConst());
+        }
+
+        /**
+         * Returns the tuples of the closure of the given binary unweighted
+         * tupleset, where the tuples (a,b) are grouped by a.
+         */
+        TempList<SimTuple> closure(SimTupleset binary) {
+            int[][] rows = rows(binary);
+            TempList<SimTuple> ans = new TempList<SimTuple>(binary.size());
+            BitSet seen = new BitSet();
+            int[] queue = new int[atoms.size()];
+            for (int i = 0; i < height(rows); i++) {
+                if (rows[0][i] == rows[0][i + 1])
+                    continue;
+                seen.clear();
+                int head = 0, tail = 0;
+                for (int j = rows[0][i], end = rows[0][i + 1]; j < end; j++)
+                    if (!seen.get(rows[1][j])) {
+                        seen.set(rows[1][j]);
+                        queue[tail++] = rows[1][j];
+                    }
+                while (head < tail) {
+                    int k = queue[head++];
+                    if (k < height(rows))
+                        for (int j = rows[0][k], end = rows[0][k + 1]; j < end; j++)
+                            if (!seen.get(rows[1][j])) {
+                                seen.set(rows[1][j]);
+                                queue[tail++] = rows[1][j];
+                            }
+                }
+                for (int k = seen.nextSetBit(0); k >= 0; k = seen.nextSetBit(k + 1))
+                    ans.add(SimTuple.make(atoms.get(i), atoms.get(k)));
+            }
+            return ans;
+        }
+    }
+
+    /**
+     * Helper method that computes the closure of this weighted tupleset, where
+     * each tuple (a,b) weighs the largest, over every path from a to b, of the
+     * smallest weight along that path.
+     */
+    private SimTupleset closureWeighted() {
+        LinkedHashMap<SimTuple,Long> ans = new LinkedHashMap<SimTuple,Long>();
+        long k = 0;
+        for (SimTuple x : this)
+            ans.put(x, weight(k++));
         while (true) {
-            int n = ar.size();
-            for (int i = 0; i < n; i++) {
-                SimTuple left = ar.get(i);
-                if (left.head() == left.tail())
-                    continue; // whatever "right" is, "left.right" won't add any
-                             // new tuple to the final answer
-                for (int j = 0; j < n; j++)
-                    if (i != j) { // whatever "left" is, "left.left" won't add
-                                 // any new tuple to the final answer
-                        SimTuple right = ar.get(j);
-                        if (right.head() == right.tail())
-                            continue; // whatever "left" is, "left.right" won't
-                                     // add any new tuple to the final answer
-                        if (left.tail() == right.head() && find(ar, left.head(), right.tail()) < 0)
-                            ar.add(SimTuple.make(left.head(), right.tail()));
+            boolean changed = false;
+            List<Map.Entry<SimTuple,Long>> edges = new ArrayList<Map.Entry<SimTuple,Long>>(ans.entrySet());
+            for (Map.Entry<SimTuple,Long> left : edges)
+                for (Map.Entry<SimTuple,Long> right : edges)
+                    if (left.getKey().tail() == right.getKey().head()) {
+                        SimTuple x = SimTuple.make(left.getKey().head(), right.getKey().tail());
+                        long w = Math.min(ans.get(left.getKey()), ans.get(right.getKey()));
+                        Long old = ans.get(x);
+                        if (old == null || old < w) {
+                            ans.put(x, w);
+                            changed = true;
+                        }
                     }
+            if (!changed)
+                break;
+        }
+        Builder b = new Builder(ans.size());
+        for (Map.Entry<SimTuple,Long> e : ans.entrySet())
+            b.add(e.getKey(), e.getValue());
+        return b.make();
+    }
+
+    // ================================================================================================================//
+
+    /**
+     * Return this tupleset without its weights, i.e., where every tuple weighs 1.
+     */
+    public SimTupleset drop() {
+        return weights == null ? this : new SimTupleset(tuples);
+    }
+
+    /**
+     * Return the weighted union of this and that, where each tuple weighs the sum
+     * of its weights; (if this tupleset and that tupleset does not have
+     * compatible arity, then we return this tupleset as is)
+     *
+     * @throws ErrorType if a weight does not fit in a 64-bit integer
+     */
+    public SimTupleset addition(SimTupleset that) throws ErrorType {
+        if (this.empty())
+            return that;
+        if (that.empty() || arity() != that.arity())
+            return this;
+        return merge(that, ADD, true, true, false);
+    }
+
+    /**
+     * Return the weighted difference of this and that, where each tuple weighs its
+     * weight in this minus its weight in that; (if this tupleset and that tupleset
+     * does not have compatible arity, then we return this tupleset as is)
+     *
+     * @throws ErrorType if a weight does not fit in a 64-bit integer
+     */
+    public SimTupleset minus(SimTupleset that) throws ErrorType {
+        if (that.empty() || (!empty() && arity() != that.arity()))
+            return this;
+        return merge(that, SUBTRACT, true, true, true);
+    }
+
+    /**
+     * Return the Hadamard product of this and that, i.e., their intersection where
+     * each tuple weighs the product of its weights.
+     *
+     * @throws ErrorType if a weight does not fit in a 64-bit integer
+     */
+    public SimTupleset hadamardProduct(SimTupleset that) throws ErrorType {
+        if (empty() || that.empty() || arity() != that.arity())
+            return EMPTY;
+        return merge(that, MULTIPLY, false, false, false);
+    }
+
+    /**
+     * Return the Hadamard division of this and that, i.e., this where each tuple
+     * weighs its weight divided by its weight in that (rounded towards 0).
+     *
+     * @throws ErrorType if some tuple of this is not in that
+     */
+    public SimTupleset hadamardDivision(SimTupleset that) throws ErrorType {
+        if (empty())
+            return EMPTY;
+        if (arity() != that.arity() && !that.empty())
+            return EMPTY;
+        Builder ans = new Builder(size());
+        long i = 0;
+        for (SimTuple x : this) {
+            long w0 = weight(i++);
+            Long w1 = that.find(x);
+            if (w1 == null)
+                throw new ErrorType("Division by zero is undefined.");
+            ans.add(x, w1 == -1 ? negate(w0) : w0 / w1);
+        }
+        return ans.make();
+    }
+
+    /**
+     * Return this tupleset where each tuple weighs its weight times the given
+     * scalar.
+     *
+     * @throws ErrorType if a weight does not fit in a 64-bit integer
+     */
+    public SimTupleset scale(long scalar) throws ErrorType {
+        if (scalar == 1 || empty())
+            return this;
+        Builder ans = new Builder(size());
+        long i = 0;
+        for (SimTuple x : this)
+            ans.add(x, multiply(weight(i++), scalar));
+        return ans.make();
+    }
+
+    /**
+     * Merges the tuples of this and that (which must have the same arity).
+     *
+     * @param both - computes the weight of the tuples in both (if null, such
+     *            tuples are left out)
+     * @param left - whether the tuples only in this are kept
+     * @param right - whether the tuples only in that are kept
+     * @param negateRight - whether the weights of the tuples only in that are
+     *            negated
+     */
+    private SimTupleset merge(SimTupleset that, Combinator both, boolean left, boolean right, boolean negateRight) throws ErrorType {
+        Builder ans = new Builder(size() + that.size());
+        long i = 0;
+        for (SimTuple x : this) {
+            long w0 = weight(i++);
+            Long w1 = that.find(x);
+            if (w1 == null) {
+                if (left)
+                    ans.add(x, w0);
+            } else if (both != null)
+                ans.add(x, both.apply(w0, w1));
+        }
+        if (right) {
+            i = 0;
+            for (SimTuple x : that) {
+                long w1 = that.weight(i++);
+                if (!has(x))
+                    ans.add(x, negateRight ? negate(w1) : w1);
             }
-            if (n == ar.size())
-                return ar.size() == longsize() ? this : new SimTupleset(ar.makeConst()); // if
-                                                                                        // we
-                                                                                        // went
-                                                                                        // through
-                                                                                        // the
-                                                                                        // loop
-                                                                                        // without
-                                                                                        // making
-                                                                                        // any
-                                                                                        // change,
-                                                                                        // we're
-                                                                                        // done
+        }
+        return ans.make();
+    }
+
+    private static final Combinator MAX        = new Combinator() {
+
+                                                   @Override
+                                                   public long apply(long w0, long w1) {
+                                                       return Math.max(w0, w1);
+                                                   }
+                                               };
+
+    private static final Combinator MIN        = new Combinator() {
+
+                                                   @Override
+                                                   public long apply(long w0, long w1) {
+                                                       return Math.min(w0, w1);
+                                                   }
+                                               };
+
+    private static final Combinator DIFFERENCE = new Combinator() {
+
+                                                   @Override
+                                                   public long apply(long w0, long w1) {
+                                                       return w0 - Math.min(w0, w1);
+                                                   }
+                                               };
+
+    private static final Combinator ADD        = new Combinator() {
+
+                                                   @Override
+                                                   public long apply(long w0, long w1) throws ErrorType {
+                                                       return add(w0, w1);
+                                                   }
+                                               };
+
+    private static final Combinator SUBTRACT   = new Combinator() {
+
+                                                   @Override
+                                                   public long apply(long w0, long w1) throws ErrorType {
+                                                       return add(w0, negate(w1));
+                                                   }
+                                               };
+
+    private static final Combinator MULTIPLY   = new Combinator() {
+
+                                                   @Override
+                                                   public long apply(long w0, long w1) throws ErrorType {
+                                                       return multiply(w0, w1);
+                                                   }
+                                               };
+
+    /** Returns a+b, or throws ErrorType if it overflows. */
+    private static long add(long a, long b) throws ErrorType {
+        try {
+            return Math.addExact(a, b);
+        } catch (ArithmeticException ex) {
+            throw new ErrorType("Weight overflow: " + a + " + " + b);
         }
     }
 
+    /** Returns a*b, or throws ErrorType if it overflows. */
+    private static long multiply(long a, long b) throws ErrorType {
+        try {
+            return Math.multiplyExact(a, b);
+        } catch (ArithmeticException ex) {
+            throw new ErrorType("Weight overflow: " + a + " * " + b);
+        }
+    }
+
+    /** Returns -a, or throws ErrorType if it overflows. */
+    private static long negate(long a) throws ErrorType {
+        try {
+            return Math.negateExact(a);
+        } catch (ArithmeticException ex) {
+            throw new ErrorType("Weight overflow: -(" + a + ")");
+        }
+    }
+
+    // ================================================================================================================//
+
     /**
      * Return the set of tuples which begins with the given tuple (where we remove
      * the "matching leading part")
@@ -304,6 +304,7 @@ public final class A4Options implements Serializable {
         x.coreGranularity = coreGranularity;
         x.analysisType = analysisType;
         x.quantitativeSolver = quantitativeSolver;
+        x.quantitativeTimeout = quantitativeTimeout;
         return x;
     }
 
@@ -314,4 +315,6 @@ public final class A4Options implements Serializable {
     public String analysisType = "Boolean";
     // Solver selected to perform the quantitative solving: CVC4, Z3, ... ('None' if analysisType = 'Boolean')
     public String quantitativeSolver =  "None";
+    // Maximum time, in milliseconds, of each satisfiability check of the quantitative solver (0 = none)
+    public long quantitativeTimeout = 0;
 }
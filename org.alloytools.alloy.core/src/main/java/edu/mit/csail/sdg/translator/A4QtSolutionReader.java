@@ -12,9 +12,9 @@ import kodkod.instance.QtTupleSet;
 import kodkod.instance.Tuple;
 import kodkod.instance.TupleSet;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
-import java.util.function.Function;
 import java.util.regex.Pattern;
 
 /**
@@ -26,6 +26,10 @@ public class A4QtSolutionReader extends A4SolutionReader {
         super(sigs, xml);
     }
 
+    private A4QtSolutionReader(Iterable<Sig> sigs, XMLNode skeleton, A4TupleStream stream) throws IOException, Err {
+        super(sigs, skeleton, stream);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -51,10 +55,69 @@ public class A4QtSolutionReader extends A4SolutionReader {
         sol.solve(null, null, null, qts, null);
     }
 
+    /** Weight format: assuming that the XML is well formed, a weight is either a double or an integer. */
+    private static final Pattern DECIMAL = Pattern.compile("(-?)[0-9]+(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+
+    /** The expected format of a tuple. */
+    private static final String EXPECTING = "Expecting: <tuple> <atom label=\"..\"/> .. </tuple> or <tuple weight=\"..\"> <atom label=\"..\"/> .. </tuple>";
+
+    /** Weight Parser */
+    private static Number parseNum(String n) {
+        return DECIMAL.matcher(n).matches() ? Double.parseDouble(n) : Integer.parseInt(n);
+    }
+
+    /**
+     * Collects the tuples of a relation, which is numeric if its first tuple has a weight, and Boolean otherwise.
+     */
+    private final class Tuples implements A4TupleStream.Visitor {
+
+        private final int arity;
+        private TupleSet  ans;
+
+        Tuples(int arity) {
+            this.arity = arity;
+        }
+
+        void add(Tuple t, Number weight) throws Err {
+            if (t.arity() != arity)
+                throw new ErrorFatal("Expecting: tuple of arity " + arity + " but got tuple of arity " + t.arity());
+            // Check if its a Numeric or Boolean Relation
+            if (ans == null)
+                ans = weight == null ? factory.noneOf(arity) : factory.noneOfQt(arity);
+            else if (weight == null && ans instanceof QtTupleSet)
+                throw new ErrorFatal("Expecting: <tuple weight=\"..\"> <atom label=\"..\"/> .. </tuple>");
+            else if (weight != null && !(ans instanceof QtTupleSet))
+                throw new ErrorFatal("Expecting: <tuple> <atom label=\"..\"/> .. </tuple>");
+            if (weight == null)
+                ans.add(t);
+            else ((QtTupleSet) ans).add(t, weight);
+        }
+
+        @Override
+        public void tuple(List<String> atoms, String weight) throws Err {
+            Tuple t;
+            try {
+                t = factory.tuple(atoms);
+            } catch (Throwable ex) {
+                throw new ErrorFatal(EXPECTING, ex);
+            }
+            add(t, weight == null ? null : parseNum(weight));
+        }
+
+        @Override
+        public void tuple(Tuple t, Number weight) throws Err {
+            add(t, weight);
+        }
+
+        TupleSet result() {
+            return ans == null ? factory.noneOf(arity) : ans;
+        }
+    }
+
     /** Parse tuple. */
-    private Pair<Tuple, String> parseTuple(XMLNode tuple, int arity, Boolean isBoolean) throws Err {
+    private Pair<Tuple, String> parseTuple(XMLNode tuple) throws Err {
         Tuple ans = null;
-        String weight = null;
+        String weight = tuple.getAttribute("weight", null);
         try {
             for (XMLNode sub : tuple)
                 if (sub.is("atom")) {
@@ -64,71 +127,36 @@ public class A4QtSolutionReader extends A4SolutionReader {
                     else
                         ans = ans.product(x);
                 }
+                // Weights were formerly written as <weight value=".."/> elements
                 else if(sub.is("weight"))
                     if(weight == null)
                         weight = sub.getAttribute("value");
-                    else throw new ErrorFatal("Expecting exactly one <weight value=\"..\"/> for each tuple.");
+                    else throw new ErrorFatal("Expecting at most one weight for each tuple.");
 
             if (ans == null)
-                throw new ErrorFatal("Expecting: <tuple> <atom label=\"..\"/> .. </tuple> or <tuple> <atom label=\"..\"/> .. <weight value=\"..\"/> </tuple>");
-            if (weight == null && isBoolean != null && !isBoolean)
-                throw new ErrorFatal("Expecting: <tuple> <atom label=\"..\"/> .. <weight value=\"..\"/> </tuple>");
-            if (weight != null && isBoolean != null && isBoolean)
-                throw new ErrorFatal("Expecting: <tuple> <atom label=\"..\"/> .. </tuple>");
-            if (ans.arity() != arity)
-                throw new ErrorFatal("Expecting: tuple of arity " + arity + " but got tuple of arity " + ans.arity());
+                throw new ErrorFatal(EXPECTING);
             return new Pair<>(ans, weight);
         } catch (Throwable ex) {
-            throw new ErrorFatal("Expecting: <tuple> <atom label=\"..\"/> .. </tuple> or <tuple> <atom label=\"..\"/> .. <weight value=\"..\"/> </tuple>", ex);
+            throw new ErrorFatal(EXPECTING, ex);
         }
     }
 
-    /** Parse tuples. */
+    /** Parse tuples, or stream them from the instance file if it is being streamed. */
     @Override
     protected TupleSet parseTuples(XMLNode tuples, int arity) throws Err {
-        TupleSet ans;
-        Iterator<XMLNode> it = tuples.iterator();
-        // Weight Parser
-        Function<String, Number> parseNum = n ->
-                Pattern.matches("(-?)[0-9]+(\\.[0-9]+)?([eE][+-]?[0-9]+)?", n) ?
-                Double.parseDouble(n) :
-                Integer.parseInt(n);
-
-        if(it.hasNext()){
-            XMLNode n = it.next();
-            while(it.hasNext() && !n.is("tuple"))
-                n = it.next();
-
-            if(n.is("tuple")) {
-                Pair<Tuple, String> t = parseTuple(n, arity, null);
-                // Check if its a Numeric or Boolean Relation
-                boolean isBoolean = t.b == null;
-
-                if (isBoolean) {
-                    ans = factory.noneOf(arity);
-                    ans.add(t.a);
-                } else {
-                    ans = factory.noneOfQt(arity);
-                    //Assuming that the XML is well formed, weight is either a double or an integer
-                    ((QtTupleSet) ans).add(t.a, parseNum.apply(t.b));
-                }
-
-                // Remaining tuples
-                while (it.hasNext())
-                    if ((n = it.next()).is("tuple")) {
-                        t = parseTuple(n, arity, isBoolean);
-                        if (isBoolean)
-                            ans.add(t.a);
-                        else ((QtTupleSet) ans).add(t.a, parseNum.apply(t.b));
-                    }
+        Tuples ans = new Tuples(arity);
+        if (stream != null)
+            try {
+                stream.tuples(tuples.getAttribute("ID"), factory, ans);
+            } catch (IOException ex) {
+                throw new ErrorFatal("Error reading the XML file: " + ex, ex);
             }
-            // Empty
-            else ans = factory.noneOf(arity);
-        }
-        // Empty
-        else ans = factory.noneOf(arity);
-
-        return ans;
+        else for (XMLNode n : tuples)
+            if (n.is("tuple")) {
+                Pair<Tuple, String> t = parseTuple(n);
+                ans.add(t.a, t.b == null ? null : parseNum(t.b));
+            }
+        return ans.result();
     }
 
     /** Context dependent atom parsing. */
@@ -175,4 +203,44 @@ public class A4QtSolutionReader extends A4SolutionReader {
         }
     }
 
+    /**
+     * Reads the given XML file, leaving out the tuples of its fields and skolems, which are only read by
+     * {@link #read(Iterable, XMLNode, File)}. Hence, the size of the result does not depend on that of the relations.
+     */
+    public static XMLNode skeleton(File file) throws Err {
+        try {
+            return A4TupleStream.skeleton(file);
+        } catch (IOException ex) {
+            throw new ErrorFatal("Error reading the XML file: " + ex, ex);
+        }
+    }
+
+    /**
+     * Parsing of a Quantitative Alloy Instance, given the {@link #skeleton(File) skeleton} of its XML file,
+     * whose tuples are streamed from the file straight into their tuplesets.
+     * {@see A4SolutionReader#read}
+     */
+    public static A4Solution read(Iterable<Sig> sigs, XMLNode skeleton, File file) throws Err {
+        return read(sigs, skeleton, new A4TupleStream.XML(file));
+    }
+
+    /**
+     * Parsing of a Quantitative Alloy Instance, given the skeleton of its file, whose tuples are read from the
+     * given stream, which is closed afterwards.
+     */
+    static A4Solution read(Iterable<Sig> sigs, XMLNode skeleton, A4TupleStream stream) throws Err {
+        try {
+            if (sigs == null)
+                sigs = new ArrayList<Sig>();
+            A4SolutionReader x = new A4QtSolutionReader(sigs, skeleton, stream);
+            return x.sol;
+        } catch (Throwable ex) {
+            if (ex instanceof Err)
+                throw ((Err) ex);
+            else
+                throw new ErrorFatal("Fatal error occured: " + ex, ex);
+        } finally {
+            stream.close();
+        }
+    }
 }
@@ -204,7 +204,7 @@ public final class A4Solution {
     private Evaluator                         eval        = null;
 
     /** If not null, you can ask it to get another solution. */
-    private Iterator<Solution>                kEnumerator = null;
+    private Peeker<Solution>                  kEnumerator = null;
 
     /**
      * The map from each Sig/Field/Skolem/Atom to its corresponding Kodkod
@@ -383,19 +383,45 @@ public final class A4Solution {
      * the "next" instance.
      */
     private A4Solution(A4Solution old) throws Err {
+        this(old, nextSolution(old), old.kEnumerator);
+    }
+
+    /**
+     * Checks that the given solution can be continued, and returns its "next" Kodkod solution.
+     */
+    private static Solution nextSolution(A4Solution old) throws Err {
         if (!old.solved)
             throw new ErrorAPI("This solution is not yet solved, so next() is not allowed.");
         if (old.kEnumerator == null)
             throw new ErrorAPI("This solution was not generated by an incremental SAT solver.\n" + "Solution enumeration is currently only implemented for MiniSat and SAT4J.");
         if (old.eval == null)
             throw new ErrorAPI("This solution is already unsatisfiable, so you cannot call next() to get the next solution.");
-        Solution nextSol = old.kEnumerator.next();
+        return old.kEnumerator.next();
+    }
+
+    /**
+     * Construct a new A4Solution over the same problem as the old one, but with the
+     * given Kodkod solution, whose further solutions are enumerated by the given
+     * enumerator (null if there are none to enumerate).
+     */
+    private A4Solution(A4Solution old, Solution nextSol, Peeker<Solution> enumerator) throws Err {
+        this(old, old.originalCommand, nextSol, enumerator, null);
+    }
+
+    /**
+     * Construct a new A4Solution over the same bounds as the old one, but for the
+     * given command, with the given Kodkod solution, whose further solutions are
+     * enumerated by the given enumerator (null if there are none to enumerate). If
+     * the old one has no quantitative evaluator, the instance is evaluated under
+     * the given quantitative options, if any.
+     */
+    private A4Solution(A4Solution old, String command, Solution nextSol, Peeker<Solution> enumerator, QuantitativeOptions qtOptions) throws Err {
         Instance inst = nextSol.instance();
         isUnknown = nextSol.unknown(); // Check if the solution is UNKNOWN
         unrolls = old.unrolls;
         originalOptions = old.originalOptions;
         quantitativeSolving = old.quantitativeSolving;
-        originalCommand = old.originalCommand;
+        originalCommand = command;
         bitwidth = old.bitwidth;
         maxseq = old.maxseq;
         kAtoms = old.kAtoms;
@@ -407,13 +433,14 @@ public final class A4Solution {
         bounds = old.bounds;
         formulas = old.formulas;
         sigs = old.sigs;
-        kEnumerator = old.kEnumerator;
+        kEnumerator = enumerator;
         k2pos = old.k2pos;
         rel2type = old.rel2type;
         decl2type = old.decl2type;
         if (inst != null) {
             eval = old.eval instanceof  QTEvaluator ?
-                    new QTEvaluator(inst, ((QTEvaluator)(old.eval)).quantitativeOptions()) :
+                    new QTEvaluator((QTEvaluator) old.eval, inst) :
+                    qtOptions != null ? new QTEvaluator(inst, qtOptions) :
                     new Evaluator(inst, old.solver.options());
             a2k = new LinkedHashMap<Expr,Expression>();
             for (Map.Entry<Expr,Expression> e : old.a2k.entrySet())
@@ -889,7 +916,7 @@ public final class A4Solution {
                 throw expr.errors.pick();
             Object result = !quantitativeSolving ?
                     TranslateAlloyToKodkod.alloy2kodkod(this, expr) :
-                    TranslateQTAlloyToKodkod.alloy2kodkod(this, expr);
+                    qtAlloy2kodkod(expr);
             if (result instanceof IntExpression)
                 return !quantitativeSolving?
                         eval.evaluate((IntExpression) result) + (eval.wasOverflow() ? " (OF)" : "") :
@@ -904,6 +931,71 @@ public final class A4Solution {
         }
     }
 
+    /** The maximum number of translations kept by evalTranslations. */
+    private static final int EVAL_TRANSLATIONS_SIZE = 256;
+
+    /** Caches the quantitative Kodkod translation of the most recently evaluated expressions. */
+    private final Map<Expr,Object> evalTranslations = new LinkedHashMap<Expr,Object>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 0;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Expr,Object> eldest) {
+            return size() > EVAL_TRANSLATIONS_SIZE;
+        }
+    };
+
+    /**
+     * Translates the given expression wrt this quantitative solution, reusing its previous translation, if any.
+     * Reusing the same Kodkod nodes lets the evaluator recognize them as already evaluated.
+     */
+    private Object qtAlloy2kodkod(Expr expr) throws Err {
+        Object ans = evalTranslations.get(expr);
+        if (ans == null) {
+            ans = TranslateQTAlloyToKodkod.alloy2kodkod(this, expr);
+            evalTranslations.put(expr, ans);
+        }
+        return ans;
+    }
+
+    /**
+     * If this solution is solved and satisfiable, evaluates each of the given expressions as
+     * {@link #eval(Expr)} does, returning their values in the same order.
+     * In a quantitative context, the relational expressions are evaluated together in a single pass,
+     * which evaluates the sub-expressions they have in common only once.
+     */
+    public List<Object> eval(List< ? extends Expr> exprs) throws Err {
+        final List<Object> ans = new ArrayList<Object>(exprs.size());
+        if (!solved || !(eval instanceof QTEvaluator)) {
+            for (Expr expr : exprs)
+                ans.add(eval(expr));
+            return ans;
+        }
+        try {
+            // Translate every expression first, so that the relational ones are evaluated in one pass
+            final List<Integer> positions = new ArrayList<Integer>();
+            final List<Expression> batch = new ArrayList<Expression>();
+            for (Expr expr : exprs) {
+                if (!(expr instanceof Sig) && !(expr instanceof Field) && expr.errors.isEmpty()) {
+                    Object result = qtAlloy2kodkod(expr);
+                    if (result instanceof Expression) {
+                        positions.add(ans.size());
+                        batch.add((Expression) result);
+                        ans.add(null);
+                        continue;
+                    }
+                }
+                ans.add(eval(expr));
+            }
+            List<TupleSet> values = ((QTEvaluator) eval).evaluate(batch);
+            for (int i = 0; i < values.size(); i++)
+                ans.set(positions.get(i), new A4TupleSet(values.get(i), this));
+            return ans;
+        } catch (CapacityExceededException ex) {
+            throw TranslateAlloyToKodkod.rethrow(ex);
+        }
+    }
+
     /**
      * Returns the Kodkod instance represented by this solution; throws an exception
      * if the problem is not yet solved or if it is unsatisfiable.
@@ -1063,7 +1155,7 @@ public final class A4Solution {
      * Helper class that wraps an iterator up where it will pre-fetch the first
      * element (note: it will not prefetch subsequent elements).
      */
-    private static final class Peeker<T> implements Iterator<T> {
+    private static final class Peeker<T> implements Iterator<T>, AutoCloseable {
 
         /** The encapsulated iterator. */
         private Iterator<T> iterator;
@@ -1106,6 +1198,21 @@ public final class A4Solution {
         public void remove() {
             throw new UnsupportedOperationException();
         }
+
+        /** Closes the encapsulated iterator, if it is closeable. */
+        @Override
+        public void close() {
+            first = null;
+            hasFirst = false;
+            if (iterator instanceof AutoCloseable)
+                try {
+                    ((AutoCloseable) iterator).close();
+                } catch (RuntimeException ex) {
+                    throw ex;
+                } catch (Exception ex) {
+                    throw new IllegalStateException("Cannot release the solver of this enumeration.", ex);
+                }
+        }
     }
 
     // ===================================================================================================//
@@ -1504,7 +1611,7 @@ public final class A4Solution {
         if(!QuantitativeOptions.contains(opt.quantitativeSolver))
             throw new ErrorFatal("There is no such solver " + opt.quantitativeSolver + " for the " + opt.analysisType + " analysis context.");
 
-        if (opt.inferPartialInstance && simp != null && formulas.size() > 0 && !simp.simplify(null, this, formulas))
+        if (opt.inferPartialInstance && simp != null && formulas.size() > 0 && !simp.simplify(rep, this, formulas))
             addFormula(Formula.FALSE, Pos.UNKNOWN);
 
         kEnumerator = null;
@@ -1518,11 +1625,7 @@ public final class A4Solution {
         Formula fgoal = Formula.and(formulas);
 
         Integer maxWeight = null; // cmd.bitwidth < 0 ? null : cmd.bitwidth; TODO
-        QuantitativeOptions solverOptions = new QuantitativeOptions(
-                opt.quantitativeSolver,
-                solverBinary,
-                maxWeight,
-                true); //Prefer incremental solving, in case the solver is capable
+        QuantitativeOptions solverOptions = quantitativeOptions(rep, solverBinary, maxWeight);
         Solution sol;
 
         // Finish Alloy2Kodkod
@@ -1565,6 +1668,86 @@ public final class A4Solution {
         return this;
     }
 
+    /**
+     * Returns the quantitative options of the solving of this solution.
+     */
+    private QuantitativeOptions quantitativeOptions(final A4QtReporter rep, String solverBinary, Integer maxWeight) {
+        final A4Options opt = originalOptions;
+        QuantitativeOptions solverOptions = new QuantitativeOptions(
+                opt.quantitativeSolver,
+                solverBinary,
+                maxWeight,
+                true); //Prefer incremental solving, in case the solver is capable
+        solverOptions.setTimeout(opt.quantitativeTimeout);
+        solverOptions.setReporter(new AbstractReporter() {
+
+            @Override
+            public void translationCacheStatistics(int hits, int misses, int evictions) {
+                rep.debug("Translation cache: " + hits + " hits, " + misses + " misses, " + evictions + " evictions\n");
+            }
+        });
+        return solverOptions;
+    }
+
+    /**
+     * Turns this frame, whose formulas are the facts shared by several commands of
+     * the same scope, into a quantitative solver session over which the goal of
+     * each command is checked on its own by
+     * {@link #solve(A4QtReporter, Command, Formula, QTScopedSolver)}.
+     * Afterwards, this frame is solved, and must not be modified anymore.
+     *
+     * @return the session, or null if the quantitative solver cannot solve
+     *         incrementally
+     */
+    QTScopedSolver session(A4QtReporter rep, Simplifier simp, String solverBinary) throws Err {
+        if (solved)
+            throw new ErrorAPI("This frame is already solved.");
+        final A4Options opt = originalOptions;
+        if (!QuantitativeOptions.contains(opt.quantitativeSolver))
+            throw new ErrorFatal("There is no such solver " + opt.quantitativeSolver + " for the " + opt.analysisType + " analysis context.");
+        final QuantitativeOptions solverOptions = quantitativeOptions(rep, solverBinary, null);
+        if (!solverOptions.incremental())
+            return null;
+        if (opt.inferPartialInstance && simp != null && formulas.size() > 0 && !simp.simplify(rep, this, formulas))
+            addFormula(Formula.FALSE, Pos.UNKNOWN);
+        final QTScopedSolver session = QTScopedSolver.solver(Formula.and(formulas), bounds, solverOptions);
+        solved();
+        return session;
+    }
+
+    /**
+     * Solves the given goal of the given command over the given session, that
+     * holds the facts of this frame, and returns its solution, which enumerates
+     * further instances over the same session, as long as no other command needs it.
+     *
+     * @param session - the session returned by this.session(..)
+     */
+    A4Solution solve(A4QtReporter rep, Command cmd, Formula goal, QTScopedSolver session) throws Err {
+        if (!solved)
+            throw new ErrorAPI("This frame has no session yet.");
+        rep.translate(session.options().solver().toString(), null);
+        final Peeker<Solution> enumerator = new Peeker<Solution>(session.solveAll(goal));
+        final Solution sol = enumerator.next();
+        final Statistics stats = sol.stats();
+        rep.smt2(stats.primaryVariables(), stats.variables(), stats.clauses(), stats.translationTime());
+
+        final A4Solution ans = new A4Solution(this, cmd.toString(), sol, sol.sat() ? enumerator : null, session.options());
+
+        switch (sol.outcome()){
+            case TRIVIALLY_SATISFIABLE:
+            case SATISFIABLE:
+                rep.resultSAT(cmd, stats.solvingTime(), ans);
+                break;
+            case UNKNOWN:
+                rep.resultUNKNOWN(cmd, stats.solvingTime(), ans);
+                break;
+            default: //(TRIVIALLY_)UNSAT
+                rep.resultUNSAT(cmd, stats.solvingTime(), ans);
+                break;
+        }
+        return ans;
+    }
+
     /**
      * Specifies if the analysis context at hand is quantitative.
      */
@@ -1661,6 +1844,50 @@ public final class A4Solution {
         return kEnumerator != null;
     }
 
+    /**
+     * Ends the enumeration of further solutions, and releases the solver that it
+     * holds, if any (e.g., the process of an SMT solver). This solution is no
+     * longer incremental, and the other solutions of the same enumeration should
+     * not be continued either; unless next() was already called, in which case the
+     * enumeration goes on with the next solution, and only this one is dropped.
+     */
+    public void free() throws Err {
+        final Peeker<Solution> enumerator = kEnumerator;
+        kEnumerator = null;
+        if (enumerator != null && (nextCache == null || nextCache.kEnumerator != enumerator))
+            enumerator.close();
+    }
+
+    /**
+     * If this quantitative solution is satisfiable, returns the solution of the same problem
+     * that minimises (or maximises) the given objective. A relational objective is
+     * optimised wrt its cardinality, i.e., the sum of its weights.
+     * <p>
+     * The objective should only refer to sigs and fields, since skolems are not part of the problem.
+     * The optimal solution is not incremental, so next() returns an unsatisfiable solution.
+     *
+     * @throws ErrorAPI if this solution is not a satisfiable quantitative solution
+     */
+    public A4Solution optimize(Expr objective, boolean minimize) throws Err {
+        if (!solved)
+            throw new ErrorAPI("This solution is not yet solved, so optimize() is not allowed.");
+        if (eval == null)
+            throw new ErrorAPI("This solution is unsatisfiable, so optimize() is not allowed.");
+        if (!quantitativeSolving || kEnumerator == null || !(eval instanceof QTEvaluator))
+            throw new ErrorAPI("Optimisation is only implemented for quantitative solutions of an incremental SMT solver.");
+        try {
+            Object result = TranslateQTAlloyToKodkod.alloy2kodkod(this, objective);
+            if (result instanceof Expression)
+                result = ((Expression) result).count();
+            if (!(result instanceof IntExpression))
+                throw new ErrorAPI("The objective to optimise must be a numeric or relational expression.");
+            Solution optimum = solver.optimize(Formula.and(formulas), bounds, (IntExpression) result, minimize, ((QTEvaluator) eval).quantitativeOptions());
+            return new A4Solution(this, optimum, null);
+        } catch (CapacityExceededException ex) {
+            throw TranslateAlloyToKodkod.rethrow(ex);
+        }
+    }
+
     // ===================================================================================================//
 
     /**
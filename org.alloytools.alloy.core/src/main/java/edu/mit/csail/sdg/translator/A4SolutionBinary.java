@@ -0,0 +1,482 @@
+package edu.mit.csail.sdg.translator;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.alloy4.ErrorAPI;
+import edu.mit.csail.sdg.alloy4.ErrorFatal;
+import edu.mit.csail.sdg.alloy4.ErrorSyntax;
+import edu.mit.csail.sdg.alloy4.Util;
+import edu.mit.csail.sdg.alloy4.XMLNode;
+import edu.mit.csail.sdg.ast.Func;
+import edu.mit.csail.sdg.ast.Sig;
+import kodkod.instance.QtTupleSet;
+import kodkod.instance.TupleFactory;
+import kodkod.instance.TupleSet;
+import kodkod.instance.Universe;
+import kodkod.util.ints.IntIterator;
+
+/**
+ * Reads and writes quantitative solutions in a compact binary format, meant for archiving many instances, e.g., all
+ * those enumerated by a command, and comparing them later on.
+ * <p>
+ * A file holds the same information as the XML one written by {@link A4Solution#writeXML(String)}, and is read with
+ * the same semantics as {@link A4QtSolutionReader}. Everything but the tuples of the fields and skolems is kept as
+ * XML, the skeleton, which is small. Each tupleset is kept as a block of binary data, where tuples are given by their
+ * indices over a table of atoms, in increasing order and delta-encoded, followed by an array with their weights, if
+ * any. The file is laid out as follows, where numbers are big-endian, varints are unsigned LEB128 and strings are
+ * UTF-8 prefixed by their length as a varint:
+ *
+ * <pre>
+ * file     ::= MAGIC block* atoms skeleton offset:int64 MAGIC
+ * block    ::= id:string label:string arity:varint size:varint kind:byte length:varint tuples weights
+ * tuples   ::= (delta:varint)^size
+ * weights  ::= ""                          (kind = NONE)
+ *            | (zigzag:varint)^size        (kind = INTEGRAL)
+ *            | (float64)^size              (kind = REAL)
+ *            | (INTEGRAL zigzag:varint | REAL float64)^size   (kind = MIXED)
+ * atoms    ::= count:varint (atom:string)^count
+ * skeleton ::= xml:string
+ * </pre>
+ *
+ * where {@code offset} is the position of the table of atoms, and {@code length} that of the tuples and weights.
+ */
+public final class A4SolutionBinary {
+
+    /** The first and last bytes of every file. */
+    private static final byte[] MAGIC    = {
+                                             'Q', 'A', 'I', 1
+    };
+
+    /** Kinds of weights of a block. */
+    private static final byte   NONE     = 0, INTEGRAL = 1, REAL = 2, MIXED = 3;
+
+    /** This class cannot be instantiated. */
+    private A4SolutionBinary() {}
+
+    // ===================================================================================================//
+
+    /** Writes the varint n, which is unsigned. */
+    private static void varint(OutputStream out, long n) throws IOException {
+        while ((n & ~0x7FL) != 0) {
+            out.write((int) ((n & 0x7F) | 0x80));
+            n >>>= 7;
+        }
+        out.write((int) n);
+    }
+
+    /** Writes the given string. */
+    private static void string(OutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        varint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /** Writes the given float64 or int64 bits. */
+    private static void int64(OutputStream out, long n) throws IOException {
+        for (int i = 56; i >= 0; i -= 8)
+            out.write((int) (n >>> i));
+    }
+
+    /** Encodes a signed number as an unsigned one whose varint is short if the number is small. */
+    private static long zigzag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    /** Writes the tuples and weights of the given tupleset as a block. */
+    private static void block(OutputStream out, String id, String label, TupleSet ts) throws IOException {
+        final byte[] kinds = new byte[ts.size()];
+        byte kind = NONE;
+        if (ts instanceof QtTupleSet) {
+            IntIterator it = ts.indexView().iterator();
+            for (int i = 0; it.hasNext(); i++) {
+                Number w = ((QtTupleSet) ts).getWeight(it.next());
+                kinds[i] = w instanceof Double ? REAL : INTEGRAL;
+                kind = kind == NONE || kind == kinds[i] ? kinds[i] : MIXED;
+            }
+        }
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        long previous = -1;
+        for (IntIterator it = ts.indexView().iterator(); it.hasNext();) {
+            int index = it.next();
+            varint(payload, index - previous - 1);
+            previous = index;
+        }
+        if (kind != NONE) {
+            IntIterator it = ts.indexView().iterator();
+            for (int i = 0; it.hasNext(); i++) {
+                Number w = ((QtTupleSet) ts).getWeight(it.next());
+                if (kind == MIXED)
+                    payload.write(kinds[i]);
+                if (kinds[i] == REAL)
+                    int64(payload, Double.doubleToRawLongBits(w.doubleValue()));
+                else
+                    varint(payload, zigzag(w.longValue()));
+            }
+        }
+        string(out, id);
+        string(out, label);
+        varint(out, ts.arity());
+        varint(out, ts.size());
+        out.write(kind);
+        varint(out, payload.size());
+        payload.writeTo(out);
+    }
+
+    /** An output stream that counts the bytes written through it. */
+    private static final class Counting extends BufferedOutputStream {
+
+        private long count;
+
+        Counting(OutputStream out) {
+            super(out, 1 << 16);
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            super.write(b);
+            count++;
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Writes the given satisfiable solution to the given file, in binary format, including the given extra skolems
+     * and source files, as {@link A4Solution#writeXML(String, Iterable, Map)} does.
+     */
+    public static void write(A4Solution sol, File file, Iterable<Func> macros, Map<String,String> sources) throws Err {
+        if (!sol.satisfiable())
+            throw new ErrorAPI("This solution is unsatisfiable.");
+        final Universe universe = sol.getFactory().universe();
+        final Counting out;
+        try {
+            out = new Counting(new FileOutputStream(file));
+        } catch (IOException ex) {
+            throw new ErrorFatal("Error writing the solution binary file.", ex);
+        }
+        try {
+            out.write(MAGIC);
+            StringWriter skeleton = new StringWriter();
+            A4SolutionWriter.writeInstance(null, sol, new PrintWriter(skeleton), macros, sources, (id, label, ts) -> {
+                TupleSet tuples = ts.debugGetKodkodTupleset();
+                if (tuples.universe() != universe)
+                    throw new ErrorFatal("The tuples of " + label + " are not over the universe of the solution.");
+                try {
+                    block(out, id, label, tuples);
+                } catch (IOException ex) {
+                    throw new ErrorFatal("Error writing the solution binary file.", ex);
+                }
+            });
+            final long atoms = out.count;
+            varint(out, universe.size());
+            for (int i = 0; i < universe.size(); i++)
+                string(out, sol.atom2name(universe.atom(i)));
+            string(out, skeleton.toString());
+            int64(out, atoms);
+            out.write(MAGIC);
+            out.close();
+        } catch (IOException ex) {
+            throw new ErrorFatal("Error writing the solution binary file.", ex);
+        } finally {
+            Util.close(out);
+        }
+    }
+
+    // ===================================================================================================//
+
+    /** Reads the varint at the position of the given buffer. */
+    private static long varint(ByteBuffer in) {
+        long n = 0;
+        for (int shift = 0;; shift += 7) {
+            byte b = in.get();
+            n |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return n;
+        }
+    }
+
+    /** Reads the string at the position of the given buffer. */
+    private static String string(ByteBuffer in) {
+        byte[] bytes = new byte[(int) varint(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Decodes a number encoded by {@link #zigzag(long)}. */
+    private static long unzigzag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    /** Reads the given number of delta-encoded tuple indices at the position of the given buffer. */
+    private static int[] indices(ByteBuffer in, int size) {
+        final int[] ans = new int[size];
+        for (int i = 0, previous = -1; i < size; i++)
+            ans[i] = previous = (int) (previous + varint(in) + 1);
+        return ans;
+    }
+
+    /** Returns the contents of the given file, mapped into memory if map is true, and read into the heap otherwise. */
+    private static ByteBuffer open(File file, boolean map) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (map)
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("The file " + file + " is too large to be read into memory.");
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {}
+            buffer.flip();
+            return buffer;
+        } finally {
+            Util.close(raf);
+        }
+    }
+
+    /** A block of tuples of a file. */
+    private static final class Block {
+
+        final String     label;
+        final int        arity, size;
+        final byte       kind;
+        /** The tuples and weights. */
+        final ByteBuffer payload;
+
+        Block(ByteBuffer in) {
+            label = string(in);
+            arity = (int) varint(in);
+            size = (int) varint(in);
+            kind = in.get();
+            int length = (int) varint(in);
+            ByteBuffer payload = in.slice();
+            payload.limit(length);
+            this.payload = payload;
+            in.position(in.position() + length);
+        }
+    }
+
+    /** The contents of a file: its atoms, skeleton, and blocks by ID. */
+    private static final class Contents {
+
+        final String[]         atoms;
+        final String           skeleton;
+        final Map<String,Block> blocks = new LinkedHashMap<String,Block>();
+
+        Contents(File file, boolean map) throws IOException, Err {
+            ByteBuffer in = open(file, map);
+            byte[] magic = new byte[MAGIC.length];
+            if (in.limit() < 2 * MAGIC.length + 8)
+                throw new ErrorSyntax("The file " + file + " is not a binary solution file.");
+            in.get(magic);
+            if (!Arrays.equals(magic, MAGIC))
+                throw new ErrorSyntax("The file " + file + " is not a binary solution file.");
+            in.position(in.limit() - MAGIC.length);
+            in.get(magic);
+            if (!Arrays.equals(magic, MAGIC))
+                throw new ErrorSyntax("The file " + file + " is truncated.");
+            final long offset = in.getLong(in.limit() - MAGIC.length - 8);
+            in.position((int) offset);
+            atoms = new String[(int) varint(in)];
+            for (int i = 0; i < atoms.length; i++)
+                atoms[i] = string(in);
+            skeleton = string(in);
+            in.position(MAGIC.length);
+            while (in.position() < offset) {
+                String id = string(in);
+                blocks.put(id, new Block(in));
+            }
+        }
+    }
+
+    /** Streams the tuples of the blocks of a file. */
+    private static final class Stream extends A4TupleStream {
+
+        private final Contents contents;
+
+        /** Maps the index of each atom of the file to that of the same atom in the universe being read into. */
+        private int[]          remap;
+
+        Stream(Contents contents) {
+            this.contents = contents;
+        }
+
+        /** {@inheritDoc} The tuples are given in increasing order of their indices in the file. */
+        @Override
+        void tuples(String id, TupleFactory factory, Visitor visitor) throws IOException, Err {
+            Block block = contents.blocks.get(id);
+            if (block == null)
+                return;
+            final Universe universe = factory.universe();
+            if (remap == null) {
+                remap = new int[contents.atoms.length];
+                for (int i = 0; i < remap.length; i++)
+                    remap[i] = universe.contains(contents.atoms[i]) ? universe.index(contents.atoms[i]) : -1;
+            }
+            final ByteBuffer in = block.payload.duplicate();
+            final int[] indices = indices(in, block.size);
+            for (int i = 0; i < block.size; i++) {
+                Number weight = null;
+                byte kind = block.kind == MIXED ? in.get() : block.kind;
+                if (kind == INTEGRAL) {
+                    long n = unzigzag(varint(in));
+                    weight = n == (int) n ? (Number) (int) n : (Number) n;
+                } else if (kind == REAL)
+                    weight = Double.longBitsToDouble(in.getLong());
+                visitor.tuple(factory.tuple(block.arity, index(indices[i], block.arity, universe.size())), weight);
+            }
+        }
+
+        /** Converts a tuple index over the atoms of the file to one over the given universe. */
+        private int index(int index, int arity, int size) throws Err {
+            final int n = remap.length;
+            long ans = 0, unit = 1;
+            for (int i = 0; i < arity; i++, index /= n, unit *= size) {
+                int atom = remap[index % n];
+                if (atom < 0)
+                    throw new ErrorFatal("Unknown atom " + contents.atoms[index % n] + " encountered.");
+                ans += atom * unit;
+            }
+            return (int) ans;
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    /**
+     * Reads the binary solution file, with the same semantics as {@link A4QtSolutionReader#read(Iterable, XMLNode)}.
+     * The file is mapped into memory if map is true, and read into the heap otherwise.
+     */
+    public static A4Solution read(Iterable<Sig> sigs, File file, boolean map) throws Err {
+        Contents contents;
+        XMLNode skeleton;
+        try {
+            contents = new Contents(file, map);
+            skeleton = new XMLNode(new StringReader(contents.skeleton));
+        } catch (IOException ex) {
+            throw new ErrorFatal("Error reading the solution binary file: " + ex, ex);
+        } catch (RuntimeException ex) {
+            throw new ErrorSyntax("The file " + file + " is not a well-formed binary solution file.");
+        }
+        return A4QtSolutionReader.read(sigs, skeleton, new Stream(contents));
+    }
+
+    // ===================================================================================================//
+
+    /**
+     * Compares the solutions held by the given binary files, without reading them into solutions, and returns a
+     * description of each difference found between them: the sigs whose atoms differ, and the fields and skolems
+     * whose tuples or weights differ. The files are mapped into memory.
+     */
+    public static List<String> diff(File a, File b) throws Err {
+        final Contents x, y;
+        try {
+            x = new Contents(a, true);
+            y = new Contents(b, true);
+        } catch (IOException ex) {
+            throw new ErrorFatal("Error reading the solution binary file: " + ex, ex);
+        }
+        final List<String> ans = new ArrayList<String>();
+        try {
+            diff(sigs(x.skeleton), sigs(y.skeleton), ans);
+        } catch (IOException ex) {
+            throw new ErrorFatal("Error reading the solution binary file: " + ex, ex);
+        }
+        final boolean sameAtoms = Arrays.equals(x.atoms, y.atoms);
+        final Map<String,Block> xs = byLabel(x), ys = byLabel(y);
+        for (Map.Entry<String,Block> e : xs.entrySet()) {
+            Block bx = e.getValue(), by = ys.get(e.getKey());
+            if (by == null)
+                ans.add(e.getKey() + ": only in " + a);
+            else if (sameAtoms ? !(bx.arity == by.arity && bx.kind == by.kind && bx.payload.equals(by.payload)) : !tuples(x, bx).equals(tuples(y, by)))
+                ans.add(e.getKey() + ": tuples or weights differ");
+        }
+        for (String label : ys.keySet())
+            if (!xs.containsKey(label))
+                ans.add(label + ": only in " + b);
+        return ans;
+    }
+
+    /** Returns the blocks of the given file, by label. */
+    private static Map<String,Block> byLabel(Contents contents) {
+        Map<String,Block> ans = new LinkedHashMap<String,Block>();
+        for (Block block : contents.blocks.values())
+            ans.put(block.label, block);
+        return ans;
+    }
+
+    /** Returns the tuples of the given block, as labels of atoms, each mapped to its weight, if any. */
+    private static Map<String,String> tuples(Contents contents, Block block) {
+        final Map<String,String> ans = new TreeMap<String,String>();
+        final ByteBuffer in = block.payload.duplicate();
+        final int[] indices = indices(in, block.size);
+        final int n = contents.atoms.length;
+        for (int i = 0; i < block.size; i++) {
+            StringBuilder sb = new StringBuilder();
+            int index = indices[i];
+            String[] atoms = new String[block.arity];
+            for (int j = block.arity - 1; j >= 0; j--, index /= n)
+                atoms[j] = contents.atoms[index % n];
+            for (String atom : atoms)
+                sb.append(sb.length() == 0 ? "" : "->").append(atom);
+            byte kind = block.kind == MIXED ? in.get() : block.kind;
+            String weight = kind == INTEGRAL ? Long.toString(unzigzag(varint(in))) : kind == REAL ? Double.toString(Double.longBitsToDouble(in.getLong())) : "";
+            ans.put(sb.toString(), weight);
+        }
+        return ans;
+    }
+
+    /** Returns the atoms of each sig in the given skeleton, each with its value, if any. */
+    private static Map<String,Set<String>> sigs(String skeleton) throws IOException {
+        Map<String,Set<String>> ans = new HashMap<String,Set<String>>();
+        for (XMLNode inst : new XMLNode(new StringReader(skeleton)))
+            if (inst.is("instance")) {
+                for (XMLNode sig : inst)
+                    if (sig.is("sig")) {
+                        Set<String> atoms = new TreeSet<String>();
+                        for (XMLNode atom : sig)
+                            if (atom.is("atom"))
+                                atoms.add(atom.getAttribute("label") + " " + atom.getAttribute("value", "1"));
+                        ans.put(sig.getAttribute("label"), atoms);
+                    }
+                break;
+            }
+        return ans;
+    }
+
+    /** Adds a description of each sig whose atoms differ between the given ones to ans. */
+    private static void diff(Map<String,Set<String>> xs, Map<String,Set<String>> ys, List<String> ans) {
+        for (String label : new TreeSet<String>(xs.keySet()))
+            if (!xs.get(label).equals(ys.get(label)))
+                ans.add(label + ": atoms differ");
+        for (String label : new TreeSet<String>(ys.keySet()))
+            if (!xs.containsKey(label))
+                ans.add(label + ": atoms differ");
+    }
+}
@@ -76,6 +76,12 @@ public class A4SolutionReader {
     /** The Kodkod tupleset factory. */
     protected final TupleFactory        factory;
 
+    /**
+     * If nonnull, the tuples of the fields and skolems are streamed from it, rather
+     * than read from their XML nodes.
+     */
+    final A4TupleStream                 stream;
+
     /**
      * Helper method that returns true if the given attribute value in the given XML
      * node is equal to "yes"
@@ -339,6 +345,15 @@ public class A4SolutionReader {
 
     /** Parse everything. */
     protected A4SolutionReader(Iterable<Sig> sigs, XMLNode xml) throws IOException, Err {
+        this(sigs, xml, null);
+    }
+
+    /**
+     * Parse everything, streaming the tuples of the fields and skolems from the
+     * given stream if it is nonnull.
+     */
+    A4SolutionReader(Iterable<Sig> sigs, XMLNode xml, A4TupleStream stream) throws IOException, Err {
+        this.stream = stream;
         for (Sig s : sigs)
             if (!s.builtin) {
                 allsigs.add(s);
@@ -62,6 +62,22 @@ public final class A4SolutionWriter {
     /** This is the output file. */
     private final PrintWriter                  out;
 
+    /**
+     * Receives the tuples of the fields and skolems, which are then left out of
+     * the output file; can be null if none.
+     */
+    private final TupleSink                    sink;
+
+    /** Receives the tuples of the fields and skolems of a solution. */
+    interface TupleSink {
+
+        /**
+         * Receives the nonempty tupleset of the field or skolem with the given ID and
+         * label.
+         */
+        void tuples(String id, String label, A4TupleSet tuples) throws Err;
+    }
+
     /**
      * Helper method that returns a unique id for the given Sig, Field, or Skolem.
      */
@@ -86,8 +102,8 @@ public final class A4SolutionWriter {
             return toplevels;
     }
 
-    /** Write the given Expr and its Type. */
-    private boolean writeExpr(String prefix, Expr expr) throws Err {
+    /** Write the given Expr, with the given ID and label, and its Type. */
+    private boolean writeExpr(String prefix, String id, String label, Expr expr) throws Err {
         Type type = expr.type();
         if (!type.hasTuple())
             return false;
@@ -112,18 +128,25 @@ public final class A4SolutionWriter {
             }
             // Now, write out the tupleset
             A4TupleSet ts = (A4TupleSet) (sol.eval(expr));
-            for (A4Tuple t : ts) {
-                if (prefix.length() > 0) {
-                    out.print(prefix);
-                    prefix = "";
+            if (sink != null && ts.size() > 0) {
+                out.print(prefix);
+                prefix = "";
+                sink.tuples(id, label, ts);
+            } else if (sink == null)
+                for (A4Tuple t : ts) {
+                    if (prefix.length() > 0) {
+                        out.print(prefix);
+                        prefix = "";
+                    }
+                    out.print("   <tuple");
+                    // Quantitative extension: Write the quantity associated with the tuple, if applicable.
+                    if (t instanceof A4QtTuple)
+                        Util.encodeXMLs(out, " weight=\"", ((A4QtTuple) t).getQuantity(), "\"");
+                    out.print(">");
+                    for (int i = 0; i < t.arity(); i++)
+                        Util.encodeXMLs(out, " <atom label=\"", t.atom(i), "\"/>");
+                    out.print(" </tuple>\n");
                 }
-                out.print("   <tuple>");
-                for (int i = 0; i < t.arity(); i++)
-                    Util.encodeXMLs(out, " <atom label=\"", t.atom(i), "\"/>");
-                // Quantitative extension: Write the quantity associated with the tuple, if applicable.
-                if(t instanceof A4QtTuple) Util.encodeXMLs(out, "<weight value=\"" + ((A4QtTuple)t).getQuantity() + "\"/>\n");
-                out.print(" </tuple>\n");
-            }
         }
         // Now, write out the type
         if (prefix.length() > 0)
@@ -219,7 +242,7 @@ public final class A4SolutionWriter {
             if (x.isInt != null)
                 out.print("\" int=\"yes");
             out.print("\">\n");
-            writeExpr("", x);
+            writeExpr("", map(x), x.sig.label + "." + x.label, x);
             out.print("</field>\n");
         } catch (Throwable ex) {
             throw new ErrorFatal("Error evaluating field " + x.sig.label + "." + x.label, ex);
@@ -236,7 +259,7 @@ public final class A4SolutionWriter {
                        // declarations
             StringBuilder sb = new StringBuilder();
             Util.encodeXMLs(sb, "\n<skolem label=\"", x.label, "\" ID=\"", map(x), "\">\n");
-            if (writeExpr(sb.toString(), x)) {
+            if (writeExpr(sb.toString(), map(x), x.label, x)) {
                 out.print("</skolem>\n");
             }
         } catch (Throwable ex) {
@@ -248,9 +271,10 @@ public final class A4SolutionWriter {
      * If sol==null, write the list of Sigs as a Metamodel, else write the solution
      * as an XML file.
      */
-    private A4SolutionWriter(A4Reporter rep, A4Solution sol, Iterable<Sig> sigs, int bitwidth, int maxseq, String originalCommand, String originalFileName, PrintWriter out, Iterable<Func> extraSkolems) throws Err {
+    private A4SolutionWriter(A4Reporter rep, A4Solution sol, Iterable<Sig> sigs, int bitwidth, int maxseq, String originalCommand, String originalFileName, PrintWriter out, Iterable<Func> extraSkolems, TupleSink sink) throws Err {
         this.rep = rep;
         this.out = out;
+        this.sink = sink;
         this.sol = sol;
         for (Sig s : sigs)
             if (s instanceof PrimSig && ((PrimSig) s).parent == Sig.UNIV)
@@ -293,7 +317,7 @@ public final class A4SolutionWriter {
                             rep.write(f.call());
                         StringBuilder sb = new StringBuilder();
                         Util.encodeXMLs(sb, "\n<skolem label=\"", label, "\" ID=\"m" + m + "\">\n");
-                        if (writeExpr(sb.toString(), f.call())) {
+                        if (writeExpr(sb.toString(), "m" + m, label, f.call())) {
                             out.print("</skolem>\n");
                         }
                         m++;
@@ -309,11 +333,20 @@ public final class A4SolutionWriter {
      * XML format.
      */
     static void writeInstance(A4Reporter rep, A4Solution sol, PrintWriter out, Iterable<Func> extraSkolems, Map<String,String> sources) throws Err {
+        writeInstance(rep, sol, out, extraSkolems, sources, null);
+    }
+
+    /**
+     * If this solution is a satisfiable solution, this method will write it out in
+     * XML format, giving the tuples of its fields and skolems to the sink instead,
+     * if it is not null.
+     */
+    static void writeInstance(A4Reporter rep, A4Solution sol, PrintWriter out, Iterable<Func> extraSkolems, Map<String,String> sources, TupleSink sink) throws Err {
         if (!sol.satisfiable())
             throw new ErrorAPI("This solution is unsatisfiable.");
         try {
             Util.encodeXMLs(out, "<alloy builddate=\"", Version.buildDate(), "\">\n\n");
-            new A4SolutionWriter(rep, sol, sol.getAllReachableSigs(), sol.getBitwidth(), sol.getMaxSeq(), sol.getOriginalCommand(), sol.getOriginalFilename(), out, extraSkolems);
+            new A4SolutionWriter(rep, sol, sol.getAllReachableSigs(), sol.getBitwidth(), sol.getMaxSeq(), sol.getOriginalCommand(), sol.getOriginalFilename(), out, extraSkolems, sink);
             if (sources != null)
                 for (Map.Entry<String,String> e : sources.entrySet()) {
                     Util.encodeXMLs(out, "\n<source filename=\"", e.getKey(), "\" content=\"", e.getValue(), "\"/>\n");
@@ -334,7 +367,7 @@ public final class A4SolutionWriter {
      */
     public static void writeMetamodel(ConstList<Sig> sigs, String originalFilename, PrintWriter out) throws Err {
         try {
-            new A4SolutionWriter(null, null, sigs, 4, 4, "show metamodel", originalFilename, out, null);
+            new A4SolutionWriter(null, null, sigs, 4, 4, "show metamodel", originalFilename, out, null, null);
         } catch (Throwable ex) {
             if (ex instanceof Err)
                 throw (Err) ex;
@@ -0,0 +1,241 @@
+package edu.mit.csail.sdg.translator;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.alloy4.ErrorSyntax;
+import edu.mit.csail.sdg.alloy4.Util;
+import edu.mit.csail.sdg.alloy4.XMLNode;
+import kodkod.instance.Tuple;
+import kodkod.instance.TupleFactory;
+
+/**
+ * Streams the tuples of the fields and skolems of an instance file, so that large instances can be read without
+ * keeping the whole document in memory.
+ * <p>
+ * The XML file is read twice: {@link #skeleton(File)} reads everything but the tuples, which is small enough to be
+ * handed to {@link A4SolutionReader} as an {@link XMLNode}, and {@link XML#tuples} then streams the tuples of each
+ * field or skolem straight into its tupleset. A tuple may carry its weight either as an attribute,
+ * {@code <tuple weight="..">}, or as an element, {@code <tuple> .. <weight value=".."/> </tuple>}.
+ */
+abstract class A4TupleStream implements Closeable {
+
+    /** Receives the tuples of a field or skolem, one at a time. */
+    interface Visitor {
+
+        /**
+         * Receives the atoms of a tuple, and its weight as written, or null if it has none. The list of atoms is
+         * reused by the next tuple.
+         */
+        void tuple(List<String> atoms, String weight) throws Err;
+
+        /** Receives a tuple, and its weight, or null if it has none. */
+        void tuple(Tuple tuple, Number weight) throws Err;
+    }
+
+    /** The StAX factory, which neither loads DTDs nor resolves external entities. */
+    private static final XMLInputFactory INPUT = XMLInputFactory.newInstance();
+
+    static {
+        INPUT.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        INPUT.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /** Opens a StAX cursor over the given input stream. */
+    private static XMLStreamReader open(InputStream in) throws IOException {
+        try {
+            return INPUT.createXMLStreamReader(in);
+        } catch (XMLStreamException ex) {
+            throw new IOException("Error reading the XML file: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Gives the tuples of the field or skolem with the given ID to the visitor, built with the given factory.
+     * Nothing is given if there is no such field or skolem.
+     */
+    abstract void tuples(String id, TupleFactory factory, Visitor visitor) throws IOException, Err;
+
+    /** Releases the file, if open. */
+    @Override
+    public abstract void close();
+
+    /** Streams the tuples of an XML file with StAX. */
+    static final class XML extends A4TupleStream {
+
+        /** The XML file. */
+        private final File         file;
+
+        /** The underlying input stream, if the file is open. */
+        private InputStream        in;
+
+        /** The cursor over the file, if the file is open. */
+        private XMLStreamReader    xml;
+
+        /** The number of &lt;instance&gt; elements started so far. */
+        private int                instances;
+
+        /** True if the cursor is within the first &lt;instance&gt;..&lt;/instance&gt; of the file. */
+        private boolean            inInstance;
+
+        /** The atoms of the current tuple. */
+        private final List<String> atoms = new ArrayList<String>();
+
+        /** Constructs a stream over the tuples of the given XML file; the file is only opened by the first read. */
+        XML(File file) {
+            this.file = file;
+        }
+
+        /** (Re)opens the file, placing the cursor at its start. */
+        private void reopen() throws IOException {
+            close();
+            in = new BufferedInputStream(new FileInputStream(file));
+            xml = open(in);
+            instances = 0;
+            inInstance = false;
+        }
+
+        /**
+         * Moves the cursor past the start of the field or skolem with the given ID in the first instance of the file,
+         * reading the file again from its start if that element was already left behind.
+         *
+         * @return false if there is no such element
+         */
+        private boolean seek(String id) throws IOException, XMLStreamException {
+            boolean fresh = false;
+            if (xml == null) {
+                reopen();
+                fresh = true;
+            }
+            while (true) {
+                while (xml.hasNext()) {
+                    int event = xml.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String name = xml.getLocalName();
+                        if (name.equals("instance"))
+                            inInstance = ++instances == 1;
+                        else if (inInstance && (name.equals("field") || name.equals("skolem")) && id.equals(xml.getAttributeValue(null, "ID")))
+                            return true;
+                    } else if (event == XMLStreamConstants.END_ELEMENT && inInstance && xml.getLocalName().equals("instance")) {
+                        inInstance = false;
+                        break; // only the first instance is ever read
+                    }
+                }
+                if (fresh)
+                    return false;
+                reopen();
+                fresh = true;
+            }
+        }
+
+        /**
+         * {@inheritDoc} The tuples are given by the labels of their atoms, in the order of the file.
+         */
+        @Override
+        void tuples(String id, TupleFactory factory, Visitor visitor) throws IOException, Err {
+            try {
+                if (!seek(id))
+                    return;
+                for (int depth = 0; xml.hasNext();) {
+                    int event = xml.next();
+                    if (event == XMLStreamConstants.END_ELEMENT) {
+                        if (depth-- == 0)
+                            return; // </field> or </skolem>
+                        continue;
+                    }
+                    if (event != XMLStreamConstants.START_ELEMENT)
+                        continue;
+                    if (depth++ > 0 || !xml.getLocalName().equals("tuple"))
+                        continue;
+                    // <tuple [weight=".."]> <atom label=".."/> .. [<weight value=".."/>] </tuple>
+                    String weight = xml.getAttributeValue(null, "weight");
+                    atoms.clear();
+                    while ((event = xml.nextTag()) == XMLStreamConstants.START_ELEMENT) {
+                        String name = xml.getLocalName();
+                        if (name.equals("atom"))
+                            atoms.add(xml.getAttributeValue(null, "label"));
+                        else if (name.equals("weight") && weight == null)
+                            weight = xml.getAttributeValue(null, "value");
+                        else
+                            throw new ErrorSyntax("Expecting: <tuple> <atom label=\"..\"/> .. </tuple> or <tuple weight=\"..\"> <atom label=\"..\"/> .. </tuple>");
+                        xml.nextTag(); // the end of the <atom/> or <weight/>
+                    }
+                    depth--;
+                    visitor.tuple(atoms, weight);
+                }
+            } catch (XMLStreamException ex) {
+                throw new IOException("Error reading the XML file: " + ex.getMessage(), ex);
+            }
+        }
+
+        /** Closes the file, if open; the next read opens it again. */
+        @Override
+        public void close() {
+            if (xml != null) {
+                try {
+                    xml.close();
+                } catch (XMLStreamException ex) {}
+                xml = null;
+            }
+            Util.close(in);
+            in = null;
+        }
+    }
+
+    /**
+     * Reads the given XML file into an {@link XMLNode}, leaving out the tuples of its fields and skolems, which are
+     * to be streamed by {@link XML#tuples}. Text content is dropped, as by {@link XMLNode#XMLNode(File)}.
+     */
+    static XMLNode skeleton(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        StringWriter sw = new StringWriter();
+        XMLStreamReader xml = null;
+        try {
+            xml = open(in);
+            XMLStreamWriter out = XMLOutputFactory.newInstance().createXMLStreamWriter(sw);
+            for (int skipped = 0; xml.hasNext();) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (skipped > 0 || xml.getLocalName().equals("tuple")) {
+                        skipped++;
+                        continue;
+                    }
+                    out.writeStartElement(xml.getLocalName());
+                    for (int i = 0; i < xml.getAttributeCount(); i++)
+                        out.writeAttribute(xml.getAttributeLocalName(i), xml.getAttributeValue(i));
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (skipped > 0)
+                        skipped--;
+                    else
+                        out.writeEndElement();
+                }
+            }
+            out.close();
+        } catch (XMLStreamException ex) {
+            throw new IOException("Error reading the XML file: " + ex.getMessage(), ex);
+        } finally {
+            if (xml != null)
+                try {
+                    xml.close();
+                } catch (XMLStreamException ex) {}
+            Util.close(in);
+        }
+        return new XMLNode(new StringReader(sw.toString()));
+    }
+}
@@ -9,11 +9,15 @@ import kodkod.ast.operator.IntCastOperator;
 import kodkod.ast.operator.Multiplicity;
 import kodkod.ast.visitor.ReturnVisitor;
 import kodkod.engine.CapacityExceededException;
+import kodkod.engine.QTScopedSolver;
 import kodkod.engine.fol2sat.HigherOrderDeclException;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
 
 /**
  * Quantitative extension of {@link TranslateAlloyToKodkod}.
@@ -176,6 +180,191 @@ public final class TranslateQTAlloyToKodkod extends TranslateAlloyToKodkod imple
         }
     }
 
+    /**
+     * Executes the commands of a world sharing the translation of its facts, which are
+     * translated only once per distinct scope, into a live solver session over which the
+     * goal of each command is then checked on its own.
+     * Commands of the same scope are thus executed one at a time, while those of
+     * distinct scopes may be executed concurrently.
+     * Commands whose goal cannot be checked over a shared session, e.g., if it declares
+     * further relations, or if the solver cannot solve incrementally, are executed on
+     * their own, as by {@link #execute_command(A4QtReporter, Iterable, Command, A4Options, String)}.
+     */
+    public static final class Session {
+
+        /**
+         * The facts translated for a scope, and the session that holds them.
+         */
+        private static final class Group {
+
+            /** False until the facts are translated. */
+            private boolean        ready;
+            /** The frame whose formulas are the facts; null if there is no session. */
+            private A4Solution     frame;
+            /** The session over the facts; null if there is none. */
+            private QTScopedSolver session;
+        }
+
+        private final Iterable<Sig>    sigs;
+        /** The conjuncts of the facts, as they start the formula of each command. */
+        private final List<Expr>       facts;
+        private final A4Options        opt;
+        private final String           solverBinary;
+        /** The groups of commands, keyed by their scope. */
+        private final Map<String,Group> groups = new HashMap<String,Group>();
+
+        /**
+         * Constructs a session over the given sigs and facts of a world, e.g.,
+         * {@code world.getAllReachableSigs()} and {@code world.getAllReachableFacts()}.
+         */
+        public Session(Iterable<Sig> sigs, Expr facts, A4Options opt, String solverBinary) {
+            this.sigs = sigs;
+            this.facts = conjuncts(facts);
+            this.opt = opt;
+            this.solverBinary = solverBinary;
+        }
+
+        /**
+         * Execute one command in a quantitative context, over the facts translated for its scope.
+         */
+        public A4Solution execute(A4QtReporter rep, Command cmd) throws Err {
+            final Expr goal = goal(cmd);
+            if (goal == null)
+                return execute_command(rep, sigs, cmd, opt, solverBinary);
+            final Group group = group(cmd);
+            synchronized (group) {
+                translate(rep, cmd, group);
+                if (group.session == null)
+                    return execute_command(rep, sigs, cmd, opt, solverBinary);
+                final A4Solution frame = group.frame;
+                final Formula kgoal;
+                try {
+                    kgoal = new TranslateQTAlloyToKodkod(frame.getBitwidth(), frame.unrolls(), frame.a2k(), frame.s2k()).cform(goal);
+                } catch (RuntimeException ex) {
+                    // e.g., the goal declares relations of its own
+                    return execute_command(rep, sigs, cmd, opt, solverBinary);
+                }
+                try {
+                    return frame.solve(rep, cmd, kgoal, group.session);
+                } catch (CapacityExceededException ex) {
+                    throw rethrow(ex);
+                } catch (HigherOrderDeclException ex) {
+                    throw new ErrorType("Analysis cannot be performed since it requires higher-order quantification that could not be skolemized.");
+                } catch (Throwable ex) {
+                    if (ex instanceof Err)
+                        throw (Err) ex;
+                    else
+                        throw new ErrorFatal("Unknown exception occurred: " + ex, ex);
+                }
+            }
+        }
+
+        /**
+         * Translates the facts for the scope of the given command into a live solver ahead of its
+         * execution, so that {@link #execute(A4QtReporter, Command)} then only translates and checks
+         * its goal. Does nothing if the command would not be executed over this session.
+         */
+        public void prepare(A4QtReporter rep, Command cmd) throws Err {
+            if (goal(cmd) == null)
+                return;
+            final Group group = group(cmd);
+            synchronized (group) {
+                translate(rep, cmd, group);
+                if (group.session != null)
+                    group.session.prepare();
+            }
+        }
+
+        /**
+         * Returns the group of the scope of the given command, creating it if needed.
+         */
+        private Group group(Command cmd) throws Err {
+            final String scope = scope(cmd);
+            synchronized (groups) {
+                Group group = groups.get(scope);
+                if (group == null)
+                    groups.put(scope, group = new Group());
+                return group;
+            }
+        }
+
+        /**
+         * Translates the facts for the given group, whose scope is that of the given command,
+         * unless they were already; the caller must hold the lock of the group.
+         */
+        private void translate(A4QtReporter rep, Command cmd, Group group) {
+            if (group.ready)
+                return;
+            group.ready = true;
+            try {
+                TranslateQTAlloyToKodkod tr = new TranslateQTAlloyToKodkod(rep, opt, sigs, cmd);
+                tr.makeFacts(ExprList.make(null, null, ExprList.Op.AND, facts));
+                group.session = tr.frame.session(rep, new Simplifier(), solverBinary);
+                group.frame = group.session == null ? null : tr.frame;
+            } catch (RuntimeException ex) {
+                // The command reports the failure on its own
+                group.frame = null;
+                group.session = null;
+            }
+        }
+
+        /**
+         * Releases the solver of every scope.
+         */
+        public void free() {
+            synchronized (groups) {
+                for (Group group : groups.values())
+                    if (group.session != null)
+                        group.session.free();
+                groups.clear();
+            }
+        }
+
+        /**
+         * Returns the goal of the given command, i.e., its formula without the facts,
+         * or null if its formula does not start with the facts.
+         */
+        private Expr goal(Command cmd) {
+            if (cmd.parent != null || !cmd.getGrowableSigs().isEmpty())
+                return null;
+            final List<Expr> conjuncts = conjuncts(cmd.formula);
+            if (conjuncts.size() < facts.size())
+                return null;
+            for (int i = 0; i < facts.size(); i++)
+                if (conjuncts.get(i) != facts.get(i))
+                    return null;
+            return ExprList.make(null, null, ExprList.Op.AND, conjuncts.subList(facts.size(), conjuncts.size()));
+        }
+
+        /**
+         * Returns the conjuncts of the given formula.
+         */
+        private static List<Expr> conjuncts(Expr formula) {
+            final List<Expr> conjuncts = new ArrayList<Expr>();
+            if (formula instanceof ExprList && ((ExprList) formula).op == ExprList.Op.AND)
+                conjuncts.addAll(((ExprList) formula).args);
+            else if (!formula.isSame(ExprConstant.TRUE))
+                conjuncts.add(formula);
+            return conjuncts;
+        }
+
+        /**
+         * Returns a key that identifies the bounds computed for the given command,
+         * i.e., its scope, and the string constants it mentions.
+         */
+        private static String scope(Command cmd) throws Err {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(cmd.overall).append(' ').append(cmd.bitwidth).append(' ').append(cmd.maxseq);
+            for (CommandScope sc : cmd.scope)
+                sb.append(", ").append(sc.sig.label).append(sc.isExact ? " exactly " : " ").append(sc.startingScope).append(' ').append(sc.endingScope).append(' ').append(sc.increment);
+            for (Sig exact : cmd.additionalExactScopes)
+                sb.append(", exactly ").append(exact.label);
+            for (String s : new TreeSet<String>(cmd.getAllStringConstants(Collections.<Sig> emptyList())))
+                sb.append(", ").append(s);
+            return sb.toString();
+        }
+    }
+
     /**
      * {@link TranslateAlloyToKodkod#alloy2kodkod(A4Solution, Expr)} for quantitative settings.
      */
@@ -0,0 +1,372 @@
+package edu.mit.csail.sdg.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import edu.mit.csail.sdg.alloy4.ErrorType;
+import kodkod.ast.IntConstant;
+import kodkod.ast.Relation;
+import kodkod.engine.QTEvaluator;
+import kodkod.engine.config.QuantitativeOptions;
+import kodkod.engine.fol2num.ConcreteEvaluator;
+import kodkod.instance.Instance;
+import kodkod.instance.QtTupleSet;
+import kodkod.instance.Tuple;
+import kodkod.instance.TupleSet;
+import kodkod.instance.Universe;
+
+public class SimTuplesetTest {
+
+    private static SimTupleset unary(String... atoms) {
+        List<SimTuple> ans = new ArrayList<SimTuple>();
+        for (String a : atoms)
+            ans.add(SimTuple.make(a));
+        return SimTupleset.make(ans);
+    }
+
+    private static SimTupleset binary(String... pairs) {
+        List<SimTuple> ans = new ArrayList<SimTuple>();
+        for (int i = 0; i < pairs.length; i += 2)
+            ans.add(SimTuple.make(new String[] {
+                                                pairs[i], pairs[i + 1]
+            }));
+        return SimTupleset.make(ans);
+    }
+
+    /** Returns a random relation of the given arity over the atoms a0..a(n-1). */
+    private static SimTupleset random(Random random, int arity, int atoms, int tuples) {
+        Set<SimTuple> ans = new LinkedHashSet<SimTuple>();
+        for (int k = 0; k < tuples; k++) {
+            String[] tuple = new String[arity];
+            for (int i = 0; i < arity; i++)
+                tuple[i] = "a" + random.nextInt(atoms);
+            ans.add(SimTuple.make(tuple));
+        }
+        return SimTupleset.make(ans);
+    }
+
+    /** Returns the same tupleset, where every tuple weighs 1. */
+    private static SimTupleset weighted(SimTupleset set) throws Exception {
+        List<SimTuple> tuples = new ArrayList<SimTuple>();
+        for (SimTuple t : set)
+            tuples.add(t);
+        long[] weights = new long[tuples.size()];
+        Arrays.fill(weights, 1);
+        return SimTupleset.make(tuples, weights);
+    }
+
+    /** The join of a and b, as computed over their lists of tuples. */
+    private static SimTupleset naiveJoin(SimTupleset a, SimTupleset b) {
+        Set<SimTuple> ans = new LinkedHashSet<SimTuple>();
+        for (SimTuple x : a)
+            for (SimTuple y : b)
+                if (x.tail() == y.head())
+                    ans.add(x.join(y));
+        return SimTupleset.make(ans);
+    }
+
+    /** The closure of r, as computed by joining it with itself until a fixpoint. */
+    private static SimTupleset naiveClosure(SimTupleset r) {
+        SimTupleset ans = r;
+        while (true) {
+            SimTupleset next = ans.union(naiveJoin(ans, r));
+            if (next.longsize() == ans.longsize())
+                return ans;
+            ans = next;
+        }
+    }
+
+    @Test
+    public void testJoin() throws Exception {
+        SimTupleset r = binary("a", "b", "a", "c", "b", "c", "c", "d");
+        assertEquals(unary("b", "c"), unary("a").join(r));
+        assertEquals(unary("a", "b"), r.join(unary("c")));
+        assertEquals(binary("a", "c", "a", "d", "b", "d"), r.join(r));
+        // d has no successor, and e is unknown to r
+        assertTrue(unary("d", "e").join(r).empty());
+        assertTrue(r.join(unary("a", "e")).empty());
+    }
+
+    @Test
+    public void testClosure() {
+        SimTupleset r = binary("a", "b", "b", "c", "c", "a", "d", "a");
+        SimTupleset ans = r.closure();
+        // a, b and c reach each other, and d reaches all three
+        assertEquals(12, ans.size());
+        assertEquals(naiveClosure(r), ans);
+        assertEquals(binary("a", "a"), binary("a", "a").closure());
+    }
+
+    @Test
+    public void testRandomJoins() throws Exception {
+        Random random = new Random(0);
+        for (int n = 0; n < 200; n++) {
+            int atoms = 1 + random.nextInt(12);
+            SimTupleset u = random(random, 1, atoms, random.nextInt(8) + 1);
+            SimTupleset r = random(random, 2, atoms, random.nextInt(30) + 1);
+            SimTupleset s = random(random, 2, atoms, random.nextInt(30) + 1);
+            assertEquals(naiveJoin(u, r), u.join(r));
+            assertEquals(naiveJoin(r, u), r.join(u));
+            assertEquals(naiveJoin(r, s), r.join(s));
+            // The weighted join, where every tuple weighs 1, gives the same tuples
+            assertEquals(weighted(r).join(weighted(s)).drop(), r.join(s));
+        }
+    }
+
+    @Test
+    public void testRandomClosures() throws Exception {
+        Random random = new Random(1);
+        for (int n = 0; n < 200; n++) {
+            int atoms = 1 + random.nextInt(12);
+            SimTupleset r = random(random, 2, atoms, random.nextInt(30) + 1);
+            assertEquals(naiveClosure(r), r.closure());
+            assertEquals(weighted(r).closure().drop(), r.closure());
+        }
+    }
+
+    /**
+     * Returns random weights for the tuples of the given arity over n atoms, by index: each tuple is left out or
+     * weighs 1 to max.
+     */
+    private static long[] weights(Random random, int arity, int n, int max) {
+        long[] ans = new long[(int) Math.pow(n, arity)];
+        for (int i = 0; i < ans.length; i++)
+            ans[i] = random.nextBoolean() ? 0 : 1 + random.nextInt(max);
+        return ans;
+    }
+
+    /** Returns the atoms of the tuple of the given index and arity, over the atoms a0..a(n-1). */
+    private static String[] atoms(int index, int arity, int n) {
+        String[] ans = new String[arity];
+        for (int i = arity - 1; i >= 0; i--, index /= n)
+            ans[i] = "a" + (index % n);
+        return ans;
+    }
+
+    /** Returns the tupleset where the tuple of each index has the given weight. */
+    private static SimTupleset sim(long[] weights, int arity, int n) throws Exception {
+        List<SimTuple> tuples = new ArrayList<SimTuple>();
+        for (int i = 0; i < weights.length; i++)
+            tuples.add(SimTuple.make(atoms(i, arity, n)));
+        return SimTupleset.make(tuples, weights);
+    }
+
+    /** Returns the kodkod tupleset where the tuple of each index has the given weight. */
+    private static QtTupleSet qt(Universe universe, long[] weights, int arity) {
+        QtTupleSet ans = universe.factory().noneOfQt(arity);
+        for (int i = 0; i < weights.length; i++)
+            if (weights[i] != 0)
+                ans.add(i, weights[i]);
+        return ans;
+    }
+
+    /** Returns the given kodkod tupleset as a tupleset, where a tuple weighs 1 if the set is not weighted. */
+    private static SimTupleset sim(TupleSet set) throws Exception {
+        assertNotNull("supported by the concrete evaluator", set);
+        List<SimTuple> tuples = new ArrayList<SimTuple>();
+        long[] weights = new long[set.size()];
+        int k = 0;
+        for (Tuple t : set) {
+            String[] atoms = new String[t.arity()];
+            for (int i = 0; i < atoms.length; i++)
+                atoms[i] = (String) t.atom(i);
+            tuples.add(SimTuple.make(atoms));
+            weights[k++] = set instanceof QtTupleSet ? ((QtTupleSet) set).getWeight(t.index()).longValue() : 1;
+        }
+        return SimTupleset.make(tuples, weights);
+    }
+
+    /**
+     * Checks the weighted operators against the concrete evaluator of kodkod, over the same random instances,
+     * where u is unary, and r and s are binary.
+     */
+    @Test
+    public void testWeightedOperators() throws Exception {
+        Random random = new Random(2);
+        Relation u = Relation.quantitative_nary("u", 1), r = Relation.quantitative_nary("r", 2), s = Relation.quantitative_nary("s", 2);
+        for (int n = 0; n < 200; n++) {
+            int atoms = 1 + random.nextInt(5);
+            List<String> names = new ArrayList<String>();
+            for (int i = 0; i < atoms; i++)
+                names.add("a" + i);
+            Universe universe = new Universe(names);
+            // at times, every tuple weighs 1
+            int max = n % 4 == 0 ? 1 : 4;
+            long[] wu = weights(random, 1, atoms, max), wr = weights(random, 2, atoms, max), ws = weights(random, 2, atoms, 4);
+            Instance instance = new Instance(universe);
+            instance.add(u, qt(universe, wu, 1));
+            instance.add(r, qt(universe, wr, 2));
+            instance.add(s, qt(universe, ws, 2));
+            ConcreteEvaluator eval = new ConcreteEvaluator(instance);
+            SimTupleset U = sim(wu, 1, atoms), R = sim(wr, 2, atoms), S = sim(ws, 2, atoms);
+            assertEquals(max > 1 && !R.empty() && R.count() != R.size(), R.weighted());
+
+            assertEquals(sim(eval.evaluate(r)), R);
+            // max union, min intersection
+            assertEquals(sim(eval.evaluate(r.union(s))), R.union(S));
+            assertEquals(sim(eval.evaluate(r.intersection(s))), R.intersect(S));
+            assertEquals(sim(eval.evaluate(r.difference(s))), R.difference(S));
+            // max-min join, and widest-path closure
+            assertEquals(sim(eval.evaluate(r.join(s))), R.join(S));
+            assertEquals(sim(eval.evaluate(u.join(r))), U.join(R));
+            assertEquals(sim(eval.evaluate(r.join(u))), R.join(U));
+            assertEquals(sim(eval.evaluate(r.closure())), R.closure());
+            // sum-product join
+            assertEquals(sim(eval.evaluate(r.multijoin(s))), R.multijoin(S));
+            assertEquals(sim(eval.evaluate(u.multijoin(r))), U.multijoin(R));
+            assertEquals(sim(eval.evaluate(r.drop())), R.drop());
+            assertFalse(R.drop().weighted());
+            assertEquals(sim(eval.evaluate(u.product(u))), U.product(U));
+            // pointwise arithmetic
+            assertEquals(sim(eval.evaluate(r.addition(s))), R.addition(S));
+            assertEquals(sim(eval.evaluate(r.minus(s))), R.minus(S));
+            assertEquals(sim(eval.evaluate(r.hadamardProduct(s))), R.hadamardProduct(S));
+            assertEquals(sim(eval.evaluate(r.hadamardDivision(r.union(s)))), R.hadamardDivision(R.union(S)));
+            // the concrete evaluator leaves a zero factor to the solver, and scaling by it drops every tuple
+            int k = random.nextInt(5) - 2;
+            if (k >= 0)
+                k++;
+            assertEquals(sim(eval.evaluate(IntConstant.constant(k).toExpression().scalar(r))), R.scale(k));
+            assertTrue(R.scale(0).empty());
+            // restrictions keep the weights of the relation
+            assertEquals(sim(eval.evaluate(r.domain(u))), U.domain(R));
+            assertEquals(sim(eval.evaluate(r.range(u))), R.range(U));
+        }
+    }
+
+    /** Checks the pointwise comparisons against the evaluation of kodkod, over the same random instances. */
+    @Test
+    public void testWeightedComparisons() throws Exception {
+        Random random = new Random(3);
+        Relation r = Relation.quantitative_nary("r", 2), s = Relation.quantitative_nary("s", 2);
+        Universe universe = new Universe("a0", "a1", "a2");
+        int lte = 0;
+        for (int n = 0; n < 100; n++) {
+            long[] wr = weights(random, 2, 3, 3), ws = wr.clone();
+            // s is r, where some weights grow
+            for (int i = 0; i < ws.length; i++)
+                if (random.nextInt(4) == 0)
+                    ws[i] += random.nextInt(3);
+            Instance instance = new Instance(universe);
+            instance.add(r, qt(universe, wr, 2));
+            instance.add(s, qt(universe, ws, 2));
+            QTEvaluator eval = new QTEvaluator(instance, new QuantitativeOptions());
+            SimTupleset R = sim(wr, 2, 3), S = sim(ws, 2, 3);
+            assertEquals(eval.evaluate(r.lte(s)), R.lte(S));
+            assertEquals(eval.evaluate(r.lt(s)), R.lt(S));
+            assertEquals(eval.evaluate(s.lte(r)), S.lte(R));
+            assertEquals(eval.evaluate(s.lt(r)), S.lt(R));
+            assertTrue(R.lte(R));
+            assertFalse(R.lt(R));
+            if (R.lte(S))
+                lte++;
+        }
+        assertEquals(100, lte);
+    }
+
+    @Test
+    public void testNormalized() throws Exception {
+        SimTupleset r = binary("a", "b", "b", "c");
+        // every tuple weighs 1, or is left out
+        SimTupleset ones = SimTupleset.make(Arrays.asList(SimTuple.make(new String[] {
+                                                                                      "a", "b"
+        }), SimTuple.make(new String[] {
+                                        "b", "c"
+        }), SimTuple.make(new String[] {
+                                        "c", "a"
+        })), new long[] {
+                         1, 1, 0
+        });
+        assertFalse(ones.weighted());
+        assertEquals(r, ones);
+        SimTupleset twice = r.addition(r);
+        assertTrue(twice.weighted());
+        assertEquals(4, twice.count());
+        assertEquals(r, twice.minus(r));
+        assertFalse(twice.minus(r).weighted());
+        assertEquals(r, twice.hadamardDivision(twice));
+        assertFalse(twice.drop().weighted());
+        assertTrue(twice.minus(twice).empty());
+    }
+
+    @Test
+    public void testOverflow() throws Exception {
+        SimTupleset huge = SimTupleset.make(Arrays.asList(SimTuple.make("a")), new long[] {
+                                                                                       Long.MAX_VALUE
+        });
+        SimTupleset least = SimTupleset.make(Arrays.asList(SimTuple.make("a")), new long[] {
+                                                                                        Long.MIN_VALUE
+        });
+        try {
+            huge.addition(huge);
+            fail("the weight overflows");
+        } catch (ErrorType ex) {
+            // expected
+        }
+        try {
+            huge.scale(2);
+            fail("the weight overflows");
+        } catch (ErrorType ex) {
+            // expected
+        }
+        try {
+            huge.hadamardProduct(huge);
+            fail("the weight overflows");
+        } catch (ErrorType ex) {
+            // expected
+        }
+        try {
+            huge.union(unary("b")).count();
+            fail("the sum of the weights overflows");
+        } catch (ErrorType ex) {
+            // expected
+        }
+        try {
+            least.hadamardDivision(SimTupleset.make(Arrays.asList(SimTuple.make("a")), new long[] {
+                                                                                                 -1
+            }));
+            fail("the weight overflows");
+        } catch (ErrorType ex) {
+            // expected
+        }
+        try {
+            unary("a").minus(least);
+            fail("the weight overflows");
+        } catch (ErrorType ex) {
+            // expected
+        }
+        try {
+            unary("a", "b").hadamardDivision(unary("a"));
+            fail("b is divided by zero");
+        } catch (ErrorType ex) {
+            // expected
+        }
+        assertEquals(Long.MAX_VALUE, huge.union(huge).count());
+    }
+
+    @Test
+    public void testRange() throws Exception {
+        SimTupleset r = binary("a", "b", "b", "c", "c", "c");
+        // the tuples are kept by their last atom
+        assertEquals(binary("b", "c", "c", "c"), r.range(unary("c")));
+        assertEquals(binary("a", "b"), r.range(unary("b")));
+        assertTrue(r.range(unary("a")).empty());
+        SimTupleset weighted = r.addition(binary("c", "c"));
+        assertEquals(2, weighted.range(unary("c")).weight(SimTuple.make(new String[] {
+                                                                                      "c", "c"
+        })));
+        assertEquals(binary("a", "b", "b", "c"), unary("a", "b").domain(r));
+    }
+}
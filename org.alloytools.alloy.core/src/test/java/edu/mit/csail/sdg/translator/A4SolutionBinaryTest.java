@@ -0,0 +1,130 @@
+package edu.mit.csail.sdg.translator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.alloy4.XMLNode;
+import edu.mit.csail.sdg.ast.Sig;
+
+public class A4SolutionBinaryTest {
+
+    private final List<File> files = new ArrayList<File>();
+
+    @After
+    public void tearDown() {
+        for (File file : files)
+            file.delete();
+    }
+
+    private File temp(String suffix) throws Exception {
+        File file = File.createTempFile("solution", suffix);
+        files.add(file);
+        return file;
+    }
+
+    /** Returns an instance file with the given atoms of A, where r weighs w1 and w2. */
+    private static String xml(String atoms, long w1, long w2) {
+        return "<alloy builddate=\"1970-01-01T00:00:00Z\">\n"                                                        //
+               + "<instance bitwidth=\"4\" maxseq=\"3\" command=\"Run run$1 for 3\" filename=\"\" context=\"Integer\">\n" //
+               + "<sig label=\"seq/Int\" ID=\"0\" parentID=\"1\" builtin=\"yes\"> </sig>\n"                         //
+               + "<sig label=\"Int\" ID=\"1\" parentID=\"2\" builtin=\"yes\"> </sig>\n"                             //
+               + "<sig label=\"String\" ID=\"3\" parentID=\"2\" builtin=\"yes\"> </sig>\n"                          //
+               + "<sig label=\"this/A\" ID=\"4\" parentID=\"2\">" + atoms + "</sig>\n"                              //
+               + "<field label=\"r\" ID=\"5\" parentID=\"4\" int=\"yes\">\n"                                         //
+               + " <tuple weight=\"" + w1 + "\"> <atom label=\"A$0\"/> <atom label=\"A$1\"/> </tuple>\n"           //
+               + " <tuple weight=\"" + w2 + "\"> <atom label=\"A$1\"/> <atom label=\"A$1\"/> </tuple>\n"           //
+               + " <types> <type ID=\"4\"/> <type ID=\"4\"/> </types>\n"                                            //
+               + "</field>\n"                                                                                       //
+               + "<field label=\"s\" ID=\"6\" parentID=\"4\">\n"                                                     //
+               + " <tuple> <atom label=\"A$1\"/> <atom label=\"A$0\"/> </tuple>\n"                                  //
+               + " <types> <type ID=\"4\"/> <type ID=\"4\"/> </types>\n"                                            //
+               + "</field>\n"                                                                                       //
+               + "<sig label=\"univ\" ID=\"2\" builtin=\"yes\"> </sig>\n"                                           //
+               + "</instance>\n"                                                                                    //
+               + "</alloy>\n";
+    }
+
+    private static final String TWO   = "<atom label=\"A$0\"/> <atom label=\"A$1\"/>";
+
+    private static final String THREE = TWO + " <atom label=\"A$2\"/>";
+
+    /** Reads the given instance file. */
+    private A4Solution read(String xml) throws Exception {
+        File file = temp(".xml");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+            out.write(xml);
+        }
+        return A4QtSolutionReader.read(new ArrayList<Sig>(), new XMLNode(file));
+    }
+
+    /** Reads the given instance file, and writes it to a binary file. */
+    private File binary(String xml) throws Exception {
+        File ans = temp(".bin");
+        A4SolutionBinary.write(read(xml), ans, null, null);
+        return ans;
+    }
+
+    private static String toXML(A4Solution sol) throws Err {
+        StringWriter sw = new StringWriter();
+        PrintWriter out = new PrintWriter(sw);
+        sol.writeXML(out, null, null);
+        out.flush();
+        return sw.toString();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        A4Solution sol = read(xml(TWO, 3, -200000));
+        String expected = toXML(sol);
+        assertTrue(expected.contains("weight=\"-200000\""));
+
+        File bin = temp(".bin");
+        A4SolutionBinary.write(sol, bin, null, null);
+        // Mapped or read into the heap, the binary gives the same solution as the XML file
+        assertEquals(expected, toXML(A4SolutionBinary.read(new ArrayList<Sig>(), bin, false)));
+        assertEquals(expected, toXML(A4SolutionBinary.read(new ArrayList<Sig>(), bin, true)));
+    }
+
+    @Test
+    public void testDiff() throws Exception {
+        File a = binary(xml(TWO, 3, -2));
+        assertTrue(A4SolutionBinary.diff(a, a).isEmpty());
+        assertTrue(A4SolutionBinary.diff(a, binary(xml(TWO, 3, -2))).isEmpty());
+        assertEquals(Arrays.asList("this/A.r: tuples or weights differ"), A4SolutionBinary.diff(a, binary(xml(TWO, 3, 2))));
+        // Over other atoms, the tuples are compared by the labels of their atoms
+        assertEquals(Arrays.asList("this/A: atoms differ"), A4SolutionBinary.diff(a, binary(xml(THREE, 3, -2))));
+        List<String> ans = A4SolutionBinary.diff(a, binary(xml(THREE, 4, -2)));
+        assertEquals(Arrays.asList("this/A: atoms differ", "this/A.r: tuples or weights differ"), ans);
+    }
+
+    @Test
+    public void testMalformed() throws Exception {
+        File file = temp(".bin");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[] {
+                                  'Q', 'A', 'I', 1, 0, 0, 0
+            });
+        }
+        try {
+            A4SolutionBinary.read(new ArrayList<Sig>(), file, false);
+            fail("A truncated file is not a binary solution file");
+        } catch (Err ex) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package edu.mit.csail.sdg.translator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.mit.csail.sdg.alloy4.XMLNode;
+import kodkod.instance.Tuple;
+
+public class A4TupleStreamTest {
+
+    private static final String XML = "<alloy builddate=\"\">\n"                                                      //
+                                      + "<instance bitwidth=\"4\" maxseq=\"4\" command=\"run\" filename=\"\">\n"       //
+                                      + "<sig label=\"this/A\" ID=\"4\" parentID=\"2\"> <atom label=\"A$0\"/> <atom label=\"A$1\"/> </sig>\n" //
+                                      // legacy weights, as elements
+                                      + "<field label=\"f\" ID=\"5\" parentID=\"4\">\n"                                 //
+                                      + " <tuple> <atom label=\"A$0\"/> <atom label=\"A$1\"/> <weight value=\"3\"/> </tuple>\n" //
+                                      + " <tuple> <atom label=\"A$1\"/> <atom label=\"A$1\"/> <weight value=\"-2.5\"/> </tuple>\n" //
+                                      + " <types> <type ID=\"4\"/> <type ID=\"4\"/> </types>\n"                        //
+                                      + "</field>\n"                                                                   //
+                                      // weights, as attributes
+                                      + "<field label=\"g\" ID=\"6\" parentID=\"4\">\n"                                 //
+                                      + " <tuple weight=\"3\"> <atom label=\"A$0\"/> <atom label=\"A$1\"/> </tuple>\n"  //
+                                      + " <tuple weight=\"-2.5\"> <atom label=\"A$1\"/> <atom label=\"A$1\"/> </tuple>\n" //
+                                      + " <types> <type ID=\"4\"/> <type ID=\"4\"/> </types>\n"                        //
+                                      + "</field>\n"                                                                   //
+                                      // no weights
+                                      + "<skolem label=\"$a\" ID=\"7\">\n"                                              //
+                                      + " <tuple> <atom label=\"A$0\"/> </tuple>\n"                                    //
+                                      + " <types> <type ID=\"4\"/> </types>\n"                                         //
+                                      + "</skolem>\n"                                                                  //
+                                      + "</instance>\n"                                                                //
+                                      // only the first instance is read
+                                      + "<instance bitwidth=\"4\" maxseq=\"4\" command=\"run\" filename=\"\">\n"       //
+                                      + "<field label=\"h\" ID=\"8\" parentID=\"4\">\n"                                 //
+                                      + " <tuple> <atom label=\"A$0\"/> <atom label=\"A$0\"/> </tuple>\n"              //
+                                      + "</field>\n"                                                                   //
+                                      + "</instance>\n"                                                                //
+                                      + "</alloy>\n";
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("tuples", ".xml");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+            out.write(XML);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    /** Returns the tuples of the given ID, each as its atoms followed by its weight. */
+    private static List<String> tuples(A4TupleStream stream, String id) throws Exception {
+        final List<String> ans = new ArrayList<String>();
+        stream.tuples(id, null, new A4TupleStream.Visitor() {
+
+            @Override
+            public void tuple(List<String> atoms, String weight) {
+                ans.add(atoms + " " + weight);
+            }
+
+            @Override
+            public void tuple(Tuple tuple, Number weight) {
+                fail("The XML stream gives the atoms of each tuple");
+            }
+        });
+        return ans;
+    }
+
+    @Test
+    public void testWeights() throws Exception {
+        try (A4TupleStream stream = new A4TupleStream.XML(file)) {
+            List<String> legacy = tuples(stream, "5");
+            assertEquals(2, legacy.size());
+            assertEquals("[A$0, A$1] 3", legacy.get(0));
+            assertEquals("[A$1, A$1] -2.5", legacy.get(1));
+            // Both ways of writing the weights give the same tuples
+            assertEquals(legacy, tuples(stream, "6"));
+            assertEquals("[[A$0] null]", tuples(stream, "7").toString());
+        }
+    }
+
+    @Test
+    public void testSeek() throws Exception {
+        try (A4TupleStream stream = new A4TupleStream.XML(file)) {
+            // Reading backwards opens the file again
+            assertEquals(1, tuples(stream, "7").size());
+            assertEquals(2, tuples(stream, "5").size());
+            assertEquals(1, tuples(stream, "7").size());
+            // Unknown IDs, and those of later instances, have no tuples
+            assertTrue(tuples(stream, "9").isEmpty());
+            assertTrue(tuples(stream, "8").isEmpty());
+            assertEquals(2, tuples(stream, "6").size());
+        }
+    }
+
+    @Test
+    public void testSkeleton() throws Exception {
+        XMLNode alloy = A4TupleStream.skeleton(file);
+        int fields = 0;
+        for (XMLNode instance : alloy.getChildren("instance"))
+            for (XMLNode field : instance.getChildren("field")) {
+                fields++;
+                // The tuples are left out, but not their siblings
+                assertFalse(field.getChildren("tuple").iterator().hasNext());
+                assertEquals(!field.getAttribute("ID").equals("8"), field.getChildren("types").iterator().hasNext());
+            }
+        assertEquals(3, fields);
+    }
+}
@@ -0,0 +1,118 @@
+package edu.mit.csail.sdg.translator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.mit.csail.sdg.alloy4.A4QtReporter;
+import edu.mit.csail.sdg.alloy4.A4Reporter;
+import edu.mit.csail.sdg.ast.Command;
+import edu.mit.csail.sdg.parser.CompModule;
+import edu.mit.csail.sdg.parser.CompUtil;
+
+/**
+ * Tests that the commands executed over a {@link TranslateQTAlloyToKodkod.Session}, which shares the facts of each
+ * scope, have the same instances as those executed on their own.
+ */
+public class TranslateQTAlloyToKodkodTest {
+
+    private static final String MODEL = "sig A { int r : set A }\n"                                     //
+                                        + "fact { r >= 0 ** (A -> A) and r <= 2 ** (A -> A) }\n"     //
+                                        + "run light { r <= 1 ** (A -> A) } for exactly 2 A\n"       //
+                                        + "run heavy { r >= 1 ** (A -> A) } for exactly 2 A\n"       //
+                                        + "run overweight { r > 2 ** (A -> A) } for exactly 2 A\n"    //
+                                        + "run single { r = 1 ** (A -> A) } for exactly 1 A\n"       //
+                                        + "assert bounded { r <= 2 ** (A -> A) }\n"                  //
+                                        + "check bounded for exactly 2 A\n";
+
+    private CompModule                         world;
+    private A4Options                          options;
+    private String                             binary;
+    private TranslateQTAlloyToKodkod.Session session;
+
+    @Before
+    public void setUp() throws Exception {
+        final String os = System.getProperty("os.name").toLowerCase();
+        binary = System.getProperty("kodkod.yices", "../org.alloytools.kodkod.nativesat/bin/yices/yices_" + (os.startsWith("windows") ? "windows" : os.startsWith("mac") ? "mac" : "linux"));
+        assumeTrue(new File(binary).canExecute());
+        world = CompUtil.parseEverything_fromString(A4Reporter.NOP, MODEL);
+        options = new A4Options();
+        options.analysisType = "Integer";
+        options.quantitativeSolver = "Yices";
+        session = new TranslateQTAlloyToKodkod.Session(world.getAllReachableSigs(), world.getAllReachableFacts(), options, binary);
+    }
+
+    @After
+    public void tearDown() {
+        if (session != null)
+            session.free();
+    }
+
+    private Command command(String label) {
+        for (Command cmd : world.getAllCommands())
+            if (cmd.label.equals(label))
+                return cmd;
+        throw new IllegalArgumentException(label);
+    }
+
+    /** Returns the instances of the given satisfiable solution and of those that follow it, which are all distinct. */
+    private static Set<String> drain(A4Solution sol, Set<String> found) throws Exception {
+        for (; sol.satisfiable(); sol = sol.next())
+            assertTrue("enumerated twice: " + sol, found.add(sol.toString()));
+        return found;
+    }
+
+    /** Returns the instances of the given command, executed on its own. */
+    private Set<String> alone(String label) throws Exception {
+        return drain(TranslateQTAlloyToKodkod.execute_command(new A4QtReporter(), world.getAllReachableSigs(), command(label), options, binary), new LinkedHashSet<String>());
+    }
+
+    /** Returns the instances of the given command, executed over the session. */
+    private Set<String> shared(String label) throws Exception {
+        return drain(session.execute(new A4QtReporter(), command(label)), new LinkedHashSet<String>());
+    }
+
+    @Test
+    public void testCommands() throws Exception {
+        session.prepare(new A4QtReporter(), command("light"));
+        for (String label : new String[] {
+                                          "light", "heavy", "single", "light", "bounded"
+        }) {
+            final Set<String> expected = alone(label);
+            assertEquals(label, expected, shared(label));
+            assertEquals(label, !label.equals("bounded"), !expected.isEmpty());
+        }
+    }
+
+    @Test
+    public void testUnsatThenSat() throws Exception {
+        assertFalse(session.execute(new A4QtReporter(), command("overweight")).satisfiable());
+        assertEquals(alone("heavy"), shared("heavy"));
+    }
+
+    @Test
+    public void testEvicted() throws Exception {
+        // the enumeration of light is evicted by heavy, over the same scope, and carries on by itself
+        final Set<String> lights = new LinkedHashSet<String>();
+        A4Solution light = session.execute(new A4QtReporter(), command("light"));
+        for (int i = 0; i < 3; i++, light = light.next())
+            assertTrue(lights.add(light.toString()));
+        final Set<String> heavies = new LinkedHashSet<String>();
+        A4Solution heavy = session.execute(new A4QtReporter(), command("heavy"));
+        assertTrue(heavies.add(heavy.toString()));
+        heavy = heavy.next();
+        drain(light, lights);
+        drain(heavy, heavies);
+        assertEquals(alone("light"), lights);
+        assertEquals(alone("heavy"), heavies);
+    }
+}
@@ -0,0 +1,57 @@
+package org.alloytools.alloy.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import edu.mit.csail.sdg.alloy4.A4Reporter;
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.ast.Expr;
+import edu.mit.csail.sdg.ast.Sig;
+import edu.mit.csail.sdg.parser.CompModule;
+import edu.mit.csail.sdg.parser.CompUtil;
+import edu.mit.csail.sdg.translator.A4Options;
+import edu.mit.csail.sdg.translator.A4Solution;
+import edu.mit.csail.sdg.translator.A4TupleSet;
+import edu.mit.csail.sdg.translator.TranslateAlloyToKodkod;
+
+public class EvalTest {
+
+    private static A4Solution solve(CompModule world) throws Err {
+        return TranslateAlloyToKodkod.execute_command(A4Reporter.NOP, world.getAllReachableSigs(), world.getAllCommands().get(0), new A4Options());
+    }
+
+    private static Sig sig(CompModule world, String name) {
+        for (Sig s : world.getAllReachableSigs())
+            if (s.label.equals("this/" + name))
+                return s;
+        throw new IllegalArgumentException(name);
+    }
+
+    @Test
+    public void testEval() throws Exception {
+        CompModule world = CompUtil.parseEverything_fromString(A4Reporter.NOP, "sig A {} sig B {} run { one A && one B } for 3\n");
+        A4Solution ans = solve(world);
+        assertTrue(ans.satisfiable());
+        Expr expr = sig(world, "A").plus(sig(world, "B"));
+        assertEquals(2, ((A4TupleSet) ans.eval(expr)).size());
+        // Evaluating the same expression again gives the same value
+        assertEquals(2, ((A4TupleSet) ans.eval(expr)).size());
+    }
+
+    @Test
+    public void testIllTypedExpression() throws Exception {
+        CompModule world = CompUtil.parseEverything_fromString(A4Reporter.NOP, "sig A {} sig B {} run { some A && some B } for 3\n");
+        A4Solution ans = solve(world);
+        assertTrue(ans.satisfiable());
+        // The join of two sets is ill-typed, which eval reports rather than evaluates
+        Expr expr = sig(world, "A").join(sig(world, "B"));
+        assertTrue(!expr.errors.isEmpty());
+        try {
+            ans.eval(expr);
+            fail("an ill-typed expression was evaluated");
+        } catch (Err e) {}
+    }
+}
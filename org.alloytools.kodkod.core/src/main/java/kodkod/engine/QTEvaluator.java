@@ -4,6 +4,7 @@ import kodkod.ast.Expression;
 import kodkod.ast.Formula;
 import kodkod.ast.IntExpression;
 import kodkod.engine.config.QuantitativeOptions;
+import kodkod.engine.fol2num.ConcreteEvaluator;
 import kodkod.engine.fol2sat.Translator;
 import kodkod.engine.num.NumericConstant;
 import kodkod.engine.num.NumericMatrix;
@@ -22,6 +23,8 @@ import java.util.*;
 public class QTEvaluator extends Evaluator {
 
     private final QuantitativeOptions options;
+    // Evaluation session over this.instance, shared by every expression evaluated
+    private final ConcreteEvaluator concrete;
 
     /**
      * Constructs a new QTEvaluator for the given instance, with the given quantitative configuration.
@@ -32,6 +35,22 @@ public class QTEvaluator extends Evaluator {
     public QTEvaluator(Instance instance, QuantitativeOptions options) {
         super(instance);
         this.options = options;
+        this.concrete = new ConcreteEvaluator(instance);
+    }
+
+    /**
+     * Constructs a new QTEvaluator for the given instance, with the configuration of the given evaluator,
+     * e.g., over the next instance of an enumeration. The values of the sub-expressions evaluated by
+     * {@code previous} are carried on, and only those that depend on relations whose tuples differ between
+     * both instances are evaluated again. {@code previous} remains usable, but starts over.
+     *
+     * @ensures this.instance' = instance && this.options' = previous.options
+     * @throws NullPointerException previous = null || instance = null
+     */
+    public QTEvaluator(QTEvaluator previous, Instance instance) {
+        super(instance);
+        this.options = previous.options;
+        this.concrete = new ConcreteEvaluator(previous.concrete, instance);
     }
 
     /**
@@ -67,26 +86,52 @@ public class QTEvaluator extends Evaluator {
 
     /**
      * {@inheritDoc}
+     * The expression is evaluated directly over the tuples of this.instance whenever
+     * {@link ConcreteEvaluator} supports it, and translated into a constant numeric circuit otherwise.
+     * Sub-expressions are evaluated directly only once per instance.
      */
     @Override
     public TupleSet evaluate(Expression expression) {
         if (expression == null)
             throw new NullPointerException("expression");
+        final TupleSet value = concrete.evaluate(expression);
+        if (value != null)
+            return value;
         return matrixToTS(Translator.evaluate(expression, super.instance(), options), expression.arity());
     }
 
     /**
      * {@inheritDoc}
+     * The expression is evaluated directly over the tuples of this.instance whenever
+     * {@link ConcreteEvaluator} supports it, and translated into a constant numeric circuit otherwise.
      */
     @Override
     public Object evaluate(IntExpression intExpr) {
         if (intExpr == null)
             throw new NullPointerException("intexpression");
+        final TupleSet value = concrete.evaluate(intExpr);
+        if (value != null)
+            return value;
         final NumericMatrix sol = Translator.evaluate(intExpr, super.instance(), options);
         int arity = sol.dimensions().numDimensions();
         return matrixToTS(sol, arity);
     }
 
+    /**
+     * Evaluates each of the given expressions, sharing the evaluation of their common sub-expressions.
+     *
+     * @return the tuple set denoted by each expression, in the same order
+     * @throws NullPointerException expressions = null || null in expressions
+     * @see #evaluate(Expression)
+     */
+    public List<TupleSet> evaluate(List<? extends Expression> expressions) {
+        final List<TupleSet> values = concrete.evaluate(expressions);
+        for (int i = 0; i < values.size(); i++)
+            if (values.get(i) == null)
+                values.set(i, evaluate(expressions.get(i)));
+        return values;
+    }
+
     /**
      * Returns the quantitative options used by this evaluator.
      *
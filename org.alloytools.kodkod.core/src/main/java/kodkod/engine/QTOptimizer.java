@@ -0,0 +1,215 @@
+package kodkod.engine;
+
+import java.util.Collections;
+
+import kodkod.ast.Formula;
+import kodkod.ast.IntExpression;
+import kodkod.engine.bool.BooleanConstant;
+import kodkod.engine.bool.BooleanFormula;
+import kodkod.engine.bool.BooleanValue;
+import kodkod.engine.config.QuantitativeOptions;
+import kodkod.engine.fol2num.FOL2NumTranslator;
+import kodkod.engine.fol2sat.Translator;
+import kodkod.engine.num.NumericConstant;
+import kodkod.engine.num.NumericFactory;
+import kodkod.engine.num.NumericMatrix;
+import kodkod.engine.num.NumericValue;
+import kodkod.engine.num2common.QuantitativeTranslation;
+import kodkod.engine.num2smt.Num2smtTranslator;
+import kodkod.engine.num2smt.SMTSolver;
+import kodkod.engine.num2smt.SMTStatistics;
+import kodkod.instance.Bounds;
+import kodkod.instance.Instance;
+import kodkod.instance.QtTupleSet;
+import kodkod.instance.TupleSet;
+import kodkod.util.nodes.AnnotatedNode;
+
+/**
+ * Looks for the solution of a quantitative problem that minimises (or maximises) a numeric objective,
+ * over the live solver of an {@link QuantitativeTranslation.Incremental incremental translation},
+ * which is translated only once.
+ *
+ * If the solver {@link SMTSolver#optimizes() optimises natively} (OMT), the objective is handed to it,
+ * and a single check suffices. Otherwise, the optimum is found by bounding the objective, each bound being
+ * checked on a scope of its own, which is popped afterwards: the bound gallops away from the best value
+ * found so far, doubling its distance, until a check fails, and the optimum is then bisected between the
+ * last failed bound and the best value. Hence, reaching the optimum takes O(log range) incremental checks.
+ *
+ * The objective denotes a single value: the first entry of its matrix, e.g., the cardinality of an expression,
+ * which, for a quantitative expression, is the sum of its weights.
+ */
+final class QTOptimizer {
+
+    private final QuantitativeOptions options;
+    private final IntExpression       objective;
+    // 1 if minimising, -1 if maximising: the search always minimises sign * objective
+    private final long                sign;
+    private QuantitativeTranslation.Incremental translation;
+    // Circuit of the objective
+    private NumericValue              value;
+    // Whether the solver responded UNKNOWN to the most recent check
+    private boolean                   unknown;
+    private long                      translTime, solveTime;
+
+    private QTOptimizer(IntExpression objective, boolean minimize, QuantitativeOptions options) {
+        this.options = options;
+        this.objective = objective;
+        this.sign = minimize ? 1 : -1;
+    }
+
+    /**
+     * Looks for the solution of the given formula, wrt the given bounds, that minimises (or maximises) the given objective.
+     *
+     * @requires options.incremental()
+     * @return the optimal solution; if the solver responds UNKNOWN after some solution was found, the best one so far
+     * @see Solver#optimize(Formula, Bounds, IntExpression, boolean, QuantitativeOptions)
+     */
+    static Solution optimize(Formula formula, Bounds bounds, IntExpression objective, boolean minimize, QuantitativeOptions options) {
+        final QTOptimizer optimizer = new QTOptimizer(objective, minimize, options);
+        try {
+            return optimizer.optimize(formula, bounds);
+        } finally {
+            if (optimizer.translation != null)
+                optimizer.translation.solver().free();
+        }
+    }
+
+    private Solution optimize(Formula formula, Bounds bounds) {
+        final long startTransl = System.currentTimeMillis();
+        translation = Translator.translateIncremental(formula, bounds, options);
+        final NumericMatrix m = FOL2NumTranslator.simpleTranslate(AnnotatedNode.annotate(objective), translation.interpreter());
+        value = m.getFirst();
+        translTime = System.currentTimeMillis() - startTransl;
+
+        final boolean trivial = translation.trivial();
+        final SMTSolver solver = (SMTSolver) translation.solver();
+
+        // A single check, if the solver handles the objective itself
+        if (!trivial && solver.optimizes() && !(value instanceof NumericConstant)) {
+            translation.push();
+            translation.incrementer().optimize(value, sign > 0);
+            final Instance optimum = solve();
+            translation.pop();
+            return solution(optimum, false);
+        }
+
+        Instance best = solve();
+        if (best == null || value instanceof NumericConstant)
+            return solution(best, trivial);
+
+        long bestValue = sign * valueOf(best);
+        // Lower bound of sign * objective, over every solution, once some check fails
+        long low = 0;
+        boolean bounded = false;
+        long step = 1;
+        // Least bound, which is symmetric so that sign * bound never overflows
+        final long floor = -Long.MAX_VALUE;
+
+        while (!unknown) {
+            long bound;
+            if (bounded) {
+                if (low >= bestValue)
+                    break;
+                // floor((low + bestValue - 1) / 2), without overflowing
+                final long high = bestValue - 1;
+                bound = (low >> 1) + (high >> 1) + (low & high & 1);
+            } else {
+                if (bestValue <= floor)
+                    break;
+                // max(bestValue - step, floor), without overflowing: bestValue - floor only overflows if bestValue > 0
+                bound = bestValue < 0 && step >= bestValue - floor ? floor : bestValue - step;
+            }
+
+            final Instance found = check(sign * bound);
+            if (found != null) {
+                best = found;
+                bestValue = sign * valueOf(found);
+                if (!bounded)
+                    step = step > Long.MAX_VALUE >> 1 ? Long.MAX_VALUE : step << 1;
+            } else if (!unknown) {
+                low = bound + 1;
+                bounded = true;
+            }
+        }
+
+        return solution(best, trivial && translation.trivial());
+    }
+
+    /**
+     * Solves the current translation.
+     * @return the instance found, or null if there is none or the solver responded UNKNOWN
+     */
+    private Instance solve() {
+        final long startSolve = System.currentTimeMillis();
+        final boolean sat = translation.solver().solve();
+        solveTime += System.currentTimeMillis() - startSolve;
+        if (sat)
+            return translation.interpret();
+        unknown = !translation.trivial() && ((SMTSolver) translation.solver()).getResult().isUnknown();
+        return null;
+    }
+
+    /**
+     * Checks whether some solution has an objective of, at most, the given bound, if minimising,
+     * or, at least, the given bound, if maximising. The bound is asserted on a scope of its own,
+     * unless the translation is trivial, in which case only the bound is translated, by a fresh solver,
+     * which then replaces the trivial one if the check succeeds.
+     *
+     * @return the instance found, or null if there is none or the solver responded UNKNOWN
+     */
+    private Instance check(long bound) {
+        final NumericFactory factory = translation.interpreter().factory();
+        final NumericValue c = factory.constant(bound);
+        final BooleanValue within = sign > 0 ? factory.lte(value, c) : factory.gte(value, c);
+        if (within == BooleanConstant.FALSE)
+            return null;
+        if (within == BooleanConstant.TRUE)
+            return translation.interpret();
+
+        if (!translation.trivial()) {
+            translation.push();
+            Num2smtTranslator.translateIncremental(Collections.singleton((BooleanFormula) within), translation.incrementer());
+            final Instance found = solve();
+            translation.pop();
+            return found;
+        }
+
+        final QuantitativeTranslation.Incremental trivial = translation;
+        final Num2smtTranslator incrementer = Num2smtTranslator.translateIncremental(Collections.singleton((BooleanFormula) within), factory, options);
+        translation = QuantitativeTranslation.incrementalTranslation(trivial.bounds(), options, incrementer.solver(), trivial.interpreter(), incrementer);
+        final Instance found = solve();
+        if (found != null) {
+            // bounds that are checked later on are tighter, so this one may stay
+            trivial.solver().free();
+        } else {
+            translation.solver().free();
+            translation = trivial;
+        }
+        return found;
+    }
+
+    /**
+     * @return the value of the objective in the given instance
+     */
+    private long valueOf(Instance instance) {
+        final TupleSet tuples = (TupleSet) new QTEvaluator(instance, options).evaluate(objective);
+        if (tuples.isEmpty())
+            return 0;
+        if (!(tuples instanceof QtTupleSet))
+            return tuples.size();
+        final Number weight = ((QtTupleSet) tuples).getWeight(tuples.indexView().min());
+        return weight == null ? 0 : weight.longValue();
+    }
+
+    /**
+     * @return the solution with the given instance, or an UNSAT/UNKNOWN one if the instance is null
+     */
+    private Solution solution(Instance instance, boolean trivial) {
+        final SMTStatistics stats = new SMTStatistics(translation, translTime, solveTime);
+        if (instance != null)
+            return trivial ? Solution.triviallySatisfiable(stats, instance) : Solution.satisfiable(stats, instance);
+        if (unknown)
+            return Solution.unknown(stats);
+        return trivial ? Solution.triviallyUnsatisfiable(stats, null) : Solution.unsatisfiable(stats, null);
+    }
+}
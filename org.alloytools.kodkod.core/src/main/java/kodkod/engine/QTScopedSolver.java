@@ -0,0 +1,371 @@
+package kodkod.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import kodkod.ast.Formula;
+import kodkod.engine.bool.BooleanConstant;
+import kodkod.engine.bool.BooleanFormula;
+import kodkod.engine.bool.BooleanValue;
+import kodkod.engine.config.QuantitativeOptions;
+import kodkod.engine.fol2num.ConcreteEvaluator;
+import kodkod.engine.fol2num.FOL2NumTranslator;
+import kodkod.engine.fol2sat.Translator;
+import kodkod.engine.num2common.QuantitativeTranslation;
+import kodkod.engine.num2smt.Num2smtTranslator;
+import kodkod.engine.num2smt.SMTSolver;
+import kodkod.engine.num2smt.SMTStatistics;
+import kodkod.instance.Bounds;
+import kodkod.instance.Instance;
+import kodkod.util.nodes.AnnotatedNode;
+
+/**
+ * Solves a sequence of quantitative problems that share a base formula and its bounds, e.g., the commands of a
+ * model that share its facts and scope. The base formula is translated only once, into an
+ * {@link QuantitativeTranslation.Incremental incremental translation} whose solver is kept alive, and each formula
+ * given to {@link #solve(Formula)} is then translated over the same circuits, and checked on a scope of its own,
+ * which is popped afterwards. Hence, each check only costs the translation of the formula at hand.
+ *
+ * The formulas given to {@link #solve(Formula)} may only mention relations bound by the base bounds.
+ * If a check is interrupted by the {@link QuantitativeOptions#timeout() timeout}, the solver is lost with it,
+ * and the base formula is translated again by the next check. If the base formula is trivially true, no solver
+ * is kept alive, and each formula is solved from scratch.
+ *
+ * The solutions of a formula are enumerated by {@link #solveAll(Formula)}, which keeps the scope of the formula
+ * on the live solver, and blocks each solution found on that scope. The scope is held until the enumeration ends,
+ * or until another check needs the solver, in which case the enumeration carries on over a solver of its own.
+ *
+ * @specfield base: Formula
+ * @specfield bounds: Bounds
+ * @specfield options: QuantitativeOptions
+ */
+public final class QTScopedSolver {
+
+    private final Formula             base;
+    private final Bounds              bounds;
+    private final QuantitativeOptions options;
+    // Translation of the base formula, if any is alive
+    private QuantitativeTranslation.Incremental translation;
+    // Enumeration whose scope is on top of the live solver, if any
+    private Enumeration owner;
+
+    private QTScopedSolver(Formula base, Bounds bounds, QuantitativeOptions options) {
+        this.base = base;
+        this.bounds = bounds;
+        this.options = options;
+    }
+
+    /**
+     * Returns a solver over the given base formula and bounds, with the given options.
+     * The base formula is translated lazily, by {@link #prepare()} or by the first check.
+     *
+     * @requires options.incremental()
+     * @return some s: QTScopedSolver | s.base = base && s.bounds = bounds && s.options = options
+     * @throws NullPointerException any of the arguments are null
+     * @throws IllegalArgumentException !options.incremental()
+     */
+    public static QTScopedSolver solver(Formula base, Bounds bounds, QuantitativeOptions options) {
+        if (base == null || bounds == null || options == null)
+            throw new NullPointerException();
+        Translator.checkIncrementalOptions(options);
+        return new QTScopedSolver(base, bounds, options);
+    }
+
+    /**
+     * Returns the options of this solver.
+     *
+     * @return this.options
+     */
+    public QuantitativeOptions options() {
+        return options;
+    }
+
+    /**
+     * Translates {@code this.base} into a live solver, unless it is already, so that the next check
+     * only costs the translation of the formula at hand.
+     */
+    public synchronized void prepare() {
+        if (translation == null)
+            translation = Translator.translateIncremental(base, bounds, options);
+    }
+
+    /**
+     * Solves {@code this.base && formula} with respect to {@code this.bounds}.
+     * The base formula remains asserted afterwards, while the given one is discarded.
+     *
+     * @requires formula.*components & Relation in this.bounds.relations
+     * @return the solution of {@code this.base && formula}
+     * @throws NullPointerException formula = null
+     * @throws UnboundLeafException the formula refers to a relation not bound by this.bounds
+     * @throws HigherOrderDeclException the formula contains a higher order declaration
+     */
+    public synchronized Solution solve(Formula formula) {
+        return check(formula, null);
+    }
+
+    /**
+     * Returns an iterator over the solutions of {@code this.base && formula} with respect to {@code this.bounds},
+     * as given by a {@link QTSolutionIterator}: every satisfiable solution is followed by another solution, the
+     * last one being unsatisfiable (or unknown). The first solution is found as by {@link #solve(Formula)}.
+     * The iterator is {@link AutoCloseable}, and should be closed if it is not exhausted.
+     *
+     * @requires formula.*components & Relation in this.bounds.relations
+     * @return an iterator over the solutions of {@code this.base && formula}
+     * @throws NullPointerException formula = null
+     */
+    public Iterator<Solution> solveAll(Formula formula) {
+        if (formula == null)
+            throw new NullPointerException("formula");
+        return new Enumeration(formula);
+    }
+
+    /**
+     * Solves {@code this.base && formula}, as {@link #solve(Formula)} does. If an enumeration is given, and the
+     * formula is satisfiable over the live solver, the scope of the formula is kept for that enumeration, with
+     * the solution found blocked on it; otherwise, the scope is popped.
+     */
+    private Solution check(Formula formula, Enumeration enumeration) {
+        if (formula == null)
+            throw new NullPointerException("formula");
+        release();
+        final long startTransl = System.currentTimeMillis();
+        // The time spent translating the base formula is charged to the check that (re)translates it
+        if (translation == null)
+            translation = Translator.translateIncremental(base, bounds, options);
+
+        // The base formula is trivially false
+        if (translation.trivial() && !translation.solver().solve())
+            return Solution.triviallyUnsatisfiable(stats(System.currentTimeMillis() - startTransl, 0), null);
+
+        final Collection<BooleanValue> circuits = FOL2NumTranslator.translate(AnnotatedNode.annotate(formula), translation.interpreter(), options);
+        if (circuits.contains(BooleanConstant.FALSE))
+            return Solution.triviallyUnsatisfiable(stats(System.currentTimeMillis() - startTransl, 0), null);
+        circuits.removeAll(Collections.singletonList(BooleanConstant.TRUE));
+
+        if (translation.trivial()) {
+            // Both formulas are trivially true
+            if (circuits.isEmpty())
+                return Solution.triviallySatisfiable(stats(System.currentTimeMillis() - startTransl, 0), translation.interpret());
+            // The base formula is trivially true, so there is no live solver to open a scope on,
+            // and the formula is solved over a solver of its own
+            if (enumeration != null)
+                return enumeration.solveAlone();
+            final QTSolutionIterator alone = new QTSolutionIterator(base.and(formula), bounds.clone(), options.clone());
+            try {
+                return alone.next();
+            } finally {
+                alone.close();
+            }
+        }
+
+        // An enumeration needs a scope of its own for the solutions it blocks
+        final boolean scoped = !circuits.isEmpty() || enumeration != null;
+        if (scoped) {
+            translation.push();
+            Num2smtTranslator.translateIncremental(toFormulas(circuits), translation.incrementer());
+        }
+        final long translTime = System.currentTimeMillis() - startTransl;
+
+        final long startSolve = System.currentTimeMillis();
+        final boolean sat = translation.solver().solve();
+        final long solveTime = System.currentTimeMillis() - startSolve;
+        final SMTStatistics stats = stats(translTime, solveTime);
+
+        if (sat) {
+            final Instance instance = translation.interpret();
+            if (enumeration != null) {
+                owner = enumeration;
+                enumeration.block();
+            } else if (scoped)
+                translation.pop();
+            return Solution.satisfiable(stats, instance);
+        }
+        if (((SMTSolver) translation.solver()).getResult().isUnknown()) {
+            // The solver may have been killed by the timeout, so the next check starts over
+            free();
+            return Solution.unknown(stats);
+        }
+        if (scoped)
+            translation.pop();
+        return Solution.unsatisfiable(stats, null);
+    }
+
+    /**
+     * Pops the scope held by the enumeration that owns the live solver, if any, which then carries on over
+     * a solver of its own.
+     */
+    private void release() {
+        if (owner != null) {
+            final Enumeration evicted = owner;
+            owner = null;
+            evicted.evict();
+        }
+    }
+
+    /**
+     * @requires no circuits & BooleanConstant
+     * @return circuits
+     */
+    @SuppressWarnings("unchecked")
+    private static Collection<BooleanFormula> toFormulas(Collection<BooleanValue> circuits) {
+        return (Collection<BooleanFormula>) (Collection< ? >) circuits;
+    }
+
+    /**
+     * @return the statistics of a check over the current translation
+     */
+    private SMTStatistics stats(long translTime, long solveTime) {
+        return new SMTStatistics(translation, translTime, solveTime);
+    }
+
+    /**
+     * Releases the solver of this.base, if any is alive.
+     * The base formula is translated again by the next check, if any.
+     */
+    public synchronized void free() {
+        release();
+        if (translation != null) {
+            translation.solver().free();
+            translation = null;
+        }
+    }
+
+    /**
+     * Enumerates the solutions of {@code base && formula}. While it owns the live solver, the scope of the formula
+     * stays pushed, and each solution found is blocked on that scope, as by {@link QTSolutionIterator}. Once it is
+     * evicted by another check, or if no live solver holds its scope, it carries on over a
+     * {@link QTSolutionIterator} of its own, skipping the solutions it has already returned.
+     */
+    private final class Enumeration implements Iterator<Solution>, AutoCloseable {
+
+        private final Formula       formula;
+        // Copies of the instances returned so far, until the enumeration carries on by itself,
+        // since the instances returned may be extended by the caller
+        private final List<Instance> found = new ArrayList<Instance>();
+        // Variables blocked after each solution, for the translation they were computed for
+        private Collection<Integer> blocked;
+        private QuantitativeTranslation blockedFor;
+        // Enumeration of its own, once evicted
+        private QTSolutionIterator  fallback;
+        private boolean             started, done;
+
+        Enumeration(Formula formula) {
+            this.formula = formula;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean hasNext() {
+            synchronized (QTScopedSolver.this) {
+                return !done;
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public Solution next() {
+            synchronized (QTScopedSolver.this) {
+                if (done)
+                    throw new NoSuchElementException();
+                final Solution sol;
+                if (!started) {
+                    started = true;
+                    sol = check(formula, this);
+                } else if (owner == this)
+                    sol = solveScoped();
+                else
+                    sol = solveAlone();
+                if (sol.sat()) {
+                    if (fallback == null)
+                        found.add(sol.instance().clone());
+                } else
+                    done = true;
+                return sol;
+            }
+        }
+
+        /**
+         * Blocks the solution just found by the live solver, on the scope of this enumeration.
+         */
+        void block() {
+            if (blockedFor != translation) {
+                blocked = QTSolutionIterator.blockedVariables(translation, options);
+                blockedFor = translation;
+            }
+            translation.solver().elimSolution(blocked, options.enumeration());
+        }
+
+        /**
+         * Finds the next solution over the scope of this enumeration, on the live solver.
+         */
+        private Solution solveScoped() {
+            final long startSolve = System.currentTimeMillis();
+            final boolean sat = translation.solver().solve();
+            final SMTStatistics stats = stats(0, System.currentTimeMillis() - startSolve);
+            if (sat) {
+                final Instance instance = translation.interpret();
+                block();
+                return Solution.satisfiable(stats, instance);
+            }
+            owner = null;
+            if (((SMTSolver) translation.solver()).getResult().isUnknown()) {
+                free();
+                return Solution.unknown(stats);
+            }
+            translation.pop();
+            return Solution.unsatisfiable(stats, null);
+        }
+
+        /**
+         * Finds the next solution over a solver of its own, skipping the solutions already returned.
+         */
+        private Solution solveAlone() {
+            if (fallback == null)
+                fallback = new QTSolutionIterator(base.and(formula), bounds.clone(), options.clone());
+            while (true) {
+                final Solution sol = fallback.next();
+                if (!sol.sat() || !skip(sol.instance()))
+                    return sol;
+            }
+        }
+
+        /**
+         * @return true iff the given instance was already returned, in which case it is not skipped again
+         */
+        private boolean skip(Instance instance) {
+            for (int i = 0; i < found.size(); i++)
+                if (ConcreteEvaluator.sameInstance(found.get(i), instance)) {
+                    found.remove(i);
+                    return true;
+                }
+            return false;
+        }
+
+        /**
+         * Pops the scope of this enumeration, whose solver is needed by another check.
+         */
+        void evict() {
+            if (translation != null)
+                translation.pop();
+        }
+
+        /**
+         * Ends this enumeration, and releases its scope, or its own solver, if any.
+         */
+        @Override
+        public void close() {
+            synchronized (QTScopedSolver.this) {
+                done = true;
+                if (owner == this)
+                    release();
+                if (fallback != null)
+                    fallback.close();
+                found.clear();
+            }
+        }
+    }
+}
@@ -1,8 +1,13 @@
 package kodkod.engine;
 
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import kodkod.ast.Formula;
 import kodkod.ast.Relation;
@@ -15,16 +20,44 @@ import kodkod.engine.num2smt.SMTStatistics;
 import kodkod.engine.satlab.SATAbortedException;
 import kodkod.instance.Bounds;
 import kodkod.instance.TupleSet;
+import kodkod.util.ints.IntIterator;
 
 /**
  * Quantitative extension of {@link SolutionIterator}.
+ *
+ * After each solution, only the primary variables of the relations in the
+ * {@link QuantitativeOptions#projection() projection} are blocked, as seen through the
+ * {@link QuantitativeOptions#enumeration() enumeration} mode, hence solutions that differ
+ * only elsewhere are not enumerated.
+ *
+ * If {@link QuantitativeOptions#lookAhead() options.lookAhead} is positive, solutions are
+ * enumerated by a background thread into a buffer of that many solutions, which blocks
+ * once full, until the consumer takes solutions from it or {@link #close() closes} the iterator.
+ *
+ * If {@link QuantitativeOptions#splitVariables() options.splitVariables} is positive, the presence
+ * of that many primary variables splits the solutions into disjoint cubes, each enumerated by its own
+ * solver instance, with up to {@link QuantitativeOptions#parallelism() options.parallelism} cubes
+ * enumerated at once. The solutions of all cubes are merged into the buffer, in no particular order;
+ * since the cubes are disjoint, no solution is enumerated twice.
  */
-public final class QTSolutionIterator implements Iterator<Solution> {
+public final class QTSolutionIterator implements Iterator<Solution>, AutoCloseable {
+
+    // Marks the end of the enumeration in the buffer
+    private static final Object     END = new Object();
 
     private QuantitativeTranslation translation;
     private long                    translTime;
     private int                     trivial;
     private QuantitativeOptions     options;
+    private Collection<Integer>     blocked;
+
+    // Solutions enumerated ahead of the consumer, ending with END or the exception that stopped the
+    // enumeration (null iff !options.lookAhead > 0)
+    private final BlockingQueue<Object> buffer;
+    // Threads filling the buffer
+    private final List<Thread>          producers;
+    // Element taken from the buffer, but not consumed yet
+    private Object                      head;
 
     /**
      * Constructs a solution iterator for the given formula, bounds, and quantitative options.
@@ -35,6 +68,57 @@ public final class QTSolutionIterator implements Iterator<Solution> {
         this.translTime = System.currentTimeMillis() - translTime;
         this.trivial = 0;
         this.options = options;
+
+        final List<Integer> split = splitVariables();
+        if (!split.isEmpty()) {
+            final Queue<Map<Integer, Boolean>> cubes = new ConcurrentLinkedQueue<>();
+            for (int c = 0; c < 1 << split.size(); c++) {
+                final Map<Integer, Boolean> cube = new HashMap<>();
+                for (int i = 0; i < split.size(); i++)
+                    cube.put(split.get(i), (c & (1 << i)) != 0);
+                cubes.add(cube);
+            }
+
+            final int workers = Math.min(cubes.size(), options.parallelism());
+            final AtomicInteger active = new AtomicInteger(workers);
+            final AtomicBoolean unknown = new AtomicBoolean(false);
+            this.buffer = new ArrayBlockingQueue<>(Math.max(options.lookAhead(), workers));
+            this.producers = new ArrayList<>(workers);
+            for (int i = 0; i < workers; i++)
+                producers.add(new Thread(() -> produce(cubes, active, unknown), "QTSolutionIterator-" + i));
+        } else if (options.lookAhead() > 0) {
+            this.buffer = new ArrayBlockingQueue<>(options.lookAhead());
+            this.producers = Collections.singletonList(new Thread(this::produce, "QTSolutionIterator"));
+        } else {
+            this.buffer = null;
+            this.producers = Collections.emptyList();
+        }
+
+        for (Thread producer : producers) {
+            producer.setDaemon(true);
+            producer.start();
+        }
+    }
+
+    /**
+     * Returns the labels of the variables that split the enumeration into cubes, i.e., the first
+     * options.splitVariables primary variables of the projection declared by the solver, if the
+     * translation is not trivial. Otherwise, returns the empty list.
+     */
+    private List<Integer> splitVariables() {
+        final List<Integer> split = new ArrayList<>();
+        if (options.splitVariables() == 0 || translation.trivial() || !(translation.solver() instanceof SMTSolver))
+            return split;
+
+        final SMTSolver solver = (SMTSolver) translation.solver();
+        blocked = blockedVariables(translation, options);
+        for (Integer label : blocked) {
+            if (split.size() == options.splitVariables())
+                break;
+            if (solver.declares(label))
+                split.add(label);
+        }
+        return split;
     }
 
     /**
@@ -44,7 +128,17 @@ public final class QTSolutionIterator implements Iterator<Solution> {
      */
     @Override
     public boolean hasNext() {
-        return translation != null;
+        if (buffer == null)
+            return translation != null;
+        if (head == null) {
+            try {
+                head = buffer.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AbortedException(e);
+            }
+        }
+        return head != END;
     }
 
     /**
@@ -56,6 +150,123 @@ public final class QTSolutionIterator implements Iterator<Solution> {
     public Solution next() {
         if (!hasNext())
             throw new NoSuchElementException();
+        if (buffer != null) {
+            final Object next = head;
+            if (next instanceof RuntimeException) {
+                close();
+                throw (RuntimeException) next;
+            }
+            head = null;
+            return (Solution) next;
+        }
+        return solveNext();
+    }
+
+    /**
+     * Enumerates the solutions into the buffer, until there are no more solutions or this iterator is closed.
+     */
+    private void produce() {
+        try {
+            try {
+                while (translation != null)
+                    buffer.put(solveNext());
+            } catch (RuntimeException e) {
+                release();
+                buffer.put(e);
+                return;
+            }
+            buffer.put(END);
+        } catch (InterruptedException e) {
+            release();
+        }
+    }
+
+    /**
+     * Enumerates the solutions of the given cubes into the buffer, one cube at a time, until there are no
+     * more cubes or this iterator is closed. The last producer to finish reports the final UNSAT (or UNKNOWN,
+     * if any cube was left unknown) solution.
+     */
+    private void produce(Queue<Map<Integer, Boolean>> cubes, AtomicInteger active, AtomicBoolean unknown) {
+        final QuantitativeTranslation transl = translation;
+        final SMTSolver base = (SMTSolver) transl.solver();
+        try {
+            Map<Integer, Boolean> cube;
+            while ((cube = cubes.poll()) != null) {
+                final SMTSolver solver = base.restrict(cube);
+                try {
+                    while (true) {
+                        final long startSolve = System.currentTimeMillis();
+                        final boolean isSat = solver.solve();
+                        final long endSolve = System.currentTimeMillis();
+                        if (!isSat) {
+                            if (solver.getResult().isUnknown())
+                                unknown.set(true);
+                            break;
+                        }
+                        final Statistics stats = new SMTStatistics(transl, translTime, endSolve - startSolve);
+                        buffer.put(Solution.satisfiable(stats, transl.interpret(transl.bounds(), solver)));
+                        solver.elimSolution(blocked, options.enumeration());
+                    }
+                } finally {
+                    solver.free();
+                }
+            }
+
+            if (active.decrementAndGet() == 0) {
+                final SMTStatistics stats = new SMTStatistics(transl, translTime, 0);
+                buffer.put(unknown.get() ? Solver.unknown((QuantitativeTranslation.SmtTranslation) transl, stats) : Solver.unsat(transl, stats));
+                buffer.put(END);
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } catch (RuntimeException e) {
+            try {
+                buffer.put(e);
+            } catch (InterruptedException ie) {
+                // closed
+            }
+        }
+    }
+
+    /**
+     * Stops the enumeration and frees the resources of the solver.
+     * If solutions are being enumerated ahead, the enumeration stops once the solver
+     * answers the call in progress, if any.
+     */
+    @Override
+    public void close() {
+        if (producers.isEmpty())
+            release();
+        else {
+            for (Thread producer : producers)
+                producer.interrupt();
+            head = END;
+        }
+    }
+
+    /**
+     * Frees the resources of the solver, if there may be further solutions.
+     */
+    private void release() {
+        if (translation != null) {
+            translation.solver().free();
+            translation = null;
+        }
+    }
+
+    /**
+     * Returns a sequential stream over the remaining solutions, which closes this iterator when closed.
+     */
+    public Stream<Solution> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                            .onClose(this::close);
+    }
+
+    /**
+     * Solves the current translation for the next solution.
+     * @requires this.translation != null
+     */
+    private Solution solveNext() {
         try {
             return translation.trivial() ? nextTrivialSolution() : nextNonTrivialSolution();
         } catch (SATAbortedException sae) {
@@ -86,7 +297,6 @@ public final class QTSolutionIterator implements Iterator<Solution> {
         final QuantitativeTranslation transl = translation;
 
         final QuantitativeSolver solver = transl.solver();
-        final int primaryVars = transl.numPrimaryVariables();
 
         final long startSolve = System.currentTimeMillis();
         final boolean isSat = solver.solve();
@@ -112,11 +322,10 @@ public final class QTSolutionIterator implements Iterator<Solution> {
             // extract the current solution; can't use the sat(..) method
             // because it frees the sat solver
             sol = Solution.satisfiable(stats, transl.interpret());
-            // add the negation of the current model to the solver
-            Collection<Integer> notModel = IntStream.range(0, primaryVars)
-                                                    .boxed()
-                                                    .collect(Collectors.toSet());
-            solver.elimSolution(notModel);
+            // add the negation of the current model, as projected, to the solver
+            if (blocked == null)
+                blocked = blockedVariables(transl, options);
+            solver.elimSolution(blocked, options.enumeration());
         } else {
             // Check for unknown result from a SMT Problem
             if(stats instanceof SMTStatistics && ((SMTSolver) solver).getResult().isUnknown()){
@@ -129,6 +338,29 @@ public final class QTSolutionIterator implements Iterator<Solution> {
         return sol;
     }
 
+    /**
+     * Returns the labels of the primary variables of the relations in the projection,
+     * or of every relation in the bounds of the given translation if the projection is empty.
+     */
+    static Collection<Integer> blockedVariables(QuantitativeTranslation transl, QuantitativeOptions options) {
+        final Set<Integer> labels = new LinkedHashSet<>();
+        for (Relation r : transl.bounds().relations()) {
+            if (!isProjected(r, options))
+                continue;
+            // each primary variable v is represented by the function symbol labelled v - 1
+            for (IntIterator it = transl.primaryVariables(r).iterator(); it.hasNext();)
+                labels.add(it.next() - 1);
+        }
+        return labels;
+    }
+
+    /**
+     * @return true iff the given relation tells solutions apart
+     */
+    private static boolean isProjected(Relation r, QuantitativeOptions options) {
+        return options.projection().isEmpty() || options.projection().contains(r);
+    }
+
     /**
      * Returns the trivial solution corresponding to the trivial translation stored
      * in {@code this.translation}, and if {@code this.translation.solver.solve()} is
@@ -160,7 +392,7 @@ public final class QTSolutionIterator implements Iterator<Solution> {
             for (Relation r : bounds.relations()) {
                 final TupleSet lower = bounds.lowerBound(r);
 
-                if (lower != bounds.upperBound(r)) { // r may change
+                if (lower != bounds.upperBound(r) && isProjected(r, options)) { // r may change
                     if (lower.isEmpty()) {
                         changes.add(r.some());
                     } else {
@@ -184,6 +416,7 @@ public final class QTSolutionIterator implements Iterator<Solution> {
 
             final long startTransl = System.currentTimeMillis();
             translation = Translator.translate(formula, newBounds, options);
+            blocked = null;
             translTime += System.currentTimeMillis() - startTransl;
         }
         return sol;
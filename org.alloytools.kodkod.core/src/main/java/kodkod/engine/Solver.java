@@ -22,6 +22,7 @@
 package kodkod.engine;
 
 import java.util.*;
+import java.util.stream.Stream;
 
 import kodkod.ast.Formula;
 import kodkod.ast.IntExpression;
@@ -253,6 +254,36 @@ public final class Solver implements KodkodSolver {
         return new QTSolutionIterator(formula, bounds, options.clone());
     }
 
+    /**
+     * Quantitative analysis of all possible solutions for a given {@link Formula formula}
+     * {@link QuantitativeOptions options} and
+     * with respect to the specified {@link Bounds bounds} in an integer setting.
+     * Closing the stream stops the enumeration and frees the solver.
+     *
+     * @return a stream over every solution of this formula wrt the bounds specified
+     * @see QuantitativeOptions#lookAhead()
+     */
+    public Stream<Solution> solveAllStream(final Formula formula, final Bounds bounds, QuantitativeOptions options) throws HigherOrderDeclException, UnboundLeafException, AbortedException {
+        return new QTSolutionIterator(formula, bounds, options.clone()).stream();
+    }
+
+    /**
+     * Quantitative analysis of the solution of a given {@link Formula formula}, with respect to the specified
+     * {@link Bounds bounds}, that minimises (or maximises) the given objective.
+     * The problem is translated once, and the objective is then optimised over the live solver,
+     * either natively, if it {@link SMTSolver#optimizes() supports optimisation}, or by tightening a bound
+     * on the objective, one incremental check at a time.
+     *
+     * @requires options.incremental()
+     * @return the optimal solution, or the best one found before the solver responded UNKNOWN
+     * @throws IllegalArgumentException !options.incremental()
+     */
+    public Solution optimize(final Formula formula, final Bounds bounds, final IntExpression objective, boolean minimize, QuantitativeOptions options) throws HigherOrderDeclException, UnboundLeafException, AbortedException {
+        if (objective == null)
+            throw new NullPointerException("objective");
+        return QTOptimizer.optimize(formula, bounds, objective, minimize, options.clone());
+    }
+
     // //[AM]
     // private void flushFormula(Formula formula, Bounds bounds) {
     // try {
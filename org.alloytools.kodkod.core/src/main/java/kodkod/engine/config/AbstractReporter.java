@@ -83,6 +83,12 @@ public abstract class AbstractReporter implements Reporter {
     @Override
     public void solvingCNF(int primaryVars, int vars, int clauses) {}
 
+    /**
+     * @see kodkod.engine.config.Reporter#translationCacheStatistics(int, int, int)
+     */
+    @Override
+    public void translationCacheStatistics(int hits, int misses, int evictions) {}
+
     /**
      * @see kodkod.engine.config.Reporter#optimizingBoundsAndFormula()
      */
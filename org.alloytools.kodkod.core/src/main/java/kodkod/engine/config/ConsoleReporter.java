@@ -73,6 +73,14 @@ public final class ConsoleReporter implements Reporter {
         System.out.println("solving p cnf " + vars + " " + clauses);
     }
 
+    /**
+     * @see kodkod.engine.config.Reporter#translationCacheStatistics(int, int, int)
+     */
+    @Override
+    public void translationCacheStatistics(int hits, int misses, int evictions) {
+        System.out.println("translation cache: " + hits + " hits, " + misses + " misses, " + evictions + " evictions");
+    }
+
     /**
      * {@inheritDoc}
      *
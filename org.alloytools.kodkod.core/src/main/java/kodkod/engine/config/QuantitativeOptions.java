@@ -1,7 +1,12 @@
 package kodkod.engine.config;
 
+import kodkod.ast.Relation;
+
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 import static kodkod.engine.config.QuantitativeOptions.QuantitativeSolver.*;
 
@@ -15,6 +20,15 @@ import static kodkod.engine.config.QuantitativeOptions.QuantitativeSolver.*;
  * @specfield maximumWeight      : Integer            // Integer values upper bound
  * @specfield incremental        : boolean            // true iff this.solver will perform incremental solving
  * @specfield maxPrimaryVariable : int                // Maximum number of primary variables in this.solver
+ * @specfield cacheBudget        : long               // Maximum estimated size, in matrix cells, of the cached translations of quantified nodes
+ * @specfield reporter           : Reporter           // Reporter to use
+ * @specfield parallelism        : int                // Maximum number of independent components of a problem solved at once
+ * @specfield enumeration        : Enumeration        // What distinguishes two solutions during enumeration
+ * @specfield bucketWidth        : int                // Width of the weight buckets, under Enumeration.BUCKETS
+ * @specfield projection         : set Relation       // Relations that distinguish two solutions during enumeration (empty = all)
+ * @specfield lookAhead          : int                // Number of solutions enumerated ahead of the consumer (0 = none)
+ * @specfield splitVariables     : int                // Number of variables whose presence splits enumeration into cubes (0 = none)
+ * @specfield timeout            : long               // Maximum time, in milliseconds, of each check of a solver instance (0 = none)
  */
 public class QuantitativeOptions {
 
@@ -83,11 +97,38 @@ public class QuantitativeOptions {
 
     }
 
+    /**
+     * Specifies which solutions are considered the same during enumeration, i.e.,
+     * what is blocked after each solution is found, over the relations of the projection:
+     * - MODEL: every weight, hence any different weight yields a new solution;
+     * - SKELETON: only the presence of each tuple, disregarding its weight;
+     * - BUCKETS: the presence of each tuple and the bucket of bucketWidth its weight falls in.
+     */
+    public enum Enumeration{
+        MODEL,
+        SKELETON,
+        BUCKETS
+    }
+
     private final QuantitativeSolver solver;
     private final String binaryLocation; //can be null (null iff !solver.hasBinary?)
     private final Integer maximumWeight; //null <=> unlimited
     private final boolean incremental;
     private int maxPrimaryVariable;
+    private long cacheBudget = DEFAULT_CACHE_BUDGET;
+    private Reporter reporter = new AbstractReporter() {};
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private Enumeration enumeration = Enumeration.MODEL;
+    private int bucketWidth = 1;
+    private Set<Relation> projection = Collections.emptySet();
+    private int lookAhead = 0;
+    private int splitVariables = 0;
+    private long timeout = 0;
+
+    /**
+     * Default value of this.cacheBudget.
+     */
+    public static final long DEFAULT_CACHE_BUDGET = 1 << 22;
 
     /**
      * Stores the quantitative solving options associated with the given parameters.
@@ -162,6 +203,15 @@ public class QuantitativeOptions {
         this.maximumWeight = options.maximumWeight;
         this.incremental = options.incremental;
         this.maxPrimaryVariable = options.maxPrimaryVariable;
+        this.cacheBudget = options.cacheBudget;
+        this.reporter = options.reporter;
+        this.parallelism = options.parallelism;
+        this.enumeration = options.enumeration;
+        this.bucketWidth = options.bucketWidth;
+        this.projection = options.projection;
+        this.lookAhead = options.lookAhead;
+        this.splitVariables = options.splitVariables;
+        this.timeout = options.timeout;
     }
 
     /**
@@ -200,6 +250,167 @@ public class QuantitativeOptions {
         return this.incremental;
     }
 
+    /**
+     * @return this.cacheBudget
+     */
+    public long cacheBudget(){
+        return cacheBudget;
+    }
+
+    /**
+     * Sets the maximum estimated size, in matrix cells, of the translations of quantified
+     * nodes kept in the translation cache. Larger budgets avoid recomputation, at the cost of a higher peak heap.
+     * @throws IllegalArgumentException cacheBudget <= 0
+     */
+    public void setCacheBudget(long cacheBudget){
+        if(cacheBudget <= 0)
+            throw new IllegalArgumentException("Expected a positive cache budget, given " + cacheBudget);
+        this.cacheBudget = cacheBudget;
+    }
+
+    /**
+     * @return this.reporter
+     */
+    public Reporter reporter(){
+        return reporter;
+    }
+
+    /**
+     * Sets this.reporter to the given reporter.
+     * @throws NullPointerException reporter = null
+     */
+    public void setReporter(Reporter reporter){
+        if(reporter == null)
+            throw new NullPointerException();
+        this.reporter = reporter;
+    }
+
+    /**
+     * @return this.parallelism
+     */
+    public int parallelism(){
+        return parallelism;
+    }
+
+    /**
+     * Sets the maximum number of solver instances that may solve the independent components of a
+     * problem at once. A parallelism of 1 disables the decomposition of problems into components.
+     * Decomposition is not applied to incremental translations.
+     * @throws IllegalArgumentException parallelism < 1
+     */
+    public void setParallelism(int parallelism){
+        if(parallelism < 1)
+            throw new IllegalArgumentException("Expected a positive parallelism, given " + parallelism);
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return this.enumeration
+     */
+    public Enumeration enumeration(){
+        return enumeration;
+    }
+
+    /**
+     * Sets what distinguishes two solutions during enumeration.
+     * @throws NullPointerException enumeration = null
+     */
+    public void setEnumeration(Enumeration enumeration){
+        if(enumeration == null)
+            throw new NullPointerException();
+        this.enumeration = enumeration;
+    }
+
+    /**
+     * @return this.bucketWidth
+     */
+    public int bucketWidth(){
+        return bucketWidth;
+    }
+
+    /**
+     * Sets the width of the buckets weights are rounded to, when enumerating with {@link Enumeration#BUCKETS}.
+     * @throws IllegalArgumentException bucketWidth < 1
+     */
+    public void setBucketWidth(int bucketWidth){
+        if(bucketWidth < 1)
+            throw new IllegalArgumentException("Expected a positive bucket width, given " + bucketWidth);
+        this.bucketWidth = bucketWidth;
+    }
+
+    /**
+     * @return this.projection
+     */
+    public Set<Relation> projection(){
+        return projection;
+    }
+
+    /**
+     * Sets the relations that distinguish two solutions during enumeration.
+     * An empty projection stands for every relation of the problem.
+     * @throws NullPointerException projection = null
+     */
+    public void setProjection(Set<Relation> projection){
+        this.projection = Collections.unmodifiableSet(new LinkedHashSet<>(projection));
+    }
+
+    /**
+     * @return this.lookAhead
+     */
+    public int lookAhead(){
+        return lookAhead;
+    }
+
+    /**
+     * Sets the number of solutions enumerated in the background, ahead of the consumer.
+     * A look-ahead of 0 enumerates each solution only when it is requested.
+     * @throws IllegalArgumentException lookAhead < 0
+     */
+    public void setLookAhead(int lookAhead){
+        if(lookAhead < 0)
+            throw new IllegalArgumentException("Expected a non-negative look-ahead, given " + lookAhead);
+        this.lookAhead = lookAhead;
+    }
+
+    /**
+     * @return this.splitVariables
+     */
+    public int splitVariables(){
+        return splitVariables;
+    }
+
+    /**
+     * Sets the number of primary variables whose presence splits the enumeration of solutions into
+     * 2^splitVariables disjoint cubes, enumerated by up to {@link #parallelism()} solver instances at once.
+     * The split variables are taken from the relations of the {@link #projection() projection}.
+     * 0 enumerates every solution with a single solver instance.
+     * @throws IllegalArgumentException splitVariables < 0 || splitVariables > 16
+     */
+    public void setSplitVariables(int splitVariables){
+        if(splitVariables < 0 || splitVariables > 16)
+            throw new IllegalArgumentException("Expected between 0 and 16 split variables, given " + splitVariables);
+        this.splitVariables = splitVariables;
+    }
+
+    /**
+     * @return this.timeout
+     */
+    public long timeout(){
+        return timeout;
+    }
+
+    /**
+     * Sets the maximum time, in milliseconds, a solver instance may take to check satisfiability.
+     * The solver instance is killed once it runs out of time, and the check responds UNKNOWN.
+     * 0 lets every check run to completion.
+     * @throws IllegalArgumentException timeout < 0
+     */
+    public void setTimeout(long timeout){
+        if(timeout < 0)
+            throw new IllegalArgumentException("Expected a non-negative timeout, given " + timeout);
+        this.timeout = timeout;
+    }
+
     /**
      * Sets the maximum number of primary variables allowed.
      */
@@ -236,7 +447,15 @@ public class QuantitativeOptions {
                 "\nBinary Location:" + binaryLocation +
                 "\nMaximum weight:" + maximumWeight +
                 "\nIncremental solving:" + incremental +
-                "\nmaxPrimaryVar:" + maxPrimaryVariable;
+                "\nmaxPrimaryVar:" + maxPrimaryVariable +
+                "\nCache budget:" + cacheBudget +
+                "\nParallelism:" + parallelism +
+                "\nEnumeration:" + enumeration +
+                (enumeration == Enumeration.BUCKETS ? "\nBucket width:" + bucketWidth : "") +
+                (projection.isEmpty() ? "" : "\nProjection:" + projection) +
+                "\nLook-ahead:" + lookAhead +
+                "\nSplit variables:" + splitVariables +
+                (timeout > 0 ? "\nTimeout:" + timeout + "ms" : "");
     }
 
     /**
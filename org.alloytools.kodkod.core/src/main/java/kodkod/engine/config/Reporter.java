@@ -103,6 +103,12 @@ public interface Reporter {
      */
     public void solvingCNF(int primaryVars, int vars, int clauses);
 
+    /**
+     * Reports the number of hits, misses and evictions of the cache of shared node
+     * translations, once a quantitative formula has been translated.
+     */
+    public void translationCacheStatistics(int hits, int misses, int evictions);
+
     public void convertingToNNF();
 
     public void holLoopStart(HOLTranslation tr, Formula formula, Bounds bounds);
@@ -0,0 +1,921 @@
+package kodkod.engine.fol2num;
+
+import java.util.*;
+
+import kodkod.ast.*;
+import kodkod.ast.operator.*;
+import kodkod.ast.visitor.ReturnVisitor;
+import kodkod.engine.bool.Dimensions;
+import kodkod.instance.Instance;
+import kodkod.instance.QtTupleSet;
+import kodkod.instance.TupleFactory;
+import kodkod.instance.TupleSet;
+import kodkod.util.ints.IntIterator;
+import kodkod.util.ints.IntSet;
+import kodkod.util.ints.Ints;
+
+/**
+ * Evaluates expressions directly over the (weighted) tuples of an instance, without building
+ * the numeric circuits that {@link FOL2NumTranslator} produces over a constant {@link LeafInterpreter}.
+ * Every value is computed as a {@link ConcreteMatrix}, which yields the same tuples, weights and kind of
+ * tuple set as the translation of the expression wrt the exact interpreter of the instance.
+ *
+ * An evaluator is a session over its instance: the value of every sub-expression evaluated so far is kept,
+ * and shared by every later evaluation that contains a structurally equal sub-expression, i.e., one built
+ * with the same operators over the same leaves, even if it is a distinct node.
+ * The tuples of each relation are read once, hence a relation must not be rebound in the instance while
+ * the session is in use; relations added to it afterwards are fine.
+ * A session can be carried on over another instance of the same universe, e.g., the next one of an enumeration,
+ * in which case only the values that read a relation whose tuples differ between both instances are recomputed.
+ *
+ * Only the relational and arithmetic operators whose concrete semantics is plain are evaluated this way.
+ * Expressions that bind variables (comprehensions, sums and quantified formulas), conditionals and projections,
+ * as well as any operator whose circuit has corner cases of its own, are reported as unsupported,
+ * in which case the caller is expected to resort to the circuit translation.
+ *
+ * @specfield instance: Instance
+ */
+public final class ConcreteEvaluator {
+
+    /**
+     * Signals that the node being evaluated is not supported by this evaluator.
+     */
+    private static final class Unsupported extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Unsupported UNSUPPORTED = new Unsupported();
+
+    private final Instance instance;
+    private Interpreter interpreter;
+
+    /**
+     * Creates a new evaluation session over the given instance.
+     * @ensures this.instance' = instance
+     * @throws NullPointerException instance = null
+     */
+    public ConcreteEvaluator(Instance instance) {
+        if (instance == null)
+            throw new NullPointerException("instance");
+        this.instance = instance;
+        this.interpreter = new Interpreter(instance);
+    }
+
+    /**
+     * Creates a new evaluation session over the given instance that carries on from the given one.
+     * The values kept by {@code previous} are taken over, except those that read a relation whose tuples
+     * or weights differ between both instances, which are recomputed on demand, in dependency order,
+     * whenever an expression needs them. {@code previous} itself is left empty.
+     * If the instances are over different universes or integers, nothing is taken over.
+     * @ensures this.instance' = instance
+     * @throws NullPointerException previous = null || instance = null
+     */
+    public ConcreteEvaluator(ConcreteEvaluator previous, Instance instance) {
+        if (instance == null)
+            throw new NullPointerException("instance");
+        this.instance = instance;
+        final Set<Relation> changed = changes(previous.instance, instance);
+        if (changed == null)
+            this.interpreter = new Interpreter(instance);
+        else {
+            this.interpreter = new Interpreter(instance, previous.interpreter);
+            this.interpreter.invalidate(changed);
+        }
+        previous.clear();
+    }
+
+    /**
+     * @return true iff the given instances have the same universe and integers, and the same relations,
+     *         with the same tuples and weights
+     */
+    public static boolean sameInstance(Instance a, Instance b) {
+        final Set<Relation> changed = changes(a, b);
+        return changed != null && changed.isEmpty();
+    }
+
+    /**
+     * @return the relations whose tuples (or weights) differ between the given instances,
+     *         or null if they differ on their universe or integers
+     */
+    private static Set<Relation> changes(Instance from, Instance to) {
+        if (!from.universe().equals(to.universe()) || !from.ints().equals(to.ints()))
+            return null;
+        for (IntIterator it = to.ints().iterator(); it.hasNext();) {
+            final int i = it.next();
+            if (!from.tuples(i).equals(to.tuples(i)))
+                return null;
+        }
+
+        final Set<Relation> changed = new HashSet<>();
+        for (Relation r : from.relations())
+            if (!sameTuples(from.tuples(r), to.tuples(r)))
+                changed.add(r);
+        for (Relation r : to.relations())
+            if (!from.contains(r))
+                changed.add(r);
+        return changed;
+    }
+
+    /**
+     * @return true iff both tuple sets have the same tuples, of the same kind, with the same weights
+     */
+    private static boolean sameTuples(TupleSet a, TupleSet b) {
+        if (a == b)
+            return true;
+        if (a == null || b == null || !a.equals(b))
+            return false;
+        if (!(a instanceof QtTupleSet) || !(b instanceof QtTupleSet))
+            return !(a instanceof QtTupleSet) && !(b instanceof QtTupleSet);
+        final QtTupleSet qa = (QtTupleSet) a, qb = (QtTupleSet) b;
+        for (IntIterator it = a.indexView().iterator(); it.hasNext();) {
+            final int index = it.next();
+            if (!sameWeight(qa.getWeight(index), qb.getWeight(index)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true iff both weights are absent, or are of the same kind, integral or real, and numerically equal;
+     *         an integral weight may be boxed as an Integer in one instance and as a Long in the other
+     */
+    private static boolean sameWeight(Number a, Number b) {
+        if (a == null || b == null)
+            return a == b;
+        final boolean realA = a instanceof Double || a instanceof Float, realB = b instanceof Double || b instanceof Float;
+        if (realA != realB)
+            return false;
+        return realA ? a.doubleValue() == b.doubleValue() : a.longValue() == b.longValue();
+    }
+
+    /**
+     * Evaluates the given expression wrt this.instance.
+     * @return the tuple set denoted by the expression, as a {@link QtTupleSet} if it is numeric,
+     *         or null if the expression is not supported by this evaluator
+     */
+    public TupleSet evaluate(Expression expression) {
+        try {
+            return toTupleSet(expression.accept(interpreter), expression.arity(), instance);
+        } catch (Unsupported | ArithmeticException e) {
+            // the latter, if some value overflows an int
+            return null;
+        }
+    }
+
+    /**
+     * Evaluates the given numeric expression wrt this.instance.
+     * @return the tuple set denoted by the expression, as a {@link QtTupleSet} if it is numeric,
+     *         or null if the expression is not supported by this evaluator
+     */
+    public TupleSet evaluate(IntExpression intExpr) {
+        try {
+            final ConcreteMatrix m = intExpr.accept(interpreter);
+            return toTupleSet(m, m.dimensions().numDimensions(), instance);
+        } catch (Unsupported | ArithmeticException e) {
+            // the latter, if some value overflows an int
+            return null;
+        }
+    }
+
+    /**
+     * Evaluates each of the given expressions wrt this.instance, sharing their common sub-expressions.
+     * @return the tuple set denoted by each expression, in the same order, or null for the unsupported ones
+     * @see #evaluate(Expression)
+     */
+    public List<TupleSet> evaluate(List<? extends Expression> expressions) {
+        final List<TupleSet> values = new ArrayList<>(expressions.size());
+        for (Expression expression : expressions)
+            values.add(evaluate(expression));
+        return values;
+    }
+
+    /**
+     * Discards the values of every sub-expression evaluated so far, e.g., after a relation of
+     * this.instance is rebound.
+     */
+    public void clear() {
+        this.interpreter = new Interpreter(instance);
+    }
+
+    /**
+     * Structural identity of a composite node: its operator together with the identities of its operands,
+     * which are either leaves (compared by reference) or other keys.
+     */
+    private static final class Key {
+
+        private final Object op;
+        private final Object[] operands;
+        private final int hash;
+
+        Key(Object op, Object... operands) {
+            this.op = op;
+            this.operands = operands;
+            this.hash = 31 * op.hashCode() + Arrays.hashCode(operands);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            final Key other = (Key) o;
+            return hash == other.hash && op.equals(other.op) && Arrays.equals(operands, other.operands);
+        }
+    }
+
+    /**
+     * Converts the given matrix into the adequate kind of tuple set of the given arity.
+     */
+    private static TupleSet toTupleSet(ConcreteMatrix m, int arity, Instance instance) {
+        final IntSet indices = Ints.bestSet(m.dimensions().capacity());
+        for (int i = 0; i < m.density(); i++)
+            indices.add(m.index(i));
+
+        final TupleFactory f = instance.universe().factory();
+        if (m.isBoolean())
+            return f.setOf(arity, indices);
+
+        final Map<Integer, Number> weight = new HashMap<>();
+        for (int i = 0; i < m.density(); i++)
+            weight.put(m.index(i), m.value(i));
+        return f.setOf(arity, indices, weight);
+    }
+
+    /**
+     * Computes the matrix of each node visited.
+     */
+    private static final class Interpreter implements ReturnVisitor<ConcreteMatrix, Object, Object, ConcreteMatrix> {
+
+        private final Instance instance;
+        private final int univSize;
+        // Structural identity of each node visited so far (leaves are their own identity)
+        private final Map<Node, Object> keys;
+        // Value of each structural identity evaluated so far. Every supported node is closed, hence its value
+        // only changes if the tuples of the relations it reads do.
+        private final Map<Object, ConcreteMatrix> values;
+        // Relations read by the value of each structural identity evaluated so far
+        private final Map<Object, Set<Relation>> reads;
+        // Structural identities whose values read each relation
+        private final Map<Relation, Set<Object>> readers;
+
+        Interpreter(Instance instance) {
+            this.instance = instance;
+            this.univSize = instance.universe().size();
+            this.keys = new HashMap<>();
+            this.values = new HashMap<>();
+            this.reads = new HashMap<>();
+            this.readers = new HashMap<>();
+        }
+
+        /**
+         * Creates an interpreter over the given instance that takes over the values kept by the given one.
+         * @requires instance.universe = previous.instance.universe
+         */
+        Interpreter(Instance instance, Interpreter previous) {
+            this.instance = instance;
+            this.univSize = previous.univSize;
+            this.keys = previous.keys;
+            this.values = previous.values;
+            this.reads = previous.reads;
+            this.readers = previous.readers;
+        }
+
+        /**
+         * Discards the values that read any of the given relations.
+         */
+        void invalidate(Set<Relation> relations) {
+            for (Relation r : relations) {
+                final Set<Object> stale = readers.remove(r);
+                if (stale == null)
+                    continue;
+                for (Object key : stale) {
+                    values.remove(key);
+                    reads.remove(key);
+                }
+            }
+        }
+
+        /**
+         * @return the cached matrix of the given node, if any, or null otherwise
+         */
+        private ConcreteMatrix lookup(Node node) {
+            final Object key = keys.get(node);
+            return key == null ? null : values.get(key);
+        }
+
+        /**
+         * Determines the structural identity of the given node, whose operands must have been visited already.
+         * @return the cached matrix of a node structurally equal to the given one, if any, or null otherwise
+         */
+        private ConcreteMatrix lookup(Node node, Object op, Node... operands) {
+            final Object[] ids = new Object[operands.length];
+            for (int i = 0; i < operands.length; i++)
+                ids[i] = keys.get(operands[i]);
+            final Key key = new Key(op, ids);
+            keys.put(node, key);
+            return values.get(key);
+        }
+
+        /**
+         * Caches the value of the given node.
+         * @return m
+         */
+        private ConcreteMatrix cache(Node node, ConcreteMatrix m) {
+            final Object key = keys.computeIfAbsent(node, n -> n);
+            values.put(key, m);
+            final Set<Relation> rs = relationsOf(key);
+            reads.put(key, rs);
+            for (Relation r : rs)
+                readers.computeIfAbsent(r, x -> new HashSet<>()).add(key);
+            return m;
+        }
+
+        /**
+         * @return the relations read by the value of the given structural identity, whose operands have been cached
+         */
+        private Set<Relation> relationsOf(Object key) {
+            if (key instanceof Relation)
+                return Collections.singleton((Relation) key);
+            if (!(key instanceof Key))
+                return Collections.emptySet();
+            // operands that read the same relations share the same (unmodifiable) set
+            Set<Relation> ans = Collections.emptySet();
+            for (Object operand : ((Key) key).operands) {
+                final Set<Relation> rs = reads.get(operand);
+                if (rs == null || ans.containsAll(rs))
+                    continue;
+                if (ans.isEmpty())
+                    ans = rs;
+                else {
+                    final Set<Relation> union = new HashSet<>(ans);
+                    union.addAll(rs);
+                    ans = Collections.unmodifiableSet(union);
+                }
+            }
+            return ans;
+        }
+
+        /**
+         * @return the indices of every tuple of the given tuple set, in ascending order
+         */
+        private static int[] indices(IntSet set) {
+            final int[] indices = new int[set.size()];
+            int i = 0;
+            for (IntIterator it = set.iterator(); it.hasNext();)
+                indices[i++] = it.next();
+            return indices;
+        }
+
+        /**
+         * @return a matrix whose cells are all set to the given value
+         * @throws Unsupported value = 0, since such a constant is represented by explicit zero cells
+         */
+        private static ConcreteMatrix constant(Dimensions dims, int value) {
+            if (value == 0)
+                throw UNSUPPORTED;
+            final int[] all = new int[dims.capacity()];
+            for (int i = 0; i < all.length; i++)
+                all[i] = i;
+            return ConcreteMatrix.constant(dims, false, all, value);
+        }
+
+        /**
+         * @see LeafInterpreter#interpret(Relation)
+         */
+        @Override
+        public ConcreteMatrix visit(Relation relation) {
+            ConcreteMatrix ret = lookup(relation);
+            if (ret != null)
+                return ret;
+
+            final TupleSet tuples = instance.tuples(relation);
+            if (tuples == null)
+                throw UNSUPPORTED;
+            final Dimensions dims = Dimensions.square(univSize, relation.arity());
+            final int[] indices = indices(tuples.indexView());
+
+            if (relation.isQuantitative() && tuples instanceof QtTupleSet) {
+                final QtTupleSet qtSet = (QtTupleSet) tuples;
+                final ConcreteMatrix.Builder m = new ConcreteMatrix.Builder(dims, false, indices.length);
+                for (int index : indices) {
+                    final Number weight = qtSet.getWeight(index);
+                    if (weight == null || weight instanceof Long)
+                        throw UNSUPPORTED;
+                    m.add(index, weight.intValue());
+                }
+                ret = m.build();
+            } else
+                ret = ConcreteMatrix.constant(dims, !relation.isQuantitative(), indices, 1);
+
+            return cache(relation, ret);
+        }
+
+        /**
+         * @see LeafInterpreter#interpret(ConstantExpression)
+         */
+        @Override
+        public ConcreteMatrix visit(ConstantExpression constExpr) {
+            ConcreteMatrix ret = lookup(constExpr);
+            if (ret != null)
+                return ret;
+
+            final Dimensions dim1 = Dimensions.square(univSize, 1);
+            if (constExpr == Expression.UNIV) {
+                final int[] all = new int[univSize];
+                for (int i = 0; i < univSize; i++)
+                    all[i] = i;
+                ret = ConcreteMatrix.constant(dim1, true, all, 1);
+            } else if (constExpr == Expression.IDEN) {
+                final int[] iden = new int[univSize];
+                for (int i = 0; i < univSize; i++)
+                    iden[i] = i * univSize + i;
+                ret = ConcreteMatrix.constant(Dimensions.square(univSize, 2), false, iden, 1);
+            } else if (constExpr == Expression.NONE) {
+                ret = ConcreteMatrix.constant(dim1, false, new int[0], 1);
+            } else if (constExpr == Expression.INTS) {
+                final IntSet ints = Ints.bestSet(univSize);
+                for (IntIterator it = instance.ints().iterator(); it.hasNext();)
+                    ints.add(instance.tuples(it.next()).indexView().min());
+                ret = ConcreteMatrix.constant(dim1, false, indices(ints), 1);
+            } else
+                throw UNSUPPORTED;
+
+            return cache(constExpr, ret);
+        }
+
+        /**
+         * @see FOL2NumTranslator#visit(UnaryExpression)
+         */
+        @Override
+        public ConcreteMatrix visit(UnaryExpression unaryExpr) {
+            ConcreteMatrix ret = lookup(unaryExpr);
+            if (ret != null)
+                return ret;
+
+            final ConcreteMatrix child = unaryExpr.expression().accept(this);
+            ret = lookup(unaryExpr, unaryExpr.op(), unaryExpr.expression());
+            if (ret != null)
+                return ret;
+            final Dimensions dims = child.dimensions();
+            switch (unaryExpr.op()) {
+                case TRANSPOSE :
+                    if (dims.numDimensions() != 2)
+                        throw UNSUPPORTED;
+                    ret = child.transpose();
+                    break;
+                case CLOSURE :
+                case REFLEXIVE_CLOSURE :
+                    if (dims.numDimensions() != 2 || !dims.isSquare())
+                        throw UNSUPPORTED;
+                    ret = child.closure();
+                    if (unaryExpr.op() == ExprOperator.REFLEXIVE_CLOSURE)
+                        ret = ret.union(visit((ConstantExpression) Expression.IDEN));
+                    break;
+                case DROP :
+                    ret = child.drop();
+                    break;
+                default :
+                    throw UNSUPPORTED;
+            }
+            return cache(unaryExpr, ret);
+        }
+
+        /**
+         * @see FOL2NumTranslator#visit(BinaryExpression)
+         */
+        @Override
+        public ConcreteMatrix visit(BinaryExpression binExpr) {
+            ConcreteMatrix ret = lookup(binExpr);
+            if (ret != null)
+                return ret;
+
+            final ConcreteMatrix left = binExpr.left().accept(this);
+            final ConcreteMatrix right = binExpr.right().accept(this);
+            ret = lookup(binExpr, binExpr.op(), binExpr.left(), binExpr.right());
+            if (ret != null)
+                return ret;
+            final Dimensions ldims = left.dimensions(), rdims = right.dimensions();
+            final ExprOperator op = binExpr.op();
+
+            if (op != ExprOperator.JOIN && op != ExprOperator.MULTIJOIN && op != ExprOperator.PRODUCT &&
+                    op != ExprOperator.DOMAIN && op != ExprOperator.RANGE && op != ExprOperator.KHATRI_RAO &&
+                    op != ExprOperator.SCALAR && !ldims.equals(rdims))
+                throw UNSUPPORTED;
+
+            switch (op) {
+                case UNION :
+                    ret = left.union(right);
+                    break;
+                case ADDITION :
+                    ret = left.plus(right);
+                    break;
+                case INTERSECTION :
+                    ret = left.intersection(right);
+                    break;
+                case DIFFERENCE :
+                    ret = left.difference(right);
+                    break;
+                case MINUS :
+                    ret = left.minus(right);
+                    break;
+                case OVERRIDE :
+                    ret = left.override(right);
+                    break;
+                case JOIN :
+                case MULTIJOIN :
+                    if (ldims.dimension(ldims.numDimensions() - 1) != rdims.dimension(0) ||
+                            ldims.numDimensions() + rdims.numDimensions() < 3)
+                        throw UNSUPPORTED;
+                    ret = op == ExprOperator.JOIN ? left.dotMinMax(right) : left.dot(right);
+                    break;
+                case PRODUCT :
+                    ret = left.cross(right);
+                    break;
+                case LEFT_INTERSECTION :
+                case RIGHT_INTERSECTION :
+                    ret = left.maxIntersection(right);
+                    break;
+                case DOMAIN :
+                case RANGE :
+                    if (rdims.numDimensions() > 1)
+                        throw UNSUPPORTED;
+                    ret = left.restrict(right, op == ExprOperator.DOMAIN);
+                    break;
+                case HADAMARD_PRODUCT :
+                    ret = left.product(right);
+                    break;
+                case HADAMARD_DIVISION :
+                    ret = left.divide(right);
+                    break;
+                case KHATRI_RAO :
+                    if (!ldims.isSquare() || !rdims.isSquare() || ldims.dimension(0) != rdims.dimension(0))
+                        throw UNSUPPORTED;
+                    ret = left.khatriRao(right);
+                    break;
+                case SCALAR :
+                    ret = right.scale(left.density() > 0 ? left.value(0) : 0);
+                    break;
+                default :
+                    throw UNSUPPORTED;
+            }
+            return cache(binExpr, ret);
+        }
+
+        /**
+         * @see FOL2NumTranslator#visit(NaryExpression)
+         */
+        @Override
+        public ConcreteMatrix visit(NaryExpression expr) {
+            ConcreteMatrix ret = lookup(expr);
+            if (ret != null)
+                return ret;
+
+            final ExprOperator op = expr.op();
+            final Node[] children = new Node[expr.size()];
+            final ConcreteMatrix[] matrices = new ConcreteMatrix[expr.size()];
+            for (int i = 0; i < children.length; i++) {
+                children[i] = expr.child(i);
+                matrices[i] = expr.child(i).accept(this);
+            }
+            ret = lookup(expr, op, children);
+            if (ret != null)
+                return ret;
+
+            ret = matrices[0];
+            for (int i = 1; i < matrices.length; i++) {
+                final ConcreteMatrix child = matrices[i];
+                if (op != ExprOperator.PRODUCT && !ret.dimensions().equals(child.dimensions()))
+                    throw UNSUPPORTED;
+                switch (op) {
+                    case UNION :
+                        ret = ret.union(child);
+                        break;
+                    case ADDITION :
+                        ret = ret.plus(child);
+                        break;
+                    case INTERSECTION :
+                        ret = ret.intersection(child);
+                        break;
+                    case OVERRIDE :
+                        ret = ret.override(child);
+                        break;
+                    case PRODUCT :
+                        ret = ret.cross(child, false);
+                        break;
+                    case HADAMARD_PRODUCT :
+                        ret = ret.product(child);
+                        break;
+                    default :
+                        throw UNSUPPORTED;
+                }
+            }
+            // only the override of n matrices is computed pairwise, the remaining operators produce numeric matrices
+            return cache(expr, op == ExprOperator.OVERRIDE ? ret : ret.toNumeric());
+        }
+
+        /**
+         * @see FOL2NumTranslator#visit(IntToExprCast)
+         */
+        @Override
+        public ConcreteMatrix visit(IntToExprCast castExpr) {
+            ConcreteMatrix ret = lookup(castExpr);
+            if (ret != null)
+                return ret;
+            ret = castExpr.intExpr().accept(this);
+            keys.put(castExpr, keys.get(castExpr.intExpr()));
+            return ret;
+        }
+
+        /**
+         * @see FOL2NumTranslator#visit(IntConstant)
+         */
+        @Override
+        public ConcreteMatrix visit(IntConstant intConst) {
+            ConcreteMatrix ret = lookup(intConst);
+            if (ret != null)
+                return ret;
+            // constants are identified by their value
+            ret = lookup(intConst, intConst.value());
+            if (ret != null)
+                return ret;
+            return cache(intConst, constant(Dimensions.square(univSize, 1), intConst.value()));
+        }
+
+        /**
+         * @see FOL2NumTranslator#visit(ExprToIntCast)
+         */
+        @Override
+        public ConcreteMatrix visit(ExprToIntCast intExpr) {
+            ConcreteMatrix ret = lookup(intExpr);
+            if (ret != null)
+                return ret;
+
+            final ConcreteMatrix expr = intExpr.expression().accept(this);
+            ret = lookup(intExpr, intExpr.op(), intExpr.expression());
+            if (ret != null)
+                return ret;
+            switch (intExpr.op()) {
+                case CARDINALITY :
+                    ret = constant(expr.dimensions(), expr.sum());
+                    break;
+                case SUM :
+                    ret = expr;
+                    break;
+                default :
+                    throw UNSUPPORTED;
+            }
+            return cache(intExpr, ret);
+        }
+
+        /**
+         * @see FOL2NumTranslator#visit(NaryIntExpression)
+         */
+        @Override
+        public ConcreteMatrix visit(NaryIntExpression intExpr) {
+            ConcreteMatrix ret = lookup(intExpr);
+            if (ret != null)
+                return ret;
+
+            final IntOperator op = intExpr.op();
+            if (op != IntOperator.PLUS && op != IntOperator.MULTIPLY)
+                throw UNSUPPORTED;
+            final Node[] children = new Node[intExpr.size()];
+            final ConcreteMatrix[] matrices = new ConcreteMatrix[intExpr.size()];
+            for (int i = 0; i < children.length; i++) {
+                children[i] = intExpr.child(i);
+                matrices[i] = intExpr.child(i).accept(this);
+            }
+            ret = lookup(intExpr, op, children);
+            if (ret != null)
+                return ret;
+
+            ret = matrices[0];
+            for (int i = 1; i < matrices.length; i++) {
+                final ConcreteMatrix child = matrices[i];
+                if (!ret.dimensions().equals(child.dimensions()))
+                    throw UNSUPPORTED;
+                ret = op == IntOperator.PLUS ? ret.plus(child) : ret.product(child);
+            }
+            return cache(intExpr, ret.toNumeric());
+        }
+
+        /**
+         * @see FOL2NumTranslator#visit(BinaryIntExpression)
+         */
+        @Override
+        public ConcreteMatrix visit(BinaryIntExpression intExpr) {
+            ConcreteMatrix ret = lookup(intExpr);
+            if (ret != null)
+                return ret;
+
+            final ConcreteMatrix left = intExpr.left().accept(this);
+            final ConcreteMatrix right = intExpr.right().accept(this);
+            ret = lookup(intExpr, intExpr.op(), intExpr.left(), intExpr.right());
+            if (ret != null)
+                return ret;
+            if (!left.dimensions().equals(right.dimensions()))
+                throw UNSUPPORTED;
+            switch (intExpr.op()) {
+                case PLUS :
+                    ret = left.plus(right);
+                    break;
+                case MINUS :
+                    ret = left.minus(right);
+                    break;
+                case MULTIPLY :
+                    ret = left.product(right);
+                    break;
+                case DIVIDE :
+                    ret = left.divide(right);
+                    break;
+                default :
+                    throw UNSUPPORTED;
+            }
+            return cache(intExpr, ret);
+        }
+
+        /**
+         * @see FOL2NumTranslator#visit(UnaryIntExpression)
+         */
+        @Override
+        public ConcreteMatrix visit(UnaryIntExpression intExpr) {
+            ConcreteMatrix ret = lookup(intExpr);
+            if (ret != null)
+                return ret;
+
+            final ConcreteMatrix child = intExpr.intExpr().accept(this);
+            ret = lookup(intExpr, intExpr.op(), intExpr.intExpr());
+            if (ret != null)
+                return ret;
+            switch (intExpr.op()) {
+                case NEG :
+                    ret = child.map(Math::negateExact);
+                    break;
+                case ABS :
+                    ret = child.map(v -> v < 0 ? Math.negateExact(v) : v);
+                    break;
+                case SGN :
+                    ret = child.map(Integer::signum);
+                    break;
+                default :
+                    throw UNSUPPORTED;
+            }
+            return cache(intExpr, ret);
+        }
+
+        /**
+         * @throws Unsupported variables are only bound by unsupported nodes
+         */
+        @Override
+        public ConcreteMatrix visit(Variable variable) {
+            throw UNSUPPORTED;
+        }
+
+        /**
+         * @throws Unsupported
+         */
+        @Override
+        public ConcreteMatrix visit(Comprehension comprehension) {
+            throw UNSUPPORTED;
+        }
+
+        /**
+         * @throws Unsupported
+         */
+        @Override
+        public ConcreteMatrix visit(IfExpression ifExpr) {
+            throw UNSUPPORTED;
+        }
+
+        /**
+         * @throws Unsupported
+         */
+        @Override
+        public ConcreteMatrix visit(ProjectExpression project) {
+            throw UNSUPPORTED;
+        }
+
+        /**
+         * @throws Unsupported
+         */
+        @Override
+        public ConcreteMatrix visit(IfIntExpression intExpr) {
+            throw UNSUPPORTED;
+        }
+
+        /**
+         * @throws Unsupported
+         */
+        @Override
+        public ConcreteMatrix visit(SumExpression intExpr) {
+            throw UNSUPPORTED;
+        }
+
+        /**
+         * @throws Unsupported
+         */
+        @Override
+        public Object visit(Decls decls) {
+            throw UNSUPPORTED;
+        }
+
+        /**
+         * @throws Unsupported
+         */
+        @Override
+        public Object visit(Decl decl) {
+            throw UNSUPPORTED;
+        }
+
+        /**
+         * @throws Unsupported formulas are left to the circuit translation
+         */
+        @Override
+        public Object visit(IntComparisonFormula intComp) {
+            throw UNSUPPORTED;
+        }
+
+        /**
+         * @throws Unsupported formulas are left to the circuit translation
+         */
+        @Override
+        public Object visit(QuantifiedFormula quantFormula) {
+            throw UNSUPPORTED;
+        }
+
+        /**
+         * @throws Unsupported formulas are left to the circuit translation
+         */
+        @Override
+        public Object visit(NaryFormula formula) {
+            throw UNSUPPORTED;
+        }
+
+        /**
+         * @throws Unsupported formulas are left to the circuit translation
+         */
+        @Override
+        public Object visit(BinaryFormula binFormula) {
+            throw UNSUPPORTED;
+        }
+
+        /**
+         * @throws Unsupported formulas are left to the circuit translation
+         */
+        @Override
+        public Object visit(NotFormula not) {
+            throw UNSUPPORTED;
+        }
+
+        /**
+         * @throws Unsupported formulas are left to the circuit translation
+         */
+        @Override
+        public Object visit(ConstantFormula constant) {
+            throw UNSUPPORTED;
+        }
+
+        /**
+         * @throws Unsupported formulas are left to the circuit translation
+         */
+        @Override
+        public Object visit(ComparisonFormula compFormula) {
+            throw UNSUPPORTED;
+        }
+
+        /**
+         * @throws Unsupported formulas are left to the circuit translation
+         */
+        @Override
+        public Object visit(MultiplicityFormula multFormula) {
+            throw UNSUPPORTED;
+        }
+
+        /**
+         * @throws Unsupported formulas are left to the circuit translation
+         */
+        @Override
+        public Object visit(RelationPredicate predicate) {
+            throw UNSUPPORTED;
+        }
+
+        /**
+         * @throws Unsupported formulas are left to the circuit translation
+         */
+        @Override
+        public Object visit(FixFormula fixFormula) {
+            throw UNSUPPORTED;
+        }
+    }
+}
@@ -0,0 +1,576 @@
+package kodkod.engine.fol2num;
+
+import java.util.Arrays;
+
+import kodkod.engine.bool.Dimensions;
+
+/**
+ * Concrete counterpart of {@link kodkod.engine.num.NumericMatrix}, whose cells hold integer values
+ * instead of numeric circuits. Each operation computes the same values that the respective
+ * NumericMatrix operation folds into constants when every cell is constant, following the
+ * integer semantics of the default {@link kodkod.engine.num.NumericFactory}, and produces a
+ * Boolean matrix in exactly the same cases. Cells are ints: any arithmetic that overflows them
+ * throws an ArithmeticException, so that the caller falls back to the (wider) circuit evaluation.
+ *
+ * The non-zero cells are stored as two parallel arrays of indices, in ascending order, and values.
+ * Matrices are immutable once built.
+ *
+ * @specfield dimensions: Dimensions
+ * @specfield isBoolean: boolean
+ * @specfield cells: [0..dimensions.capacity) -> lone (int - 0)
+ */
+final class ConcreteMatrix {
+
+    private final Dimensions dims;
+    private final boolean isBoolean;
+    private final int[] indices;
+    private final int[] values;
+    private final int size;
+
+    private ConcreteMatrix(Dimensions dims, boolean isBoolean, int[] indices, int[] values, int size) {
+        this.dims = dims;
+        this.isBoolean = isBoolean;
+        this.indices = indices;
+        this.values = values;
+        this.size = size;
+    }
+
+    /**
+     * Returns a matrix with the given dimensions whose given cells, in ascending order, are set to the given value.
+     * @requires value != 0
+     */
+    static ConcreteMatrix constant(Dimensions dims, boolean isBoolean, int[] indices, int value) {
+        final int[] values = new int[indices.length];
+        Arrays.fill(values, value);
+        return new ConcreteMatrix(dims, isBoolean, indices, values, indices.length);
+    }
+
+    /**
+     * @return this.dimensions
+     */
+    Dimensions dimensions() {
+        return dims;
+    }
+
+    /**
+     * @return this.isBoolean
+     */
+    boolean isBoolean() {
+        return isBoolean;
+    }
+
+    /**
+     * @return #this.cells
+     */
+    int density() {
+        return size;
+    }
+
+    /**
+     * @return index of the i-th non-zero cell, in ascending order
+     */
+    int index(int i) {
+        return indices[i];
+    }
+
+    /**
+     * @return value of the i-th non-zero cell, in ascending order of index
+     */
+    int value(int i) {
+        return values[i];
+    }
+
+    /**
+     * @return position of the first non-zero cell whose index is not less than the given one
+     */
+    private int ceil(int index) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (indices[mid] < index)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * @return this.cells[index], or 0 if there is no such cell
+     */
+    int get(int index) {
+        final int i = ceil(index);
+        return i < size && indices[i] == index ? values[i] : 0;
+    }
+
+    /**
+     * @return sum i : this.cells | this.cells[i]
+     */
+    int sum() {
+        int sum = 0;
+        for (int i = 0; i < size; i++)
+            sum = Math.addExact(sum, values[i]);
+        return sum;
+    }
+
+    /**
+     * Combines the values of two cells with the same index.
+     */
+    private interface Combinator {
+
+        int apply(int v0, int v1);
+    }
+
+    /**
+     * Merges the cells of this and other matrix.
+     * @param both value of the cells in both matrices
+     * @param left whether the cells only in this matrix are kept
+     * @param right whether the cells only in the other matrix are kept, negated if so specified
+     */
+    private ConcreteMatrix merge(ConcreteMatrix other, boolean isBoolean, Combinator both, boolean left, boolean right, boolean negateRight) {
+        checkDimensions(other);
+        final Builder ret = new Builder(dims, isBoolean, size + other.size);
+        int i = 0, j = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || (i < size && indices[i] < other.indices[j])) {
+                if (left)
+                    ret.add(indices[i], values[i]);
+                i++;
+            } else if (i == size || other.indices[j] < indices[i]) {
+                if (right)
+                    ret.add(other.indices[j], negateRight ? Math.negateExact(other.values[j]) : other.values[j]);
+                j++;
+            } else {
+                if (both != null)
+                    ret.add(indices[i], both.apply(values[i], other.values[j]));
+                i++;
+                j++;
+            }
+        }
+        return ret.build();
+    }
+
+    /**
+     * @see kodkod.engine.num.NumericMatrix#union(kodkod.engine.num.NumericMatrix)
+     */
+    ConcreteMatrix union(ConcreteMatrix other) {
+        return merge(other, isBoolean && other.isBoolean, Math::max, true, true, false);
+    }
+
+    /**
+     * @see kodkod.engine.num.NumericMatrix#intersection(kodkod.engine.num.NumericMatrix)
+     */
+    ConcreteMatrix intersection(ConcreteMatrix other) {
+        return merge(other, isBoolean && other.isBoolean, Math::min, false, false, false);
+    }
+
+    /**
+     * @see kodkod.engine.num.NumericMatrix#difference(kodkod.engine.num.NumericMatrix)
+     */
+    ConcreteMatrix difference(ConcreteMatrix other) {
+        return merge(other, isBoolean && other.isBoolean, (v0, v1) -> v0 - Math.min(v0, v1), true, false, false);
+    }
+
+    /**
+     * @see kodkod.engine.num.NumericMatrix#plus(kodkod.engine.num.NumericMatrix)
+     */
+    ConcreteMatrix plus(ConcreteMatrix other) {
+        return merge(other, false, Math::addExact, true, true, false);
+    }
+
+    /**
+     * @see kodkod.engine.num.NumericMatrix#minus(kodkod.engine.num.NumericMatrix)
+     */
+    ConcreteMatrix minus(ConcreteMatrix other) {
+        return merge(other, false, Math::subtractExact, true, true, true);
+    }
+
+    /**
+     * @see kodkod.engine.num.NumericMatrix#product(kodkod.engine.num.NumericMatrix)
+     */
+    ConcreteMatrix product(ConcreteMatrix other) {
+        return merge(other, isBoolean && other.isBoolean, Math::multiplyExact, false, false, false);
+    }
+
+    /**
+     * @see kodkod.engine.num.NumericMatrix#leftIntersection(kodkod.engine.num.NumericMatrix)
+     * @see kodkod.engine.num.NumericMatrix#rightIntersection(kodkod.engine.num.NumericMatrix)
+     */
+    ConcreteMatrix maxIntersection(ConcreteMatrix other) {
+        return merge(other, false, Math::max, false, false, false);
+    }
+
+    /**
+     * @see kodkod.engine.num.NumericMatrix#divide(kodkod.engine.num.NumericMatrix)
+     * @throws IllegalArgumentException some i : this.cells.indices | no other.cells[i]
+     */
+    ConcreteMatrix divide(ConcreteMatrix other) {
+        checkDimensions(other);
+        final Builder ret = new Builder(dims, isBoolean && other.isBoolean, size);
+        for (int i = 0; i < size; i++) {
+            final int v1 = other.get(indices[i]);
+            if (v1 == 0)
+                throw new IllegalArgumentException("Division by zero is undefined.");
+            if (v1 == -1)
+                ret.add(indices[i], Math.negateExact(values[i]));
+            else
+                ret.add(indices[i], values[i] / v1);
+        }
+        return ret.build();
+    }
+
+    /**
+     * @see kodkod.engine.num.NumericMatrix#product(kodkod.engine.num.NumericConstant)
+     */
+    ConcreteMatrix scale(int scalar) {
+        if (scalar == 1)
+            return this;
+        final Builder ret = new Builder(dims, isBoolean && scalar == 0, size);
+        if (scalar != 0)
+            for (int i = 0; i < size; i++)
+                ret.add(indices[i], Math.multiplyExact(values[i], scalar));
+        return ret.build();
+    }
+
+    /**
+     * Applies the given function to each cell, producing a numeric matrix.
+     * @see kodkod.engine.num.NumericMatrix#negate()
+     * @see kodkod.engine.num.NumericMatrix#abs()
+     * @see kodkod.engine.num.NumericMatrix#signum()
+     * @see kodkod.engine.num.NumericMatrix#drop()
+     */
+    ConcreteMatrix map(java.util.function.IntUnaryOperator f) {
+        final Builder ret = new Builder(dims, false, size);
+        for (int i = 0; i < size; i++)
+            ret.add(indices[i], f.applyAsInt(values[i]));
+        return ret.build();
+    }
+
+    /**
+     * @return a numeric matrix with the same cells as this
+     */
+    ConcreteMatrix toNumeric() {
+        return isBoolean ? new ConcreteMatrix(dims, false, indices, values, size) : this;
+    }
+
+    /**
+     * @see kodkod.engine.num.NumericMatrix#drop()
+     */
+    ConcreteMatrix drop() {
+        return isBoolean ? this : map(v -> 1);
+    }
+
+    /**
+     * @see kodkod.engine.num.NumericMatrix#cross(kodkod.engine.num.NumericMatrix)
+     */
+    ConcreteMatrix cross(ConcreteMatrix other) {
+        return cross(other, isBoolean && other.isBoolean);
+    }
+
+    /**
+     * Cross product of this and other matrix, whose cells are the product of the respective cells.
+     */
+    ConcreteMatrix cross(ConcreteMatrix other, boolean isBoolean) {
+        final Builder ret = new Builder(dims.cross(other.dims), isBoolean, Math.max(size, other.size));
+        final int ocap = other.dims.capacity();
+        for (int i = 0; i < size; i++)
+            for (int j = 0; j < other.size; j++)
+                ret.add(Math.addExact(Math.multiplyExact(indices[i], ocap), other.indices[j]), Math.multiplyExact(values[i], other.values[j]));
+        return ret.build();
+    }
+
+    /**
+     * @see kodkod.engine.num.NumericMatrix#dot(kodkod.engine.num.NumericMatrix)
+     */
+    ConcreteMatrix dot(ConcreteMatrix other) {
+        return join(other, false, false);
+    }
+
+    /**
+     * @see kodkod.engine.num.NumericMatrix#dotMinMax(kodkod.engine.num.NumericMatrix)
+     */
+    ConcreteMatrix dotMinMax(ConcreteMatrix other) {
+        return join(other, true, isBoolean && other.isBoolean);
+    }
+
+    /**
+     * Computes the (min-max, if so specified, or sum-product otherwise) product of this and other matrix.
+     * The cells of this matrix are visited one row at a time, i.e., grouped by every dimension but the last,
+     * and the cells of the resulting row are accumulated over a dense scratch array.
+     */
+    private ConcreteMatrix join(ConcreteMatrix other, boolean minMax, boolean isBoolean) {
+        final Builder ret = new Builder(dims.dot(other.dims), isBoolean, Math.max(size, other.size));
+        if (size == 0 || other.size == 0)
+            return ret.build();
+
+        final int b = other.dims.dimension(0);
+        final int c = other.dims.capacity() / b;
+        final int[] acc = new int[c];
+        final boolean[] seen = new boolean[c];
+        final int[] touched = new int[c];
+
+        int i = 0;
+        while (i < size) {
+            final int row = indices[i] / b;
+            int n = 0;
+            for (; i < size && indices[i] / b == row; i++) {
+                final int k = indices[i] % b;
+                for (int j = other.ceil(k * c), end = other.ceil((k + 1) * c); j < end; j++) {
+                    final int col = other.indices[j] % c;
+                    final int v = minMax ? Math.min(values[i], other.values[j]) : Math.multiplyExact(values[i], other.values[j]);
+                    if (!seen[col]) {
+                        seen[col] = true;
+                        touched[n++] = col;
+                        acc[col] = v;
+                    } else
+                        acc[col] = minMax ? Math.max(acc[col], v) : Math.addExact(acc[col], v);
+                }
+            }
+            Arrays.sort(touched, 0, n);
+            for (int t = 0; t < n; t++) {
+                final int col = touched[t];
+                ret.add(row * c + col, acc[col]);
+                seen[col] = false;
+            }
+        }
+        return ret.build();
+    }
+
+    /**
+     * Returns the transitive closure of this matrix wrt the min-max product, i.e., the value of each
+     * cell [s, t] is the largest, over every path from s to t, of the smallest value along that path.
+     * This is the fixed point that {@link kodkod.engine.num.NumericMatrix#closure()} reaches by iterative
+     * squaring, which is computed here with a widest-path search from each non-empty row instead.
+     * @requires this.dimensions.numDimensions() = 2 && this.dimensions.isSquare()
+     */
+    ConcreteMatrix closure() {
+        if (size == 0)
+            return this;
+        final int n = dims.dimension(0);
+        final Builder ret = new Builder(dims, isBoolean, size);
+
+        final int[] best = new int[n];
+        final boolean[] done = new boolean[n];
+        final int[] reached = new int[n];
+        final LongHeap heap = new LongHeap(size);
+
+        int row = 0;
+        while (row < size) {
+            final int s = indices[row] / n;
+            int end = row;
+            while (end < size && indices[end] / n == s)
+                end++;
+
+            int count = 0;
+            for (int e = row; e < end; e++)
+                heap.push(values[e], indices[e] % n);
+            while (!heap.isEmpty()) {
+                final long top = heap.pop();
+                final int t = (int) top, width = (int) (top >> 32);
+                if (done[t])
+                    continue;
+                done[t] = true;
+                best[t] = width;
+                reached[count++] = t;
+                for (int e = ceil(t * n), last = ceil((t + 1) * n); e < last; e++)
+                    if (!done[indices[e] % n])
+                        heap.push(Math.min(width, values[e]), indices[e] % n);
+            }
+
+            Arrays.sort(reached, 0, count);
+            for (int r = 0; r < count; r++) {
+                ret.add(s * n + reached[r], best[reached[r]]);
+                done[reached[r]] = false;
+            }
+            row = end;
+        }
+        return ret.build();
+    }
+
+    /**
+     * @see kodkod.engine.num.NumericMatrix#transpose()
+     * @requires this.dimensions.numDimensions() = 2
+     */
+    ConcreteMatrix transpose() {
+        final int rows = dims.dimension(0), cols = dims.dimension(1);
+        final Builder ret = new Builder(dims.transpose(), isBoolean, size);
+        for (int i = 0; i < size; i++)
+            ret.add((indices[i] % cols) * rows + (indices[i] / cols), values[i]);
+        return ret.build();
+    }
+
+    /**
+     * Returns the cells of this matrix whose index in the first (if {@code first} is set) or last dimension
+     * occurs in the given vector.
+     * @see kodkod.engine.num.NumericMatrix#domain(kodkod.engine.num.NumericMatrix)
+     * @see kodkod.engine.num.NumericMatrix#range(kodkod.engine.num.NumericMatrix)
+     * @requires other.dimensions.numDimensions() = 1
+     */
+    ConcreteMatrix restrict(ConcreteMatrix other, boolean first) {
+        final Builder ret = new Builder(dims, isBoolean, size);
+        if (other.size == 0)
+            return ret.build();
+        final int rowSize = dims.capacity() / dims.dimension(0);
+        final int last = dims.dimension(dims.numDimensions() - 1);
+        for (int i = 0; i < size; i++)
+            if (other.get(first ? indices[i] / rowSize : indices[i] % last) != 0)
+                ret.add(indices[i], values[i]);
+        return ret.build();
+    }
+
+    /**
+     * @see kodkod.engine.num.NumericMatrix#override(kodkod.engine.num.NumericMatrix)
+     */
+    ConcreteMatrix override(ConcreteMatrix other) {
+        checkDimensions(other);
+        if (other.size == 0)
+            return this;
+        final int rowLength = dims.capacity() / dims.dimension(0);
+        final Builder ret = new Builder(dims, isBoolean && other.isBoolean, size + other.size);
+        int i = 0, j = 0;
+        while (i < size || j < other.size) {
+            if (j < other.size && (i == size || other.indices[j] <= indices[i])) {
+                if (i < size && other.indices[j] == indices[i])
+                    i++;
+                ret.add(other.indices[j], other.values[j]);
+                j++;
+            } else {
+                final int row = indices[i] / rowLength;
+                final int o = other.ceil(row * rowLength);
+                if (o == other.size || other.indices[o] >= (row + 1) * rowLength)
+                    ret.add(indices[i], values[i]);
+                i++;
+            }
+        }
+        return ret.build();
+    }
+
+    /**
+     * @see kodkod.engine.num.NumericMatrix#khatriRao(kodkod.engine.num.NumericMatrix)
+     * @requires this.dimensions.isSquare() && other.dimensions.isSquare() &&
+     *           this.dimensions.dimension(0) = other.dimensions.dimension(0)
+     */
+    ConcreteMatrix khatriRao(ConcreteMatrix other) {
+        final int u = dims.dimension(0);
+        final int m = dims.numDimensions() - 1, n = other.dims.numDimensions() - 1;
+        final Dimensions retDims = Dimensions.square(u, m + n + 1);
+        final Builder ret = new Builder(retDims, false, Math.max(size, other.size));
+        int shift = 1;
+        for (int k = 0; k < n; k++)
+            shift = Math.multiplyExact(shift, u);
+        for (int i = 0; i < size; i++) {
+            final int a = indices[i] % u;
+            for (int j = 0; j < other.size; j++)
+                if (a == other.indices[j] % u)
+                    ret.add(Math.addExact(Math.multiplyExact(indices[i] - a, shift), other.indices[j]), Math.multiplyExact(values[i], other.values[j]));
+        }
+        return ret.build();
+    }
+
+    /**
+     * @throws IllegalArgumentException !this.dimensions.equals(other.dimensions)
+     */
+    private void checkDimensions(ConcreteMatrix other) {
+        if (!dims.equals(other.dims))
+            throw new IllegalArgumentException("Incompatible dimensions: " + dims + " and " + other.dims);
+    }
+
+    /**
+     * Accumulates the non-zero cells of a matrix under construction.
+     * Cells are expected in ascending order of index, and are sorted on {@link #build()} otherwise.
+     */
+    static final class Builder {
+
+        private final Dimensions dims;
+        private final boolean isBoolean;
+        private int[] indices, values;
+        private int size;
+        private boolean sorted;
+
+        Builder(Dimensions dims, boolean isBoolean, int capacity) {
+            this.dims = dims;
+            this.isBoolean = isBoolean;
+            this.indices = new int[Math.max(capacity, 4)];
+            this.values = new int[indices.length];
+            this.size = 0;
+            this.sorted = true;
+        }
+
+        /**
+         * Adds the given cell, unless its value is zero.
+         */
+        void add(int index, int value) {
+            if (value == 0)
+                return;
+            if (size == indices.length) {
+                indices = Arrays.copyOf(indices, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            if (size > 0 && indices[size - 1] >= index)
+                sorted = false;
+            indices[size] = index;
+            values[size++] = value;
+        }
+
+        ConcreteMatrix build() {
+            if (!sorted) {
+                final long[] cells = new long[size];
+                for (int i = 0; i < size; i++)
+                    cells[i] = ((long) indices[i] << 32) | (values[i] & 0xFFFFFFFFL);
+                Arrays.sort(cells);
+                for (int i = 0; i < size; i++) {
+                    indices[i] = (int) (cells[i] >>> 32);
+                    values[i] = (int) cells[i];
+                }
+            }
+            return new ConcreteMatrix(dims, isBoolean, indices, values, size);
+        }
+    }
+
+    /**
+     * Binary max-heap of (value, node) pairs, each packed into a long so that pairs are ordered by value.
+     */
+    private static final class LongHeap {
+
+        private long[] heap;
+        private int size;
+
+        LongHeap(int capacity) {
+            this.heap = new long[Math.max(capacity, 4)];
+            this.size = 0;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void push(int value, int node) {
+            if (size == heap.length)
+                heap = Arrays.copyOf(heap, size * 2);
+            final long e = ((long) value << 32) | node;
+            int i = size++;
+            while (i > 0 && heap[(i - 1) / 2] < e) {
+                heap[i] = heap[(i - 1) / 2];
+                i = (i - 1) / 2;
+            }
+            heap[i] = e;
+        }
+
+        long pop() {
+            final long top = heap[0];
+            final long e = heap[--size];
+            int i = 0;
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && heap[child + 1] > heap[child])
+                    child++;
+                if (heap[child] <= e)
+                    break;
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = e;
+            return top;
+        }
+    }
+}
@@ -5,13 +5,12 @@ import java.util.*;
 import kodkod.ast.Expression;
 import kodkod.ast.Node;
 import kodkod.ast.Variable;
+import kodkod.engine.config.Reporter;
 import kodkod.engine.fol2sat.Environment;
 import kodkod.engine.fol2sat.FreeVariableCollector;
 import kodkod.engine.num.NumericMatrix;
 import kodkod.util.nodes.AnnotatedNode;
 
-import static kodkod.engine.num.NumericConstant.ZERO;
-
 /**
  * Quantitative Extension of {@link kodkod.engine.fol2sat.FOL2BoolCache}
  * ---------------------------------------------------------------------
@@ -19,20 +18,43 @@ import static kodkod.engine.num.NumericConstant.ZERO;
  * In particular it determines which translations to cache, when to throw them out
  * of the cache, etc.
  *
+ * The translations of a node with free variables are keyed on the values bound to the
+ * free variables of that node only, so a translation is reused whenever the same values
+ * are bound again, regardless of the bindings of the remaining variables in scope.
+ * These translations are kept in a least recently used order and evicted once their
+ * estimated size, in matrix cells, exceeds the given budget.
+ *
  * @specfield node: Node // node being translated
  * @specfield cached: node.*children // the nodes whose translations are cached
  * @specfield cache: cached -> (Object ->lone Environment)
+ * @specfield budget: long // maximum estimated size of the cached translations of nodes with free variables
  */
 final class FOL2NumCache {
 
     private final Map<Node,Record> cache;
+    // Translations of nodes with free variables, in least recently used order
+    private final LinkedHashMap<Binding,Entry> bindings;
+    private final long budget;
+    private long size;
+    private int hits, misses, evictions;
 
     /**
-     * Constructs a new translation cache for the given annotated node.
+     * Constructs a new translation cache for the given annotated node,
+     * with an unbounded budget.
      *
-     * @ensures this.node' = annotated.node
+     * @ensures this.node' = annotated.node && this.budget' = Long.MAX_VALUE
      */
     FOL2NumCache(AnnotatedNode< ? extends Node> annotated) {
+        this(annotated, Long.MAX_VALUE);
+    }
+
+    /**
+     * Constructs a new translation cache for the given annotated node and budget.
+     *
+     * @requires budget > 0
+     * @ensures this.node' = annotated.node && this.budget' = budget
+     */
+    FOL2NumCache(AnnotatedNode< ? extends Node> annotated, long budget) {
         final CacheCollector collector = new CacheCollector(annotated.sharedNodes());
         annotated.node().accept(collector);
 
@@ -42,8 +64,17 @@ final class FOL2NumCache {
             if (freeVars.isEmpty())
                 this.cache.put(e.getKey(), new NoVarRecord());
             else
-                this.cache.put(e.getKey(), new MultiVarRecord(freeVars));
+                this.cache.put(e.getKey(), new MultiVarRecord(e.getKey(), freeVars));
         }
+        this.bindings = new LinkedHashMap<Binding,Entry>(16, 0.75f, true);
+        this.budget = budget;
+    }
+
+    /**
+     * Reports the number of hits, misses and evictions of this cache to the given reporter.
+     */
+    void report(Reporter reporter) {
+        reporter.translationCacheStatistics(hits, misses, evictions);
     }
 
     /**
@@ -56,7 +87,14 @@ final class FOL2NumCache {
     @SuppressWarnings("unchecked" )
     <T> T lookup(Node node, Environment<NumericMatrix, Expression> env) {
         final Record info = cache.get(node);
-        return info == null ? null : (T) info.get(env);
+        if (info == null)
+            return null;
+        final Object translation = info.get(env);
+        if (translation == null)
+            misses++;
+        else
+            hits++;
+        return (T) translation;
     }
 
     /**
@@ -126,6 +164,66 @@ final class FOL2NumCache {
 
     }
 
+    /**
+     * Estimates the size of the given translation, in matrix cells.
+     */
+    private static long sizeOf(Object translation) {
+        if (translation instanceof NumericMatrix)
+            return ((NumericMatrix) translation).density() + 1;
+        if (translation instanceof Collection) {
+            long size = 1;
+            for (Object o : (Collection< ? >) translation)
+                size += sizeOf(o);
+            return size;
+        }
+        return 1;
+    }
+
+    /**
+     * The values bound to the free variables of a node.
+     */
+    private static final class Binding {
+
+        final Node  node;
+        final int[] tuples;
+        final int   hash;
+
+        Binding(Node node, int[] tuples) {
+            this.node = node;
+            this.tuples = tuples;
+            this.hash = 31 * System.identityHashCode(node) + Arrays.hashCode(tuples);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Binding))
+                return false;
+            final Binding b = (Binding) o;
+            return node == b.node && Arrays.equals(tuples, b.tuples);
+        }
+    }
+
+    /**
+     * A cached translation and its estimated size.
+     */
+    private static final class Entry {
+
+        final Object translation;
+        final long   size;
+
+        Entry(Object translation) {
+            this.translation = translation;
+            this.size = sizeOf(translation);
+        }
+    }
+
     /**
      * A container class that stores the translation of a shared node (BooleanValue
      * for formulas and NumericMatrix for expressions) and bindings for the node's
@@ -136,9 +234,7 @@ final class FOL2NumCache {
      * @specfield varBinding: Variable -> lone int
      * @specfield translation: lone Object
      */
-    private static abstract class Record {
-
-        Object translation;
+    private abstract class Record {
 
         /**
          * Returns this.translation if the given environment has the same mappings for
@@ -165,12 +261,13 @@ final class FOL2NumCache {
     }
 
     /**
-     * A TranslationInfo for a node with one or more free variables.
+     * A TranslationInfo for a node with one or more free variables. Its translations
+     * are stored in this.bindings, one per binding of the free variables of the node.
      */
-    private static final class MultiVarRecord extends Record {
+    private final class MultiVarRecord extends Record {
 
+        final Node       node;
         final Variable[] vars;
-        final int[]      tuples;
 
         /**
          * Constructs a translation unit for a node which has the given set of free
@@ -178,9 +275,20 @@ final class FOL2NumCache {
          *
          * @ensures this.freeVariables' = vars && no this.translation'
          */
-        MultiVarRecord(Set<Variable> freeVariables) {
+        MultiVarRecord(Node node, Set<Variable> freeVariables) {
+            this.node = node;
             this.vars = freeVariables.toArray(new Variable[freeVariables.size()]);
-            this.tuples = new int[freeVariables.size()];
+        }
+
+        /**
+         * Returns the binding of this.vars in the given environment.
+         */
+        Binding binding(Environment<NumericMatrix,Expression> env) {
+            final int[] tuples = new int[vars.length];
+            for (int i = 0; i < vars.length; i++) {
+                tuples[i] = env.lookup(vars[i]).iterator().next().index();
+            }
+            return new Binding(node, tuples);
         }
 
         /**
@@ -188,13 +296,8 @@ final class FOL2NumCache {
          */
         @Override
         Object get(Environment<NumericMatrix,Expression> e) {
-            if (translation == null)
-                return null;
-            for (int i = 0; i < vars.length; i++) {
-                if (e.lookup(vars[i]).get(tuples[i]) == ZERO)
-                    return null;
-            }
-            return translation;
+            final Entry entry = bindings.get(binding(e));
+            return entry == null ? null : entry.translation;
         }
 
         /**
@@ -203,14 +306,24 @@ final class FOL2NumCache {
          */
         @Override
         void set(Object transl, Environment<NumericMatrix,Expression> env) {
-            translation = transl;
+            Object translation = transl;
             for (int i = 0; i < vars.length; i++) {
-                final NumericMatrix varVal = env.lookup(vars[i]);
-                tuples[i] = varVal.iterator().next().index();
-                if (transl == varVal) {
-                    translation = varVal.clone();
+                if (transl == env.lookup(vars[i])) {
+                    translation = ((NumericMatrix) transl).clone();
                 }
             }
+
+            final Entry entry = new Entry(translation);
+            final Entry old = bindings.put(binding(env), entry);
+            size += entry.size - (old == null ? 0 : old.size);
+
+            // evict the least recently used translations, keeping at least the one just cached
+            final Iterator<Entry> it = bindings.values().iterator();
+            while (size > budget && bindings.size() > 1) {
+                size -= it.next().size;
+                it.remove();
+                evictions++;
+            }
         }
 
         /**
@@ -218,24 +331,16 @@ final class FOL2NumCache {
          */
         @Override
         public String toString() {
-            final StringBuilder b = new StringBuilder("{");
-            b.append(String.valueOf(translation));
-            for (int i = 0; i < vars.length; i++) {
-                b.append(" (");
-                b.append(vars[i]);
-                b.append(", ");
-                b.append(tuples[i]);
-                b.append(")");
-            }
-            b.append("}");
-            return b.toString();
+            return "{" + node + " " + Arrays.toString(vars) + "}";
         }
     }
 
     /**
      * A TranslationInfo for a node with no free variables.
      */
-    private static final class NoVarRecord extends Record {
+    private final class NoVarRecord extends Record {
+
+        Object translation;
 
         /**
          * @see FOL2NumCache.Record#get(kodkod.engine.fol2sat.Environment)
@@ -6,6 +6,7 @@ import kodkod.ast.*;
 import kodkod.ast.operator.*;
 import kodkod.ast.visitor.ReturnVisitor;
 import kodkod.engine.bool.*;
+import kodkod.engine.config.QuantitativeOptions;
 import kodkod.engine.fol2sat.Environment;
 import kodkod.engine.fol2sat.HigherOrderDeclException;
 import kodkod.engine.fol2sat.UnboundLeafException;
@@ -85,10 +86,20 @@ public class FOL2NumTranslator implements ReturnVisitor<NumericMatrix, BooleanVa
     /**
      * Translates the given annotated formula or expression into a collection of boolean formulas,
      * potentially containing quantitative constraints and taking advantage of the Numeric Matrix
-     * representation.
+     * representation, with the default translation cache budget.
      */
     public static Collection<BooleanValue> translate(final AnnotatedNode<Formula> annotated, LeafInterpreter interpreter){
-        final FOL2NumCache cache = new FOL2NumCache(annotated);
+        return translate(annotated, interpreter, new QuantitativeOptions());
+    }
+
+    /**
+     * Translates the given annotated formula or expression into a collection of boolean formulas,
+     * potentially containing quantitative constraints and taking advantage of the Numeric Matrix
+     * representation. The translation cache is bounded by {@code options.cacheBudget()}, and its
+     * statistics are reported to {@code options.reporter()}.
+     */
+    public static Collection<BooleanValue> translate(final AnnotatedNode<Formula> annotated, LeafInterpreter interpreter, QuantitativeOptions options){
+        final FOL2NumCache cache = new FOL2NumCache(annotated, options.cacheBudget());
         final FOL2NumTranslator translator = new FOL2NumTranslator(cache, interpreter) {
             BooleanValue cache(Formula formula, BooleanValue translation) {
                 return super.cache(formula, translation);
@@ -101,6 +112,7 @@ public class FOL2NumTranslator implements ReturnVisitor<NumericMatrix, BooleanVa
         }
         // Add the equations to the main circuit
         t.addAll(translator.fixedPointEq);
+        cache.report(options.reporter());
 
         return t;
     }
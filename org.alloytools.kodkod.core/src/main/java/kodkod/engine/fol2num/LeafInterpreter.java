@@ -121,6 +121,26 @@ public final class LeafInterpreter {
         return maxVar - minVar;
     }
 
+    /**
+     * Adds the given relations to this interpreter, allocating fresh
+     * {@link NumericVariable numeric variables} to encode their contents.
+     * The variables of each relation are allocated after every value produced so far
+     * by this.factory, so the labels of previously translated circuits remain valid.
+     *
+     * @requires this was created for an incremental translation
+     * @requires no this.relations & rels
+     * @ensures this.relations' = this.relations + rels && this.lowers' = this.lowers ++ (rels <: lowers) &&
+     *          this.uppers' = this.uppers ++ (rels <: uppers)
+     * @throws UnsupportedOperationException this is not an incremental interpreter
+     */
+    public final void extend(Set<Relation> rels, Map<Relation,TupleSet> lowers, Map<Relation,TupleSet> uppers) {
+        for (Relation r : rels) {
+            this.lowers.put(r, lowers.get(r));
+            this.uppers.put(r, uppers.get(r));
+        }
+        factory.addVariables(allocateVars(factory.nextLabel() + 1, vars, rels, lowers, uppers));
+    }
+
     /**
      * Returns this.factory.
      *
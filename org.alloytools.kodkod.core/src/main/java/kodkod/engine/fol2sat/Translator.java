@@ -53,7 +53,7 @@ import kodkod.engine.hol.HOLTranslation;
 import kodkod.engine.hol.HOLTranslator;
 import kodkod.engine.hol.Proc;
 import kodkod.engine.num.NumericMatrix;
-import kodkod.engine.num2common.DivisionDetector;
+import kodkod.engine.num2common.ProblemDecomposer;
 import kodkod.engine.num2common.QuantitativeTranslation;
 import kodkod.engine.num2smt.*;
 import kodkod.engine.satlab.SATSolver;
@@ -414,6 +414,141 @@ public final class Translator {
         return transl;
     }
 
+    /**
+     * Translates the given formula using the specified bounds and quantitative options in such a
+     * way that the resulting translation can be extended with additional formulas
+     * and bounds, subject to the same options. We require that the options specify
+     * the incremental solving mode, so that the SMT solver instance is kept alive
+     * between successive extensions of the problem.
+     *
+     * @requires options.incremental()
+     * @return some t: QuantitativeTranslation.Incremental | t.originalFormula = formula &&
+     *         t.originalBounds = bounds && t.options = options
+     * @throws NullPointerException any of the arguments are null
+     * @throws UnboundLeafException the formula refers to an undeclared variable or
+     *             a relation not mapped by the given bounds
+     * @throws IllegalArgumentException any of the preconditions on options are
+     *             violated
+     */
+    public static QuantitativeTranslation.Incremental translateIncremental(Formula formula, Bounds bounds, QuantitativeOptions options) {
+        checkIncrementalOptions(options);
+        return (QuantitativeTranslation.Incremental) (new Translator(formula, bounds, new Options(), true)).translate(options);
+    }
+
+    /**
+     * Updates the given quantitative translation with
+     * {@code SMT(formula, translation.originalBounds + bounds, translation.options)}.
+     * The result of the update is either a new translation instance or the given
+     * {@code translation}, modified in place. Only the assertions corresponding to the
+     * given formula are sent to the (live) solver of the translation.
+     * <p>
+     * We require {@code bounds} and {@code translation} to be consistent in the
+     * same sense as {@link #translateIncremental(Formula, Bounds, Translation.Incremental)},
+     * except for the symmetry requirement, since symmetries are not broken
+     * during quantitative translation. In particular, the bounds of relations that were already
+     * translated cannot be widened: a larger scope must be expressed through fresh relations.
+     * </p>
+     *
+     * @requires translation.solver.solve()
+     * @requires formula.*components & Relation in (translation.bounds +
+     *           bounds).relations
+     * @requires translation.bounds.universe = bounds.universe && no bounds.intBound
+     *           && no (translation.bounds.relations & bounds.relations)
+     * @return some t: QuantitativeTranslation.Incremental | t.originalFormula =
+     *         translation.originalFormula.and(formula) &&
+     *         t.originalBounds.relations = translation.originalBounds.relations +
+     *         bounds.relations
+     * @throws NullPointerException any of the arguments are null
+     * @throws UnboundLeafException the formula refers to an undeclared variable or
+     *             a relation not mapped by translation.bounds + bounds
+     * @throws IllegalArgumentException any of the other preconditions on the
+     *             arguments are violated
+     */
+    public static QuantitativeTranslation.Incremental translateIncremental(Formula formula, Bounds bounds, QuantitativeTranslation.Incremental translation) {
+        checkIncrementalOptions(translation.getOptions());
+        checkIncrementalBounds(bounds, translation);
+        if (translation.trivial()) {
+            return translateIncrementalTrivial(formula, bounds, translation);
+        } else {
+            return translateIncrementalNonTrivial(formula, bounds, translation);
+        }
+    }
+
+    /**
+     * @requires checkIncrementalBounds(bounds, transl)
+     * @requires checkIncrementalOptions(transl.options)
+     * @requires transl.trivial()
+     * @requires transl.solver.solve()
+     * @return see {@link #translateIncremental(Formula, Bounds, QuantitativeOptions)}
+     **/
+    private static QuantitativeTranslation.Incremental translateIncrementalTrivial(Formula formula, Bounds bounds, QuantitativeTranslation.Incremental transl) {
+        if (!transl.solver().solve())
+            throw new IllegalArgumentException("Expected a satisfiable translation, given " + transl);
+
+        transl.solver().free(); // release the old empty solver since we are going
+                                // to re-translate
+
+        final Bounds tBounds = transl.bounds();
+        for (Relation r : bounds.relations()) {
+            tBounds.bound(r, bounds.lowerBound(r), bounds.upperBound(r));
+        }
+
+        // transl.formula is guaranteed to evaluate to TRUE with respect to tBounds,
+        // so only the given formula has to be translated
+        return translateIncremental(formula, tBounds, transl.getOptions());
+    }
+
+    /**
+     * @requires checkIncrementalBounds(bounds, transl)
+     * @requires checkIncrementalOptions(transl.options)
+     * @requires !transl.trivial()
+     * @return see {@link #translateIncremental(Formula, Bounds, QuantitativeOptions)}
+     **/
+    private static QuantitativeTranslation.Incremental translateIncrementalNonTrivial(Formula formula, Bounds bounds, QuantitativeTranslation.Incremental transl) {
+
+        final QuantitativeOptions tOptions = transl.getOptions();
+        final Bounds tBounds = transl.bounds();
+
+        // save the set of relations bound in the pre-state
+        final Set<Relation> oldRelations = new LinkedHashSet<Relation>(tBounds.relations());
+
+        for (Relation r : bounds.relations()) {
+            tBounds.bound(r, bounds.lowerBound(r), bounds.upperBound(r));
+        }
+
+        // extend the interpreter with variable allocations for the new relations
+        final kodkod.engine.fol2num.LeafInterpreter interpreter = transl.interpreter();
+        interpreter.extend(setDifference(tBounds.relations(), oldRelations), tBounds.lowerBounds(), tBounds.upperBounds());
+
+        Collection<BooleanValue> formulas = FOL2NumTranslator.translate(annotate(formula), interpreter, tOptions);
+
+        if (formulas.contains(FALSE)) {
+            // release the old solver and state, and return a fresh trivially
+            // false incremental translation.
+            transl.solver().free();
+            return QuantitativeTranslation.incrementalTranslation(tBounds, tOptions, Num2smtTranslator.translate(FALSE), interpreter, null);
+        }
+
+        formulas.removeAll(Collections.singletonList(TRUE));
+        tOptions.setMaxPrimaryVariable(interpreter.factory().maxVariable());
+
+        if (!formulas.isEmpty()) {
+            // divisions in the new formulas are guarded against division by zero while they are translated
+            Num2smtTranslator.translateIncremental(toFormulas(formulas), transl.incrementer());
+        }
+
+        return transl;
+    }
+
+    /**
+     * @requires no circuits & BooleanConstant
+     * @return the given circuits, as the formulas that they are
+     */
+    @SuppressWarnings("unchecked" )
+    private static Collection<BooleanFormula> toFormulas(Collection<BooleanValue> circuits) {
+        return (Collection<BooleanFormula>) (Collection< ? >) circuits;
+    }
+
     // [HOL]
     public static Proc translate2proc(Formula formula, Bounds bounds, Options options) {
         return new Translator(formula, bounds, options, true, true).toProc();
@@ -448,6 +583,39 @@ public final class Translator {
             throw new IllegalArgumentException("Translation logging must be disabled for incremental translation: " + options);
     }
 
+    /**
+     * Checks that the given quantitative options are suitable for incremental translation.
+     *
+     * @requires options.incremental()
+     * @throws IllegalArgumentException any of the preconditions are violated
+     */
+    public static void checkIncrementalOptions(QuantitativeOptions options) {
+        if (!options.incremental())
+            throw new IllegalArgumentException("The incremental solving mode is required for incremental translation.");
+    }
+
+    /**
+     * Checks that the given {@code inc} bounds are incremental with respect to the
+     * given quantitative {@code translation}.
+     *
+     * @requires translation.bounds.universe = inc.universe && no inc.intBound && no
+     *           (translation.bounds.relations & inc.relations)
+     * @throws IllegalArgumentException any of the preconditions are violated
+     */
+    public static void checkIncrementalBounds(Bounds inc, QuantitativeTranslation.Incremental translation) {
+        final Bounds base = translation.bounds();
+        if (!base.universe().equals(inc.universe()))
+            incBoundErr(inc.universe(), "universe", "equal to", base.universe());
+        if (!inc.intBounds().isEmpty())
+            incBoundErr(inc.intBounds(), "intBound", "empty, with integer bounds fully specified by", base.intBounds());
+        final Set<Relation> baseRels = base.relations();
+        for (Relation r : inc.relations()) {
+            if (baseRels.contains(r)) {
+                incBoundErr(inc.relations(), "relations", "disjoint from", baseRels);
+            }
+        }
+    }
+
     /**
      * Checks that the given {@code inc} bounds are incremental with respect to the
      * given {@code translation}.
@@ -849,26 +1017,22 @@ public final class Translator {
     private Translation toNumeric(AnnotatedNode<Formula> annotated, QuantitativeOptions options) {
         final kodkod.engine.fol2num.LeafInterpreter interpreter = kodkod.engine.fol2num.LeafInterpreter.exact(bounds, options, options.incremental());
 
-        Collection<BooleanValue> formula = FOL2NumTranslator.translate(annotated, interpreter);
+        Collection<BooleanValue> formula = FOL2NumTranslator.translate(annotated, interpreter, options);
 
         //Trivially false
         if(formula.contains(FALSE))
-            return QuantitativeTranslation.smtTranslation(completeBounds(), options, Num2smtTranslator.translate(FALSE), Collections.EMPTY_MAP, 0, null);
+            return trivial(FALSE, interpreter, options);
 
         //Remove all sub-formulas that are trivially true
         formula.removeAll(Collections.singletonList(TRUE));
 
         //Trivially true
         if(formula.size() == 0)
-            return QuantitativeTranslation.smtTranslation(completeBounds(), options, Num2smtTranslator.translate(TRUE), Collections.EMPTY_MAP, 0, null);
+            return trivial(TRUE, interpreter, options);
 
+        // Division by zero is handled while the problem is translated to SMT
         Collection<BooleanFormula> problem = (Collection)formula;
 
-        // Handle division by zero
-        DivisionDetector detector = DivisionDetector.detectDivision(interpreter.factory(), problem);
-        if(detector.hasDivision())
-            formula.add(detector.divisionByZero().negation());
-
         return toSMT(problem, interpreter, options, null); // options.solver() in { CVC4, Z3, MathSAT, Yices }
     }
 
@@ -912,27 +1076,48 @@ public final class Translator {
      * Translates the given integer problem to SMT, adding the assertions to a SMT Solver returned
      * by options.solver(), and returns a Translation object constructed from the
      * solver and the provided arguments.
+     * Unless the translation is incremental, the problem is split into its independent components,
+     * which are solved by up to options.parallelism() solver instances at once.
      */
     private Translation toSMT(Collection<BooleanFormula> problem, kodkod.engine.fol2num.LeafInterpreter interpreter, QuantitativeOptions options, TranslationLog log) {
         final int maxPrimaryVar = interpreter.factory().maxVariable();
         options.setMaxPrimaryVariable(maxPrimaryVar);
 
-        final Map<Relation, IntSet> varUsage = interpreter.vars();
-        interpreter = null; // enable gc
-
-        SMTSolver solver;
         switch (options.solver()){
             case CVC4:
             case Z3:
             case MathSAT:
             case Yices:
-                solver = Num2smtTranslator.translate(problem, options);
                 break;
             default:
                 throw new IllegalArgumentException("Unsupported solver " + options.solver() + " for the current analysis context.");
         }
 
-        return QuantitativeTranslation.smtTranslation(completeBounds(), options, solver, varUsage, maxPrimaryVar, log);
+        if (incremental) {
+            final Num2smtTranslator incrementer = Num2smtTranslator.translateIncremental(problem, interpreter.factory(), options);
+            return QuantitativeTranslation.incrementalTranslation(completeBounds(), options, incrementer.solver(), interpreter, incrementer);
+        } else {
+            final Map<Relation, IntSet> varUsage = interpreter.vars();
+            final List<List<BooleanFormula>> components = ProblemDecomposer.decompose(problem, options.parallelism());
+            final SMTSolver solver = Num2smtTranslator.translate(components, interpreter.factory(), options);
+            final int overflows = interpreter.factory().overflows();
+            interpreter = null; // enable gc
+            return QuantitativeTranslation.smtTranslation(completeBounds(), options, solver, varUsage, maxPrimaryVar, log, overflows);
+        }
+    }
+
+    /**
+     * Returns a whole or incremental quantitative translation, depending on the value of
+     * {@code this.incremental}, using the given trivial outcome,
+     * {@linkplain #completeBounds() completeBounds()} and the given options.
+     */
+    @SuppressWarnings("unchecked" )
+    private Translation trivial(BooleanConstant outcome, kodkod.engine.fol2num.LeafInterpreter interpreter, QuantitativeOptions options) {
+        if (incremental) {
+            return QuantitativeTranslation.incrementalTranslation(completeBounds(), options, Num2smtTranslator.translate(outcome), interpreter, null);
+        } else {
+            return QuantitativeTranslation.smtTranslation(completeBounds(), options, Num2smtTranslator.translate(outcome), Collections.EMPTY_MAP, 0, null, interpreter.factory().overflows());
+        }
     }
 
     /**
@@ -3,15 +3,19 @@ package kodkod.engine.num;
 import kodkod.engine.bool.BooleanValue;
 import kodkod.engine.bool.Operator;
 
+import java.math.BigInteger;
+
 import static kodkod.engine.bool.BooleanConstant.FALSE;
 import static kodkod.engine.bool.BooleanConstant.TRUE;
 
 /**
  * A numeric constant that represents an integer number.
+ * Values within the int range are held as Integer; larger ones as Long,
+ * or BigInteger if they do not fit in 64 bits either.
  *
  * @specfield value : Number
  * @invariant this.op = Operator.CONST
- * @invariant value : Integer
+ * @invariant value : Integer + Long + BigInteger
  */
 public class NumericConstant extends NumericValue{
 
@@ -40,6 +44,24 @@ public class NumericConstant extends NumericValue{
         this.value = value;
     }
 
+    /**
+     * Constructs a NumericConstant that represents the given long value,
+     * identified by the specified label.
+     */
+    NumericConstant(int label, long value) {
+        this.label = label;
+        this.value = value;
+    }
+
+    /**
+     * Constructs a NumericConstant that represents the given arbitrary-precision value,
+     * identified by the specified label.
+     */
+    NumericConstant(int label, BigInteger value) {
+        this.label = label;
+        this.value = value;
+    }
+
     /**
      * Constructs a NumericConstant that represents the given double value,
      * identified by the specified label.
@@ -3,6 +3,7 @@ package kodkod.engine.num;
 import kodkod.engine.bool.*;
 import kodkod.util.ints.*;
 
+import java.math.BigInteger;
 import java.util.*;
 
 import static kodkod.engine.bool.BooleanConstant.FALSE;
@@ -13,12 +14,23 @@ import static kodkod.engine.num.NumericConstant.ZERO;
 
 /**
  * A factory for creating {@link NumericValue numeric values} and {@link NumericMatrix matrices}.
+ *
+ * Analogously to the qualitative CBCFactory, the boolean and comparison gates produced by this factory
+ * are hash-consed, and binary conjunctions and disjunctions are simplified with respect to
+ * idempotence, contradiction and absorption, so that the relational (boolean) parts of a
+ * quantitative problem yield circuits as compact as the ones of a qualitative problem.
  */
 public abstract class NumericFactory {
 
     protected int label;
     private Map<Integer, NumericVariable> vars;
     private int maxPrimaryVariable;
+    // Boolean and comparison gates produced so far
+    private final Map<GateKey, BooleanValue> gates;
+    // Binary numeric values produced so far by lifting boolean values
+    private final Map<BooleanValue, NumericValue> binaries;
+    // Number of constant folds that overflowed 64 bits
+    private int overflows;
 
     /**
      * Initializes a new numeric factory.
@@ -27,6 +39,37 @@ public abstract class NumericFactory {
         this.label = 0;
         this.vars = new HashMap<>();
         this.maxPrimaryVariable = 0;
+        this.gates = new HashMap<>();
+        this.binaries = new IdentityHashMap<>();
+        this.overflows = 0;
+    }
+
+    /**
+     * Identifies a gate by its operator and inputs.
+     */
+    private static final class GateKey {
+
+        private final Operator     op;
+        private final BooleanValue v0, v1;
+
+        GateKey(Operator op, BooleanValue v0, BooleanValue v1) {
+            this.op = op;
+            this.v0 = v0;
+            this.v1 = v1;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * op.hashCode() + System.identityHashCode(v0)) + System.identityHashCode(v1);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof GateKey))
+                return false;
+            final GateKey k = (GateKey) o;
+            return op == k.op && v0 == k.v0 && v1 == k.v1;
+        }
     }
 
     /**
@@ -59,6 +102,28 @@ public abstract class NumericFactory {
         return new NumericConstant(label++, value);
     }
 
+    /**
+     * Returns the NumericConstant representing the given value,
+     * held as an Integer whenever it fits in the int range.
+     */
+    public final NumericConstant constant(long value){
+        if(value == (int) value)
+            return constant((int) value);
+
+        return new NumericConstant(label++, value);
+    }
+
+    /**
+     * Returns the NumericConstant representing the given value,
+     * held as an Integer or a Long whenever it fits in their range.
+     */
+    public final NumericConstant constant(BigInteger value){
+        if(value.bitLength() < Long.SIZE)
+            return constant(value.longValue());
+
+        return new NumericConstant(label++, value);
+    }
+
     /**
      * Returns the NumericConstant representing the given value,
      * wrt this factory main type of values.
@@ -91,6 +156,30 @@ public abstract class NumericFactory {
         } // else do nothing
     }
 
+    /**
+     * Returns the label that will be assigned to the next value produced by this factory.
+     *
+     * @return this.label
+     */
+    public final int nextLabel() {
+        return label;
+    }
+
+    /**
+     * Returns the number of constant folds performed by this factory whose result, or some operand,
+     * did not fit in 64 bits, and thus were computed with arbitrary precision.
+     */
+    public final int overflows() {
+        return overflows;
+    }
+
+    /**
+     * Records a constant fold computed with arbitrary precision.
+     */
+    protected final void overflow() {
+        overflows++;
+    }
+
     /**
      * Returns the variable with the given label.
      *
@@ -174,7 +263,12 @@ public abstract class NumericFactory {
         if(b == FALSE)
             return ZERO;
 
-        return new BinaryValue(new ITEGate(b.label(), (BooleanFormula)b, ONE, ZERO), b);
+        NumericValue v = binaries.get(b);
+        if(v == null){
+            v = new BinaryValue(new ITEGate(b.label(), (BooleanFormula)b, ONE, ZERO), b);
+            binaries.put(b, v);
+        }
+        return v;
     }
 
     /**
@@ -375,7 +469,7 @@ public abstract class NumericFactory {
      */
     public final NumericValue minimum(NumericValue v0, NumericValue v1){
         if(v0 instanceof NumericConstant && v1 instanceof NumericConstant)
-            return ((NumericConstant)v0).getValue().doubleValue() > ((NumericConstant)v1).getValue().doubleValue() ? v1 : v0;
+            return cmp(GT, (NumericConstant)v0, (NumericConstant)v1) == TRUE ? v1 : v0;
 
         return new MinGate(label++, v0, v1);
     }
@@ -386,7 +480,7 @@ public abstract class NumericFactory {
      */
     public final NumericValue maximum(NumericValue v0, NumericValue v1){
         if(v0 instanceof NumericConstant && v1 instanceof NumericConstant)
-            return ((NumericConstant)v0).getValue().doubleValue() < ((NumericConstant)v1).getValue().doubleValue() ? v1 : v0;
+            return cmp(LT, (NumericConstant)v0, (NumericConstant)v1) == TRUE ? v1 : v0;
 
         return new MaxGate(label++, v0, v1);
     }
@@ -662,7 +756,7 @@ public abstract class NumericFactory {
         if(v0 instanceof NumericConstant && v1 instanceof NumericConstant)
             return cmp(EQ, (NumericConstant)v0, (NumericConstant)v1);
 
-        return new CmpGate(EQ, label++, v0, v1);
+        return cmpGate(EQ, v0, v1);
     }
 
     /**
@@ -681,7 +775,7 @@ public abstract class NumericFactory {
         if(v0 instanceof NumericConstant && v1 instanceof NumericConstant)
             return cmp(LT, (NumericConstant)v0, (NumericConstant)v1);
 
-        return new CmpGate(LT, label++, v0, v1);
+        return cmpGate(LT, v0, v1);
     }
 
     /**
@@ -692,7 +786,7 @@ public abstract class NumericFactory {
         if(v0 instanceof NumericConstant && v1 instanceof NumericConstant)
             return cmp(LEQ, (NumericConstant)v0, (NumericConstant)v1);
 
-        return new CmpGate(LEQ, label++, v0, v1);
+        return cmpGate(LEQ, v0, v1);
     }
 
     /**
@@ -703,7 +797,7 @@ public abstract class NumericFactory {
         if(v0 instanceof NumericConstant && v1 instanceof NumericConstant)
             return cmp(GT, (NumericConstant)v0, (NumericConstant)v1);
 
-        return new CmpGate(GT, label++, v0, v1);
+        return cmpGate(GT, v0, v1);
     }
 
     /**
@@ -714,7 +808,73 @@ public abstract class NumericFactory {
         if(v0 instanceof NumericConstant && v1 instanceof NumericConstant)
             return cmp(GEQ, (NumericConstant)v0, (NumericConstant)v1);
 
-        return new CmpGate(GEQ, label++, v0, v1);
+        return cmpGate(GEQ, v0, v1);
+    }
+
+    /**
+     * Returns the comparison gate between the given values, creating it only if it was not produced before.
+     * @return v0 op v1
+     */
+    private BooleanValue cmpGate(Operator.Comparison op, NumericValue v0, NumericValue v1){
+        final GateKey key = new GateKey(op, v0, v1);
+        BooleanValue g = gates.get(key);
+        if(g == null){
+            g = new CmpGate(op, label++, v0, v1);
+            gates.put(key, g);
+        }
+        return g;
+    }
+
+    /**
+     * @return true iff f0 = !f1
+     */
+    private static boolean complementary(BooleanFormula f0, BooleanFormula f1){
+        return f0 instanceof NotGate && f0.input(0) == f1 || f1 instanceof NotGate && f1.input(0) == f0;
+    }
+
+    /**
+     * @return true iff g is a binary gate with the given operator and f as one of its inputs
+     */
+    private static boolean hasInput(BooleanFormula g, Operator op, BooleanFormula f){
+        return g.op() == op && g.size() == 2 && (g.input(0) == f || g.input(1) == f);
+    }
+
+    /**
+     * Returns the conjunction/disjunction of the given formulas, simplified as follows:
+     * f op f = f, f and !f = FALSE, f or !f = TRUE, f and (f or g) = f, f or (f and g) = f,
+     * f and (f and g) = f and g, f or (f or g) = f or g.
+     * Otherwise returns the gate over f0 and f1, creating it only if it was not produced before.
+     * @requires op in AND + OR
+     * @return f0 op f1
+     */
+    private BooleanValue nAryGate(Operator.Nary op, BooleanFormula f0, BooleanFormula f1){
+        if(f0 == f1)
+            return f0;
+        if(complementary(f0, f1))
+            return op.shortCircuit();
+        if(hasInput(f1, op.complement(), f0))
+            return f0;
+        if(hasInput(f0, op.complement(), f1))
+            return f1;
+        if(hasInput(f1, op, f0))
+            return f1;
+        if(hasInput(f0, op, f1))
+            return f0;
+
+        // Commutative operators: order the inputs by label
+        if(f0.label() > f1.label()){
+            final BooleanFormula f = f0;
+            f0 = f1;
+            f1 = f;
+        }
+
+        final GateKey key = new GateKey(op, f0, f1);
+        BooleanValue g = gates.get(key);
+        if(g == null){
+            g = new BinaryGate(op, label++, -1, f0, f1);
+            gates.put(key, g);
+        }
+        return g;
     }
 
     /**
@@ -740,7 +900,7 @@ public abstract class NumericFactory {
         if(v1 == TRUE || bv1 == TRUE || v1 instanceof NumericConstant && ((NumericConstant)v1).getValue().doubleValue() != 0)
             return bv0;
 
-        return new BinaryGate(AND, label++, -1, (BooleanFormula)bv0, (BooleanFormula)bv1);
+        return nAryGate(AND, (BooleanFormula)bv0, (BooleanFormula)bv1);
     }
 
     /**
@@ -796,7 +956,7 @@ public abstract class NumericFactory {
         if(v1 == FALSE || bv1 == FALSE || v1 instanceof NumericConstant && ((NumericConstant)v1).getValue().doubleValue() == 0)
             return bv0;
 
-        return new BinaryGate(OR, label++, -1,(BooleanFormula)bv0, (BooleanFormula)bv1);
+        return nAryGate(OR, (BooleanFormula)bv0, (BooleanFormula)bv1);
     }
 
     /**
@@ -985,15 +1145,22 @@ public abstract class NumericFactory {
 
     /**
      * Numeric factory for integer values.
+     * Constants are folded over longs, with checked overflow, and only fall back to
+     * arbitrary precision (BigInteger) when some operand or result does not fit in 64 bits.
      */
     private static final class IntegerFactory extends NumericFactory{
         IntegerFactory() { super(); }
 
         /**
          * {@inheritDoc}
+         * Non-integral values are rounded.
          */
         @Override
         public NumericConstant constant(Number value) {
+            if(value instanceof Long)
+                return constant(value.longValue());
+            if(value instanceof BigInteger)
+                return constant((BigInteger) value);
             return constant(value.intValue());
         }
 
@@ -1004,73 +1171,113 @@ public abstract class NumericFactory {
          */
         @Override
         protected NumericValue arit(NumNary op, NumericConstant v0, NumericConstant v1) {
-            int result = v0.getValue().intValue();
-            int v = v1.getValue().intValue();
+            if((op == DIV || op == MOD) && v1.getValue().doubleValue() == 0)
+                throw new IllegalArgumentException("Cannot divide by zero: " + v0 + (op == DIV ? " / 0" : "% 0"));
 
-            if(op == PLUS)
-                result += v;
-            else if(op == MINUS)
-                result -= v;
-            else if(op == TIMES)
-                result *= v;
-            else if(op == DIV) {
-                if(v == 0)
-                    throw new IllegalArgumentException("Cannot divide by zero: " + result + " / 0");
-                result = result / v;
-            }
-            else if(op == MOD) {
-                if(v == 0)
-                    throw new IllegalArgumentException("Cannot divide by zero: " + result + "% 0");
-                result = result % v;
-            }
-
-            return constant(result);
+            return constant(arit(op, v0.getValue(), v1.getValue()));
         }
 
         /**
          * {@inheritDoc}
-         * Assumes v0 : Integer & v1 : Integer, values will be rounded otherwise.
+         * Assumes v0 : Integer + Long + BigInteger & v1 : Integer + Long + BigInteger, values will be rounded otherwise.
+         * Division (and modulo) by zero yields 0.
          */
         @Override
         protected Number arit(NumNary op, Number v0, Number v1) {
-            int result = v0.intValue();
-            int intV1 = v1.intValue();
+            if(!(v0 instanceof BigInteger) && !(v1 instanceof BigInteger)){
+                final long x = v0.longValue();
+                final long y = v1.longValue();
+                try {
+                    if(op == PLUS)
+                        return narrow(Math.addExact(x, y));
+                    else if(op == MINUS)
+                        return narrow(Math.subtractExact(x, y));
+                    else if(op == TIMES)
+                        return narrow(Math.multiplyExact(x, y));
+                    else if(op == DIV) {
+                        // Long.MIN_VALUE / -1 is the only overflowing quotient
+                        if(y != -1 || x != Long.MIN_VALUE)
+                            return narrow(y != 0 ? x / y : 0);
+                    }
+                    else if(op == MOD)
+                        return narrow(y != 0 ? x % y : 0);
+                    else return narrow(x);
+                } catch (ArithmeticException e) {
+                    // falls back to arbitrary precision
+                }
+            }
+
+            overflow();
+            final BigInteger x = big(v0);
+            final BigInteger y = big(v1);
+            BigInteger result = x;
 
             if(op == PLUS)
-                result += intV1;
+                result = x.add(y);
             else if(op == MINUS)
-                result -= intV1;
+                result = x.subtract(y);
             else if(op == TIMES)
-                result *= intV1;
+                result = x.multiply(y);
             else if(op == DIV)
-                result = intV1 != 0 ? result/intV1 : 0;
+                result = y.signum() != 0 ? x.divide(y) : BigInteger.ZERO;
             else if(op == MOD)
-                result = intV1 != 0 ? result%intV1 : 0;
+                result = y.signum() != 0 ? x.remainder(y) : BigInteger.ZERO;
+
+            return narrow(result);
+        }
+
+        /**
+         * @return the given value as an Integer, if it fits in the int range, or as a Long otherwise
+         */
+        private static Number narrow(long value) {
+            if(value == (int) value)
+                return (int) value;
+            return value;
+        }
 
-            return result;
+        /**
+         * @return the given value as an Integer or a Long, if it fits in their range, or as is otherwise
+         */
+        private static Number narrow(BigInteger value) {
+            return value.bitLength() < Long.SIZE ? narrow(value.longValue()) : value;
+        }
+
+        /**
+         * @return the given value with arbitrary precision
+         */
+        private static BigInteger big(Number value) {
+            return value instanceof BigInteger ? (BigInteger) value : BigInteger.valueOf(value.longValue());
+        }
+
+        /**
+         * @return negative, zero or positive, as x is less than, equal to, or greater than y
+         */
+        private static int compare(Number x, Number y) {
+            if(x instanceof BigInteger || y instanceof BigInteger)
+                return big(x).compareTo(big(y));
+            return Long.compare(x.longValue(), y.longValue());
         }
 
         /**
          * {@inheritDoc}
-         * Assumes v0.value : Integer & v1.value : Integer
+         * Assumes v0.value : Integer + Long + BigInteger & v1.value : Integer + Long + BigInteger
          */
         @Override
         protected BooleanConstant cmp(Comparison op, NumericConstant v0, NumericConstant v1) {
             boolean result = true;
 
-            int x = v0.getValue().intValue();
-            int y = v1.getValue().intValue();
+            int c = compare(v0.getValue(), v1.getValue());
 
             if(op == EQ)
-                result = x == y;
+                result = c == 0;
             else if(op == GT)
-                result = x > y;
+                result = c > 0;
             else if(op == LT)
-                result = x < y;
+                result = c < 0;
             else if(op == GEQ)
-                result = x >= y;
+                result = c >= 0;
             else if(op == LEQ)
-                result = x <= y;
+                result = c <= 0;
 
             return BooleanConstant.constant(result);
         }
@@ -1080,7 +1287,7 @@ public abstract class NumericFactory {
          */
         @Override
         protected NumericConstant negate(NumericConstant c) {
-            return constant(-c.getValue().intValue());
+            return constant(arit(MINUS, 0, c.getValue()));
         }
 
         /**
@@ -1088,8 +1295,7 @@ public abstract class NumericFactory {
          */
         @Override
         protected NumericConstant abs(NumericConstant c) {
-            int x = c.getValue().intValue();
-            return x >= 0 ? c : constant(-x);
+            return compare(c.getValue(), 0) >= 0 ? c : negate(c);
         }
     }
 }
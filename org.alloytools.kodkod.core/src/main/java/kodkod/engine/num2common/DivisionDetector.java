@@ -4,22 +4,28 @@ import kodkod.engine.bool.*;
 import kodkod.engine.bool.ITEGate;
 import kodkod.engine.num.*;
 import kodkod.util.collections.Pair;
+import kodkod.util.ints.IntIterator;
+import kodkod.util.ints.IntSet;
+import kodkod.util.ints.IntTreeSet;
 
 import java.util.*;
-import java.util.function.Function;
-import java.util.stream.Stream;
 
 import static kodkod.engine.bool.Operator.DIV;
 import static kodkod.engine.num.NumericConstant.ZERO;
 
 /**
- * Implements a traversal over Numeric Circuits to gather the details of each division that occurs within:
+ * Gathers the details of each division {@link #add(AritGate) reported} by a traversal over Numeric Circuits:
  * - division id
  * - denominator value id
  * - primary variables that occur on the numerator
  * - primary variables that occur on the denominator
+ *
+ * The divisions are reported by the traversal that translates the circuit
+ * (e.g., {@link kodkod.engine.num2smt.Num2smtTranslator}), so that the circuit is walked only once.
+ * The primary variables of each operand are gathered by an explicit-stack traversal,
+ * which does not depend on the depth of the circuit.
  */
-public class DivisionDetector implements BooleanVisitor<Integer,Object>, NumericVisitor<Integer, Object> {
+public class DivisionDetector implements BooleanVisitor<Object, Deque<BooleanValue>>, NumericVisitor<Object, Deque<BooleanValue>> {
 
     // The factory responsible for the circuit at hand
     private final NumericFactory factory;
@@ -29,29 +35,46 @@ public class DivisionDetector implements BooleanVisitor<Integer,Object>, Numeric
      * and denominator.
      * <Div, <Denominator, <NumeratorPVar*, DenominatorPVar*>*>>
      */
-    private final Map<Integer, Map<Integer, Pair<Set<Integer>, Set<Integer>>>> denominators;
+    private final Map<Integer, Map<Integer, Pair<IntSet, IntSet>>> denominators;
     // Stores each node relevant to the divisions that occur in the given circuit.
     private final Map<Integer, NumericValue> nodes;
-    // Flag indicating if the primary variables occur in the division
-    private boolean divFlag;
-    // Refers to the numerator/denominator primary variables set of the division being traversed at a point in time
-    private Set<Integer> current;
+    // Refers to the numerator/denominator primary variables set of the operand being traversed at a point in time
+    private IntSet current;
 
-    private DivisionDetector(NumericFactory factory) {
+    /**
+     * Creates a new detector for the divisions over values produced by the given factory.
+     */
+    public DivisionDetector(NumericFactory factory) {
         this.factory = factory;
         this.denominators = new HashMap<>();
         this.nodes = new HashMap<>();
-        this.divFlag = false;
     }
 
     /**
-     * Gathers the details of each division occuring within the given Numeric Circuit.
+     * Gathers the details of the given division, if it was not reported before.
+     * @requires division.op() = DIV
      */
-    public static DivisionDetector detectDivision(NumericFactory factory, Collection<BooleanFormula> problem){
-        final DivisionDetector detector = new DivisionDetector(factory);
-        for(BooleanFormula f : problem)
-            f.accept(detector, null);
-        return detector;
+    public void add(AritGate division){
+        assert division.op() == DIV;
+        final int gate = division.label();
+        if(denominators.containsKey(gate))
+            return;
+
+        // Information associated with this division
+        Map<Integer, Pair<IntSet, IntSet>> fracs = new HashMap<>();
+        denominators.put(gate, fracs);
+
+        Iterator<NumericValue> it = division.iterator();
+        // First numerator
+        IntSet numerator = primaryVariables(it.next());
+        // Handling division chain: each numerator is the previous denominator
+        while(it.hasNext()){
+            NumericValue denumValue = it.next();
+            IntSet denom = primaryVariables(denumValue);
+            fracs.put(denumValue.label(), new Pair<>(numerator, denom));
+            nodes.put(denumValue.label(), denumValue);
+            numerator = denom;
+        }
     }
 
     /**
@@ -68,24 +91,19 @@ public class DivisionDetector implements BooleanVisitor<Integer,Object>, Numeric
         BooleanValue divByZero = BooleanConstant.FALSE;
         BooleanValue fracDivByZero;
 
-        Function<Integer, BooleanValue> isNEQzero = p -> factory.neq(nodes.get(p), ZERO);
-
         if(this.hasDivision()){
-            for(Map<Integer, Pair<Set<Integer>, Set<Integer>>> fracs : this.denominators.values())
-                for(Map.Entry<Integer, Pair<Set<Integer>, Set<Integer>>> frac : fracs.entrySet()){
+            for(Map<Integer, Pair<IntSet, IntSet>> fracs : this.denominators.values())
+                for(Map.Entry<Integer, Pair<IntSet, IntSet>> frac : fracs.entrySet()){
                     Integer denom = frac.getKey();
-                    Set<Integer> nums = frac.getValue().a;
-                    Set<Integer> denoms = frac.getValue().b;
+                    IntSet nums = frac.getValue().a;
+                    IntSet denoms = frac.getValue().b;
 
                     // denominator = 0
                     fracDivByZero = factory.eq(nodes.get(denom), ZERO);
 
                     // denominator = 0 & exists p : primary variables appearing on the fraction | p != 0
-                    if(!(nums.size() == 0 && denoms.size() == 0))
-                        fracDivByZero = factory.and(fracDivByZero,
-                                Stream.concat(nums.stream(), denoms.stream())
-                                        .map(isNEQzero)
-                                        .reduce((BooleanValue) BooleanConstant.FALSE, factory::or, factory::or));
+                    if(!(nums.isEmpty() && denoms.isEmpty()))
+                        fracDivByZero = factory.and(fracDivByZero, factory.or(isNEQzero(nums), isNEQzero(denoms)));
 
                     divByZero = factory.or(divByZero, fracDivByZero);
                 }
@@ -95,174 +113,151 @@ public class DivisionDetector implements BooleanVisitor<Integer,Object>, Numeric
     }
 
     /**
-     * Checks the gate's inputs.
-     * @return Gate identifier
+     * @return exists p : vars | p != 0
+     */
+    private BooleanValue isNEQzero(IntSet vars){
+        BooleanValue neq = BooleanConstant.FALSE;
+        for(IntIterator it = vars.iterator(); it.hasNext();)
+            neq = factory.or(neq, factory.neq(nodes.get(it.next()), ZERO));
+        return neq;
+    }
+
+    /**
+     * Collects the primary variables that occur in the given value, visiting each node of its circuit once.
+     */
+    private IntSet primaryVariables(NumericValue root){
+        final IntSet visited = new IntTreeSet(), visitedBV = new IntTreeSet();
+        final Deque<BooleanValue> stack = new ArrayDeque<>();
+        current = new IntTreeSet();
+
+        stack.push(root);
+        while(!stack.isEmpty()){
+            final BooleanValue node = stack.pop();
+            // binary values share the label of their numeric component
+            if(node instanceof BinaryValue)
+                ((BinaryValue) node).accept(this, stack);
+            else if(node instanceof NumericValue){
+                if(visited.add(node.label()))
+                    ((NumericValue) node).accept(this, stack);
+            }else if(node instanceof BooleanFormula && visitedBV.add(node.label()))
+                ((BooleanFormula) node).accept(this, stack);
+        }
+
+        return current;
+    }
+
+    /**
+     * Schedules the gate's inputs.
      */
     @Override
-    public Integer visit(MultiGate multigate, Object arg) {
-        final int gate = multigate.label();
+    public Object visit(MultiGate multigate, Deque<BooleanValue> stack) {
         for(BooleanFormula input : multigate)
-            input.accept(this, arg);
-        return gate;
-
+            stack.push(input);
+        return null;
     }
 
     /**
-     * Checks the gate's inputs.
-     * @return Gate identifier
+     * Schedules the gate's inputs.
      */
     @Override
-    public Integer visit(ITEGate itegate, Object arg) {
-        final int gate = itegate.label();
-        itegate.input(0).accept(this, arg);
-        itegate.input(1).accept(this, arg);
-        itegate.input(2).accept(this, arg);
-        return gate;
+    public Object visit(ITEGate itegate, Deque<BooleanValue> stack) {
+        stack.push(itegate.input(0));
+        stack.push(itegate.input(1));
+        stack.push(itegate.input(2));
+        return null;
     }
 
     /**
-     * Checks the gate's input.
-     * @return Gate identifier
+     * Schedules the gate's input.
      */
     @Override
-    public Integer visit(NotGate negation, Object arg) {
-        int gate = negation.label();
-        negation.input(0).accept(this, arg);
-        return gate;
+    public Object visit(NotGate negation, Deque<BooleanValue> stack) {
+        stack.push(negation.input(0));
+        return null;
     }
 
     /**
      * Does nothing.
-     * @return variable
      */
     @Override
-    public Integer visit(BooleanVariable variable, Object arg) {
-        return variable.label();
+    public Object visit(BooleanVariable variable, Deque<BooleanValue> stack) {
+        return null;
     }
 
     /**
-     * Checks the gate's inputs if op != DIV.
-     * If op = DIV, gathers the information associated with this division.
-     *
-     * @return Gate identifier
+     * Schedules the gate's inputs.
      */
     @Override
-    public Integer visit(AritGate aritgate, Object arg) {
-        final int gate = aritgate.label();
-        if(aritgate.op() == DIV){
-            // Information associated with this division
-            Map<Integer, Pair<Set<Integer>, Set<Integer>>> fracs = new HashMap<>();
-            // Primary variables of Denominator
-            Set<Integer> denom;
-            // Primary variables of <Numerator, Denominator>
-            Pair<Set<Integer>, Set<Integer>> frac;
-
-            denominators.put(gate, fracs);
-
-            divFlag = true;
-            // First numerator
-            current = new TreeSet<>();
-            Iterator<NumericValue> it = aritgate.iterator();
-            Integer x = it.next().accept(this, arg);
-            NumericValue denumValue;
-            // Handling division chain
-            while(it.hasNext()){
-                denom = new TreeSet<>();
-                // Fraction: This numerator is the previous denominator, due to chaining
-                frac = new Pair<>(current, denom);
-                // Denominator
-                current = denom;
-                denumValue = it.next();
-                x = denumValue.accept(this, arg);
-                fracs.put(x, frac);
-                nodes.put(x, denumValue);
-            }
-            divFlag = false;
-        }
-        else for(NumericValue input : aritgate)
-            input.accept(this, arg);
-        return gate;
+    public Object visit(AritGate aritgate, Deque<BooleanValue> stack) {
+        for(NumericValue input : aritgate)
+            stack.push(input);
+        return null;
     }
 
     /**
-     * Checks the gate's inputs.
-     * @return Gate identifier
+     * Schedules the gate's inputs.
      */
     @Override
-    public Integer visit(ChoiceGate choicegate, Object arg) {
-        final int gate = choicegate.label();
-        choicegate.input(0).accept(this, arg);
-        choicegate.input(1).accept(this, arg);
+    public Object visit(ChoiceGate choicegate, Deque<BooleanValue> stack) {
+        stack.push(choicegate.input(0));
+        stack.push(choicegate.input(1));
         if(choicegate instanceof kodkod.engine.num.ITEGate)
-            ((kodkod.engine.num.ITEGate)choicegate).getCondition().accept(this, arg);
-        return gate;
+            stack.push(((kodkod.engine.num.ITEGate)choicegate).getCondition());
+        return null;
     }
 
     /**
-     * Checks the gate's input.
-     * @return Gate identifier
+     * Schedules the gate's input.
      */
     @Override
-    public Integer visit(UnaryGate unarygate, Object arg) {
-        final int gate = unarygate.label();
-        unarygate.input().accept(this, arg);
-        return gate;
+    public Object visit(UnaryGate unarygate, Deque<BooleanValue> stack) {
+        stack.push(unarygate.input());
+        return null;
     }
 
     /**
-     * Stores the primary variable in the current set if it it's within a division (sub)-expression.
-     * @return variable id
+     * Stores the primary variable in the current set.
      */
     @Override
-    public Integer visit(NumericVariable variable, Object arg) {
-        int l = variable.label();
-        if(divFlag){
-            current.add(l);
-            nodes.put(l, variable);
-        }
-        return l;
+    public Object visit(NumericVariable variable, Deque<BooleanValue> stack) {
+        current.add(variable.label());
+        nodes.put(variable.label(), variable);
+        return null;
     }
 
     /**
      * Does nothing.
-     * @return variable
      */
     @Override
-    public Integer visit(NumericConstant constant, Object arg) {
-        return constant.label();
+    public Object visit(NumericConstant constant, Deque<BooleanValue> stack) {
+        return null;
     }
 
     /**
-     * Checks the gate's inputs.
-     * @return Gate identifier
+     * Schedules the gate's inputs.
      */
     @Override
-    public Integer visit(CmpGate cmpgate, Object arg) {
-        final int gate = cmpgate.label();
-        cmpgate.inputNum(0).accept(this, arg);
-        cmpgate.inputNum(1).accept(this, arg);
-        return gate;
+    public Object visit(CmpGate cmpgate, Deque<BooleanValue> stack) {
+        stack.push(cmpgate.inputNum(0));
+        stack.push(cmpgate.inputNum(1));
+        return null;
     }
 
     /**
-     * Checks the gate's input.
-     * @return Gate identifier
+     * Schedules the gate's input.
      */
     @Override
-    public Integer visit(NumNotGate notg, Object arg) {
-        final int gate = notg.label();
-        notg.input().accept(this, arg);
-        return gate;
+    public Object visit(NumNotGate notg, Deque<BooleanValue> stack) {
+        stack.push(notg.input());
+        return null;
     }
 
     /**
-     * Checks the numeric component of this binary value.
-     * @return binary value identifier
+     * Schedules the numeric component of this binary value.
      */
     @Override
-    public Integer visit(BinaryValue bool, Object arg) {
-        final int bv = bool.label();
-        bool.toNumeric().accept(this, arg);
-        return bv;
+    public Object visit(BinaryValue bool, Deque<BooleanValue> stack) {
+        stack.push(bool.toNumeric());
+        return null;
     }
 }
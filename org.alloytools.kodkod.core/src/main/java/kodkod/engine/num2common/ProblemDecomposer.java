@@ -0,0 +1,270 @@
+package kodkod.engine.num2common;
+
+import kodkod.engine.bool.*;
+import kodkod.engine.bool.ITEGate;
+import kodkod.engine.num.*;
+
+import java.util.*;
+
+import static kodkod.engine.bool.Operator.AND;
+
+/**
+ * Splits a quantitative problem, given as a collection of top-level conjuncts, into independent components,
+ * i.e., groups of conjuncts that share no variables nor gates with the conjuncts of other groups.
+ * Each component can then be solved on its own, and the models of all components put together form
+ * a model of the whole problem.
+ *
+ * The variable-sharing graph is built with a union-find over the conjuncts: the circuit of each conjunct
+ * is walked with an explicit stack, and whenever it reaches a node (identified by its label) that was already
+ * reached from another conjunct, the two conjuncts are merged. Constants are never shared.
+ * Each node of the problem is visited at most once.
+ */
+public final class ProblemDecomposer implements BooleanVisitor<Object, Deque<BooleanValue>>, NumericVisitor<Object, Deque<BooleanValue>> {
+
+    // Top-level conjuncts of the problem
+    private final List<BooleanFormula> conjuncts;
+    // Union-find forest over the indices of the conjuncts
+    private final int[] parent;
+    // Number of nodes reached from each conjunct
+    private final int[] size;
+    // Associates the label of each node reached so far with the conjunct it was first reached from
+    private final Map<Integer, Integer> owner;
+
+    private ProblemDecomposer(List<BooleanFormula> conjuncts) {
+        this.conjuncts = conjuncts;
+        this.parent = new int[conjuncts.size()];
+        this.size = new int[conjuncts.size()];
+        this.owner = new HashMap<>();
+        for (int i = 0; i < parent.length; i++)
+            parent[i] = i;
+    }
+
+    /**
+     * Splits the given problem into independent components, which are then distributed over, at most,
+     * {@code parts} groups, balancing the number of nodes of each group.
+     * Nested conjunctions at the top level of the problem are split as well.
+     * @requires parts > 0
+     * @return groups of formulas of the given problem, such that no two groups share a variable
+     */
+    public static List<List<BooleanFormula>> decompose(Collection<BooleanFormula> problem, int parts) {
+        final List<BooleanFormula> conjuncts = new ArrayList<>();
+        final Deque<BooleanFormula> split = new ArrayDeque<>(problem);
+        while (!split.isEmpty()) {
+            final BooleanFormula f = split.pop();
+            if (f instanceof MultiGate && ((MultiGate) f).op() == AND)
+                for (BooleanFormula input : (MultiGate) f)
+                    split.push(input);
+            else
+                conjuncts.add(f);
+        }
+
+        if (parts <= 1 || conjuncts.size() <= 1)
+            return Collections.singletonList(conjuncts);
+
+        final ProblemDecomposer decomposer = new ProblemDecomposer(conjuncts);
+        for (int i = 0; i < conjuncts.size(); i++)
+            decomposer.walk(i);
+        return decomposer.groups(parts);
+    }
+
+    /**
+     * Walks the circuit of the i-th conjunct, merging it with the conjuncts that share nodes with it.
+     */
+    private void walk(int i) {
+        final Deque<BooleanValue> stack = new ArrayDeque<>();
+        stack.push(conjuncts.get(i));
+
+        while (!stack.isEmpty()) {
+            final BooleanValue node = stack.pop();
+            if (node instanceof BooleanConstant || node instanceof NumericConstant)
+                continue;
+            // binary values share the label of their components, which are scheduled instead
+            if (node instanceof BinaryValue) {
+                ((BinaryValue) node).accept(this, stack);
+                continue;
+            }
+
+            final Integer previous = owner.putIfAbsent(node.label(), i);
+            if (previous == null) {
+                size[i]++;
+                if (node instanceof NumericValue)
+                    ((NumericValue) node).accept(this, stack);
+                else
+                    ((BooleanFormula) node).accept(this, stack);
+            } else
+                union(previous, i);
+        }
+    }
+
+    /**
+     * @return representative of the component of the i-th conjunct
+     */
+    private int find(int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Merges the components of the i-th and j-th conjuncts.
+     */
+    private void union(int i, int j) {
+        final int ri = find(i), rj = find(j);
+        if (ri == rj)
+            return;
+        if (size[ri] < size[rj]) {
+            parent[ri] = rj;
+            size[rj] += size[ri];
+        } else {
+            parent[rj] = ri;
+            size[ri] += size[rj];
+        }
+    }
+
+    /**
+     * Distributes the components over, at most, the given number of groups, by assigning the
+     * largest remaining component to the smallest group so far.
+     */
+    private List<List<BooleanFormula>> groups(int parts) {
+        final Map<Integer, List<BooleanFormula>> components = new LinkedHashMap<>();
+        for (int i = 0; i < conjuncts.size(); i++)
+            components.computeIfAbsent(find(i), k -> new ArrayList<>()).add(conjuncts.get(i));
+
+        final List<Integer> roots = new ArrayList<>(components.keySet());
+        roots.sort((a, b) -> Integer.compare(size[b], size[a]));
+
+        final int n = Math.min(parts, roots.size());
+        final List<List<BooleanFormula>> groups = new ArrayList<>(n);
+        final long[] load = new long[n];
+        for (int g = 0; g < n; g++)
+            groups.add(new ArrayList<>());
+
+        for (Integer root : roots) {
+            int smallest = 0;
+            for (int g = 1; g < n; g++)
+                if (load[g] < load[smallest])
+                    smallest = g;
+            groups.get(smallest).addAll(components.get(root));
+            load[smallest] += size[root];
+        }
+
+        return groups;
+    }
+
+    /**
+     * Schedules the gate's inputs.
+     */
+    @Override
+    public Object visit(MultiGate multigate, Deque<BooleanValue> stack) {
+        for (BooleanFormula input : multigate)
+            stack.push(input);
+        return null;
+    }
+
+    /**
+     * Schedules the gate's inputs.
+     */
+    @Override
+    public Object visit(ITEGate itegate, Deque<BooleanValue> stack) {
+        stack.push(itegate.input(0));
+        stack.push(itegate.input(1));
+        stack.push(itegate.input(2));
+        return null;
+    }
+
+    /**
+     * Schedules the gate's input.
+     */
+    @Override
+    public Object visit(NotGate negation, Deque<BooleanValue> stack) {
+        stack.push(negation.input(0));
+        return null;
+    }
+
+    /**
+     * Does nothing.
+     */
+    @Override
+    public Object visit(BooleanVariable variable, Deque<BooleanValue> stack) {
+        return null;
+    }
+
+    /**
+     * Schedules the gate's inputs.
+     */
+    @Override
+    public Object visit(AritGate aritgate, Deque<BooleanValue> stack) {
+        for (NumericValue input : aritgate)
+            stack.push(input);
+        return null;
+    }
+
+    /**
+     * Schedules the gate's inputs.
+     */
+    @Override
+    public Object visit(ChoiceGate choicegate, Deque<BooleanValue> stack) {
+        stack.push(choicegate.input(0));
+        stack.push(choicegate.input(1));
+        if (choicegate instanceof kodkod.engine.num.ITEGate)
+            stack.push(((kodkod.engine.num.ITEGate) choicegate).getCondition());
+        return null;
+    }
+
+    /**
+     * Schedules the gate's input.
+     */
+    @Override
+    public Object visit(UnaryGate unarygate, Deque<BooleanValue> stack) {
+        stack.push(unarygate.input());
+        return null;
+    }
+
+    /**
+     * Does nothing.
+     */
+    @Override
+    public Object visit(NumericVariable variable, Deque<BooleanValue> stack) {
+        return null;
+    }
+
+    /**
+     * Does nothing.
+     */
+    @Override
+    public Object visit(NumericConstant constant, Deque<BooleanValue> stack) {
+        return null;
+    }
+
+    /**
+     * Schedules the gate's inputs.
+     */
+    @Override
+    public Object visit(CmpGate cmpgate, Deque<BooleanValue> stack) {
+        stack.push(cmpgate.inputNum(0));
+        stack.push(cmpgate.inputNum(1));
+        return null;
+    }
+
+    /**
+     * Schedules the gate's input.
+     */
+    @Override
+    public Object visit(NumNotGate notg, Deque<BooleanValue> stack) {
+        stack.push(notg.input());
+        return null;
+    }
+
+    /**
+     * Schedules both components of this binary value. Only the first one to be popped is walked,
+     * since they share the same label, which suffices as each component is defined in terms of the other.
+     */
+    @Override
+    public Object visit(BinaryValue bool, Deque<BooleanValue> stack) {
+        stack.push(bool.toNumeric());
+        stack.push(bool.toBool());
+        return null;
+    }
+}
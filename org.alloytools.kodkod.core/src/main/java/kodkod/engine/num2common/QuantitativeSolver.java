@@ -1,5 +1,7 @@
 package kodkod.engine.num2common;
 
+import kodkod.engine.config.QuantitativeOptions.Enumeration;
+
 import java.util.Collection;
 
 /**
@@ -36,12 +38,37 @@ public interface QuantitativeSolver {
      */
     public boolean getBooleanValue(int label) throws VariableNotFoundException, InstanceNotFoundException;
 
+    /**
+     * Given a SAT response, reads the values of the variables labelled {@code from}, ..., {@code from + values.length - 1}
+     * in one go: for each such variable that is in the current state of the solver and whose boolean value is true,
+     * {@code values[label - from]} is set to its numeric value. The other positions of the array are left unchanged.
+     * @return true iff some value read is real, rather than integral
+     * @throws InstanceNotFoundException solve was not called previously || UNSAT
+     */
+    public default boolean getValues(int from, double[] values) throws InstanceNotFoundException {
+        boolean real = false;
+        for (int i = 0; i < values.length; i++)
+            if (contains(from + i) && getBooleanValue(from + i)) {
+                final Number n = getValue(from + i);
+                values[i] = n.doubleValue();
+                real |= n instanceof Double;
+            }
+        return real;
+    }
+
     /**
      * Explicitly stops the solver from considering the recentmost solution produced for the variables
      * identified by {@code vars}.
      */
     public void elimSolution(Collection<Integer> vars);
 
+    /**
+     * Explicitly stops the solver from considering solutions that are the same as the recentmost one,
+     * as seen through the given enumeration mode, for the variables identified by {@code vars}.
+     * {@code elimSolution(vars, Enumeration.MODEL)} is the same as {@code elimSolution(vars)}.
+     */
+    public void elimSolution(Collection<Integer> vars, Enumeration mode);
+
     /**
      * Frees the resources allocated by this solver.
      * Further interaction with the solver after this method is called,
@@ -1,10 +1,13 @@
 package kodkod.engine.num2common;
 
+import java.math.BigInteger;
 import java.util.*;
 import kodkod.ast.Relation;
 import kodkod.engine.config.QuantitativeOptions;
 import kodkod.engine.fol2sat.Translation;
+import kodkod.engine.fol2num.LeafInterpreter;
 import kodkod.engine.fol2sat.TranslationLog;
+import kodkod.engine.num2smt.Num2smtTranslator;
 import kodkod.engine.num2smt.SMTSolver;
 import kodkod.engine.satlab.SATSolver;
 import kodkod.instance.*;
@@ -17,7 +20,8 @@ import kodkod.util.ints.Ints;
  * {@linkplain kodkod.ast.Formula formula}, {@linkplain Bounds bounds} and
  * {@linkplain QuantitativeOptions options}.
  *
- * The translation can currently be a SmtTranslation, i.e., represented by a SMT-LIB2 specification.
+ * The translation can currently be a SmtTranslation, i.e., represented by a SMT-LIB2 specification,
+ * or an Incremental translation, whose specification can be extended with additional formulas and bounds.
  */
 public abstract class QuantitativeTranslation extends Translation {
 
@@ -26,22 +30,32 @@ public abstract class QuantitativeTranslation extends Translation {
     private final Map<Relation,IntSet> primaryVarUsage;
     private final TranslationLog       log;
     private final int                  maxPrimaryVar;
+    private final int                  overflows;
 
-    protected QuantitativeTranslation(Bounds bounds, QuantitativeOptions options, QuantitativeSolver solver, Map<Relation,IntSet> varUsage, int maxPrimaryVar, TranslationLog log) {
+    protected QuantitativeTranslation(Bounds bounds, QuantitativeOptions options, QuantitativeSolver solver, Map<Relation,IntSet> varUsage, int maxPrimaryVar, TranslationLog log, int overflows) {
         super(bounds, null);
         this.options = options;
         this.solver = solver;
         this.log = log;
         this.maxPrimaryVar = maxPrimaryVar;
         this.primaryVarUsage = varUsage;
+        this.overflows = overflows;
     }
 
     /**
      * Creates a smt translation using the given bounds, options, solver, var map,
-     * and log.
+     * log, and number of constant folds that overflowed 64 bits.
      */
-    public static SmtTranslation smtTranslation(Bounds bounds, QuantitativeOptions options, SMTSolver solver, Map<Relation,IntSet> varUsage, int maxPrimaryVar, TranslationLog log){
-        return new SmtTranslation(bounds, options, solver, varUsage, maxPrimaryVar, log);
+    public static SmtTranslation smtTranslation(Bounds bounds, QuantitativeOptions options, SMTSolver solver, Map<Relation,IntSet> varUsage, int maxPrimaryVar, TranslationLog log, int overflows){
+        return new SmtTranslation(bounds, options, solver, varUsage, maxPrimaryVar, log, overflows);
+    }
+
+    /**
+     * Creates an incremental translation using the given bounds, options, solver, interpreter and incrementer.
+     * If the translation is trivial, {@code incrementer} is null.
+     */
+    public static Incremental incrementalTranslation(Bounds bounds, QuantitativeOptions options, SMTSolver solver, LeafInterpreter interpreter, Num2smtTranslator incrementer){
+        return new Incremental(bounds, options, solver, interpreter, incrementer);
     }
 
     /**
@@ -56,50 +70,75 @@ public abstract class QuantitativeTranslation extends Translation {
     public Instance interpret(){ return interpret(this.bounds); }
 
     @Override
-    public Instance interpret(Bounds bounds) {
+    public Instance interpret(Bounds bounds) { return interpret(bounds, this.solver); }
+
+    /**
+     * Interprets the most recent solution of the given solver, which must be over a specification
+     * that declares the variables of this translation with the same labels, e.g., a
+     * {@link kodkod.engine.num2smt.SMTSolver#restrict(Map) restriction} of {@code this.solver}.
+     *
+     * @return a new instance of the problem
+     * @see #interpret(Bounds)
+     */
+    public Instance interpret(Bounds bounds, QuantitativeSolver solver) {
         final kodkod.instance.Instance instance = new Instance(bounds.universe());
         final TupleFactory f = bounds.universe().factory();
 
         for (Relation r : bounds.relations()) {
-            TupleSet lower = bounds.lowerBound(r);
-            IntSet indices = Ints.bestSet(lower.capacity());
-            Map<Integer, Number> weight = new HashMap<>();
+            final TupleSet lower = bounds.lowerBound(r), upper = bounds.upperBound(r);
+            // Tuples of a Boolean relation, or weighted tuples of a quantitative one
+            final IntSet indices = r.isQuantitative() ? null : Ints.bestSet(lower.capacity());
+            final QtTupleSet weighted = r.isQuantitative() ? f.noneOfQt(r.arity()) : null;
 
-            indices.addAll(lower.indexView());
-
-            IntIterator it = indices.iterator();
-            while(it.hasNext())
-                weight.put(it.next(), 1);
+            // The tuples of the lower bound have weight 1, unless their variable says otherwise
+            if (weighted != null)
+                for (IntIterator it = lower.indexView().iterator(); it.hasNext();)
+                    weighted.add(it.next(), 1L);
+            else
+                indices.addAll(lower.indexView());
 
             IntSet vars = primaryVariables(r);
             if (!vars.isEmpty()) {
-                // System.out.println(r + ": [" + vars.min() + ", " + vars.max()
-                //        + "]");
-                int id = vars.min() - 1;
-                for (IntIterator iter = bounds.upperBound(r).indexView().iterator(); iter.hasNext();) {
-                    final int index = iter.next();
-
-                    if(solver.contains(id) && solver.getBooleanValue(id)) {
-                        if(!indices.contains(index))
-                            indices.add(index);
-                        weight.put(index, solver.getValue(id));
-                    }
-
-                    id++;
+                // Values of the variables of the tuples of the upper bound, in ascending order of the tuples
+                final double[] values = new double[upper.size()];
+                final boolean real = solver.getValues(vars.min() - 1, values);
+
+                int i = 0;
+                for (IntIterator it = upper.indexView().iterator(); it.hasNext(); i++) {
+                    final int index = it.next();
+                    final double value = values[i];
+                    if (value == 0)
+                        continue;
+                    if (weighted != null) {
+                        if (real)
+                            weighted.add(index, value);
+                        else if (Math.abs(value) < 0x1p53)
+                            weighted.add(index, (long) value);
+                        else // beyond the integers a double represents exactly
+                            weighted.add(index, exact(solver.getValue(vars.min() - 1 + i)));
+                    } else if (value == 1.0)
+                        indices.add(index);
+                    else
+                        throw new IllegalArgumentException("Boolean relation with non-boolean weights: " + r + " - " + f.tuple(r.arity(), index) + " -> " + value);
                 }
             }
-            // Check if the relation is represented by a Boolean Matrix
-            boolean isBoolean = weight.values().stream().allMatch(n -> n.doubleValue() == 1.0);
 
-            if(!isBoolean && !r.isQuantitative())
-                throw new IllegalArgumentException("Boolean relation with non-boolean weights: " + r + " - " + weight);
-
-            instance.add(r, !r.isQuantitative() ? f.setOf(r.arity(), indices) : f.setOf(r.arity(), indices, weight));
+            instance.add(r, weighted != null ? weighted : f.setOf(r.arity(), indices));
         }
 
         return instance;
     }
 
+    /**
+     * @return the given integral weight as a long
+     * @throws ArithmeticException the weight does not fit in 64 bits
+     */
+    private static long exact(Number n) {
+        if (n instanceof BigInteger)
+            return ((BigInteger) n).longValueExact();
+        return n.longValue();
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -121,6 +160,16 @@ public abstract class QuantitativeTranslation extends Translation {
         return maxPrimaryVar;
     }
 
+    /**
+     * Returns the number of constant folds that overflowed 64 bits while translating this problem,
+     * and were thus computed with arbitrary precision.
+     *
+     * @see kodkod.engine.num.NumericFactory#overflows()
+     */
+    public int overflows() {
+        return overflows;
+    }
+
     /**
      * Returns the quantitative options for this problem
      * @return this.options
@@ -174,9 +223,97 @@ public abstract class QuantitativeTranslation extends Translation {
      */
     public static final class SmtTranslation extends QuantitativeTranslation{
 
-        private SmtTranslation(Bounds bounds, QuantitativeOptions options, SMTSolver solver, Map<Relation,IntSet> varUsage, int maxPrimaryVar, TranslationLog log) {
-            super(bounds, options, solver, varUsage, maxPrimaryVar, log);
+        private SmtTranslation(Bounds bounds, QuantitativeOptions options, SMTSolver solver, Map<Relation,IntSet> varUsage, int maxPrimaryVar, TranslationLog log, int overflows) {
+            super(bounds, options, solver, varUsage, maxPrimaryVar, log, overflows);
         }
 
     }
+
+    /**
+     * Incremental translation into a SMT Problem.
+     * Keeps the leaf interpreter and the SMT translator used to produce the specification,
+     * so that new formulas over new relations may be added to it without translating the whole problem again.
+     *
+     * @see kodkod.engine.fol2sat.Translator#translateIncremental(kodkod.ast.Formula, Bounds, QuantitativeOptions)
+     * @see kodkod.engine.fol2sat.Translator#translateIncremental(kodkod.ast.Formula, Bounds, Incremental)
+     */
+    public static final class Incremental extends QuantitativeTranslation{
+
+        private final LeafInterpreter interpreter;
+        private final Num2smtTranslator incrementer;
+
+        private Incremental(Bounds bounds, QuantitativeOptions options, SMTSolver solver, LeafInterpreter interpreter, Num2smtTranslator incrementer) {
+            super(bounds, options, solver, null, 0, null, 0);
+            this.interpreter = interpreter;
+            this.incrementer = incrementer;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public IntSet primaryVariables(Relation relation) {
+            return interpreter.vars(relation);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int numPrimaryVariables() {
+            return interpreter.factory().maxVariable();
+        }
+
+        /**
+         * {@inheritDoc}
+         * Includes the constant folds of the formulas added to this translation so far.
+         */
+        @Override
+        public int overflows() {
+            return interpreter.factory().overflows();
+        }
+
+        /**
+         * Returns the leaf interpreter used to produce this translation.
+         *
+         * @return this.interpreter
+         */
+        public LeafInterpreter interpreter(){
+            return interpreter;
+        }
+
+        /**
+         * Returns the translator used to produce the specification of this translation,
+         * or null if the translation is trivial.
+         *
+         * @return this.incrementer
+         */
+        public Num2smtTranslator incrementer(){
+            return incrementer;
+        }
+
+        /**
+         * Opens a new scope on the assertion stack of this translation.
+         * Every formula added to it afterwards is discarded by the matching {@link #pop()}.
+         * Note that the relations bound in the meantime remain in {@code this.bounds}, unconstrained.
+         *
+         * @throws IllegalStateException this.trivial()
+         */
+        public void push(){
+            if(incrementer == null)
+                throw new IllegalStateException("Cannot open a scope on a trivial translation.");
+            incrementer.push();
+        }
+
+        /**
+         * Discards every formula added to this translation since the last {@link #push()}.
+         *
+         * @throws IllegalStateException this.trivial() or there is no open scope
+         */
+        public void pop(){
+            if(incrementer == null)
+                throw new IllegalStateException("Cannot close a scope on a trivial translation.");
+            incrementer.pop();
+        }
+    }
 }
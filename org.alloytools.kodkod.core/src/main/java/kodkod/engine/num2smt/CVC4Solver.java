@@ -11,8 +11,8 @@ public class CVC4Solver extends SMT2Solver {
     private final SMTSpecification spec;
     // SMT-LIB specification at hand, together with CVC4 specific commands/assertions.
     private String smt2;
-    // Solutions to this problem to be ignored in the following calls of {@see solve}.
-    private StringBuilder ignore;
+    // Commands appended to this problem after its creation (blocked solutions, incremental assertions, scopes).
+    private StringBuilder appended;
 
     /**
      * {@inheritDoc}
@@ -47,7 +47,7 @@ public class CVC4Solver extends SMT2Solver {
      */
     @Override
     public String getSMTSpecification() {
-        return smt2 + "\n" + ignore.toString() +
+        return smt2 + "\n" + appended.toString() +
                 (spec.incremental() ? "" :
                     "(check-sat)\n" +
                     "(get-model)\n" +
@@ -63,7 +63,7 @@ public class CVC4Solver extends SMT2Solver {
         super(smt2, cvc4location);
         this.spec = smt2;
         this.smt2 = smt2.getSmt2Specification();
-        this.ignore = new StringBuilder();
+        this.appended = new StringBuilder();
     }
 
     /**
@@ -74,7 +74,7 @@ public class CVC4Solver extends SMT2Solver {
         super(smt2);
         this.spec = smt2;
         this.smt2 = smt2.getSmt2Specification();
-        this.ignore = new StringBuilder();
+        this.appended = new StringBuilder();
     }
 
     /**
@@ -86,14 +86,14 @@ public class CVC4Solver extends SMT2Solver {
         super(smt2, trivialResult);
         this.spec = smt2;
         this.smt2 = smt2.getSmt2Specification();
-        this.ignore = new StringBuilder();
+        this.appended = new StringBuilder();
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    protected void elimSolution(String sol) {
-        ignore.append(sol);
+    protected void append(String commands) {
+        appended.append(commands);
     }
 }
@@ -0,0 +1,344 @@
+package kodkod.engine.num2smt;
+
+import kodkod.engine.config.QuantitativeOptions.Enumeration;
+import kodkod.engine.num2common.InstanceNotFoundException;
+import kodkod.engine.num2common.VariableNotFoundException;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Solves the independent components of a problem, as found by {@link kodkod.engine.num2common.ProblemDecomposer},
+ * each with its own SMT solver instance, running in parallel.
+ * A model of the problem is the union of the models of its components, hence the value of each
+ * variable is retrieved from the component it occurs in.
+ *
+ * Solutions are enumerated as the cartesian product of the solutions of the components: each call to
+ * {@link #elimSolution(Collection)} followed by {@link #solve()} advances the first component that still
+ * has solutions left, after eliminating its most recent one, and restarts the components before it.
+ *
+ * A decomposed problem cannot be extended incrementally.
+ *
+ * @specfield components : seq SMTSolver
+ */
+final class DecomposedSolver implements SMTSolver {
+
+    // Specifications of each independent component
+    private final List<SMTSpecification> specs;
+    // Restriction of each component to the solutions where the given function symbols are (not) zero
+    private final List<Map<Integer, Boolean>> cubes;
+    // Solver of each component
+    private final SMTSolver[] components;
+    // Runs the solvers of the components in parallel
+    private ExecutorService executor;
+    // Result of the most recent call to solve
+    private SMTResult result;
+    // Variables whose current values must be eliminated on the next call to solve (null if none)
+    private Collection<Integer> eliminate;
+    // Enumeration mode under which the current values are eliminated
+    private Enumeration mode;
+
+    /**
+     * Creates a new solver over the given independent components.
+     * @requires specs.size() > 1
+     */
+    DecomposedSolver(List<SMTSpecification> specs) {
+        this(specs, Collections.nCopies(specs.size(), Collections.emptyMap()));
+    }
+
+    /**
+     * Creates a new solver over the given independent components, each restricted by the respective cube.
+     */
+    private DecomposedSolver(List<SMTSpecification> specs, List<Map<Integer, Boolean>> cubes) {
+        this.specs = specs;
+        this.cubes = cubes;
+        this.components = new SMTSolver[specs.size()];
+        for (int i = 0; i < components.length; i++)
+            components[i] = create(i);
+        this.executor = null;
+        this.result = null;
+        this.eliminate = null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The first call solves every component in parallel, whilst the following ones enumerate the next solution.
+     */
+    @Override
+    public boolean solve() {
+        if (eliminate == null) {
+            result = solve(components.length);
+            return result.isSat();
+        }
+
+        final Collection<Integer> vars = eliminate;
+        eliminate = null;
+        for (int i = 0; i < components.length; i++) {
+            components[i].elimSolution(vars, mode);
+            final boolean sat = components[i].solve();
+            if (sat) {
+                // restart the enumeration of the previous components
+                for (int j = 0; j < i; j++) {
+                    components[j].free();
+                    components[j] = create(j);
+                }
+                result = solve(i);
+                return result.isSat();
+            } else if (components[i].getResult().isUnknown()) {
+                result = SMTResult.UNKNOWN;
+                return false;
+            }
+        }
+
+        result = SMTResult.UNSAT;
+        return false;
+    }
+
+    /**
+     * Creates a fresh solver for the i-th component.
+     */
+    private SMTSolver create(int i) {
+        final SMTSolver solver = Num2smtTranslator.createSolver(specs.get(i));
+        return cubes.get(i).isEmpty() ? solver : solver.restrict(cubes.get(i));
+    }
+
+    /**
+     * Solves the first n components in parallel.
+     * @return UNSAT if any component is UNSAT, UNKNOWN if any other is UNKNOWN, SAT otherwise
+     */
+    private SMTResult solve(int n) {
+        if (n == 0)
+            return SMTResult.SAT;
+        if (n == 1)
+            return components[0].solve() ? SMTResult.SAT : components[0].getResult();
+
+        if (executor == null)
+            executor = Executors.newFixedThreadPool(components.length, r -> {
+                final Thread t = new Thread(r, "DecomposedSolver");
+                t.setDaemon(true);
+                return t;
+            });
+
+        final List<Future<SMTResult>> futures = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            final SMTSolver component = components[i];
+            futures.add(executor.submit(() -> component.solve() ? SMTResult.SAT : component.getResult()));
+        }
+
+        SMTResult combined = SMTResult.SAT;
+        for (Future<SMTResult> future : futures) {
+            final SMTResult r;
+            try {
+                r = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return SMTResult.UNKNOWN;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw new IllegalStateException(e.getCause());
+            }
+            if (r.isUnsat())
+                combined = r;
+            else if (r.isUnknown() && combined.isSat())
+                combined = r;
+        }
+        return combined;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SMTResult getResult() {
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains(int label) {
+        for (SMTSolver component : components)
+            if (component.contains(label))
+                return true;
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Number getValue(int label) throws VariableNotFoundException, InstanceNotFoundException {
+        checkInstance();
+        for (SMTSolver component : components)
+            if (component.contains(label))
+                return component.getValue(label);
+        throw new VariableNotFoundException("No such variable with the given identifier: " + label);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getBooleanValue(int label) throws VariableNotFoundException, InstanceNotFoundException {
+        checkInstance();
+        for (SMTSolver component : components)
+            if (component.contains(label))
+                return component.getBooleanValue(label);
+        throw new VariableNotFoundException("No such boolean expression with the given identifier: " + label);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Each component sets the values of the variables it contains.
+     */
+    @Override
+    public boolean getValues(int from, double[] values) throws InstanceNotFoundException {
+        checkInstance();
+        boolean real = false;
+        for (SMTSolver component : components)
+            real |= component.getValues(from, values);
+        return real;
+    }
+
+    /**
+     * @throws InstanceNotFoundException the most recent call to solve did not produce an instance
+     */
+    private void checkInstance() throws InstanceNotFoundException {
+        if (result == null)
+            throw new InstanceNotFoundException("There is no previous solution in the current state of the solver. 'solve' method must be called beforehand.");
+        if (result.isUnsat())
+            throw new InstanceNotFoundException("Cannot get an interpretation unless immediately preceded by SAT/UNKNOWN response.");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void elimSolution(Collection<Integer> vars) {
+        elimSolution(vars, Enumeration.MODEL);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The solution is eliminated on the next call to {@link #solve()}, which enumerates the next one.
+     */
+    @Override
+    public void elimSolution(Collection<Integer> vars, Enumeration mode) {
+        checkInstance();
+        this.eliminate = vars;
+        this.mode = mode;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int numberOfVariables() {
+        int n = 0;
+        for (SMTSolver component : components)
+            n += component.numberOfVariables();
+        return n;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int numberOfAssertions() {
+        int n = 0;
+        for (SMTSolver component : components)
+            n += component.numberOfAssertions();
+        return n;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean declares(int label) {
+        for (SMTSolver component : components)
+            if (component.declares(label))
+                return true;
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Each component is restricted over the function symbols it declares.
+     */
+    @Override
+    public SMTSolver restrict(Map<Integer, Boolean> presence) {
+        final List<Map<Integer, Boolean>> restricted = new ArrayList<>(components.length);
+        for (int i = 0; i < components.length; i++) {
+            final Map<Integer, Boolean> cube = new HashMap<>(cubes.get(i));
+            for (Map.Entry<Integer, Boolean> e : presence.entrySet())
+                if (components[i].declares(e.getKey()))
+                    cube.put(e.getKey(), e.getValue());
+            restricted.add(cube);
+        }
+        return new DecomposedSolver(specs, restricted);
+    }
+
+    /**
+     * @throws UnsupportedOperationException a decomposed problem cannot be extended
+     */
+    @Override
+    public void extend(String smt2, int numberOfVariables, int numberOfAssertions) {
+        throw new UnsupportedOperationException("A decomposed problem cannot be extended incrementally.");
+    }
+
+    /**
+     * @throws UnsupportedOperationException a decomposed problem has no single assertion stack
+     */
+    @Override
+    public void push() {
+        throw new UnsupportedOperationException("A decomposed problem has no single assertion stack.");
+    }
+
+    /**
+     * @throws UnsupportedOperationException a decomposed problem has no single assertion stack
+     */
+    @Override
+    public void pop() {
+        throw new UnsupportedOperationException("A decomposed problem has no single assertion stack.");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset() {
+        for (int i = 0; i < components.length; i++) {
+            components[i].free();
+            components[i] = create(i);
+        }
+        this.result = null;
+        this.eliminate = null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void free() {
+        for (SMTSolver component : components)
+            component.free();
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        this.result = null;
+        this.eliminate = null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setBinaryLocation(String path) {
+        for (SMTSolver component : components)
+            component.setBinaryLocation(path);
+    }
+}
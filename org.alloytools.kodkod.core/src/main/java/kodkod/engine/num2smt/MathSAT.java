@@ -11,8 +11,8 @@ public class MathSAT extends SMT2Solver {
     private final SMTSpecification spec;
     // SMT-LIB specification at hand, together with MathSAT specific commands/assertions.
     private final String smt2;
-    // Solutions to this problem to be ignored in the following calls of {@see solve}.
-    private final StringBuilder ignore;
+    // Commands appended to this problem after its creation (blocked solutions, incremental assertions, scopes).
+    private final StringBuilder appended;
 
     /**
      * {@inheritDoc}
@@ -62,8 +62,8 @@ public class MathSAT extends SMT2Solver {
     public String getSMTSpecification() {
         return
                 smt2 +
-                // ignore solutions
-                ignore.toString() +
+                // blocked solutions and incremental assertions
+                appended.toString() +
                 // check satisfiability and get model if SAT
                 (spec.incremental() ? "" :
                 "(check-sat)\n" +
@@ -81,7 +81,7 @@ public class MathSAT extends SMT2Solver {
         super(smt2, msatlocation);
         this.spec = smt2;
         this.smt2 = setupSMT2(smt2.getOptionlessSmt2Specification());
-        this.ignore = new StringBuilder();
+        this.appended = new StringBuilder();
     }
 
     /**
@@ -92,7 +92,7 @@ public class MathSAT extends SMT2Solver {
         super(smt2);
         this.spec = smt2;
         this.smt2 = setupSMT2(smt2.getOptionlessSmt2Specification());
-        this.ignore = new StringBuilder();
+        this.appended = new StringBuilder();
     }
 
     /**
@@ -104,14 +104,14 @@ public class MathSAT extends SMT2Solver {
         super(smt2, trivialResult);
         this.spec = smt2;
         this.smt2 = setupSMT2(smt2.getOptionlessSmt2Specification());
-        this.ignore = new StringBuilder();
+        this.appended = new StringBuilder();
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    protected void elimSolution(String sol) {
-        ignore.append(sol);
+    protected void append(String commands) {
+        appended.append(commands);
     }
 }
@@ -4,9 +4,12 @@ import kodkod.engine.bool.*;
 import kodkod.engine.bool.ITEGate;
 import kodkod.engine.config.QuantitativeOptions;
 import kodkod.engine.num.*;
+import kodkod.engine.num2common.DivisionDetector;
 import kodkod.util.ints.IntSet;
 import kodkod.util.ints.IntTreeSet;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -23,6 +26,10 @@ import static kodkod.engine.bool.Operator.*;
  * such limit during the solving process. However, fs representing some intermediate result, etc.., declared as "free"
  * are always unbounded.
  * - Logic = QF_NIA
+ * - Every division is guarded against division by zero, using the {@link DivisionDetector}.
+ *
+ * The circuit is traversed with an explicit stack, in post-order, so the depth of the circuits
+ * that can be translated is not limited by the size of the thread stack.
  *
  * @specfield assertion_stack : Stack
  * @specfield options : QuantitativeOptions
@@ -35,6 +42,12 @@ public class Num2smtTranslator implements BooleanVisitor<Integer,Object>, Numeri
 
     // Options to take into account during the generation of the specification
     private final QuantitativeOptions options;
+    // The factory responsible for the circuit at hand
+    private final NumericFactory factory;
+    // Gathers the divisions found while translating the current problem
+    private DivisionDetector divisions;
+    // Schedules the inputs of a node that were not translated yet
+    private final Inputs inputs;
     // Logic to be used
     protected final String logic;
     // SMT Solver options that preface the assertion stack, generated by default,
@@ -58,9 +71,15 @@ public class Num2smtTranslator implements BooleanVisitor<Integer,Object>, Numeri
     private final Integer CAP;
     // Number of assertions in the stack at a given point in time
     private int numberOfAssertions;
+    // Solver over the specification produced by this translator (only kept for incremental translations)
+    private SMTSolver solver;
+    // Translation state saved whenever a new scope is opened on the assertion stack of {@code solver}
+    private final Deque<Checkpoint> checkpoints;
 
-    protected Num2smtTranslator(QuantitativeOptions options, String logic) {
+    protected Num2smtTranslator(QuantitativeOptions options, NumericFactory factory, String logic) {
         this.options = options;
+        this.factory = factory;
+        this.inputs = new Inputs();
         this.assertion_stack = new Stack<>();
         this.visited = new IntTreeSet();
         this.visitedBV = new IntTreeSet();
@@ -82,6 +101,8 @@ public class Num2smtTranslator implements BooleanVisitor<Integer,Object>, Numeri
         this.binaryValues = new HashMap<>();
         this.CAP = options.getMaximumWeight();
         this.numberOfAssertions = 0;
+        this.solver = null;
+        this.checkpoints = new ArrayDeque<>();
     }
 
     /**
@@ -114,21 +135,170 @@ public class Num2smtTranslator implements BooleanVisitor<Integer,Object>, Numeri
      * Creates a new assertion stack containing the corresponding SMT representation of the given problem.
      * @param problem Collection of boolean formulas potentially containing (quantitative) constraints
      *                over {@link NumericMatrix numeric matrices}.
+     * @param factory factory that produced the problem
      * @param options quantitative solving options
      * @return SMTSolver over the specification generated
      */
-    public static SMTSolver translate(final Collection<BooleanFormula> problem, QuantitativeOptions options){
-        final Num2smtTranslator translator = new Num2smtTranslator(options, "QF_NIA");
-        final String smt2 = translator.translateProblem(problem).getOptionlessSpecification();
-        final SMTSpecification spec = new SMTSpecification(translator.logic,
-                                                           translator.smt2options,
-                                                           smt2,
-                                                           translator.intFS,
-                                                           translator.getNumberOfVariables(),
-                                                           translator.numberOfAssertions,
-                                                           options);
-
-        switch(options.solver()){
+    public static SMTSolver translate(final Collection<BooleanFormula> problem, NumericFactory factory, QuantitativeOptions options){
+        return new Num2smtTranslator(options, factory, "QF_NIA").translateProblem(problem).createSolver();
+    }
+
+    /**
+     * Creates a separate assertion stack for each of the given independent components of a problem,
+     * and returns a solver that solves them in parallel and puts their models together.
+     * @param components groups of boolean formulas, as produced by
+     *                   {@link kodkod.engine.num2common.ProblemDecomposer#decompose(Collection, int)}
+     * @param factory factory that produced the components
+     * @param options quantitative solving options
+     * @requires no two components share a variable
+     * @return SMTSolver over the specifications generated
+     */
+    public static SMTSolver translate(final List<? extends Collection<BooleanFormula>> components, NumericFactory factory, QuantitativeOptions options){
+        if(components.size() == 1)
+            return translate(components.get(0), factory, options);
+
+        final List<SMTSpecification> specs = new ArrayList<>(components.size());
+        for(Collection<BooleanFormula> component : components)
+            specs.add(new Num2smtTranslator(options, factory, "QF_NIA").translateProblem(component).createSpecification());
+        return new DecomposedSolver(specs);
+    }
+
+    /**
+     * Creates a new assertion stack containing the corresponding SMT representation of the given problem,
+     * and returns the translator, which can be later used to extend the problem with additional formulas.
+     * @param problem Collection of boolean formulas potentially containing (quantitative) constraints
+     *                over {@link NumericMatrix numeric matrices}.
+     * @param factory factory that produced the problem
+     * @param options quantitative solving options
+     * @requires options.incremental()
+     * @return Num2smtTranslator whose {@link #solver() solver} is over the specification generated
+     * @see #translateIncremental(Collection, Num2smtTranslator)
+     */
+    public static Num2smtTranslator translateIncremental(final Collection<BooleanFormula> problem, NumericFactory factory, QuantitativeOptions options){
+        final Num2smtTranslator translator = new Num2smtTranslator(options, factory, "QF_NIA").translateProblem(problem);
+        translator.solver = translator.createSolver();
+        return translator;
+    }
+
+    /**
+     * Updates the specification held by the given incremental translator, and its solver, with the SMT
+     * representation of the given formulas. Only the function symbols and gates that were not translated
+     * before are declared, i.e., circuits shared with previously translated formulas are reused.
+     * @param problem formulas created by the same factory as the ones previously given to {@code incrementer}
+     * @param incrementer translator created by {@link #translateIncremental(Collection, NumericFactory, QuantitativeOptions)}
+     * @return incrementer
+     * @throws IllegalArgumentException incrementer.solver() = null
+     */
+    public static Num2smtTranslator translateIncremental(final Collection<BooleanFormula> problem, Num2smtTranslator incrementer){
+        if(incrementer.solver == null)
+            throw new IllegalArgumentException("The given translator is not incremental.");
+
+        final int mark = incrementer.assertion_stack.size();
+        final int vars = incrementer.getNumberOfVariables();
+        final int assertions = incrementer.numberOfAssertions;
+
+        incrementer.translateProblem(problem);
+
+        final List<String> delta = incrementer.assertion_stack.subList(mark, incrementer.assertion_stack.size());
+        incrementer.solver.extend(String.join("\n", delta),
+                                  incrementer.getNumberOfVariables() - vars,
+                                  incrementer.numberOfAssertions - assertions);
+        return incrementer;
+    }
+
+    /**
+     * @return solver over the specification produced by this translator, if it is incremental, null otherwise.
+     */
+    public SMTSolver solver(){ return solver; }
+
+    /**
+     * Opens a new scope on the assertion stack of this incremental translator and its solver.
+     * Formulas translated afterwards are discarded by the matching {@link #pop()}.
+     * @throws IllegalStateException this.solver() = null
+     */
+    public void push(){
+        if(solver == null)
+            throw new IllegalStateException("The translator is not incremental.");
+        checkpoints.push(new Checkpoint());
+        solver.push();
+    }
+
+    /**
+     * Discards every formula translated since the last {@link #push()}, both from this translator and its solver.
+     * @throws IllegalStateException this.solver() = null or there is no open scope
+     */
+    public void pop(){
+        if(solver == null || checkpoints.isEmpty())
+            throw new IllegalStateException("There is no scope to pop.");
+        checkpoints.pop().restore();
+        solver.pop();
+    }
+
+    /**
+     * Translation state of this translator at a given point in time.
+     */
+    private final class Checkpoint {
+        final int stackSize, numberOfAssertions;
+        final IntSet visited, visitedBV;
+        final Map<Integer, BinaryValue> binaryValues;
+        final Map<Integer, String> intFS, boolFS;
+
+        Checkpoint(){
+            this.stackSize = Num2smtTranslator.this.assertion_stack.size();
+            this.numberOfAssertions = Num2smtTranslator.this.numberOfAssertions;
+            this.visited = new IntTreeSet(Num2smtTranslator.this.visited);
+            this.visitedBV = new IntTreeSet(Num2smtTranslator.this.visitedBV);
+            this.binaryValues = new HashMap<>(Num2smtTranslator.this.binaryValues);
+            this.intFS = new HashMap<>(Num2smtTranslator.this.intFS);
+            this.boolFS = new HashMap<>(Num2smtTranslator.this.boolFS);
+        }
+
+        /**
+         * Restores the translator to this state. The maps are restored in place,
+         * since they may be shared with the specification of the solver.
+         */
+        void restore(){
+            final Num2smtTranslator t = Num2smtTranslator.this;
+            t.assertion_stack.setSize(stackSize);
+            t.numberOfAssertions = numberOfAssertions;
+            t.visited.clear();
+            t.visited.addAll(visited);
+            t.visitedBV.clear();
+            t.visitedBV.addAll(visitedBV);
+            t.binaryValues.clear();
+            t.binaryValues.putAll(binaryValues);
+            t.intFS.clear();
+            t.intFS.putAll(intFS);
+            t.boolFS.clear();
+            t.boolFS.putAll(boolFS);
+        }
+    }
+
+    /**
+     * Creates the solver selected in the options over the current state of the assertion stack.
+     */
+    private SMTSolver createSolver(){
+        return createSolver(createSpecification());
+    }
+
+    /**
+     * @return specification over the current state of the assertion stack
+     */
+    private SMTSpecification createSpecification(){
+        return new SMTSpecification(logic,
+                                    smt2options,
+                                    getOptionlessSpecification(),
+                                    intFS,
+                                    getNumberOfVariables(),
+                                    numberOfAssertions,
+                                    options);
+    }
+
+    /**
+     * Creates the solver selected in the options of the given specification, over the latter.
+     */
+    static SMTSolver createSolver(SMTSpecification spec){
+        switch(spec.options().solver()){
             case CVC4:
                 return new CVC4Solver(spec);
             case MathSAT:
@@ -159,19 +329,202 @@ public class Num2smtTranslator implements BooleanVisitor<Integer,Object>, Numeri
     /**
      * Applies this translator to the given circuit, building the specification,
      * and returns the translator.
+     * The divisions found while traversing the circuit are guarded against division by zero.
      * @param problem Collection of boolean formulas potentially containing (quantitative) constraints
      *                over {@link NumericMatrix numeric matrices}.
      * @return this
      */
     protected Num2smtTranslator translateProblem(Collection<BooleanFormula> problem) {
+        divisions = new DivisionDetector(factory);
+
         for(BooleanFormula f : problem)
-            f.accept(this, null);
+            walk(f);
         for(BooleanFormula f : problem)
             addAssertion(getFormula(f.label()));
 
+        guardDivisions();
         return this;
     }
 
+    /**
+     * Guards the divisions found since {@link #divisions} was created against division by zero,
+     * and discards the detector.
+     */
+    private void guardDivisions() {
+        if(divisions.hasDivision()){
+            final BooleanValue guard = divisions.divisionByZero().negation();
+            if(guard == BooleanConstant.FALSE)
+                addAssertion("false");
+            else if(guard != BooleanConstant.TRUE){
+                walk(guard);
+                addAssertion(getFormula(guard.label()));
+            }
+        }
+        divisions = null;
+    }
+
+    /**
+     * Adds an objective to the specification held by this incremental translator, and to its solver,
+     * which then looks for the model that minimises (or maximises) the given value.
+     * The circuit of the value is translated as any other, reusing the gates translated before.
+     * Objectives are only supported by solvers that {@link SMTSolver#optimizes() optimise natively},
+     * and, as any other command, they are discarded by the {@link #pop()} of an enclosing scope.
+     * @param objective value created by the same factory as the formulas previously given to this translator
+     * @param minimize true to minimise the objective, false to maximise it
+     * @throws IllegalStateException this.solver() = null or !this.solver().optimizes()
+     */
+    public void optimize(NumericValue objective, boolean minimize){
+        if(solver == null || !solver.optimizes())
+            throw new IllegalStateException("The solver of this translator does not support objectives.");
+
+        final int mark = assertion_stack.size();
+        final int vars = getNumberOfVariables();
+        final int assertions = numberOfAssertions;
+
+        divisions = new DivisionDetector(factory);
+        walk(objective);
+        guardDivisions();
+        assertion_stack.push(String.format("(%s %s)", minimize ? "minimize" : "maximize", getNumeric(objective.label())));
+
+        final List<String> delta = assertion_stack.subList(mark, assertion_stack.size());
+        solver.extend(String.join("\n", delta), getNumberOfVariables() - vars, numberOfAssertions - assertions);
+    }
+
+    /**
+     * Translates the circuit rooted at the given node, in post-order: a node is only visited
+     * once all of its inputs were translated, so the visit of each node does not recurse.
+     * @requires root in BooleanFormula + NumericValue
+     */
+    private void walk(BooleanValue root){
+        final Deque<BooleanValue> stack = new ArrayDeque<>();
+        stack.push(root);
+
+        while(!stack.isEmpty()){
+            final BooleanValue node = stack.peek();
+            if(translated(node)){
+                stack.pop();
+                continue;
+            }
+
+            final int size = stack.size();
+            if(node instanceof NumericValue)
+                ((NumericValue) node).accept(inputs, stack);
+            else ((BooleanFormula) node).accept(inputs, stack);
+
+            // Every input was already translated
+            if(stack.size() == size){
+                stack.pop();
+                if(node instanceof NumericValue)
+                    ((NumericValue) node).accept(this, null);
+                else ((BooleanFormula) node).accept(this, null);
+            }
+        }
+    }
+
+    /**
+     * @return true iff the given node was already visited by this translator.
+     */
+    private boolean translated(BooleanValue node){
+        if(node instanceof BinaryValue)
+            return binaryValues.containsKey(node.label());
+        if(node instanceof NumericValue)
+            return visited.contains(node.label());
+        return visitedBV.contains(node.label());
+    }
+
+    /**
+     * Pushes the inputs of the visited node that were not translated yet onto the given stack.
+     */
+    private final class Inputs implements BooleanVisitor<Object, Deque<BooleanValue>>, NumericVisitor<Object, Deque<BooleanValue>> {
+
+        private void push(BooleanValue input, Deque<BooleanValue> stack){
+            if(!translated(input))
+                stack.push(input);
+        }
+
+        @Override
+        public Object visit(MultiGate multigate, Deque<BooleanValue> stack) {
+            for(BooleanFormula input : multigate)
+                push(input, stack);
+            return null;
+        }
+
+        @Override
+        public Object visit(ITEGate itegate, Deque<BooleanValue> stack) {
+            for(int i = 0; i < 3; i++)
+                push(itegate.input(i), stack);
+            return null;
+        }
+
+        @Override
+        public Object visit(NotGate negation, Deque<BooleanValue> stack) {
+            push(negation.input(0), stack);
+            return null;
+        }
+
+        @Override
+        public Object visit(BooleanVariable variable, Deque<BooleanValue> stack) {
+            return null;
+        }
+
+        @Override
+        public Object visit(CmpGate cmpgate, Deque<BooleanValue> stack) {
+            push(cmpgate.inputNum(0), stack);
+            push(cmpgate.inputNum(1), stack);
+            return null;
+        }
+
+        @Override
+        public Object visit(NumNotGate notg, Deque<BooleanValue> stack) {
+            push(notg.input(), stack);
+            return null;
+        }
+
+        @Override
+        public Object visit(AritGate aritgate, Deque<BooleanValue> stack) {
+            for(NumericValue input : aritgate)
+                push(input, stack);
+            return null;
+        }
+
+        @Override
+        public Object visit(ChoiceGate choicegate, Deque<BooleanValue> stack) {
+            push(choicegate.input(0), stack);
+            push(choicegate.input(1), stack);
+            if(choicegate instanceof kodkod.engine.num.ITEGate)
+                push(((kodkod.engine.num.ITEGate)choicegate).getCondition(), stack);
+            return null;
+        }
+
+        @Override
+        public Object visit(UnaryGate unarygate, Deque<BooleanValue> stack) {
+            push(unarygate.input(), stack);
+            return null;
+        }
+
+        @Override
+        public Object visit(NumericVariable variable, Deque<BooleanValue> stack) {
+            final List<NumericValue> admissibleValues = variable.getPotentialValues();
+            if(admissibleValues != null)
+                for(NumericValue v : admissibleValues)
+                    push(v, stack);
+            return null;
+        }
+
+        @Override
+        public Object visit(NumericConstant constant, Deque<BooleanValue> stack) {
+            return null;
+        }
+
+        /**
+         * Binary values are translated lazily, once either of their counterparts is required.
+         */
+        @Override
+        public Object visit(BinaryValue b, Deque<BooleanValue> stack) {
+            return null;
+        }
+    }
+
     /**
      * Declares a function symbol {@code var} of sort {@code type}.
      */
@@ -200,7 +553,7 @@ public class Num2smtTranslator implements BooleanVisitor<Integer,Object>, Numeri
      *               of the assertion stack.
      * @return function symbol
      */
-    protected String addVariable(int id, String var, Integer minValue, Integer maxValue, boolean extend){
+    protected String addVariable(int id, String var, Number minValue, Number maxValue, boolean extend){
         // Declaration
         if(intFS.containsKey(id))
             var = intFS.get(id);
@@ -235,19 +588,8 @@ public class Num2smtTranslator implements BooleanVisitor<Integer,Object>, Numeri
      * If there is none, a new unbound integer variable will be created.
      */
     private String getNumeric(int v){
-        if(!intFS.containsKey(v) && binaryValues.containsKey(v)){
-            NumericValue nv = binaryValues.get(v).toNumeric();
-            switch (nv.getClass().getSimpleName()){ // TODO arg
-                case "NumericVariable":
-                    this.visit((NumericVariable)nv, null);
-                    break;
-                case "ITEGate":
-                    this.visit((kodkod.engine.num.ITEGate)nv, null);
-                    break;
-                default: // TODO
-                    throw new IllegalArgumentException("getNumeric BinaryValue of kind = " + nv.getClass().getSimpleName());
-            }
-        }
+        if(!intFS.containsKey(v) && binaryValues.containsKey(v))
+            walk(binaryValues.get(v).toNumeric());
 
         //return addVariable(v, "x" + v, 0, CAP, false);
         return addFreeVariable(v);
@@ -287,10 +629,8 @@ public class Num2smtTranslator implements BooleanVisitor<Integer,Object>, Numeri
      * with the same label, if it exists.
      */
     private String getFormula(int b){
-        if(!boolFS.containsKey(b) && binaryValues.containsKey(b)){
-            BooleanValue bool = binaryValues.get(b).toBool();
-            ((BooleanFormula) bool).accept(this, null); // TODO arg
-        }
+        if(!boolFS.containsKey(b) && binaryValues.containsKey(b))
+            walk(binaryValues.get(b).toBool());
         return addBoolVariable(b);
     }
 
@@ -307,8 +647,9 @@ public class Num2smtTranslator implements BooleanVisitor<Integer,Object>, Numeri
     /**
      * Defines the comparison between an integer variable and a constant integer value.
      */
-    protected String range(String comparator, String var, int value){
-        return String.format("(%s %s %d)", comparator, var, value);
+    protected String range(String comparator, String var, Number value){
+        final String c = value.toString();
+        return String.format("(%s %s %s)", comparator, var, c.startsWith("-") ? "(- " + c.substring(1) + ")" : c);
     }
 
     /**
@@ -477,6 +818,9 @@ public class Num2smtTranslator implements BooleanVisitor<Integer,Object>, Numeri
 
             Operator op = aritgate.op();
 
+            if(op == DIV)
+                divisions.add(aritgate);
+
             /*if(op == MINUS){
                 String minus = String.format(
                     "(- %s)", is.stream().map(this :: getNumeric).collect(Collectors.joining(" "))
@@ -589,13 +933,24 @@ public class Num2smtTranslator implements BooleanVisitor<Integer,Object>, Numeri
      * @return null => CAP == null && maxValue == null
      *         else maxValue < CAP ? maxValue : CAP
      */
-    private Integer getLimit(Integer maxValue){
+    private BigInteger getLimit(BigInteger maxValue){
         if(CAP == null)
             return maxValue;
         if(maxValue == null)
-            return CAP;
+            return BigInteger.valueOf(CAP);
 
-        return maxValue < CAP ? maxValue : CAP;
+        return maxValue.compareTo(BigInteger.valueOf(CAP)) < 0 ? maxValue : BigInteger.valueOf(CAP);
+    }
+
+    /**
+     * @return the given value, truncated to an integer if it is real, without narrowing it
+     */
+    private static BigInteger toBigInteger(Number value){
+        if(value instanceof BigInteger)
+            return (BigInteger) value;
+        if(value instanceof Double || value instanceof Float)
+            return BigDecimal.valueOf(value.doubleValue()).toBigInteger();
+        return BigInteger.valueOf(value.longValue());
     }
 
     /**
@@ -609,7 +964,7 @@ public class Num2smtTranslator implements BooleanVisitor<Integer,Object>, Numeri
         int l = variable.label();
         if(visited.add(l)){
             NumericConstant maxVal = variable.getMaximumValue();
-            Integer limit = getLimit(maxVal == null ? null : maxVal.getValue().intValue());
+            BigInteger limit = getLimit(maxVal == null ? null : toBigInteger(maxVal.getValue()));
 
             List<NumericValue> admissibleValues = variable.getPotentialValues();
             if(admissibleValues != null && admissibleValues.size() > 0){
@@ -663,8 +1018,9 @@ public class Num2smtTranslator implements BooleanVisitor<Integer,Object>, Numeri
     public Integer visit(NumericConstant constant, Object arg) {
         int l = constant.label();
         if(visited.add(l) && !intFS.containsKey(l)) {
-            int c = constant.getValue().intValue();
-            intFS.put(l, c >= 0 ? Integer.toString(c) : "(- " + -c +")");
+            final Number value = constant.getValue();
+            final String c = value instanceof Long || value instanceof BigInteger ? value.toString() : Integer.toString(value.intValue());
+            intFS.put(l, c.startsWith("-") ? "(- " + c.substring(1) + ")" : c);
         }
         return l;
     }
@@ -1,10 +1,16 @@
 package kodkod.engine.num2smt;
 
+import kodkod.engine.config.QuantitativeOptions.Enumeration;
 import kodkod.engine.num2common.InstanceNotFoundException;
 import kodkod.engine.num2common.VariableNotFoundException;
 
 import java.io.*;
+import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -12,14 +18,15 @@ import java.util.stream.Collectors;
 /**
  * Represents an instance of a SMT solver that abides to the SMT-LIB standard.
  *
- * This implementation assumes that *at most*, only one instance of SMT2Solver is active at any point in time.
+ * Each instance of SMT2Solver owns its solver process, hence several instances may be solved at the same time,
+ * e.g., the independent components of a {@link DecomposedSolver decomposed} problem.
  * Preferably, the full path to the SMT2Solver binary {@code binary} should always be specified.
  *
  * The smt-lib specification fed into this solver should be produced by {@link Num2smtTranslator} or abide to the same
  * characteristics. Otherwise, the behaviour of this solver is undefined.
  *
  * If the solver at hand does not function on incremental mode, the specification will be written to a temporary
- * 'tmp.smt2' file, within the working directory, which will be fed to the solver in full.
+ * .smt2 file, private to this instance, which will be fed to the solver in full.
  *
  * @specfield smt2 : SMTSpecification
  * @specfield binary : String
@@ -32,18 +39,43 @@ abstract public class SMT2Solver implements SMTSolver {
      * -----------------------------------------------------------------------------------------------------------------
      */
 
-    // Specifies the SMT Solver binary location
-    private static String binary = null;
     // Specifies the file to log errors
-    private static String err = null;
-    // Responsible for producing solver instances
-    private static ProcessBuilder builder = null;
-    // Represents the active solver instances at a given moment
-    private static Process instance = null;
+    private static volatile String err = null;
+    // Solver processes that are alive, destroyed when the virtual machine shuts down
+    private static final Set<Process> alive = Collections.synchronizedSet(new HashSet<>());
+
+    /**
+     * Kills the solver instances that run out of time, created on first use.
+     */
+    private static final class Watchdog {
+        static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "SMT2Solver watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            synchronized (alive) {
+                for (Process p : alive)
+                    p.destroyForcibly();
+            }
+        }));
+    }
+
+    // Specifies the SMT Solver binary location
+    private String binary = null;
+    // Responsible for producing the solver instances of this solver
+    private ProcessBuilder builder = null;
+    // Represents the active solver instance of this solver
+    private Process instance = null;
     // Reads the stdout of instance
-    private static BufferedReader reader = null;
+    private BufferedReader reader = null;
     // Writes to the stdin of instance
-    private static BufferedWriter writer = null;
+    private BufferedWriter writer = null;
+    // Temporary file fed to the solver instances, if they are not in incremental mode
+    private File file = null;
 
     /**
      * @return the name of the SMT Solver associated with this instance.
@@ -75,27 +107,38 @@ abstract public class SMT2Solver implements SMTSolver {
     abstract public String getSMTSpecification();
 
     /**
-     * Writes the SMT specification into the 'tmp.smt2' file within the working directory.
-     * @throws FileNotFoundException if it was unable to write the SMT specification into the tmp.smt2 file.
+     * Writes the SMT specification into the temporary .smt2 file of this solver.
+     * @throws FileNotFoundException if it was unable to write the SMT specification into the temporary file.
      */
     private void writeSMT2() throws FileNotFoundException{
-        PrintWriter file = new PrintWriter(new FileOutputStream(
-                new File("./tmp.smt2")));
-        file.write(getSMTSpecification());
-        file.flush();
-        file.close();
+        PrintWriter out = new PrintWriter(new FileOutputStream(file));
+        out.write(getSMTSpecification());
+        out.flush();
+        out.close();
     }
 
     /**
      * Start the solver instance builder.
+     * If the given path is null, does nothing.
      */
     private void startBuilder(String path){
+        if(path == null)
+            return;
         binary = path;
         List<String> cmd = getCommand(smt2.incremental());
         cmd.add(0, binary);
         // If the solver is not functioning in incremental mode, it will be fed the temporary .smt2 file for solving
-        if(!smt2.incremental())
-            cmd.add("tmp.smt2");
+        if(!smt2.incremental()) {
+            try {
+                if(file == null) {
+                    file = File.createTempFile("qalloy", ".smt2");
+                    file.deleteOnExit();
+                }
+            }catch(IOException e){
+                throw new IllegalStateException("Unable to create the temporary file fed to " + getSolver() + ".", e);
+            }
+            cmd.add(file.getAbsolutePath());
+        }
         builder = new ProcessBuilder(cmd);
         if (err != null)
             builder.redirectError(new File(err));
@@ -107,7 +150,7 @@ abstract public class SMT2Solver implements SMTSolver {
      */
     @Override
     public void setBinaryLocation(String path){
-        if(path != null && (new File(binary).isFile())) {
+        if(path != null && (new File(path).isFile())) {
             this.resetSolver();
             startBuilder(path);
         }
@@ -117,7 +160,7 @@ abstract public class SMT2Solver implements SMTSolver {
      * Sets the path to the file where the stderr of the solver instances will be redirected
      */
     private void setErrFile(String path){
-        if(path != null && (new File(binary).isFile())) {
+        if(path != null && binary != null && (new File(binary).isFile())) {
             err = path;
             if(builder != null)
                 builder.redirectError(new File(err));
@@ -148,6 +191,8 @@ abstract public class SMT2Solver implements SMTSolver {
     // If the value assigned to a given fs comes as a fraction, while the decimal representation is stored
     // in {@code solNumFS}, solFractions saves the original fraction in SMT syntax (/ num denom)
     private Map<Integer, String> solFractions;
+    // Numeric function symbols of sort Real in the most recent instance found; the others are of sort Int
+    private Set<Integer> solReals;
     // Contains the values assigned to the boolean function symbols in the most recent instance found
     private Map<Integer, Boolean> solBoolFS;
     // Parsing rule to extract the value assigned to one function symbol
@@ -157,6 +202,19 @@ abstract public class SMT2Solver implements SMTSolver {
     // Used to find out if the string that did not match {@code fsModelFormat} is the beginning of a function symbol
     private final Pattern broken = Pattern.compile("[(]define-fun.*");
 
+    /*
+     * -----------------------------------------------------------------------------------------------------------------
+     * INCREMENTAL EXTENSIONS
+     * -----------------------------------------------------------------------------------------------------------------
+     */
+
+    // Number of function symbols declared after this solver was created
+    private int extraVariables;
+    // Number of assertions added after this solver was created
+    private int extraAssertions;
+    // For each open scope, the values of {@code extraVariables} and {@code extraAssertions} when it was pushed
+    private final Deque<int[]> scopes;
+
     /**
      * Creates a new instance of a SMT Solver.
      * @param smt2 SMT-LIB specification to be solved
@@ -165,18 +223,17 @@ abstract public class SMT2Solver implements SMTSolver {
     public SMT2Solver(SMTSpecification smt2, String location){
         this.smt2 = smt2;
 
-        if(instance != null)
-            resetSolver();
-        if(location != null && !location.equals(binary)){
-            binary = location;
-            startBuilder(binary);
-        }
+        this.binary = location;
 
         this.solved = false;
         this.result = null;
         this.solNumFS = new HashMap<>();
         this.solFractions = new HashMap<>();
+        this.solReals = new HashSet<>();
         this.solBoolFS = new HashMap<>();
+        this.extraVariables = 0;
+        this.extraAssertions = 0;
+        this.scopes = new ArrayDeque<>();
     }
 
     /**
@@ -208,7 +265,7 @@ abstract public class SMT2Solver implements SMTSolver {
             return result.isSat();
 
         if(builder == null)
-            startBuilder(defaultBinaryLocation());
+            startBuilder(binary != null ? binary : defaultBinaryLocation());
         if(builder == null)
             throw new NullPointerException(getSolver() + " is not located at the expected location. Solving cannot continue.");
 
@@ -222,6 +279,7 @@ abstract public class SMT2Solver implements SMTSolver {
 
                 // Create the solver instance
                 instance = builder.start();
+                alive.add(instance);
 
                 if(reader != null)
                     reader.close();
@@ -244,13 +302,14 @@ abstract public class SMT2Solver implements SMTSolver {
                 writer.flush();
             }
 
-            String line = reader.readLine();
+            String line = readResult();
             result = SMTResult.getResult(line == null ? "UNKNOWN" : line);
             solved = true;
 
             // Parse instance if SAT
             if(result.isSat()){
                 this.solNumFS = new HashMap<>();
+                this.solReals = new HashSet<>();
                 this.solBoolFS = new HashMap<>();
 
                 if(smt2.incremental()) {
@@ -280,9 +339,10 @@ abstract public class SMT2Solver implements SMTSolver {
                         String value  = m.group("value");
 
                         if(type.equals("Int")){
-                            solNumFS.put(id, Integer.parseInt(value.replaceAll("[^0-9-]", "")));
+                            solNumFS.put(id, parseInteger(value.replaceAll("[^0-9-]", "")));
                         }
                         else if(type.equals("Real")){
+                            solReals.add(id);
                             if(value.contains("/")){
                                 m = fraction.matcher(value);
                                 if(m.find()) {
@@ -384,14 +444,80 @@ abstract public class SMT2Solver implements SMTSolver {
         return solBoolFS.containsKey(label) ? solBoolFS.get(label) : this.getValue(label).doubleValue() != 0;
     }
 
+    /**
+     * {@inheritDoc}
+     * The values are read straight from the parsed model, checking the state of the solver only once.
+     */
+    @Override
+    public boolean getValues(int from, double[] values) throws InstanceNotFoundException {
+        if(!solved)
+            throw new InstanceNotFoundException("There is no previous solution in the current state of the solver. 'solve' method must be called beforehand.");
+        if(result.isUnsat())
+            throw new InstanceNotFoundException("Cannot get an interpretation unless immediately preceded by SAT/UNKNOWN response.");
+
+        boolean real = false;
+        for(int i = 0; i < values.length; i++){
+            final Number n = solNumFS.get(from + i);
+            final Boolean b = solBoolFS.get(from + i);
+            if(b != null ? b : n != null && n.doubleValue() != 0){
+                values[i] = n != null ? n.doubleValue() : 1;
+                real |= n instanceof Double;
+            }
+        }
+        return real;
+    }
+
+    /**
+     * Reads the response of the solver instance to the satisfiability check.
+     * If {@code options.timeout} is set, the instance is killed once it runs out of time.
+     * @return the response, or null if the instance terminated (or was killed) before responding
+     */
+    private String readResult() throws IOException {
+        final long timeout = smt2.options() == null ? 0 : smt2.options().timeout();
+        if(timeout <= 0)
+            return reader.readLine();
+
+        final Process running = instance;
+        final ScheduledFuture<?> watchdog = Watchdog.timer.schedule(() -> { running.destroyForcibly(); }, timeout, TimeUnit.MILLISECONDS);
+        try {
+            return reader.readLine();
+        } catch (IOException e) {
+            // the stream may be closed under the reader when the instance is killed
+            if(watchdog.isDone() && !watchdog.isCancelled())
+                return null;
+            throw e;
+        } finally {
+            watchdog.cancel(false);
+        }
+    }
+
+    /**
+     * Parses the given integer, as an Integer if it fits in the int range, as a Long if it fits in 64 bits,
+     * and as a BigInteger otherwise.
+     */
+    private static Number parseInteger(String value){
+        try {
+            final long n = Long.parseLong(value);
+            if(n == (int) n)
+                return (int) n;
+            return n;
+        } catch (NumberFormatException e) {
+            return new BigInteger(value);
+        }
+    }
+
     /**
      * Returns the proper SMT-LIB representation of the number specified.
      * @return v > 0 ? v : (- v)
      */
     private String getSMTofNum(Number v){
-        if(v.doubleValue() < 0){
-            return "(- " + (v instanceof Integer ? -v.intValue() : -v.doubleValue()) + ")";
-        }else return String.valueOf(v);
+        if(v instanceof Double || v instanceof Float){
+            if(v.doubleValue() < 0)
+                return "(- " + -v.doubleValue() + ")";
+            return String.valueOf(v);
+        }
+        final String n = v.toString();
+        return n.startsWith("-") ? "(- " + n.substring(1) + ")" : n;
     }
 
     /**
@@ -411,35 +537,160 @@ abstract public class SMT2Solver implements SMTSolver {
     }
 
     /**
-     * Update this solver's specific SMT specification to include the specified assertion that ignores such solution.
+     * Update this solver's specific SMT specification to include the specified commands, i.e.,
+     * assertions that ignore previous solutions, incrementally added assertions and scope changes.
      */
-    abstract protected void elimSolution(String sol);
+    abstract protected void append(String commands);
+
+    /**
+     * Appends the given commands to this solver's specification and, if the solver is running
+     * in incremental mode, feeds them to the live solver instance.
+     */
+    private void send(String commands){
+        append(commands);
+        if(smt2.incremental() && writer != null)
+            try {
+                writer.write(commands);
+                writer.flush();
+            }catch (IOException e){
+                e.printStackTrace();
+                resetSolver();
+            }
+    }
 
     /**
      * {@inheritDoc}
      */
     @Override
     public void elimSolution(Collection<Integer> is) {
+        elimSolution(is, Enumeration.MODEL);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void elimSolution(Collection<Integer> is, Enumeration mode) {
         if(solved) {
             Map<Integer, String> numFunctionSymbols = smt2.getNumFunctionSymbols();
-            String notSol = "(assert (not (and " +
-                    is.stream()
+            String same = is.stream()
                             .filter(numFunctionSymbols :: containsKey)
-                            .map(i -> getAssignment(i, numFunctionSymbols.get(i)))
-                            .collect(Collectors.joining(" ")) + ")))\n";
+                            .map(i -> getCondition(i, numFunctionSymbols.get(i), mode))
+                            .collect(Collectors.joining(" "));
 
-            elimSolution(notSol);
-            if(smt2.incremental() && writer != null)
-                try {
-                    writer.write(notSol);
-                    writer.flush();
-                }catch (IOException e){
-                    e.printStackTrace();
-                    resetSolver();
-                }
+            // No variable tells solutions apart, hence every further solution would be the same
+            send(same.isEmpty() ? "(assert false)\n" : "(assert (not (and " + same + ")))\n");
         }else throw new InstanceNotFoundException("There is no previous solution in the current state of the solver. 'solve' method must be called beforehand.");
     }
 
+    /**
+     * Helper method to specify the condition under which the function symbol {@code fs}, identified by {@code id},
+     * is considered to take the same value it was assigned in the most recent solution, under the given mode.
+     */
+    private String getCondition(int id, String fs, Enumeration mode){
+        final Number v = getValue(id);
+        // The literals must be of the sort of fs, however its value was boxed
+        final boolean real = solReals.contains(id);
+        final String zero = real ? "0.0" : "0";
+        final boolean isZero = real ? v.doubleValue() == 0 : v instanceof BigInteger ? ((BigInteger) v).signum() == 0 : v.longValue() == 0;
+
+        switch(mode){
+            case SKELETON:
+                return isZero ? "(= " + fs + " " + zero + ")" : "(not (= " + fs + " " + zero + "))";
+            case BUCKETS:
+                if(isZero)
+                    return "(= " + fs + " " + zero + ")";
+                final int width = smt2.options().bucketWidth();
+                final Number lo, hi;
+                if(real){
+                    lo = Math.floor(v.doubleValue() / width) * width;
+                    hi = lo.doubleValue() + width;
+                }else if(!(v instanceof BigInteger) && Long.MIN_VALUE + 2L * width < v.longValue() && v.longValue() < Long.MAX_VALUE - 2L * width){
+                    final long n = Math.floorDiv(v.longValue(), (long) width) * width;
+                    lo = n;
+                    hi = n + width;
+                }else{
+                    // The bucket reaches beyond the long range
+                    final BigInteger w = BigInteger.valueOf(width);
+                    final BigInteger[] qr = new BigInteger(v.toString()).divideAndRemainder(w);
+                    final BigInteger n = (qr[1].signum() < 0 ? qr[0].subtract(BigInteger.ONE) : qr[0]).multiply(w);
+                    lo = n;
+                    hi = n.add(w);
+                }
+                return "(and (not (= " + fs + " " + zero + ")) (<= " + getSMTofNum(lo) + " " + fs + ") (< " + fs + " " + getSMTofNum(hi) + "))";
+            default:
+                return getAssignment(id, fs);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean declares(int label) {
+        return smt2.getNumFunctionSymbols().containsKey(label);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SMTSolver restrict(Map<Integer, Boolean> presence) {
+        if(smt2.trivial())
+            throw new IllegalStateException("A trivial specification cannot be restricted.");
+        final Map<Integer, String> numFunctionSymbols = smt2.getNumFunctionSymbols();
+        final String cube = presence.entrySet().stream()
+                .filter(e -> numFunctionSymbols.containsKey(e.getKey()))
+                .map(e -> {
+                    final String isZero = "(= " + numFunctionSymbols.get(e.getKey()) + " 0)";
+                    return e.getValue() ? "(not " + isZero + ")" : isZero;
+                })
+                .collect(Collectors.joining(" "));
+
+        final SMTSolver solver = Num2smtTranslator.createSolver(smt2);
+        if(!cube.isEmpty())
+            solver.extend("(assert (and " + cube + "))\n", 0, 1);
+        return solver;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void extend(String smt2, int numberOfVariables, int numberOfAssertions) {
+        if(this.smt2.trivial())
+            throw new IllegalStateException("A trivial specification cannot be extended.");
+        if(smt2.isEmpty())
+            return;
+        send(smt2.endsWith("\n") ? smt2 : smt2 + "\n");
+        this.extraVariables += numberOfVariables;
+        this.extraAssertions += numberOfAssertions;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void push() {
+        if(this.smt2.trivial())
+            throw new IllegalStateException("A trivial specification has no assertion stack.");
+        scopes.push(new int[]{ extraVariables, extraAssertions });
+        send("(push 1)\n");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void pop() {
+        if(scopes.isEmpty())
+            throw new IllegalStateException("There is no scope to pop.");
+        final int[] scope = scopes.pop();
+        extraVariables = scope[0];
+        extraAssertions = scope[1];
+        send("(pop 1)\n");
+    }
+
     /**
      * Stops the SMT Solver instance and frees its resources.
      */
@@ -461,6 +712,7 @@ abstract public class SMT2Solver implements SMTSolver {
 
         if(instance != null){
             instance.destroyForcibly();
+            alive.remove(instance);
             instance = null;
         }
     }
@@ -478,6 +730,7 @@ abstract public class SMT2Solver implements SMTSolver {
         }
         this.solNumFS = new HashMap<>();
         this.solFractions = new HashMap<>();
+        this.solReals = new HashSet<>();
         this.solBoolFS = new HashMap<>();
     }
 
@@ -486,7 +739,7 @@ abstract public class SMT2Solver implements SMTSolver {
      */
     @Override
     public int numberOfVariables() {
-        return smt2.getNumberOfVariables();
+        return smt2.getNumberOfVariables() + extraVariables;
     }
 
     /**
@@ -494,7 +747,7 @@ abstract public class SMT2Solver implements SMTSolver {
      */
     @Override
     public int numberOfAssertions() {
-        return smt2.getNumberOfAssertions();
+        return smt2.getNumberOfAssertions() + extraAssertions;
     }
 
     /**
@@ -503,11 +756,15 @@ abstract public class SMT2Solver implements SMTSolver {
     @Override
     public void free() {
         resetSolver();
-        binary = null;
         builder = null;
+        if(file != null) {
+            file.delete();
+            file = null;
+        }
         this.result = null;
         this.solNumFS = null;
         this.solFractions = null;
+        this.solReals = null;
         this.solBoolFS = null;
     }
 }
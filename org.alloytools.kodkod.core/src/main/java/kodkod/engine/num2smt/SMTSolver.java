@@ -1,10 +1,12 @@
 package kodkod.engine.num2smt;
 
+import kodkod.engine.config.QuantitativeOptions.Enumeration;
 import kodkod.engine.num2common.InstanceNotFoundException;
 import kodkod.engine.num2common.QuantitativeSolver;
 import kodkod.engine.num2common.VariableNotFoundException;
 
 import java.util.Collection;
+import java.util.Map;
 
 /**
  * Operations provided to interact with a SMT solver.
@@ -56,16 +58,76 @@ public interface SMTSolver extends QuantitativeSolver {
      */
     public void elimSolution(Collection<Integer> vars);
 
+    /**
+     * Disallows the solver from further producing a solution which is the same as the previous one,
+     * for the specified variables, under the given enumeration mode:
+     * - MODEL: the same values;
+     * - SKELETON: the same variables set to zero;
+     * - BUCKETS: the same variables set to zero, and the others within the same buckets of
+     *   {@link kodkod.engine.config.QuantitativeOptions#bucketWidth() width}.
+     * @param vars identifiers of the variables.
+     *             Identifiers which do not correspond to a valid numeric function symbol
+     *             for the current SMT Problem will be ignored.
+     */
+    public void elimSolution(Collection<Integer> vars, Enumeration mode);
+
     /**
      * Returns the number of function symbols (numeric and boolean).
      */
     public int numberOfVariables();
 
+    /**
+     * Checks if the specification at hand declares a numeric function symbol with the given label.
+     */
+    public boolean declares(int label);
+
+    /**
+     * Creates a new solver over the specification of this one, excluding the solutions eliminated
+     * and the extensions made since it was created, further restricted to the solutions where each
+     * of the given function symbols is different from zero iff it is mapped to true.
+     * Labels which do not correspond to a numeric function symbol are ignored.
+     * @throws IllegalStateException the specification at hand is trivial
+     */
+    public SMTSolver restrict(Map<Integer, Boolean> presence);
+
     /**
      * Returns the number of assertions in the assertion stack
      */
     public int numberOfAssertions();
 
+    /**
+     * Extends the assertion stack of this solver with the given SMT-LIB declarations and assertions,
+     * which may refer to any function symbol previously declared.
+     * If the solver is running in incremental mode, the new commands are fed to the live solver instance,
+     * keeping the work it has done so far.
+     * @param smt2 declarations and assertions to add
+     * @param numberOfVariables number of function symbols declared by {@code smt2}
+     * @param numberOfAssertions number of assertions in {@code smt2}
+     * @throws IllegalStateException the specification of this solver is trivial
+     */
+    public void extend(String smt2, int numberOfVariables, int numberOfAssertions);
+
+    /**
+     * Opens a new scope on the assertion stack. Every declaration, assertion and eliminated solution added
+     * after this call is discarded by the matching {@link #pop()}.
+     * @throws IllegalStateException the specification of this solver is trivial
+     */
+    public void push();
+
+    /**
+     * Discards the most recently opened scope of the assertion stack.
+     * @throws IllegalStateException there is no open scope
+     */
+    public void pop();
+
+    /**
+     * Checks if this solver optimises objectives natively (OMT), i.e., if its specification may contain
+     * {@code minimize} and {@code maximize} commands.
+     */
+    public default boolean optimizes() {
+        return false;
+    }
+
     /**
      * Resets the state of the solver.
      */
@@ -8,13 +8,28 @@ import kodkod.engine.num2common.QuantitativeTranslation;
  * Adaptation of {@link Statistics} to the SMT background, where
  * - variables() returns the total number of function symbols;
  * - clauses() returns the number of assertions in the stack.
+ * Additionally, overflows() returns the number of constant folds that did not fit in 64 bits,
+ * and were thus computed with arbitrary precision, during translation.
  */
 public class SMTStatistics extends Statistics {
+
+    private final int overflows;
+
     public SMTStatistics(Translation translation, long translationTime, long solvingTime){
         super(translation.numPrimaryVariables(),
                 ((QuantitativeTranslation)translation).solver().numberOfVariables(),
                 ((SMTSolver) ((QuantitativeTranslation) translation).solver()).numberOfAssertions(),
                 translationTime, solvingTime);
+        this.overflows = ((QuantitativeTranslation) translation).overflows();
+    }
+
+    /**
+     * Returns the number of constant folds computed with arbitrary precision during translation.
+     *
+     * @return the number of constant folds computed with arbitrary precision during translation
+     */
+    public int overflows() {
+        return overflows;
     }
 
     @Override
@@ -28,6 +43,9 @@ public class SMTStatistics extends Statistics {
                 "primary variables: " +
                 super.primaryVariables() +
                 NEW_LINE +
+                "arbitrary-precision folds: " +
+                overflows +
+                NEW_LINE +
                 "translation time: " +
                 super.translationTime() +
                 " ms" + NEW_LINE +
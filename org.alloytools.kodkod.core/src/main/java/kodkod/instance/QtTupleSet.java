@@ -1,6 +1,7 @@
 package kodkod.instance;
 
 import kodkod.util.ints.*;
+import java.math.BigInteger;
 import java.util.*;
 
 /**
@@ -9,7 +10,13 @@ import java.util.*;
  */
 public class QtTupleSet extends TupleSet{
 
-    private final Map<Integer, Number> weight;
+    /*
+     * The weights are kept unboxed: integral weights in one map and real weights, as raw long bits, in
+     * another, so that each tuple has its weight in exactly one of them.
+     * Clones share the maps of the original until either one is modified (copy-on-write). The maps are
+     * held by a Weights object shared with the unmodifiable views, so that these read through.
+     */
+    private final Weights weight;
 
     /**
      * Returns a quantitative set of the given arity that contains all tuples whose indeces are
@@ -20,36 +27,44 @@ public class QtTupleSet extends TupleSet{
      */
     QtTupleSet(Universe universe, int arity, IntSet tupleIndeces, Map<Integer, Number> w){
         super(universe, arity, tupleIndeces);
-        weight = w;
+        weight = new Weights(w.size());
+        w.forEach(weight::put);
     }
 
     QtTupleSet(TupleSet original){
         super(original);
-        if(original instanceof QtTupleSet) {
-            weight = new HashMap<>();
-            ((QtTupleSet) original).weight.forEach(this.weight::put);
-        }
+        if(original instanceof QtTupleSet)
+            weight = ((QtTupleSet) original).weight.share();
         else {
-            weight = new HashMap<>();
+            weight = new Weights(original.size());
             IntIterator it = original.indexView().iterator();
-            while (it.hasNext()) { weight.put(it.next(), 1); }
+            while (it.hasNext()) { weight.integral.put(it.next(), 1); }
         }
     }
 
     QtTupleSet(Universe universe, int arity) {
         super(universe, arity);
-        this.weight = new HashMap<>();
+        this.weight = new Weights(0);
     }
 
     /**
      * Copy constructor.
      *
-     * @ensures constructs a deep copy of the given qttupleset
+     * @ensures constructs a copy of the given qttupleset, which shares its weights until either one is modified
      */
     private QtTupleSet(QtTupleSet original) {
         super(original);
-        weight = new HashMap<>();
-        original.weight.forEach(this.weight :: put);
+        weight = original.weight.share();
+    }
+
+    /**
+     * View constructor.
+     *
+     * @ensures constructs a set over the given indices that reads through the given weights
+     */
+    private QtTupleSet(Universe universe, int arity, IntSet tupleIndeces, Weights w){
+        super(universe, arity, tupleIndeces);
+        weight = w;
     }
 
     /**
@@ -75,11 +90,40 @@ public class QtTupleSet extends TupleSet{
         return super.add(t);
     }
 
+    /**
+     * Adds the tuple with the given index to this tupleset with the specified integral weight,
+     * without building the tuple itself.
+     * Returns true if this set was changed as the result of the operation.
+     * @requires n != 0
+     * @throws IllegalArgumentException index < 0 || index >= this.capacity()
+     */
+    public boolean add(int index, long n) {
+        assert n != 0;
+        final boolean changed = addIndex(index);
+        weight.put(index, n);
+        return changed;
+    }
+
+    /**
+     * Adds the tuple with the given index to this tupleset with the specified real weight,
+     * without building the tuple itself.
+     * Returns true if this set was changed as the result of the operation.
+     * @requires n != 0
+     * @throws IllegalArgumentException index < 0 || index >= this.capacity()
+     */
+    public boolean add(int index, double n) {
+        assert n != 0;
+        final boolean changed = addIndex(index);
+        weight.put(index, n);
+        return changed;
+    }
+
     /**
      * Reads the weight of the tuple.
      * @param t index of the tuple
      * @requires t must identify a tuple of this universe
-     * @return weight of
+     * @return weight of t, as an Integer (or a Long, if it does not fit one) if it is integral,
+     * as a Double otherwise; null if t has no weight
      */
     public Number getWeight(int t){
         return weight.get(t);
@@ -99,17 +143,6 @@ public class QtTupleSet extends TupleSet{
         return new QtTupleSet(super.universe(), super.arity(), super.indexView(), weight);
     }
 
-    /**
-     * If tuple t exists in this set, updates its weight by the additional n provided;
-     * otherwise, adds tuple t with weight n to the set.
-     */
-    private void update(Integer t, Number n){
-        Number current = weight.get(t);
-        if(current != null)
-            weight.put(t, current instanceof Double ? current.doubleValue() + n.doubleValue() : current.intValue() + n.intValue());
-        else weight.put(t, n);
-    }
-
     /**
      * {@inheritDoc}
      *
@@ -124,17 +157,14 @@ public class QtTupleSet extends TupleSet{
         if(!updated)
             updated = c.iterator().hasNext();
 
-        if(updated && c instanceof QtTupleSet) {
-            final QtTupleSet qt = (QtTupleSet) c;
-            qt.weight.forEach(this :: update);
-        }
+        if(updated && c instanceof QtTupleSet)
+            weight.addAll(((QtTupleSet) c).weight);
         else if(updated && c instanceof TupleSet){
             final TupleSet ts = (TupleSet) c;
+            weight.ensureCapacity(ts.size());
             IntIterator it = ts.indexView().iterator();
-            while (it.hasNext()) {
-                int i = it.next();
-                update(i, 1);
-            }
+            while (it.hasNext())
+                weight.update(it.next(), 1);
         }
 
         return updated;
@@ -162,11 +192,132 @@ public class QtTupleSet extends TupleSet{
     }
 
     /**
-     * Returns a deep copy of this quantitative tuple set.
+     * Returns a copy of this quantitative tuple set.
+     * Its weights are only copied once either set is modified.
      */
     @Override
     public QtTupleSet clone() {
         return new QtTupleSet(this);
     }
 
+    /**
+     * Weights of the tuples of a set, kept in primitive maps which may be shared with other sets.
+     */
+    private static final class Weights {
+
+        // Integral weights
+        private IntLongMap integral;
+        // Real weights, as raw long bits
+        private IntLongMap real;
+        // Whether the maps are shared with some other Weights, and must be copied before being modified
+        private boolean shared;
+
+        Weights(int capacity) {
+            this.integral = new IntLongMap(capacity);
+            this.real = new IntLongMap();
+        }
+
+        private Weights(Weights original) {
+            this.integral = original.integral;
+            this.real = original.real;
+            this.shared = original.shared = true;
+        }
+
+        /**
+         * @return weights that share the maps of these ones until either is modified
+         */
+        Weights share() {
+            return new Weights(this);
+        }
+
+        /**
+         * Copies the maps, if they are shared.
+         */
+        private void own() {
+            if (shared) {
+                integral = integral.clone();
+                real = real.clone();
+                shared = false;
+            }
+        }
+
+        void ensureCapacity(int capacity) {
+            own();
+            integral.ensureCapacity(capacity);
+        }
+
+        Number get(int t) {
+            if (integral.containsKey(t)) {
+                final long n = integral.get(t, 0);
+                if (n == (int) n)
+                    return (int) n;
+                return n;
+            }
+            return real.containsKey(t) ? Double.longBitsToDouble(real.get(t, 0)) : null;
+        }
+
+        void put(int t, long n) {
+            own();
+            real.remove(t);
+            integral.put(t, n);
+        }
+
+        void put(int t, double n) {
+            own();
+            integral.remove(t);
+            real.put(t, Double.doubleToRawLongBits(n));
+        }
+
+        void put(int t, Number n) {
+            if (n instanceof Double || n instanceof Float)
+                put(t, n.doubleValue());
+            else if (n instanceof BigInteger)
+                put(t, ((BigInteger) n).longValueExact());
+            else
+                put(t, n.longValue());
+        }
+
+        /**
+         * If tuple t has a weight, updates it by the additional n provided, keeping its kind;
+         * otherwise, sets its weight to n.
+         */
+        void update(int t, long n) {
+            own();
+            if (real.containsKey(t))
+                real.addDouble(t, n);
+            else
+                integral.add(t, n);
+        }
+
+        /**
+         * If tuple t has a weight, updates it by the additional n provided, keeping its kind;
+         * otherwise, sets its weight to n.
+         */
+        void update(int t, double n) {
+            own();
+            if (integral.containsKey(t))
+                integral.add(t, (long) n);
+            else
+                real.addDouble(t, n);
+        }
+
+        /**
+         * Updates these weights by each of the given ones.
+         * Weights of the same kind on both sides are merged in bulk.
+         */
+        void addAll(Weights other) {
+            own();
+            if (real.size() == 0 && other.real.size() == 0)
+                integral.addAll(other.integral, false);
+            else if (integral.size() == 0 && other.integral.size() == 0)
+                real.addAll(other.real, true);
+            else {
+                for (int t : other.integral.keys())
+                    update(t, other.integral.get(t, 0));
+                for (int t : other.real.keys())
+                    update(t, Double.longBitsToDouble(other.real.get(t, 0)));
+            }
+        }
+    }
+
 }
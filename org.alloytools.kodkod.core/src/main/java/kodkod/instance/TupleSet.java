@@ -459,6 +459,17 @@ public class TupleSet extends AbstractSet<Tuple> implements Cloneable {
     }
 
 
+    /**
+     * Auxiliary adder, for the tuple with the given index.
+     *
+     * @throws IllegalArgumentException index < 0 || index >= this.capacity()
+     */
+    protected final boolean addIndex(int index){
+        if (index < 0 || index >= capacity())
+            throw new IllegalArgumentException(index + "<0 || " + index + ">=" + universe.size() + "^" + arity);
+        return tuples.add(index);
+    }
+
     /**
      * Auxiliary setter
      */
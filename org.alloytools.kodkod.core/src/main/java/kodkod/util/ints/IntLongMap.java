@@ -0,0 +1,258 @@
+package kodkod.util.ints;
+
+import java.util.Arrays;
+
+/**
+ * A map from non-negative ints to longs, backed by an open-addressing hash table with linear probing.
+ * Neither the keys nor the values are boxed, so each entry takes 12 bytes (plus the unused slots of the table).
+ * <p>
+ * Doubles can be stored as well, through their {@link Double#doubleToRawLongBits(double) raw long bits}.
+ * <p>
+ * This implementation is not synchronized.
+ *
+ * @specfield entries : int -> lone long
+ * @invariant all k : entries.long | k >= 0
+ */
+public final class IntLongMap implements Cloneable {
+
+    // Marks an empty slot of the table
+    private static final int FREE = -1;
+
+    private int[]  keys;
+    private long[] values;
+    private int    size;
+
+    /**
+     * Constructs an empty map with room for, at least, the given number of entries.
+     *
+     * @throws IllegalArgumentException capacity < 0
+     */
+    public IntLongMap(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Illegal Capacity: " + capacity);
+        allocate(tableSize(capacity));
+    }
+
+    /**
+     * Constructs an empty map.
+     */
+    public IntLongMap() {
+        this(8);
+    }
+
+    /**
+     * @return size of a table that holds the given number of entries under a load factor of, at most, 1/2
+     */
+    private static int tableSize(int capacity) {
+        int n = 8;
+        while (n < 2 * (long) capacity)
+            n <<= 1;
+        return n;
+    }
+
+    private void allocate(int n) {
+        keys = new int[n];
+        values = new long[n];
+        Arrays.fill(keys, FREE);
+    }
+
+    /**
+     * @return first slot probed for the given key
+     */
+    private static int home(int key, int mask) {
+        final int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * @throws IllegalArgumentException key < 0
+     */
+    private static void checkKey(int key) {
+        if (key < 0)
+            throw new IllegalArgumentException("Negative key: " + key);
+    }
+
+    /**
+     * @return slot of the table where the given key is stored, or the free slot where it should be stored
+     */
+    private int slot(int key) {
+        final int mask = keys.length - 1;
+        int i = home(key, mask);
+        while (keys[i] != FREE && keys[i] != key)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    /**
+     * Grows the table so that it holds, at least, the given number of entries.
+     */
+    public void ensureCapacity(int capacity) {
+        if (2 * (long) capacity <= keys.length)
+            return;
+        final int[] oldKeys = keys;
+        final long[] oldValues = values;
+        allocate(tableSize(capacity));
+        for (int i = 0; i < oldKeys.length; i++)
+            if (oldKeys[i] != FREE) {
+                final int j = slot(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+    }
+
+    /**
+     * @return #this.entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return some this.entries[key]
+     */
+    public boolean containsKey(int key) {
+        return key >= 0 && keys[slot(key)] == key;
+    }
+
+    /**
+     * @return this.entries[key] if it is defined, the given default value otherwise
+     */
+    public long get(int key, long absent) {
+        if (key < 0)
+            return absent;
+        final int i = slot(key);
+        return keys[i] == key ? values[i] : absent;
+    }
+
+    /**
+     * Associates the given value with the given key.
+     *
+     * @ensures this.entries' = this.entries ++ key -> value
+     * @throws IllegalArgumentException key < 0
+     */
+    public void put(int key, long value) {
+        checkKey(key);
+        final int i = slot(key);
+        if (keys[i] == key)
+            values[i] = value;
+        else
+            insert(i, key, value);
+    }
+
+    /**
+     * Adds the given value to the one associated with the given key, if any; otherwise associates the given
+     * value with the key.
+     *
+     * @throws IllegalArgumentException key < 0
+     */
+    public void add(int key, long value) {
+        checkKey(key);
+        final int i = slot(key);
+        if (keys[i] == key)
+            values[i] += value;
+        else
+            insert(i, key, value);
+    }
+
+    /**
+     * Adds the given value to the one associated with the given key, if any, both interpreted as doubles;
+     * otherwise associates the given value with the key.
+     *
+     * @throws IllegalArgumentException key < 0
+     */
+    public void addDouble(int key, double value) {
+        checkKey(key);
+        final int i = slot(key);
+        if (keys[i] == key)
+            values[i] = Double.doubleToRawLongBits(Double.longBitsToDouble(values[i]) + value);
+        else
+            insert(i, key, Double.doubleToRawLongBits(value));
+    }
+
+    private void insert(int i, int key, long value) {
+        if (2 * (size + 1) > keys.length) {
+            ensureCapacity(size + 1);
+            i = slot(key);
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+    }
+
+    /**
+     * Removes the entry of the given key, if any.
+     *
+     * @return true if this map changed as a result of the call
+     */
+    public boolean remove(int key) {
+        if (key < 0)
+            return false;
+        final int mask = keys.length - 1;
+        int i = slot(key);
+        if (keys[i] != key)
+            return false;
+        // shift back the following entries of the same cluster that would no longer be reachable
+        for (int j = (i + 1) & mask; keys[j] != FREE; j = (j + 1) & mask) {
+            final int home = home(keys[j], mask);
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = FREE;
+        size--;
+        return true;
+    }
+
+    /**
+     * Adds each entry of the given map to the respective entry of this one, as {@link #add(int, long)} does
+     * (or {@link #addDouble(int, double)}, if {@code doubles} is set). The table is grown at most once.
+     */
+    public void addAll(IntLongMap other, boolean doubles) {
+        ensureCapacity(size + other.size);
+        for (int i = 0; i < other.keys.length; i++)
+            if (other.keys[i] != FREE) {
+                if (doubles)
+                    addDouble(other.keys[i], Double.longBitsToDouble(other.values[i]));
+                else
+                    add(other.keys[i], other.values[i]);
+            }
+    }
+
+    /**
+     * @return the keys of this map, in ascending order
+     */
+    public int[] keys() {
+        final int[] ans = new int[size];
+        int n = 0;
+        for (int key : keys)
+            if (key != FREE)
+                ans[n++] = key;
+        Arrays.sort(ans);
+        return ans;
+    }
+
+    /**
+     * Removes all entries from this map, keeping its capacity.
+     */
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        size = 0;
+    }
+
+    /**
+     * Returns a copy of this map.
+     */
+    @Override
+    public IntLongMap clone() {
+        try {
+            final IntLongMap ans = (IntLongMap) super.clone();
+            ans.keys = keys.clone();
+            ans.values = values.clone();
+            return ans;
+        } catch (CloneNotSupportedException e) {
+            throw new InternalError(); // unreachable
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package kodkod.engine.fol2num;
+
+import junit.framework.TestCase;
+import kodkod.engine.bool.Dimensions;
+
+/**
+ * Tests the concrete matrices of the quantitative evaluator, and that their arithmetic throws on overflow rather
+ * than wrapping, so that the evaluator falls back to the circuits.
+ */
+public class ConcreteMatrixTest extends TestCase {
+
+    private static ConcreteMatrix vector(int size, int[] indices, int value) {
+        return ConcreteMatrix.constant(Dimensions.square(size, 1), false, indices, value);
+    }
+
+    public void testCross() {
+        final ConcreteMatrix m = vector(3, new int[] {
+                                                      0, 2
+        }, 3).cross(vector(3, new int[] {
+                                         1
+        }, 5));
+        assertEquals(2, m.density());
+        assertEquals(15, m.get(0 * 3 + 1));
+        assertEquals(15, m.get(2 * 3 + 1));
+        assertEquals(0, m.get(1 * 3 + 1));
+    }
+
+    public void testCrossOverflow() {
+        final ConcreteMatrix m = vector(2, new int[] {
+                                                      0, 1
+        }, 1 << 20);
+        try {
+            m.cross(m);
+            fail("the product of the weights overflows an int");
+        } catch (ArithmeticException e) {}
+    }
+
+    public void testKhatriRao() {
+        // {(0,1) -> 3} and {(1,1) -> 5} agree on their first column 1
+        final ConcreteMatrix a = ConcreteMatrix.constant(Dimensions.square(2, 2), false, new int[] {
+                                                                                                   1
+        }, 3);
+        final ConcreteMatrix b = ConcreteMatrix.constant(Dimensions.square(2, 2), false, new int[] {
+                                                                                                   3
+        }, 5);
+        final ConcreteMatrix m = a.khatriRao(b);
+        assertEquals(Dimensions.square(2, 3), m.dimensions());
+        assertEquals(1, m.density());
+        assertEquals(15, m.get(3));
+    }
+
+    public void testKhatriRaoOverflow() {
+        final ConcreteMatrix a = ConcreteMatrix.constant(Dimensions.square(2, 2), false, new int[] {
+                                                                                                   1
+        }, 1 << 16);
+        try {
+            a.khatriRao(a);
+            fail("the product of the weights overflows an int");
+        } catch (ArithmeticException e) {}
+    }
+}
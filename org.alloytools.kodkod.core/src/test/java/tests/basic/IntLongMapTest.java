@@ -0,0 +1,107 @@
+package tests.basic;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import kodkod.util.ints.IntLongMap;
+
+/**
+ * Tests the open-addressing int to long map against a HashMap.
+ */
+public class IntLongMapTest extends TestCase {
+
+    private static void assertSame(Map<Integer,Long> expected, IntLongMap map) {
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Integer,Long> e : expected.entrySet()) {
+            assertTrue(map.containsKey(e.getKey()));
+            assertEquals(e.getValue().longValue(), map.get(e.getKey(), -1));
+        }
+        final int[] keys = map.keys();
+        assertEquals(expected.size(), keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            assertTrue(expected.containsKey(keys[i]));
+            assertTrue(i == 0 || keys[i - 1] < keys[i]);
+        }
+    }
+
+    public void testPutAddRemove() {
+        final Random random = new Random(0);
+        final IntLongMap map = new IntLongMap(2);
+        final Map<Integer,Long> expected = new HashMap<Integer,Long>();
+        for (int i = 0; i < 20000; i++) {
+            // few distinct keys, so that the clusters of the table are long and often broken by removals
+            final int key = random.nextInt(300) * 64;
+            final long value = random.nextLong();
+            switch (random.nextInt(3)) {
+                case 0 :
+                    map.put(key, value);
+                    expected.put(key, value);
+                    break;
+                case 1 :
+                    map.add(key, value);
+                    expected.merge(key, value, Long::sum);
+                    break;
+                default :
+                    assertEquals(expected.remove(key) != null, map.remove(key));
+            }
+            assertFalse(map.containsKey(key + 1));
+            assertEquals(7, map.get(key + 1, 7));
+        }
+        assertSame(expected, map);
+        map.clear();
+        assertSame(new HashMap<Integer,Long>(), map);
+    }
+
+    public void testNegativeKeys() {
+        final IntLongMap map = new IntLongMap();
+        assertFalse(map.containsKey(-1));
+        assertEquals(3, map.get(-1, 3));
+        assertFalse(map.remove(-1));
+        try {
+            map.put(-1, 1);
+            fail();
+        } catch (IllegalArgumentException e) {}
+    }
+
+    public void testClone() {
+        final IntLongMap map = new IntLongMap();
+        map.put(1, 10);
+        map.put(2, 20);
+        final IntLongMap clone = map.clone();
+        clone.put(1, 11);
+        clone.remove(2);
+        clone.put(3, 30);
+        assertEquals(10, map.get(1, 0));
+        assertEquals(20, map.get(2, 0));
+        assertFalse(map.containsKey(3));
+        assertEquals(2, clone.size());
+        assertEquals(11, clone.get(1, 0));
+    }
+
+    public void testAddAll() {
+        final IntLongMap a = new IntLongMap(), b = new IntLongMap();
+        for (int i = 0; i < 100; i++) {
+            a.put(2 * i, i);
+            b.put(3 * i, i);
+        }
+        a.addAll(b, false);
+        for (int i = 0; i < 300; i++) {
+            final long expected = (i % 2 == 0 && i < 200 ? i / 2 : 0) + (i % 3 == 0 ? i / 3 : 0);
+            assertEquals(i % 2 == 0 && i < 200 || i % 3 == 0, a.containsKey(i));
+            assertEquals(expected, a.get(i, 0));
+        }
+    }
+
+    public void testDoubles() {
+        final IntLongMap a = new IntLongMap(), b = new IntLongMap();
+        a.addDouble(1, 0.5);
+        a.addDouble(1, 0.25);
+        b.addDouble(1, 1.5);
+        b.addDouble(2, -2.5);
+        a.addAll(b, true);
+        assertEquals(2.25, Double.longBitsToDouble(a.get(1, 0)), 0);
+        assertEquals(-2.5, Double.longBitsToDouble(a.get(2, 0)), 0);
+    }
+}
@@ -0,0 +1,98 @@
+package tests.basic;
+
+import java.math.BigInteger;
+
+import junit.framework.TestCase;
+import kodkod.engine.bool.BooleanConstant;
+import kodkod.engine.bool.BooleanValue;
+import kodkod.engine.num.NumericConstant;
+import kodkod.engine.num.NumericFactory;
+import kodkod.engine.num.NumericValue;
+
+/**
+ * Tests the folding of numeric constants over checked longs, with a BigInteger fallback,
+ * and the sharing and simplification of the gates over non-constant values.
+ */
+public class NumericFactoryTest extends TestCase {
+
+    private NumericFactory f;
+
+    @Override
+    protected void setUp() throws Exception {
+        f = NumericFactory.factory();
+    }
+
+    private static Number value(NumericValue v) {
+        assertTrue(v instanceof NumericConstant);
+        return ((NumericConstant) v).getValue();
+    }
+
+    public void testNarrowestType() {
+        assertEquals(Integer.valueOf(5), f.constant(5L).getValue());
+        assertEquals(Integer.valueOf(5), f.constant(BigInteger.valueOf(5)).getValue());
+        assertEquals(Long.valueOf(1L << 40), f.constant(BigInteger.ONE.shiftLeft(40)).getValue());
+        assertEquals(BigInteger.ONE.shiftLeft(70), f.constant(BigInteger.ONE.shiftLeft(70)).getValue());
+    }
+
+    public void testFoldingWidens() {
+        assertEquals(Long.valueOf(Integer.MAX_VALUE + 1L), value(f.plus(f.constant(Integer.MAX_VALUE), f.constant(1))));
+        assertEquals(Long.valueOf(Integer.MIN_VALUE - 1L), value(f.minus(f.constant(Integer.MIN_VALUE), f.constant(1))));
+        assertEquals(Long.valueOf(1L << 40), value(f.times(f.constant(1 << 20), f.constant(1 << 20))));
+        assertEquals(Long.valueOf(-(long) Integer.MIN_VALUE), value(f.negate(f.constant(Integer.MIN_VALUE))));
+        assertEquals(Long.valueOf(-(long) Integer.MIN_VALUE), value(f.abs(f.constant(Integer.MIN_VALUE))));
+        assertEquals(0, f.overflows());
+    }
+
+    public void testFoldingFallsBackToBigInteger() {
+        final BigInteger max = BigInteger.valueOf(Long.MAX_VALUE);
+        assertEquals(max.add(BigInteger.ONE), value(f.plus(f.constant(Long.MAX_VALUE), f.constant(1))));
+        assertEquals(max.multiply(max), value(f.times(f.constant(Long.MAX_VALUE), f.constant(Long.MAX_VALUE))));
+        assertEquals(2, f.overflows());
+        // and narrows back once the result fits again
+        final NumericValue big = f.plus(f.constant(Long.MAX_VALUE), f.constant(1));
+        assertEquals(Long.valueOf(Long.MAX_VALUE), value(f.minus(big, f.constant(1))));
+    }
+
+    public void testExactComparisons() {
+        // Long.MAX_VALUE and Long.MAX_VALUE - 1 are the same double
+        final NumericConstant a = f.constant(Long.MAX_VALUE), b = f.constant(Long.MAX_VALUE - 1);
+        assertEquals(BooleanConstant.FALSE, f.lt(a, b));
+        assertEquals(BooleanConstant.TRUE, f.gt(a, b));
+        assertEquals(BooleanConstant.FALSE, f.eq(a, b));
+        assertEquals(Long.valueOf(Long.MAX_VALUE - 1), value(f.minimum(a, b)));
+        assertEquals(Long.valueOf(Long.MAX_VALUE), value(f.maximum(a, b)));
+    }
+
+    public void testGatesAreShared() {
+        final NumericValue x = f.freshVariable(), y = f.freshVariable();
+        final BooleanValue a = f.gt(x, f.constant(0)), b = f.lt(y, f.constant(2));
+        assertSame(a, f.gt(x, f.constant(0)));
+        assertSame(f.eq(x, y), f.eq(x, y));
+        assertSame(f.lte(x, y), f.lte(x, y));
+        assertSame(f.and(a, b), f.and(a, b));
+        assertSame(f.or(a, b), f.or(a, b));
+        // the order of the operands does not change the gate
+        assertSame(f.and(a, b), f.and(b, a));
+        assertSame(f.or(a, b), f.or(b, a));
+        assertNotSame(f.and(a, b), f.or(a, b));
+    }
+
+    public void testGatesAreSimplified() {
+        final NumericValue x = f.freshVariable(), y = f.freshVariable();
+        final BooleanValue a = f.gt(x, f.constant(0)), b = f.lt(y, f.constant(2));
+        assertSame(a, f.and(a, a));
+        assertSame(a, f.or(a, a));
+        assertEquals(BooleanConstant.FALSE, f.and(a, a.negation()));
+        assertEquals(BooleanConstant.FALSE, f.and(a.negation(), a));
+        assertEquals(BooleanConstant.TRUE, f.or(a, a.negation()));
+        assertEquals(BooleanConstant.TRUE, f.or(a.negation(), a));
+        // absorption
+        assertSame(a, f.and(a, f.or(a, b)));
+        assertSame(a, f.and(f.or(b, a), a));
+        assertSame(a, f.or(a, f.and(a, b)));
+        assertSame(a, f.or(f.and(b, a), a));
+        // f op (f op g) = f op g
+        assertSame(f.and(a, b), f.and(a, f.and(a, b)));
+        assertSame(f.or(a, b), f.or(f.or(a, b), b));
+    }
+}
@@ -0,0 +1,207 @@
+package tests.basic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import kodkod.ast.Expression;
+import kodkod.ast.Formula;
+import kodkod.ast.IntConstant;
+import kodkod.ast.Relation;
+import kodkod.engine.Solution;
+import kodkod.engine.Solver;
+import kodkod.engine.config.QuantitativeOptions;
+import kodkod.engine.config.QuantitativeOptions.Enumeration;
+import kodkod.instance.Bounds;
+import kodkod.instance.Instance;
+import kodkod.instance.QtTupleSet;
+import kodkod.instance.TupleSet;
+import kodkod.instance.Universe;
+
+/**
+ * Tests the enumeration of the solutions of a small weighted problem: the number of distinct solutions under
+ * each enumeration mode and projection, and that a parallel enumeration over cubes, or ahead of the consumer,
+ * yields the same solutions as the sequential one.
+ */
+public class QTEnumerationTest extends TestCase {
+
+    // No weight of r exceeds MAX, and r weighs at most SUM
+    private static final int MAX = 3, SUM = 4;
+
+    private QuantitativeOptions options;
+    private Universe            universe;
+    private Relation            r, s;
+    private Bounds              bounds;
+    private Formula             formula;
+
+    @Override
+    protected void setUp() throws Exception {
+        options = QtTestUtils.yices(MAX);
+        universe = new Universe("a", "b", "c");
+        r = Relation.quantitative_nary("r", 1);
+        s = Relation.unary("s");
+        bounds = new Bounds(universe);
+        bounds.bound(r, universe.factory().allOf(1));
+        bounds.bound(s, universe.factory().allOf(1));
+        // weights may be negative, unless bounded below
+        formula = r.gte(Expression.NONE).and(r.count().lte(IntConstant.constant(SUM))).and(s.in(r.drop()));
+    }
+
+    /**
+     * @return the weight of each atom in r, in the given instance
+     */
+    private long[] weights(Instance instance) {
+        final long[] ans = new long[universe.size()];
+        final TupleSet tuples = instance.tuples(r);
+        for (int i = 0; i < ans.length; i++)
+            if (tuples.indexView().contains(i))
+                ans[i] = tuples instanceof QtTupleSet ? ((QtTupleSet) tuples).getWeight(i).longValue() : 1;
+        return ans;
+    }
+
+    /**
+     * @return how the given weights are told apart under the given mode
+     */
+    private static String view(long[] weights, Enumeration mode, int width) {
+        final long[] ans = new long[weights.length];
+        for (int i = 0; i < weights.length; i++)
+            if (weights[i] == 0)
+                ans[i] = -1;
+            else
+                ans[i] = mode == Enumeration.MODEL ? weights[i] : mode == Enumeration.SKELETON ? 0 : weights[i] / width;
+        return Arrays.toString(ans);
+    }
+
+    /**
+     * @return the weights of r in every solution, as computed by enumerating them
+     */
+    private static List<long[]> weightings() {
+        final List<long[]> ans = new ArrayList<long[]>();
+        for (int a = 0; a <= MAX; a++)
+            for (int b = 0; b <= MAX; b++)
+                for (int c = 0; c <= MAX; c++)
+                    if (a + b + c <= SUM)
+                        ans.add(new long[] {
+                                            a, b, c
+                        });
+        return ans;
+    }
+
+    /**
+     * @return the views of the weights of r in every solution, under the given mode
+     */
+    private static Set<String> expected(Enumeration mode, int width) {
+        final Set<String> ans = new HashSet<String>();
+        for (long[] weights : weightings())
+            ans.add(view(weights, mode, width));
+        return ans;
+    }
+
+    /**
+     * Enumerates the solutions under the given options, and returns the views of the weights of r in each one,
+     * which are all distinct.
+     */
+    private Set<String> enumerate(QuantitativeOptions options, int width) {
+        final Set<String> ans = new HashSet<String>();
+        final Iterator<Solution> solutions = new Solver().solveAll(formula, bounds, options);
+        while (true) {
+            final Solution sol = solutions.next();
+            if (!sol.sat())
+                break;
+            final String view = view(weights(sol.instance()), options.enumeration(), width);
+            assertTrue("enumerated twice: " + view, ans.add(view));
+        }
+        assertFalse(solutions.hasNext());
+        return ans;
+    }
+
+    private QuantitativeOptions projected(Enumeration mode, int width) {
+        final QuantitativeOptions ans = options.clone();
+        ans.setProjection(Collections.singleton(r));
+        ans.setEnumeration(mode);
+        ans.setBucketWidth(width);
+        return ans;
+    }
+
+    public void testModel() {
+        if (options == null)
+            return;
+        // s is any subset of the atoms of r
+        int expected = 0;
+        for (long[] weights : weightings()) {
+            int present = 0;
+            for (long w : weights)
+                if (w > 0)
+                    present++;
+            expected += 1 << present;
+        }
+        assertEquals(expected, QtTestUtils.instances(new Solver().solveAll(formula, bounds, options), r, s).size());
+    }
+
+    public void testProjection() {
+        if (options == null)
+            return;
+        assertEquals(expected(Enumeration.MODEL, 1), enumerate(projected(Enumeration.MODEL, 1), 1));
+    }
+
+    public void testSkeleton() {
+        if (options == null)
+            return;
+        final Set<String> skeletons = enumerate(projected(Enumeration.SKELETON, 1), 1);
+        // r may be any set of atoms, since each weighs at least 1
+        assertEquals(8, skeletons.size());
+        assertEquals(expected(Enumeration.SKELETON, 1), skeletons);
+    }
+
+    public void testBuckets() {
+        if (options == null)
+            return;
+        assertEquals(expected(Enumeration.BUCKETS, 2), enumerate(projected(Enumeration.BUCKETS, 2), 2));
+        // a bucket as wide as the weights tells the same solutions apart as the skeleton
+        assertEquals(expected(Enumeration.SKELETON, 1).size(), enumerate(projected(Enumeration.BUCKETS, MAX + 1), MAX + 1).size());
+    }
+
+    public void testLookAhead() {
+        if (options == null)
+            return;
+        final QuantitativeOptions ahead = options.clone();
+        ahead.setLookAhead(2);
+        assertEquals(QtTestUtils.instances(new Solver().solveAll(formula, bounds, options), r, s), QtTestUtils.instances(new Solver().solveAll(formula, bounds, ahead), r, s));
+    }
+
+    public void testCubes() {
+        if (options == null)
+            return;
+        final Set<String> sequential = QtTestUtils.instances(new Solver().solveAll(formula, bounds, options), r, s);
+        for (int split = 1; split <= 3; split++) {
+            final QuantitativeOptions cubes = options.clone();
+            cubes.setSplitVariables(split);
+            cubes.setParallelism(2);
+            assertEquals(sequential, QtTestUtils.instances(new Solver().solveAll(formula, bounds, cubes), r, s));
+        }
+        // and within the projection
+        final QuantitativeOptions cubes = projected(Enumeration.SKELETON, 1);
+        cubes.setSplitVariables(2);
+        cubes.setParallelism(3);
+        final Set<String> skeletons = new HashSet<String>();
+        for (String key : QtTestUtils.instances(new Solver().solveAll(formula, bounds, cubes), r))
+            assertTrue(skeletons.add(key.replaceAll(", [0-9]+\\)", ")")));
+        assertEquals(8, skeletons.size());
+    }
+
+    public void testUnsatCubes() {
+        if (options == null)
+            return;
+        final QuantitativeOptions cubes = options.clone();
+        cubes.setSplitVariables(2);
+        cubes.setParallelism(2);
+        final Iterator<Solution> solutions = new Solver().solveAll(formula.and(r.count().gt(IntConstant.constant(3 * MAX))), bounds, cubes);
+        assertFalse(solutions.next().sat());
+        assertFalse(solutions.hasNext());
+    }
+}
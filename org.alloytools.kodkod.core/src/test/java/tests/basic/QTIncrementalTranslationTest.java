@@ -0,0 +1,131 @@
+package tests.basic;
+
+import junit.framework.TestCase;
+import kodkod.ast.Formula;
+import kodkod.ast.IntConstant;
+import kodkod.ast.Relation;
+import kodkod.engine.Solver;
+import kodkod.engine.config.QuantitativeOptions;
+import kodkod.engine.fol2sat.Translator;
+import kodkod.engine.num2common.QuantitativeTranslation;
+import kodkod.instance.Bounds;
+import kodkod.instance.Instance;
+import kodkod.instance.Universe;
+
+/**
+ * Tests that the incremental translation of a quantitative problem, with formulas added on scopes that are
+ * pushed and popped, gives the same answers as the translation of the whole problem from scratch.
+ */
+public class QTIncrementalTranslationTest extends TestCase {
+
+    private QuantitativeOptions options;
+    private Universe            universe;
+    private Relation            r, s;
+    private Bounds              bounds;
+
+    @Override
+    protected void setUp() throws Exception {
+        options = QtTestUtils.yices(2);
+        universe = new Universe("a", "b", "c");
+        r = Relation.quantitative_nary("r", 1);
+        s = Relation.unary("s");
+        bounds = new Bounds(universe);
+        bounds.bound(r, universe.factory().allOf(1));
+    }
+
+    /** @return whether the given formula is satisfiable wrt the given bounds, as translated from scratch */
+    private boolean scratch(Formula formula, Bounds bounds) {
+        return new Solver().solve(formula, bounds, options).sat();
+    }
+
+    /** @return whether the given translation is satisfiable */
+    private boolean solve(QuantitativeTranslation.Incremental translation) {
+        return translation.solver().solve();
+    }
+
+    public void testPushPop() {
+        if (options == null)
+            return;
+        final Formula base = r.some();
+        final Formula added = r.count().gte(IntConstant.constant(5));
+        final Formula pushed = r.count().gt(IntConstant.constant(6));
+
+        QuantitativeTranslation.Incremental translation = Translator.translateIncremental(base, bounds, options);
+        try {
+            assertTrue(scratch(base, bounds));
+            assertTrue(solve(translation));
+
+            // the added formula relates a new relation to r
+            final Bounds inc = new Bounds(universe);
+            inc.bound(s, universe.factory().allOf(1));
+            final Formula related = s.eq(r.drop()).and(s.count().eq(IntConstant.constant(3)));
+            translation = Translator.translateIncremental(added.and(related), inc, translation);
+            final Bounds all = bounds.clone();
+            all.bound(s, universe.factory().allOf(1));
+            assertTrue(scratch(base.and(added).and(related), all));
+            assertTrue(solve(translation));
+            Instance instance = translation.interpret();
+            assertTrue(QtTestUtils.weight(instance, r) >= 5);
+            assertEquals(3, instance.tuples(s).size());
+
+            // no weight exceeds 2, so r weighs at most 6
+            translation.push();
+            translation = Translator.translateIncremental(pushed, new Bounds(universe), translation);
+            assertFalse(scratch(base.and(added).and(related).and(pushed), all));
+            assertFalse(solve(translation));
+
+            translation.pop();
+            assertTrue(solve(translation));
+            instance = translation.interpret();
+            assertTrue(QtTestUtils.weight(instance, r) >= 5);
+
+            // a scope may be pushed again, over the same formulas
+            translation.push();
+            translation = Translator.translateIncremental(r.count().eq(IntConstant.constant(6)), new Bounds(universe), translation);
+            assertTrue(solve(translation));
+            assertEquals(6, QtTestUtils.weight(translation.interpret(), r));
+            translation.pop();
+            assertTrue(solve(translation));
+        } finally {
+            translation.solver().free();
+        }
+    }
+
+    public void testTriviallyTrueBase() {
+        if (options == null)
+            return;
+        QuantitativeTranslation.Incremental translation = Translator.translateIncremental(Formula.TRUE, bounds, options);
+        try {
+            assertTrue(translation.trivial());
+            assertTrue(solve(translation));
+
+            // the base is translated again, together with the added formula
+            translation = Translator.translateIncremental(r.count().eq(IntConstant.constant(4)), new Bounds(universe), translation);
+            assertFalse(translation.trivial());
+            assertTrue(solve(translation));
+            assertEquals(4, QtTestUtils.weight(translation.interpret(), r));
+
+            translation.push();
+            translation = Translator.translateIncremental(r.one(), new Bounds(universe), translation);
+            assertEquals(scratch(r.count().eq(IntConstant.constant(4)).and(r.one()), bounds), solve(translation));
+            assertFalse(solve(translation));
+            translation.pop();
+            assertTrue(solve(translation));
+        } finally {
+            translation.solver().free();
+        }
+    }
+
+    public void testFalseFormula() {
+        if (options == null)
+            return;
+        QuantitativeTranslation.Incremental translation = Translator.translateIncremental(r.some(), bounds, options);
+        try {
+            translation = Translator.translateIncremental(Formula.FALSE, new Bounds(universe), translation);
+            assertFalse(scratch(r.some().and(Formula.FALSE), bounds));
+            assertFalse(solve(translation));
+        } finally {
+            translation.solver().free();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package tests.basic;
+
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+import kodkod.ast.Expression;
+import kodkod.ast.Formula;
+import kodkod.ast.IntConstant;
+import kodkod.ast.IntExpression;
+import kodkod.ast.Relation;
+import kodkod.engine.QTSolutionIterator;
+import kodkod.engine.Solution;
+import kodkod.engine.Solver;
+import kodkod.engine.config.QuantitativeOptions;
+import kodkod.engine.config.QuantitativeOptions.QuantitativeSolver;
+import kodkod.engine.fol2num.FOL2NumTranslator;
+import kodkod.engine.fol2sat.Translator;
+import kodkod.engine.num.NumericMatrix;
+import kodkod.engine.num2common.QuantitativeTranslation;
+import kodkod.engine.num2smt.SMT2Solver;
+import kodkod.instance.Bounds;
+import kodkod.instance.Universe;
+import kodkod.util.nodes.AnnotatedNode;
+
+/**
+ * Tests that the solutions found by {@link Solver#optimize} have the known optimum of their objective, when
+ * minimising and when maximising, over each solver that can be run here: natively, by Z3, and otherwise by
+ * bounding the objective.
+ */
+public class QTOptimizerTest extends TestCase {
+
+    // No weight of r exceeds MAX
+    private static final int MAX = 3;
+
+    private Universe         universe;
+    private Relation         r;
+    private Bounds           bounds;
+    // r has no negative weights
+    private Formula          natural;
+
+    @Override
+    protected void setUp() throws Exception {
+        universe = new Universe("a", "b", "c");
+        r = Relation.quantitative_nary("r", 1);
+        bounds = new Bounds(universe);
+        bounds.bound(r, universe.factory().allOf(1));
+        natural = r.gte(Expression.NONE);
+    }
+
+    /**
+     * @return whether the given formula is satisfiable, as found by an enumeration that is then closed
+     */
+    private boolean sat(Formula formula, QuantitativeOptions options) {
+        final Iterator<Solution> solutions = new Solver().solveAll(formula, bounds, options);
+        try {
+            return solutions.next().sat();
+        } finally {
+            ((QTSolutionIterator) solutions).close();
+        }
+    }
+
+    /**
+     * Optimises the given objective, which is offset minus the weight of r, or the weight of r itself if the
+     * offset is null, subject to the given formula, and checks that its optimum is the expected one, and that
+     * no solution does better.
+     */
+    private void assertOptimum(Formula formula, Integer offset, boolean minimize, long expected) {
+        final IntExpression objective = offset == null ? r.count() : IntConstant.constant(offset).minus(r.count());
+        for (QuantitativeOptions options : QtTestUtils.solvers(MAX)) {
+            final Solution sol = new Solver().optimize(formula, bounds, objective, minimize, options);
+            assertTrue(sol.sat());
+            final long weight = QtTestUtils.weight(sol.instance(), r);
+            assertEquals(options.solver().toString(), expected, offset == null ? weight : offset - weight);
+            final IntConstant optimum = IntConstant.constant((int) expected);
+            assertFalse(sat(formula.and(minimize ? objective.lt(optimum) : objective.gt(optimum)), options));
+        }
+    }
+
+    public void testMinimize() {
+        assertOptimum(natural.and(r.count().gte(IntConstant.constant(4))), null, true, 4);
+        assertOptimum(natural.and(r.some()), null, true, 1);
+    }
+
+    public void testMaximize() {
+        assertOptimum(natural, null, false, 3 * MAX);
+        assertOptimum(natural.and(r.lone()), null, false, MAX);
+        // the formula is trivially true, so the bounds on the objective are translated on their own
+        assertOptimum(Formula.TRUE, null, false, 3 * MAX);
+    }
+
+    public void testNegativeOptimum() {
+        // 2 minus the weight of r, which is at most 9
+        assertOptimum(natural, 2, true, 2 - 3 * MAX);
+        // the weights of r may be negative, down to -5 in all
+        assertOptimum(r.count().gte(IntConstant.constant(-5)), null, true, -5);
+        assertOptimum(natural.and(r.count().gte(IntConstant.constant(5))), 0, false, -5);
+    }
+
+    public void testConstantObjective() {
+        for (QuantitativeOptions options : QtTestUtils.solvers(MAX)) {
+            final Formula formula = natural.and(r.count().eq(IntConstant.constant(5)));
+            final Solution sol = new Solver().optimize(formula, bounds, IntConstant.constant(7), true, options);
+            assertTrue(sol.sat());
+            assertEquals(5, QtTestUtils.weight(sol.instance(), r));
+        }
+    }
+
+    public void testUnsat() {
+        for (QuantitativeOptions options : QtTestUtils.solvers(MAX)) {
+            final Formula formula = natural.and(r.count().gt(IntConstant.constant(3 * MAX)));
+            assertFalse(new Solver().optimize(formula, bounds, r.count(), true, options).sat());
+            assertFalse(new Solver().optimize(formula, bounds, IntConstant.constant(7), false, options).sat());
+        }
+    }
+
+    public void testNativeObjective() {
+        // the objective is handed to Z3 on a scope of its own, which is checked without running Z3
+        final QuantitativeOptions options = new QuantitativeOptions(QuantitativeSolver.Z3, "z3", MAX, true);
+        final QuantitativeTranslation.Incremental translation = Translator.translateIncremental(natural, bounds, options);
+        try {
+            final SMT2Solver solver = (SMT2Solver) translation.solver();
+            assertTrue(solver.optimizes());
+            final NumericMatrix objective = FOL2NumTranslator.simpleTranslate(AnnotatedNode.annotate(IntConstant.constant(2).minus(r.count())), translation.interpreter());
+            translation.push();
+            translation.incrementer().optimize(objective.getFirst(), false);
+            final String spec = solver.getSMTSpecification();
+            assertTrue(spec.contains("(maximize "));
+            assertTrue(spec.indexOf("(push 1)") < spec.indexOf("(maximize "));
+            translation.pop();
+            assertTrue(solver.getSMTSpecification().endsWith("(pop 1)\n"));
+        } finally {
+            translation.solver().free();
+        }
+        // and Yices does not optimise natively
+        if (QtTestUtils.yices(MAX) != null) {
+            final QuantitativeTranslation.Incremental bounded = Translator.translateIncremental(natural, bounds, QtTestUtils.yices(MAX));
+            try {
+                assertFalse(((SMT2Solver) bounded.solver()).optimizes());
+                final NumericMatrix objective = FOL2NumTranslator.simpleTranslate(AnnotatedNode.annotate(r.count()), bounded.interpreter());
+                bounded.incrementer().optimize(objective.getFirst(), true);
+                fail("Yices does not support objectives");
+            } catch (IllegalStateException ex) {
+                // expected
+            } finally {
+                bounded.solver().free();
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package tests.basic;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import kodkod.ast.Expression;
+import kodkod.ast.Formula;
+import kodkod.ast.IntConstant;
+import kodkod.ast.Relation;
+import kodkod.engine.QTScopedSolver;
+import kodkod.engine.Solution;
+import kodkod.engine.Solver;
+import kodkod.engine.config.QuantitativeOptions;
+import kodkod.instance.Bounds;
+import kodkod.instance.Universe;
+
+/**
+ * Tests that the checks and enumerations of a {@link QTScopedSolver}, over scopes of a shared solver, give the
+ * same solutions as solving each formula from scratch, also when an enumeration is evicted by another check.
+ */
+public class QTScopedSolverTest extends TestCase {
+
+    private QuantitativeOptions options;
+    private Universe            universe;
+    private Relation            r, s;
+    private Bounds              bounds;
+    private Formula             base;
+    private QTScopedSolver      session;
+
+    @Override
+    protected void setUp() throws Exception {
+        options = QtTestUtils.yices(2);
+        universe = new Universe("a", "b", "c");
+        r = Relation.quantitative_nary("r", 1);
+        s = Relation.unary("s");
+        bounds = new Bounds(universe);
+        bounds.bound(r, universe.factory().allOf(1));
+        bounds.bound(s, universe.factory().allOf(1));
+        // weights may be negative, unless bounded below
+        base = r.gte(Expression.NONE).and(r.some()).and(s.in(r.drop()));
+        if (options != null)
+            session = QTScopedSolver.solver(base, bounds, options);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (session != null)
+            session.free();
+    }
+
+    /**
+     * @return the instances of {@code base && goal}, as enumerated from scratch
+     */
+    private Set<String> scratch(Formula base, Formula goal) {
+        return QtTestUtils.instances(new Solver().solveAll(base.and(goal), bounds, options), r, s);
+    }
+
+    /**
+     * Takes the next solution of the given enumeration, which is satisfiable, and adds the key of its instance
+     * to the given ones, where it was not yet.
+     */
+    private void take(Iterator<Solution> solutions, Set<String> keys) {
+        assertTrue(solutions.hasNext());
+        final Solution sol = solutions.next();
+        assertTrue(sol.sat());
+        assertTrue(keys.add(QtTestUtils.key(sol.instance(), r, s)));
+    }
+
+    /**
+     * Takes the remaining solutions of the given enumeration, and adds the keys of their instances to the given
+     * ones, where none of them was yet.
+     */
+    private void drain(Iterator<Solution> solutions, Set<String> keys) {
+        for (String key : QtTestUtils.instances(solutions, r, s))
+            assertTrue("enumerated twice: " + key, keys.add(key));
+    }
+
+    public void testSolve() {
+        if (options == null)
+            return;
+        final Formula light = r.count().lte(IntConstant.constant(2));
+        final Formula heavy = r.count().gte(IntConstant.constant(6));
+        session.prepare();
+        assertTrue(session.solve(light).sat());
+        assertTrue(session.solve(heavy).sat());
+        // the goals do not stay asserted
+        assertTrue(session.solve(light).sat());
+        assertFalse(session.solve(light.and(heavy)).sat());
+        assertTrue(session.solve(Formula.TRUE).sat());
+    }
+
+    public void testEnumeration() {
+        if (options == null)
+            return;
+        final Formula goal = r.count().lte(IntConstant.constant(2));
+        final Set<String> found = new LinkedHashSet<String>();
+        drain(session.solveAll(goal), found);
+        assertEquals(scratch(base, goal), found);
+        // a goal that adds nothing is enumerated on a scope of its own
+        found.clear();
+        drain(session.solveAll(Formula.TRUE), found);
+        assertEquals(scratch(base, Formula.TRUE), found);
+    }
+
+    public void testEvicted() {
+        if (options == null)
+            return;
+        final Formula light = r.count().lte(IntConstant.constant(2));
+        final Formula heavy = r.count().gte(IntConstant.constant(5));
+
+        // a check evicts the enumeration, which carries on by itself
+        final Set<String> lights = new LinkedHashSet<String>();
+        final Iterator<Solution> first = session.solveAll(light);
+        take(first, lights);
+        take(first, lights);
+        assertTrue(session.solve(heavy).sat());
+        drain(first, lights);
+        assertEquals(scratch(base, light), lights);
+
+        // two enumerations, interleaved, where the second one evicts the first
+        lights.clear();
+        final Set<String> heavies = new LinkedHashSet<String>();
+        final Iterator<Solution> second = session.solveAll(light), third = session.solveAll(heavy);
+        take(second, lights);
+        take(third, heavies);
+        take(second, lights);
+        take(third, heavies);
+        drain(second, lights);
+        drain(third, heavies);
+        assertEquals(scratch(base, light), lights);
+        assertEquals(scratch(base, heavy), heavies);
+
+        // the live solver is left as it was
+        assertFalse(session.solve(light.and(heavy)).sat());
+        assertTrue(session.solve(heavy).sat());
+    }
+
+    public void testUnsatThenSat() {
+        if (options == null)
+            return;
+        // no weight exceeds 2, so r weighs at most 6
+        final Iterator<Solution> unsat = session.solveAll(r.count().gt(IntConstant.constant(6)));
+        assertFalse(unsat.next().sat());
+        assertFalse(unsat.hasNext());
+
+        final Formula goal = r.count().eq(IntConstant.constant(6));
+        final Set<String> found = new LinkedHashSet<String>();
+        drain(session.solveAll(goal), found);
+        assertEquals(scratch(base, goal), found);
+        // every atom weighs 2, and s is any subset of them
+        assertEquals(8, found.size());
+    }
+
+    public void testTriviallyTrueBase() {
+        if (options == null)
+            return;
+        session.free();
+        session = QTScopedSolver.solver(Formula.TRUE, bounds, options);
+        assertTrue(session.solve(Formula.TRUE).sat());
+
+        // no solver is kept alive, so each goal that is not trivial is solved from scratch
+        final Formula goal = r.gte(Expression.NONE).and(r.count().eq(IntConstant.constant(2))).and(s.no());
+        final Set<String> found = new LinkedHashSet<String>();
+        drain(session.solveAll(goal), found);
+        assertEquals(scratch(Formula.TRUE, goal), found);
+        assertFalse(session.solve(r.count().gt(IntConstant.constant(6))).sat());
+        assertTrue(session.solve(r.count().eq(IntConstant.constant(6))).sat());
+    }
+
+    public void testClosed() throws Exception {
+        if (options == null)
+            return;
+        final Formula light = r.count().lte(IntConstant.constant(2));
+        final Iterator<Solution> first = session.solveAll(light);
+        take(first, new LinkedHashSet<String>());
+        ((AutoCloseable) first).close();
+        assertFalse(first.hasNext());
+        // its scope is popped, so the solutions it blocked are found again
+        final Set<String> found = new LinkedHashSet<String>();
+        drain(session.solveAll(light), found);
+        assertEquals(scratch(base, light), found);
+    }
+}
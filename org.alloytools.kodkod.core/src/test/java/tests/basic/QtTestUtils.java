@@ -0,0 +1,108 @@
+package tests.basic;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import kodkod.ast.Relation;
+import kodkod.engine.Solution;
+import kodkod.engine.config.QuantitativeOptions;
+import kodkod.engine.config.QuantitativeOptions.QuantitativeSolver;
+import kodkod.instance.Instance;
+import kodkod.instance.QtTupleSet;
+import kodkod.instance.TupleSet;
+
+/**
+ * Options and helpers for the tests that solve quantitative problems. These run the Yices binary
+ * shipped with the native solvers (or the one given by the kodkod.yices property), and pass
+ * vacuously where it cannot be run.
+ */
+public class QtTestUtils {
+
+    private static String os() {
+        final String os = System.getProperty("os.name").toLowerCase();
+        return os.startsWith("windows") ? "windows" : os.startsWith("mac") ? "mac" : "linux";
+    }
+
+    /**
+     * @return the given binary, if it can be run here, or else null
+     */
+    private static String executable(String binary) {
+        return binary != null && new File(binary).canExecute() ? binary : null;
+    }
+
+    /**
+     * Returns incremental options over Yices, with the given maximum weight, or null if Yices cannot be run here.
+     */
+    public static QuantitativeOptions yices(Integer maximumWeight) {
+        final String binary = executable(System.getProperty("kodkod.yices", "../org.alloytools.kodkod.nativesat/bin/yices/yices_" + os()));
+        return binary == null ? null : new QuantitativeOptions(QuantitativeSolver.Yices, binary, maximumWeight, true);
+    }
+
+    /**
+     * Returns incremental options over Z3, with the given maximum weight, or null if the kodkod.z3 property
+     * does not give a Z3 binary that can be run here.
+     */
+    public static QuantitativeOptions z3(Integer maximumWeight) {
+        final String binary = executable(System.getProperty("kodkod.z3"));
+        return binary == null ? null : new QuantitativeOptions(QuantitativeSolver.Z3, binary, maximumWeight, true);
+    }
+
+    /**
+     * Returns the options over each solver that can be run here, with the given maximum weight.
+     */
+    public static List<QuantitativeOptions> solvers(Integer maximumWeight) {
+        final List<QuantitativeOptions> ans = new ArrayList<QuantitativeOptions>();
+        if (yices(maximumWeight) != null)
+            ans.add(yices(maximumWeight));
+        if (z3(maximumWeight) != null)
+            ans.add(z3(maximumWeight));
+        return ans;
+    }
+
+    /**
+     * Returns the tuples of the given relations in the given instance, with their weights, if any.
+     */
+    public static String key(Instance instance, Relation... relations) {
+        final StringBuilder ans = new StringBuilder();
+        for (Relation r : relations)
+            ans.append(r.name()).append('=').append(instance.tuples(r)).append(' ');
+        return ans.toString();
+    }
+
+    /**
+     * Returns the sum of the weights of the given relation in the given instance, or its size, if it has no weights.
+     */
+    public static long weight(Instance instance, Relation r) {
+        final TupleSet tuples = instance.tuples(r);
+        if (!(tuples instanceof QtTupleSet))
+            return tuples.size();
+        long ans = 0;
+        for (int i : ((QtTupleSet) tuples).indexView().toArray())
+            ans += ((QtTupleSet) tuples).getWeight(i).longValue();
+        return ans;
+    }
+
+    /**
+     * Takes the solutions of the given enumeration, which are all satisfiable but the last one, and returns the
+     * keys of their instances, over the given relations, which are all distinct.
+     */
+    public static Set<String> instances(Iterator<Solution> solutions, Relation... relations) {
+        final Set<String> ans = new LinkedHashSet<String>();
+        while (true) {
+            assertTrue(solutions.hasNext());
+            final Solution sol = solutions.next();
+            if (!sol.sat())
+                break;
+            assertTrue("enumerated twice: " + key(sol.instance(), relations), ans.add(key(sol.instance(), relations)));
+        }
+        assertFalse(solutions.hasNext());
+        return ans;
+    }
+}
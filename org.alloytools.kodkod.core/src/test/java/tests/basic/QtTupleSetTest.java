@@ -0,0 +1,110 @@
+package tests.basic;
+
+import junit.framework.TestCase;
+import kodkod.instance.QtTupleSet;
+import kodkod.instance.TupleFactory;
+import kodkod.instance.TupleSet;
+import kodkod.instance.Universe;
+
+/**
+ * Tests the weights of quantitative tuple sets, and that clones and views share them as documented.
+ */
+public class QtTupleSetTest extends TestCase {
+
+    private TupleFactory f;
+
+    @Override
+    protected void setUp() throws Exception {
+        f = new Universe("a", "b", "c").factory();
+    }
+
+    private QtTupleSet set(Object... atomsAndWeights) {
+        final QtTupleSet ans = f.noneOfQt(1);
+        for (int i = 0; i < atomsAndWeights.length; i += 2)
+            ans.add(f.tuple(atomsAndWeights[i]), (Number) atomsAndWeights[i + 1]);
+        return ans;
+    }
+
+    private int index(Object atom) {
+        return f.tuple(atom).index();
+    }
+
+    public void testWeights() {
+        final QtTupleSet s = set("a", 2, "b", 1.5, "c", 1L << 40);
+        assertEquals(Integer.valueOf(2), s.getWeight(index("a")));
+        assertEquals(Double.valueOf(1.5), s.getWeight(index("b")));
+        assertEquals(Long.valueOf(1L << 40), s.getWeight(index("c")));
+        // an integral weight that fits an int is an Integer, however it was given
+        s.add(f.tuple("c"), 3L);
+        assertEquals(Integer.valueOf(3), s.getWeight(index("c")));
+        // a weight changes kind with its value
+        s.add(f.tuple("a"), 0.5);
+        assertEquals(Double.valueOf(0.5), s.getWeight(index("a")));
+        assertEquals(3, s.size());
+    }
+
+    public void testCloneIsCopyOnWrite() {
+        final QtTupleSet s = set("a", 2, "b", 3);
+        final QtTupleSet c = s.clone();
+        c.add(f.tuple("a"), 5);
+        c.add(index("c"), 7L);
+        assertEquals(Integer.valueOf(2), s.getWeight(index("a")));
+        assertNull(s.getWeight(index("c")));
+        assertEquals(2, s.size());
+        assertEquals(Integer.valueOf(5), c.getWeight(index("a")));
+        assertEquals(Integer.valueOf(7), c.getWeight(index("c")));
+
+        // modifying the original after a clone leaves the clone alone as well
+        final QtTupleSet d = s.clone();
+        s.add(index("b"), 2.5);
+        assertEquals(Integer.valueOf(3), d.getWeight(index("b")));
+        assertEquals(Integer.valueOf(3), c.getWeight(index("b")));
+        assertEquals(Double.valueOf(2.5), s.getWeight(index("b")));
+    }
+
+    public void testUnmodifiableViewReadsThrough() {
+        final QtTupleSet s = set("a", 2);
+        final QtTupleSet v = s.unmodifiableView();
+        s.add(f.tuple("a"), 4);
+        s.add(f.tuple("b"), 1);
+        assertEquals(Integer.valueOf(4), v.getWeight(index("a")));
+        assertEquals(Integer.valueOf(1), v.getWeight(index("b")));
+        assertEquals(2, v.size());
+        // a clone of the original does not disturb the view
+        final QtTupleSet c = s.clone();
+        c.add(f.tuple("a"), 9);
+        assertEquals(Integer.valueOf(4), v.getWeight(index("a")));
+        try {
+            v.add(f.tuple("c"), 1);
+            fail();
+        } catch (UnsupportedOperationException e) {}
+    }
+
+    public void testAddAll() {
+        final QtTupleSet s = set("a", 2, "b", 3);
+        s.addAll(set("b", 4, "c", 5));
+        assertEquals(3, s.size());
+        assertEquals(Integer.valueOf(2), s.getWeight(index("a")));
+        assertEquals(Integer.valueOf(7), s.getWeight(index("b")));
+        assertEquals(Integer.valueOf(5), s.getWeight(index("c")));
+
+        // mixed kinds keep the kind of the weight already present
+        final QtTupleSet r = set("a", 0.5);
+        r.addAll(set("a", 2, "b", 3));
+        assertEquals(Double.valueOf(2.5), r.getWeight(index("a")));
+        assertEquals(Integer.valueOf(3), r.getWeight(index("b")));
+
+        // plain tuples weigh 1
+        final TupleSet plain = f.setOf("a", "c");
+        final QtTupleSet p = set("a", 2);
+        p.addAll(plain);
+        assertEquals(Integer.valueOf(3), p.getWeight(index("a")));
+        assertEquals(Integer.valueOf(1), p.getWeight(index("c")));
+    }
+
+    public void testIntegralWeightsDoNotWrap() {
+        final QtTupleSet s = set("a", Integer.MAX_VALUE);
+        s.addAll(set("a", Integer.MAX_VALUE));
+        assertEquals(Long.valueOf(2L * Integer.MAX_VALUE), s.getWeight(index("a")));
+    }
+}